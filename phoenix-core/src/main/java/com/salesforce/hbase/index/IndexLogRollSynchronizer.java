@@ -39,6 +39,8 @@ import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
 import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 
+import com.salesforce.hbase.index.write.AsyncIndexWriter;
+
 /**
  * Ensure that the log isn't rolled while we are the in middle of doing a pending index write.
  * <p>
@@ -73,15 +75,30 @@ import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
  * </ol>
  * </li> </ol>
  * <p>
+ * If the index updates are written asynchronously by an {@link AsyncIndexWriter}, the updates are
+ * still pending after the postXXX hook released the lock, so we also drain the writer once we have
+ * the lock (and no new updates can be enqueued) before letting the WAL be archived.
+ * <p>
  * <tt>this</tt> should be added as a {@link WALActionsListener} by updating
  */
 public class IndexLogRollSynchronizer implements WALActionsListener {
 
   private static final Log LOG = LogFactory.getLog(IndexLogRollSynchronizer.class);
   private WriteLock logArchiveLock;
+  private AsyncIndexWriter asyncWriter;
 
   public IndexLogRollSynchronizer(WriteLock logWriteLock){
+    this(logWriteLock, null);
+  }
+
+  /**
+   * @param logWriteLock lock to take before archiving a WAL
+   * @param asyncWriter writer to drain before archiving a WAL, or <tt>null</tt> if the index updates
+   *          are written synchronously
+   */
+  public IndexLogRollSynchronizer(WriteLock logWriteLock, AsyncIndexWriter asyncWriter) {
     this.logArchiveLock = logWriteLock;
+    this.asyncWriter = asyncWriter;
   }
 
 
@@ -91,6 +108,11 @@ public class IndexLogRollSynchronizer implements WALActionsListener {
     LOG.debug("Taking INDEX_UPDATE writelock");
     logArchiveLock.lock();
     LOG.debug("Got the INDEX_UPDATE writelock");
+    if (asyncWriter != null) {
+      // the WAL being archived may contain updates that are still waiting to be written
+      LOG.debug("Flushing pending async index updates");
+      asyncWriter.flush();
+    }
   }
   
   @Override
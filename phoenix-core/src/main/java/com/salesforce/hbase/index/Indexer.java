@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -47,6 +48,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Coprocessor;
 import org.apache.hadoop.hbase.CoprocessorEnvironment;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HConstants.OperationStatusCode;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
@@ -57,16 +59,20 @@ import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
 import org.apache.hadoop.hbase.coprocessor.ObserverContext;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.InternalScanner;
 import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
 import org.apache.hadoop.hbase.regionserver.MiniBatchOperationInProgress;
+import org.apache.hadoop.hbase.regionserver.OperationStatus;
 import org.apache.hadoop.hbase.regionserver.ScanType;
 import org.apache.hadoop.hbase.regionserver.Store;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.salesforce.hbase.index.builder.IndexBuildManager;
 import com.salesforce.hbase.index.builder.IndexBuilder;
@@ -75,6 +81,7 @@ import com.salesforce.hbase.index.table.HTableInterfaceReference;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.hbase.index.util.IndexManagementUtil;
 import com.salesforce.hbase.index.wal.IndexedKeyValue;
+import com.salesforce.hbase.index.write.AsyncIndexWriter;
 import com.salesforce.hbase.index.write.IndexFailurePolicy;
 import com.salesforce.hbase.index.write.IndexWriter;
 import com.salesforce.hbase.index.write.recovery.PerRegionIndexWriteCache;
@@ -97,6 +104,16 @@ import com.salesforce.phoenix.util.MetaDataUtil;
  * nothing does. Currently, we do not support mixed-durability updates within a single batch. If you
  * want to have different durability levels, you only need to split the updates into two different
  * batches.
+ * <p>
+ * Index updates that target the data table itself (the rows of a local index, which live in the
+ * same region as the data rows) never go through the {@link IndexWriter}. They are applied to the
+ * region directly once the data mutations are visible, and are recovered from the WAL along with
+ * the updates for the other index tables.
+ * <p>
+ * If the table allows its indexes to lag behind (see {@link #ASYNC_INDEX_MAX_LAG_MS}), the updates
+ * of durable batches are handed to an {@link AsyncIndexWriter} instead of being written while the
+ * client waits. They are drained before the region flushes or closes and before a WAL is archived,
+ * so any update that is not yet written is still replayed from the WAL.
  */
 public class Indexer extends BaseRegionObserver {
 
@@ -104,12 +121,32 @@ public class Indexer extends BaseRegionObserver {
 
   /** WAL on this server */
   private HLog log;
+  private HRegion region;
   protected IndexWriter writer;
+  /** writes the index updates in the background, <tt>null</tt> if they are written synchronously */
+  private AsyncIndexWriter asyncWriter;
+  /**
+   * Taken for reading while index updates are handed to the {@link #asyncWriter} and for writing
+   * when a flush of the region starts or ends, so that no update is enqueued once the flush has
+   * started
+   */
+  private final ReentrantReadWriteLock flushLock = new ReentrantReadWriteLock(true);
+  /** whether the region is being flushed, during which index updates are written synchronously */
+  private boolean flushInProgress;
+  private IndexLogRollSynchronizer logRollSynchronizer;
   protected IndexBuildManager builder;
 
   /** Configuration key for the {@link IndexBuilder} to use */
   public static final String INDEX_BUILDER_CONF_KEY = "index.builder";
 
+  /**
+   * Table descriptor value (or configuration key) for the maximum time, in milliseconds, that the
+   * index tables of the table may lag behind it. If set, the index updates of batches written to
+   * the WAL are written asynchronously and batched across client requests; if not set, they are
+   * written before the client request returns.
+   */
+  public static final String ASYNC_INDEX_MAX_LAG_MS = "ASYNC_INDEX_MAX_LAG_MS";
+
   // Setup out locking on the index edits/WAL so we can be sure that we don't lose a roll a WAL edit
   // before an edit is applied to the index tables
   private static final ReentrantReadWriteLock INDEX_READ_WRITE_LOCK = new ReentrantReadWriteLock(
@@ -173,14 +210,22 @@ public class Indexer extends BaseRegionObserver {
         }
     
         this.builder = new IndexBuildManager(env);
+        this.region = env.getRegion();
     
+        // setup the actual index writer
+        this.writer = new IndexWriter(env, serverName + "-index-writer");
+        long maxLagMs = getMaxIndexLag(env);
+        if (maxLagMs > 0) {
+          this.asyncWriter =
+              new AsyncIndexWriter(this.writer, env, maxLagMs, serverName + "-async-index-writer");
+        }
+
         // get a reference to the WAL
         log = env.getRegionServerServices().getWAL();
         // add a synchronizer so we don't archive a WAL that we need
-        log.registerWALActionsListener(new IndexLogRollSynchronizer(INDEX_READ_WRITE_LOCK.writeLock()));
-    
-        // setup the actual index writer
-        this.writer = new IndexWriter(env, serverName + "-index-writer");
+        this.logRollSynchronizer =
+            new IndexLogRollSynchronizer(INDEX_READ_WRITE_LOCK.writeLock(), asyncWriter);
+        log.registerWALActionsListener(logRollSynchronizer);
     
         // setup the recovery writer that does retries on the failed edits
         TrackingParallelWriterIndexCommitter recoveryCommmiter =
@@ -219,7 +264,12 @@ public class Indexer extends BaseRegionObserver {
       }
     this.stopped = true;
     String msg = "Indexer is being stopped";
+    this.log.unregisterWALActionsListener(logRollSynchronizer);
     this.builder.stop(msg);
+    if (this.asyncWriter != null) {
+      // writes out anything that is still pending
+      this.asyncWriter.stop(msg);
+    }
     this.writer.stop(msg);
     this.recoveryWriter.stop(msg);
   }
@@ -459,6 +509,12 @@ public class Indexer extends BaseRegionObserver {
     // update right away
     if (!writeToWAL) {
       try {
+        // Local updates cannot be applied until the data mutations are visible, so they are
+        // carried in the edit to the post hook
+        Collection<Mutation> localUpdates = removeLocalUpdates(indexUpdates);
+        for (Mutation m : localUpdates) {
+          edit.add(new IndexedKeyValue(region.getTableDesc().getName(), m));
+        }
         this.writer.write(indexUpdates);
         return false;
       } catch (Throwable e) {
@@ -519,8 +575,20 @@ public class Indexer extends BaseRegionObserver {
 
   private void doPostWithExceptions(WALEdit edit, Mutation m, boolean writeToWAL) throws Exception {
     //short circuit, if we don't need to do any work
-    if (!writeToWAL || !this.builder.isEnabled(m)) {
-      // already did the index update in prePut, so we are done
+    if (!this.builder.isEnabled(m)) {
+      return;
+    }
+    if (!writeToWAL) {
+      // already did the index update in prePut, except for the updates of local indexes
+      IndexedKeyValue ikv = getFirstIndexedKeyValue(edit);
+      if (ikv != null && !ikv.getBatchFinished()) {
+        try {
+          Collection<Pair<Mutation, byte[]>> indexUpdates = extractIndexUpdate(edit);
+          writeLocalUpdates(removeLocalUpdates(indexUpdates), writer);
+        } finally {
+          ikv.markBatchFinished();
+        }
+      }
       return;
     }
 
@@ -549,7 +617,15 @@ public class Indexer extends BaseRegionObserver {
       // references originally - therefore, we just pass in a null factory here and use the ones
       // already specified on each reference
       try {
-          writer.writeAndKillYourselfOnFailure(indexUpdates);
+          // the updates of the index tables don't depend on the local ones, so they are always
+          // written first, with failures of either going through the failure policy
+          Collection<Mutation> localUpdates = removeLocalUpdates(indexUpdates);
+          if (asyncWriter != null) {
+            writeAsyncUnlessFlushing(indexUpdates);
+          } else {
+            writer.writeAndKillYourselfOnFailure(indexUpdates);
+          }
+          writeLocalUpdates(localUpdates, writer);
       } finally {
         // With a custom kill policy, we may throw instead of kill the server.
         // Without doing this in a finally block (at least with the mini cluster),
@@ -569,6 +645,152 @@ public class Indexer extends BaseRegionObserver {
     }
   }
 
+  /**
+   * The updates are durable in the WAL, so they can be written in the background, unless the region
+   * is being flushed. Once the flush completes, the WAL entries of the edits it covers are no longer
+   * replayed, so their index updates must not be left in memory only.
+   */
+  private void writeAsyncUnlessFlushing(Collection<Pair<Mutation, byte[]>> indexUpdates)
+      throws IOException {
+    flushLock.readLock().lock();
+    try {
+      if (flushInProgress) {
+        writer.writeAndKillYourselfOnFailure(indexUpdates);
+      } else {
+        asyncWriter.write(indexUpdates);
+      }
+    } finally {
+      flushLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the maximum lag of the index tables of the region's table, or 0 if the index updates are
+   *         to be written synchronously, as they are if the lag is not a valid number
+   */
+  public static long getMaxIndexLag(RegionCoprocessorEnvironment env) {
+    String value = env.getRegion().getTableDesc().getValue(ASYNC_INDEX_MAX_LAG_MS);
+    if (value == null) {
+      value = env.getConfiguration().get(ASYNC_INDEX_MAX_LAG_MS);
+      if (value == null) {
+        return 0;
+      }
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      LOG.error("Invalid " + ASYNC_INDEX_MAX_LAG_MS + " of '" + value + "' for "
+          + env.getRegion().getRegionNameAsString() + ", writing index updates synchronously");
+      return 0;
+    }
+  }
+
+  /**
+   * Write out the pending index updates before the memstore is flushed, as the WAL entries with the
+   * updates are no longer replayed once the flush completes. Until then, index updates are written
+   * synchronously; this waits for those being enqueued, so none is left behind in the queue.
+   */
+  @Override
+  public void preFlush(ObserverContext<RegionCoprocessorEnvironment> c) throws IOException {
+    if (this.asyncWriter != null) {
+      setFlushInProgress(true);
+      this.asyncWriter.flush();
+    }
+  }
+
+  /**
+   * Go back to writing index updates in the background. If the flush failed instead, they are
+   * written synchronously until the next flush completes.
+   */
+  @Override
+  public void postFlush(ObserverContext<RegionCoprocessorEnvironment> c) throws IOException {
+    if (this.asyncWriter != null) {
+      setFlushInProgress(false);
+    }
+  }
+
+  private void setFlushInProgress(boolean flushInProgress) {
+    flushLock.writeLock().lock();
+    try {
+      this.flushInProgress = flushInProgress;
+    } finally {
+      flushLock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void preClose(ObserverContext<RegionCoprocessorEnvironment> c, boolean abortRequested)
+      throws IOException {
+    // if we are aborting, the WAL is replayed anyways
+    if (this.asyncWriter != null && !abortRequested) {
+      this.asyncWriter.flush();
+    }
+  }
+
+  /**
+   * Remove the updates of local indexes, which target the table of the region itself.
+   * @param indexUpdates the index updates, from which the local updates are removed
+   * @return the updates of the local indexes
+   */
+  private Collection<Mutation> removeLocalUpdates(Collection<Pair<Mutation, byte[]>> indexUpdates) {
+    byte[] tableName = region.getTableDesc().getName();
+    List<Mutation> localUpdates = new ArrayList<Mutation>();
+    Iterator<Pair<Mutation, byte[]>> iterator = indexUpdates.iterator();
+    while (iterator.hasNext()) {
+      Pair<Mutation, byte[]> update = iterator.next();
+      if (Bytes.equals(tableName, update.getSecond())) {
+        localUpdates.add(update.getFirst());
+        iterator.remove();
+      }
+    }
+    return localUpdates;
+  }
+
+  /**
+   * Apply the updates of local indexes to the region, passing any failure to the failure policy of
+   * the given writer. Must not be called while the region holds the row locks or memstore write
+   * entry of a batch, as the updates are a batch of their own.
+   * @param localUpdates the updates of the local indexes
+   * @param failureWriter writer whose failure policy handles updates that could not be applied
+   * @throws IOException if the failure policy throws instead of killing the server
+   */
+  private void writeLocalUpdates(Collection<Mutation> localUpdates, IndexWriter failureWriter)
+      throws IOException {
+    if (localUpdates.isEmpty()) {
+      return;
+    }
+    try {
+      applyLocalUpdates(localUpdates);
+    } catch (IOException e) {
+      Multimap<HTableInterfaceReference, Mutation> attempted = ArrayListMultimap.create();
+      attempted.putAll(
+        new HTableInterfaceReference(new ImmutableBytesPtr(region.getTableDesc().getName())),
+        localUpdates);
+      failureWriter.handleFailure(attempted, e);
+    }
+  }
+
+  /**
+   * Apply the updates of local indexes to the region.
+   * @param localUpdates the updates of the local indexes
+   * @throws IOException if any of the updates could not be applied
+   */
+  @SuppressWarnings("unchecked")
+  private void applyLocalUpdates(Collection<Mutation> localUpdates) throws IOException {
+    Pair<Mutation, Integer>[] batch = new Pair[localUpdates.size()];
+    int i = 0;
+    for (Mutation m : localUpdates) {
+      batch[i++] = new Pair<Mutation, Integer>(m, null);
+    }
+    OperationStatus[] statuses = region.batchMutate(batch);
+    for (OperationStatus status : statuses) {
+      if (status.getOperationStatusCode() != OperationStatusCode.SUCCESS) {
+        throw new IOException("Failed to apply local index update to region "
+            + region.getRegionNameAsString() + ": " + status.getExceptionMsg());
+      }
+    }
+  }
+
   /**
    * Search the {@link WALEdit} for the first {@link IndexedKeyValue} present
    * @param edit {@link WALEdit}
@@ -616,6 +838,11 @@ public class Indexer extends BaseRegionObserver {
       return;
     }
     
+    // the updates of local indexes go straight back into the region, after the other updates
+    HTableInterfaceReference localTable =
+        new HTableInterfaceReference(new ImmutableBytesPtr(region.getTableDesc().getName()));
+    Collection<Mutation> localUpdates = updates.removeAll(localTable);
+
     // do the usual writer stuff, killing the server again, if we can't manage to make the index
     // writes succeed again
     try {
@@ -623,6 +850,11 @@ public class Indexer extends BaseRegionObserver {
     } catch (IOException e) {
         LOG.error("Exception thrown instead of killing server during index writing", e);
     }
+    try {
+        writeLocalUpdates(localUpdates, writer);
+    } catch (IOException e) {
+        LOG.error("Exception thrown instead of killing server during local index writing", e);
+    }
   }
 
   @Override
@@ -643,6 +875,14 @@ public class Indexer extends BaseRegionObserver {
      * hopes they come up before the primary table finishes.
      */
     Collection<Pair<Mutation, byte[]>> indexUpdates = extractIndexUpdate(logEdit);
+    // the region cannot take writes until it is open, so keep the updates of local indexes until
+    // postOpen
+    Collection<Mutation> localUpdates = removeLocalUpdates(indexUpdates);
+    if (!localUpdates.isEmpty()) {
+      failedIndexEdits.addEdits(region,
+        new HTableInterfaceReference(new ImmutableBytesPtr(region.getTableDesc().getName())),
+        localUpdates);
+    }
     recoveryWriter.writeAndKillYourselfOnFailure(indexUpdates);
   }
 
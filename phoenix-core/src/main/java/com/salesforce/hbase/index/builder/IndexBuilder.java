@@ -128,6 +128,14 @@ public interface IndexBuilder extends Stoppable {
    */
   public void batchStarted(MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp) throws IOException;
 
+  /**
+   * Notification that the index updates for a batch started with {@link #batchStarted} have been
+   * built. This is called whether or not building the updates succeeded, so any state kept just for
+   * building the updates of the batch can be released here.
+   * @param miniBatchOp the full batch operation to be written
+   */
+  public void batchIndexUpdatesBuilt(MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp);
+
   /**
    * This allows the codec to dynamically change whether or not indexing should take place for a
    * table. If it doesn't take place, we can save a lot of time on the regular Put patch. By making
@@ -31,7 +31,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Mutation;
@@ -42,6 +48,7 @@ import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 
 import com.salesforce.hbase.index.covered.update.ColumnReference;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.hbase.index.util.IndexManagementUtil;
 
 /**
@@ -52,19 +59,80 @@ import com.salesforce.hbase.index.util.IndexManagementUtil;
  * row accessed multiple times will likely be in HBase's block cache, invalidating any extra caching
  * we are doing here. In the end, its simpler and about as efficient to just get the current state
  * of the row from HBase and let HBase manage caching the row from disk on its own.
+ * <p>
+ * The one exception is the state read for a whole mini-batch at once (see
+ * {@link #cacheBatchRowStates}): it is only kept while the index updates for that batch are being
+ * built, during which the rows are locked, so it can't go stale. This saves doing a second point
+ * scan per row after the batch has already been read.
  */
 public class LocalTable implements LocalHBaseState {
 
   private RegionCoprocessorEnvironment env;
+  /**
+   * Current state of the rows of the mini-batches being indexed. Batches on the same region may be
+   * indexed concurrently, but never share rows as each holds the locks for its rows.
+   */
+  private final ConcurrentMap<ImmutableBytesPtr, BatchRowState> batchRowStates =
+      new ConcurrentHashMap<ImmutableBytesPtr, BatchRowState>();
 
   public LocalTable(RegionCoprocessorEnvironment env) {
     this.env = env;
   }
 
+  /**
+   * Remember the current state of the rows of a mini-batch, as read by a single raw scan of all
+   * versions over those rows. Subsequent calls to {@link #getCurrentRowState} for these rows are
+   * served from this state, as long as it covers the requested columns, until
+   * {@link #clearBatchRowStates} is called.
+   * @param rows rows written by the batch, including those that don't exist yet
+   * @param families families read by the scan, or empty if it read all of them
+   * @param kvs {@link KeyValue}s returned by the scan
+   */
+  public void cacheBatchRowStates(Collection<byte[]> rows, Collection<byte[]> families,
+      List<KeyValue> kvs) {
+    Set<ImmutableBytesPtr> scannedFamilies = null;
+    if (!families.isEmpty()) {
+      scannedFamilies = new HashSet<ImmutableBytesPtr>();
+      for (byte[] family : families) {
+        scannedFamilies.add(new ImmutableBytesPtr(family));
+      }
+    }
+    Map<ImmutableBytesPtr, BatchRowState> states = new HashMap<ImmutableBytesPtr, BatchRowState>();
+    for (byte[] row : rows) {
+      states.put(new ImmutableBytesPtr(row), new BatchRowState(scannedFamilies));
+    }
+    ImmutableBytesPtr ptr = new ImmutableBytesPtr();
+    for (KeyValue kv : kvs) {
+      ptr.set(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+      BatchRowState state = states.get(ptr);
+      if (state != null) {
+        state.kvs.add(kv);
+      }
+    }
+    batchRowStates.putAll(states);
+  }
+
+  /**
+   * Stop serving the state cached for the given rows by {@link #cacheBatchRowStates}.
+   * @param rows rows written by the batch
+   */
+  public void clearBatchRowStates(Collection<byte[]> rows) {
+    if (batchRowStates.isEmpty()) {
+      return;
+    }
+    for (byte[] row : rows) {
+      batchRowStates.remove(new ImmutableBytesPtr(row));
+    }
+  }
+
   @Override
   public Result getCurrentRowState(Mutation m, Collection<? extends ColumnReference> columns)
       throws IOException {
     byte[] row = m.getRow();
+    BatchRowState state = batchRowStates.get(new ImmutableBytesPtr(row));
+    if (state != null && state.covers(columns)) {
+      return state.getRowState(columns);
+    }
     // need to use a scan here so we can get raw state, which Get doesn't provide.
     Scan s = IndexManagementUtil.newLocalStateScan(Collections.singletonList(columns));
     s.setStartRow(row);
@@ -79,4 +147,44 @@ public class LocalTable implements LocalHBaseState {
     scanner.close();
     return r;
   }
-}
\ No newline at end of file
+
+  private static class BatchRowState {
+    private final Set<ImmutableBytesPtr> families;
+    private final List<KeyValue> kvs = new ArrayList<KeyValue>();
+
+    private BatchRowState(Set<ImmutableBytesPtr> families) {
+      this.families = families;
+    }
+
+    private boolean covers(Collection<? extends ColumnReference> columns) {
+      if (families == null) {
+        return true;
+      }
+      for (ColumnReference ref : columns) {
+        if (!families.contains(new ImmutableBytesPtr(ref.getFamily()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the same {@link Result} as a point scan over the families of the given columns
+     */
+    private Result getRowState(Collection<? extends ColumnReference> columns) {
+      Set<ImmutableBytesPtr> toCover = new HashSet<ImmutableBytesPtr>();
+      for (ColumnReference ref : columns) {
+        toCover.add(new ImmutableBytesPtr(ref.getFamily()));
+      }
+      List<KeyValue> result = new ArrayList<KeyValue>(kvs.size());
+      ImmutableBytesPtr ptr = new ImmutableBytesPtr();
+      for (KeyValue kv : kvs) {
+        ptr.set(kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength());
+        if (toCover.contains(ptr)) {
+          result.add(kv);
+        }
+      }
+      return new Result(result);
+    }
+  }
+}
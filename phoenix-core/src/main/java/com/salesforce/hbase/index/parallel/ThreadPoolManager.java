@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -80,6 +81,38 @@ public class ThreadPoolManager {
     return pool;
   }
 
+  /**
+   * Get a scheduled executor for the given name, based on the passed builder. As with
+   * {@link #getExecutor(ThreadPoolBuilder, RegionCoprocessorEnvironment)}, an existing executor
+   * with that name is returned and the executor only shuts down once every reference to it has been
+   * released through {@link ScheduledThreadPoolExecutor#shutdown()} XOR
+   * {@link ScheduledThreadPoolExecutor#shutdownNow()}.
+   * @param builder
+   * @param env
+   * @return a {@link ScheduledThreadPoolExecutor} with {@link ThreadPoolBuilder#getMaxThreads()}
+   *         threads for the given name
+   */
+  public static synchronized ScheduledThreadPoolExecutor getScheduledExecutor(
+      ThreadPoolBuilder builder, RegionCoprocessorEnvironment env) {
+    return getScheduledExecutor(builder, env.getSharedData());
+  }
+
+  static synchronized ScheduledThreadPoolExecutor getScheduledExecutor(ThreadPoolBuilder builder,
+      Map<String, Object> poolCache) {
+    ScheduledThreadPoolExecutor pool = (ScheduledThreadPoolExecutor) poolCache.get(builder.getName());
+    if (pool == null || pool.isTerminating() || pool.isShutdown()) {
+      // the scheduled tasks are periodic, so the threads are kept around until the pool shuts down
+      pool =
+          new ShutdownOnUnusedScheduledThreadPoolExecutor(builder.getMaxThreads(),
+              Threads.newDaemonThreadFactory(builder.getName() + "-"), builder.getName());
+      LOG.info("Creating new scheduled pool for " + builder.getName());
+      poolCache.put(builder.getName(), pool);
+    }
+    ((ShutdownOnUnusedScheduledThreadPoolExecutor) pool).addReference();
+
+    return pool;
+  }
+
   /**
    * @param conf
    * @return
@@ -153,4 +186,45 @@ public class ThreadPoolManager {
     }
 
   }
-}
\ No newline at end of file
+
+  /**
+   * Scheduled thread pool that only shuts down when there are no more explicit references to it,
+   * like {@link ShutdownOnUnusedThreadPoolExecutor}.
+   */
+  private static class ShutdownOnUnusedScheduledThreadPoolExecutor extends
+      ScheduledThreadPoolExecutor {
+
+    private AtomicInteger references;
+    private String poolName;
+
+    public ShutdownOnUnusedScheduledThreadPoolExecutor(int coreThreads,
+        ThreadFactory threadFactory, String poolName) {
+      super(coreThreads, threadFactory);
+      // anything still scheduled belongs to a user that is gone by the time the pool shuts down
+      setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+      this.references = new AtomicInteger();
+      this.poolName = poolName;
+    }
+
+    public void addReference() {
+      this.references.incrementAndGet();
+    }
+
+    @Override
+    public void shutdown() {
+      if (references.decrementAndGet() <= 0) {
+        LOG.debug("Shutting down scheduled pool " + this.poolName);
+        super.shutdown();
+      }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      if (references.decrementAndGet() <= 0) {
+        LOG.debug("Shutting down scheduled pool " + this.poolName + " NOW!");
+        return super.shutdownNow();
+      }
+      return Collections.emptyList();
+    }
+  }
+}
@@ -0,0 +1,469 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.salesforce.hbase.index.parallel.ThreadPoolBuilder;
+import com.salesforce.hbase.index.parallel.ThreadPoolManager;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+
+/**
+ * Write the index updates in the background, rather than while the client waits on its
+ * Puts/Deletes.
+ * <p>
+ * This is only safe because the index updates are already durable in the WAL (as
+ * {@link com.salesforce.hbase.index.wal.IndexedKeyValue}s) by the time they are handed to us:
+ * anything we haven't written when the server dies is replayed along with the WAL. To keep it that
+ * way, the pending updates must be drained (see {@link #flush()}) before the region flushes its
+ * memstore or closes and before a WAL is archived, since the WAL would no longer be replayed
+ * afterwards.
+ * <p>
+ * Updates are buffered across many client batches and handed to the wrapped {@link IndexWriter}
+ * together, so each index table (and each of its regions) sees a few large batches instead of
+ * many small ones. A batch is written once it has {@link #BATCH_SIZE_CONF_KEY} updates, or once its
+ * oldest update is half the maximum lag old, leaving the other half for the write itself. Failures
+ * go to the {@link IndexFailurePolicy} of the wrapped writer, as they would for a synchronous
+ * write. If there are more than {@link #MAX_PENDING_CONF_KEY} updates waiting, new updates block
+ * until the background writes catch up.
+ * <p>
+ * If the oldest update not yet written is older than the maximum lag (for instance, because an
+ * index region is unavailable), the installed {@link IndexLagPolicy} is notified so readers can
+ * stop relying on the stale index tables, and again once they have caught up.
+ * <p>
+ * The writers of all the regions on a server share their threads: the batches are written by a
+ * pool of at most {@link #NUM_FLUSH_THREADS_CONF_KEY} threads, and a single thread times the writes
+ * and checks the lag. A writer has at most one batch being written at a time, so its updates reach
+ * the index tables in the order they were made.
+ */
+public class AsyncIndexWriter implements Stoppable {
+
+  private static final Log LOG = LogFactory.getLog(AsyncIndexWriter.class);
+
+  public static final String BATCH_SIZE_CONF_KEY = "index.writer.async.batch.size";
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  public static final String MAX_PENDING_CONF_KEY = "index.writer.async.max.pending";
+  private static final int DEFAULT_MAX_PENDING = 100000;
+  public static final String INDEX_LAG_POLICY_CONF_KEY = "index.writer.async.lagpolicy.class";
+  public static final String NUM_FLUSH_THREADS_CONF_KEY = "index.writer.async.threads.max";
+  private static final int DEFAULT_NUM_FLUSH_THREADS = 10;
+  private static final String FLUSH_THREADS_KEEP_ALIVE_TIME_CONF_KEY =
+      "index.writer.async.threads.keepalivetime";
+
+  private final IndexWriter delegate;
+  private final IndexLagPolicy lagPolicy;
+  private final long maxLagMs;
+  private final long flushIntervalMs;
+  private final int batchSize;
+  private final int maxPending;
+  private final AtomicBoolean stopped = new AtomicBoolean(false);
+  /** writes the batches, shared with the writers of the other regions */
+  private final ExecutorService flushPool;
+  /** times the batches and checks the lag, shared with the writers of the other regions */
+  private final ScheduledExecutorService scheduler;
+  private final ScheduledFuture<?> lagCheck;
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (lock) {
+        flushQueued = false;
+        if (flushing) {
+          // someone else is writing, and picks up anything that is ready before it finishes
+          return;
+        }
+        flushing = true;
+      }
+      writePending();
+    }
+  };
+  private final Runnable timedFlushTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (lock) {
+        timedFlush = null;
+        scheduleFlush();
+      }
+    }
+  };
+
+  // everything below is guarded by the lock
+  private final Object lock = new Object();
+  private Multimap<HTableInterfaceReference, Mutation> pending = ArrayListMultimap.create();
+  /** time at which the oldest pending update was enqueued, -1 if there are none */
+  private long pendingOldest = -1;
+  /** tables and oldest enqueue time of the batch being written, if any */
+  private Set<HTableInterfaceReference> inflightTables = Collections.emptySet();
+  private long inflightOldest = -1;
+  /** number of updates enqueued, but not yet written */
+  private int outstanding;
+  /** sequence of the last enqueued write call, the last written one and the last one flushed */
+  private long enqueuedSeq;
+  private long writtenSeq;
+  private long flushRequestedSeq;
+  /** a thread is writing the pending updates */
+  private boolean flushing;
+  /** the pending updates were handed to the flush pool, but aren't being written yet */
+  private boolean flushQueued;
+  /** writes the pending updates once the oldest of them is due, <tt>null</tt> if not scheduled */
+  private ScheduledFuture<?> timedFlush;
+  /** tables reported to the lag policy as lagging, <tt>null</tt> if none */
+  private Set<HTableInterfaceReference> laggingTables;
+  private long lastLagReport;
+
+  /**
+   * @param delegate fully setup writer that does the actual writes and handles their failures
+   * @param env environment in which to setup the {@link IndexLagPolicy}
+   * @param maxLagMs maximum time an update can wait before the index tables are considered stale
+   * @param name used to name the background threads, which are shared by all writers with the same
+   *          name on the server
+   * @throws IOException if the {@link IndexLagPolicy} cannot be instantiated
+   */
+  public AsyncIndexWriter(IndexWriter delegate, RegionCoprocessorEnvironment env, long maxLagMs,
+      String name) throws IOException {
+    this(delegate, getLagPolicy(env), env.getConfiguration(), maxLagMs, ThreadPoolManager
+        .getExecutor(
+          new ThreadPoolBuilder(name, env.getConfiguration()).setMaxThread(
+            NUM_FLUSH_THREADS_CONF_KEY, DEFAULT_NUM_FLUSH_THREADS).setCoreTimeout(
+            FLUSH_THREADS_KEEP_ALIVE_TIME_CONF_KEY), env), ThreadPoolManager.getScheduledExecutor(
+      new ThreadPoolBuilder(name + "-scheduler", env.getConfiguration()), env));
+    this.lagPolicy.setup(this, env);
+  }
+
+  /**
+   * Create an {@link AsyncIndexWriter} with an already setup {@link IndexLagPolicy}.
+   * <p>
+   * Exposed for TESTING
+   * @param flushPool writes the batches; shut down when the writer stops
+   * @param scheduler times the batches and checks the lag; shut down when the writer stops
+   */
+  AsyncIndexWriter(IndexWriter delegate, IndexLagPolicy lagPolicy, Configuration conf,
+      long maxLagMs, ExecutorService flushPool, ScheduledExecutorService scheduler) {
+    this.delegate = delegate;
+    this.lagPolicy = lagPolicy;
+    this.maxLagMs = maxLagMs;
+    this.flushIntervalMs = Math.max(1, maxLagMs / 2);
+    this.batchSize = conf.getInt(BATCH_SIZE_CONF_KEY, DEFAULT_BATCH_SIZE);
+    this.maxPending = conf.getInt(MAX_PENDING_CONF_KEY, DEFAULT_MAX_PENDING);
+    this.flushPool = flushPool;
+    this.scheduler = scheduler;
+    this.lagCheck = scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        checkLag();
+      }
+    }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  public static IndexLagPolicy getLagPolicy(RegionCoprocessorEnvironment env) throws IOException {
+    Configuration conf = env.getConfiguration();
+    try {
+      IndexLagPolicy policy =
+          conf.getClass(INDEX_LAG_POLICY_CONF_KEY, LogOnLagPolicy.class, IndexLagPolicy.class)
+              .newInstance();
+      return policy;
+    } catch (InstantiationException e) {
+      throw new IOException(e);
+    } catch (IllegalAccessException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Enqueue the updates to be written in the background. Only blocks if there are already too many
+   * updates waiting to be written.
+   * <p>
+   * Once stopped, the updates are written synchronously.
+   * @param indexUpdates Updates to write
+   * @throws IOException if the updates had to be written synchronously and the failure policy
+   *           chose to throw
+   */
+  public void write(Collection<Pair<Mutation, byte[]>> indexUpdates) throws IOException {
+    if (indexUpdates.isEmpty()) {
+      return;
+    }
+    Multimap<HTableInterfaceReference, Mutation> updates =
+        IndexWriter.resolveTableReferences(indexUpdates);
+    boolean interrupted = false;
+    synchronized (lock) {
+      // apply backpressure, but always let a batch through if nothing is waiting, so a batch
+      // larger than the limit cannot get stuck
+      while (!this.stopped.get() && outstanding > 0 && outstanding + updates.size() > maxPending) {
+        scheduleFlush();
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          LOG.info("Interrupted while waiting for the pending index updates to drain. Ignoring"
+              + " unless stopped");
+          interrupted = true;
+        }
+      }
+      if (!this.stopped.get()) {
+        pending.putAll(updates);
+        if (pendingOldest < 0) {
+          pendingOldest = EnvironmentEdgeManager.currentTimeMillis();
+        }
+        outstanding += updates.size();
+        enqueuedSeq++;
+        scheduleFlush();
+        updates = null;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (updates != null) {
+      delegate.writeAndKillYourselfOnFailure(updates);
+    }
+  }
+
+  /**
+   * Block until all the updates enqueued before this call have been written (or handed to the
+   * failure policy). Unless they are already being written, they are written by the calling
+   * thread.
+   */
+  public void flush() {
+    boolean interrupted = false;
+    boolean writeHere = false;
+    synchronized (lock) {
+      long target = enqueuedSeq;
+      flushRequestedSeq = Math.max(flushRequestedSeq, target);
+      while (writtenSeq < target) {
+        if (!flushing) {
+          flushing = true;
+          writeHere = true;
+          break;
+        }
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          LOG.info("Interrupted while flushing pending index updates. Ignoring unless stopped");
+          interrupted = true;
+        }
+      }
+    }
+    if (writeHere) {
+      // keeps going until everything enqueued so far is written
+      writePending();
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean readyToFlush(long now) {
+    if (pending.isEmpty()) {
+      return false;
+    }
+    return this.stopped.get() || pending.size() >= batchSize || flushRequestedSeq > writtenSeq
+        || outstanding >= maxPending || now - pendingOldest >= flushIntervalMs;
+  }
+
+  /**
+   * Hand the pending updates to the flush pool if they are ready to be written, or schedule them to
+   * be handed over once their oldest update is due. Must be called holding the lock.
+   */
+  private void scheduleFlush() {
+    if (flushing || flushQueued || this.stopped.get() || pending.isEmpty()) {
+      // whoever is writing checks the pending updates again before it finishes
+      return;
+    }
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    try {
+      if (readyToFlush(now)) {
+        flushPool.execute(flushTask);
+        flushQueued = true;
+      } else if (timedFlush == null) {
+        timedFlush =
+            scheduler.schedule(timedFlushTask, Math.max(1, pendingOldest + flushIntervalMs - now),
+              TimeUnit.MILLISECONDS);
+      }
+    } catch (RejectedExecutionException e) {
+      // only once the pools are shutting down, at which point we are being stopped and write
+      // everything that is still pending ourselves
+      LOG.warn("Unable to schedule the write of the pending index updates", e);
+    }
+  }
+
+  /**
+   * Write the pending updates for as long as they are ready to be written. Must be called by the
+   * thread that set {@link #flushing}, which is reset once done.
+   */
+  private void writePending() {
+    try {
+      while (true) {
+        Multimap<HTableInterfaceReference, Mutation> toWrite;
+        long upTo;
+        synchronized (lock) {
+          if (!readyToFlush(EnvironmentEdgeManager.currentTimeMillis())) {
+            return;
+          }
+          toWrite = pending;
+          upTo = enqueuedSeq;
+          inflightTables = new HashSet<HTableInterfaceReference>(toWrite.keySet());
+          inflightOldest = pendingOldest;
+          pending = ArrayListMultimap.create();
+          pendingOldest = -1;
+        }
+
+        try {
+          delegate.writeAndKillYourselfOnFailure(toWrite);
+        } catch (IOException e) {
+          LOG.error("Exception thrown instead of killing server during async index writing", e);
+        } catch (RuntimeException e) {
+          LOG.error("Unexpected failure during async index writing", e);
+        } finally {
+          synchronized (lock) {
+            writtenSeq = upTo;
+            outstanding -= toWrite.size();
+            inflightTables = Collections.emptySet();
+            inflightOldest = -1;
+            lock.notifyAll();
+          }
+        }
+      }
+    } finally {
+      synchronized (lock) {
+        flushing = false;
+        // updates enqueued while we were writing, that aren't ready yet
+        scheduleFlush();
+        lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Notify the {@link IndexLagPolicy} if the index tables fell behind by more than the maximum lag,
+   * or caught up again. While they stay behind, they are reported again every maximum lag, so the
+   * policy can tell a lag that lasts from one that went away along with its writer. If reporting
+   * that the tables caught up fails, it's retried on the next check.
+   */
+  void checkLag() {
+    Collection<HTableInterfaceReference> exceeded = null;
+    Collection<HTableInterfaceReference> recovered = null;
+    long lag;
+    synchronized (lock) {
+      long now = EnvironmentEdgeManager.currentTimeMillis();
+      long oldest = inflightOldest < 0 ? pendingOldest : inflightOldest;
+      lag = oldest < 0 ? 0 : now - oldest;
+      if (lag > maxLagMs) {
+        if (laggingTables == null || now - lastLagReport >= maxLagMs) {
+          exceeded = new HashSet<HTableInterfaceReference>(inflightTables);
+          exceeded.addAll(pending.keySet());
+          if (laggingTables == null) {
+            laggingTables = new HashSet<HTableInterfaceReference>();
+          }
+          laggingTables.addAll(exceeded);
+          lastLagReport = now;
+        }
+      } else if (laggingTables != null && lag <= flushIntervalMs) {
+        // only consider the tables caught up once well within the lag, so we don't flip-flop
+        recovered = laggingTables;
+        laggingTables = null;
+      }
+    }
+
+    boolean success = false;
+    try {
+      if (exceeded != null) {
+        lagPolicy.onLagExceeded(exceeded, lag);
+      } else if (recovered != null) {
+        lagPolicy.onLagRecovered(recovered);
+      }
+      success = true;
+    } catch (IOException e) {
+      LOG.warn("Index lag policy failed to handle the lag of the index tables", e);
+    } catch (RuntimeException e) {
+      LOG.warn("Index lag policy failed to handle the lag of the index tables", e);
+    } finally {
+      if (!success && recovered != null) {
+        synchronized (lock) {
+          if (laggingTables == null) {
+            laggingTables = new HashSet<HTableInterfaceReference>();
+          }
+          laggingTables.addAll(recovered);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stop accepting updates, write everything still pending and release the shared threads. The
+   * wrapped {@link IndexWriter} is not stopped.
+   */
+  @Override
+  public void stop(String why) {
+    if (!this.stopped.compareAndSet(false, true)) {
+      // already stopped
+      return;
+    }
+    LOG.debug("Stopping because " + why);
+    this.lagCheck.cancel(false);
+    synchronized (lock) {
+      if (timedFlush != null) {
+        timedFlush.cancel(false);
+        timedFlush = null;
+      }
+      // let any blocked writers write synchronously
+      lock.notifyAll();
+    }
+    // nothing is enqueued any more, so this writes out everything
+    flush();
+    // only shuts the pools down once the writers of the other regions are done with them too
+    this.flushPool.shutdown();
+    this.scheduler.shutdown();
+    // report the final state of the tables, they won't fall behind any more
+    checkLag();
+    this.lagPolicy.stop(why);
+  }
+
+  @Override
+  public boolean isStopped() {
+    return this.stopped.get();
+  }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.salesforce.hbase.index.exception.IndexWriteException;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+import com.salesforce.hbase.index.write.IndexWriteCoalescer.Group;
+
+/**
+ * Merge the index updates of concurrent writers on the server into larger batches per index table
+ * (see {@link IndexWriteCoalescer}), and write the merged batches with a
+ * {@link ParallelWriterIndexCommitter}.
+ * <p>
+ * Each writer still blocks until all of its own updates have been written, and fails if any of the
+ * batches they were merged into failed, so the installed {@link IndexFailurePolicy} sees the same
+ * failures it would without coalescing. Enable it by setting
+ * {@link IndexWriter#INDEX_COMMITTER_CONF_KEY} to this class.
+ */
+public class CoalescingIndexCommitter implements IndexCommitter {
+
+  private IndexCommitter delegate;
+  private IndexWriteCoalescer coalescer;
+
+  @Override
+  public void setup(IndexWriter parent, RegionCoprocessorEnvironment env, String name) {
+    ParallelWriterIndexCommitter committer = new ParallelWriterIndexCommitter();
+    committer.setup(parent, env, name);
+    setup(committer, IndexWriteCoalescer.getCoalescer(env));
+  }
+
+  /**
+   * Setup <tt>this</tt>.
+   * <p>
+   * Exposed for TESTING
+   */
+  void setup(IndexCommitter delegate, IndexWriteCoalescer coalescer) {
+    this.delegate = delegate;
+    this.coalescer = coalescer;
+  }
+
+  @Override
+  public void write(Multimap<HTableInterfaceReference, Mutation> toWrite)
+      throws IndexWriteException {
+    // add our updates to the batch of each table, remembering the batches we have to write
+    List<Group> led = new ArrayList<Group>();
+    List<Group> joined = new ArrayList<Group>();
+    for (Entry<HTableInterfaceReference, Collection<Mutation>> entry : toWrite.asMap().entrySet()) {
+      Group group = coalescer.join(entry.getKey(), entry.getValue());
+      if (group.isLeader()) {
+        led.add(group);
+      } else {
+        joined.add(group);
+      }
+    }
+
+    IndexWriteException failure = null;
+    if (!led.isEmpty()) {
+      Multimap<HTableInterfaceReference, Mutation> merged = ArrayListMultimap.create();
+      for (Group group : led) {
+        merged.putAll(group.getTable(), coalescer.seal(group));
+      }
+      try {
+        delegate.write(merged);
+      } catch (IndexWriteException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        // don't leave the other writers waiting on us
+        failure = new IndexWriteException("Unexpected failure writing coalesced index updates", e);
+      }
+      for (Group group : led) {
+        coalescer.complete(group, failure);
+      }
+    }
+
+    // wait for the batches written by the other writers
+    for (Group group : joined) {
+      try {
+        coalescer.await(group);
+      } catch (IndexWriteException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public void stop(String why) {
+    this.delegate.stop(why);
+  }
+
+  @Override
+  public boolean isStopped() {
+    return this.delegate.isStopped();
+  }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+
+/**
+ * Handle the index tables of an {@link AsyncIndexWriter} falling behind their primary table by more
+ * than the allowed lag, and catching up again.
+ */
+public interface IndexLagPolicy extends Stoppable {
+
+  public void setup(Stoppable parent, RegionCoprocessorEnvironment env);
+
+  /**
+   * Called when the oldest index update that has not yet been written is older than the maximum lag
+   * @param tables index tables with updates that are not yet written
+   * @param lagMs age of the oldest update that is not yet written, in milliseconds
+   * @throws IOException
+   */
+  public void onLagExceeded(Collection<HTableInterfaceReference> tables, long lagMs)
+      throws IOException;
+
+  /**
+   * Called once all the index updates have been written after the lag was exceeded
+   * @param tables index tables that were reported by {@link #onLagExceeded(Collection, long)}
+   * @throws IOException
+   */
+  public void onLagRecovered(Collection<HTableInterfaceReference> tables) throws IOException;
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+import com.salesforce.hbase.index.exception.IndexWriteException;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+
+/**
+ * Merge the index updates that concurrent writers make to the same index table into a single
+ * batch.
+ * <p>
+ * The first writer to join the open batch ({@link Group}) of an index table becomes its leader. The
+ * leader waits for other writers to join until the coalescing window closes or the batch holds
+ * {@link #MAX_COALESCED_MUTATIONS_CONF_KEY} mutations, and then seals the batch and writes it. The
+ * other writers just wait for the outcome of the write. Since
+ * {@link org.apache.hadoop.hbase.client.HTableInterface#batch(List)} sends a single request per
+ * region server, a larger batch per index table means fewer, larger requests per destination
+ * server.
+ * <p>
+ * There is a single coalescer per region server (see {@link #getCoalescer(RegionCoprocessorEnvironment)}),
+ * so the updates for the regions of all the primary tables on the server are merged. It doesn't
+ * own any threads - all the waiting and writing is done by the threads making the index updates.
+ */
+public class IndexWriteCoalescer {
+
+  public static final String COALESCE_WINDOW_MS_CONF_KEY = "index.writer.coalesce.window.ms";
+  private static final long DEFAULT_COALESCE_WINDOW_MS = 5;
+  public static final String MAX_COALESCED_MUTATIONS_CONF_KEY =
+      "index.writer.coalesce.max.mutations";
+  private static final int DEFAULT_MAX_COALESCED_MUTATIONS = 5000;
+
+  private final long windowMs;
+  private final int maxMutations;
+  /** the batch of each table that can still be joined, guarded by <tt>this</tt> */
+  private final Map<HTableInterfaceReference, Group> open =
+      new HashMap<HTableInterfaceReference, Group>();
+
+  /**
+   * The mutations to write to a single index table together
+   */
+  static class Group {
+    private final HTableInterfaceReference table;
+    private final Thread leader = Thread.currentThread();
+    private final long created = EnvironmentEdgeManager.currentTimeMillis();
+    private final List<Mutation> mutations = new ArrayList<Mutation>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private boolean sealed;
+    private volatile IndexWriteException failure;
+
+    private Group(HTableInterfaceReference table) {
+      this.table = table;
+    }
+
+    public HTableInterfaceReference getTable() {
+      return table;
+    }
+
+    /**
+     * @return <tt>true</tt> if the current thread is responsible for writing the group
+     */
+    public boolean isLeader() {
+      return leader == Thread.currentThread();
+    }
+  }
+
+  public IndexWriteCoalescer(Configuration conf) {
+    this(conf.getLong(COALESCE_WINDOW_MS_CONF_KEY, DEFAULT_COALESCE_WINDOW_MS), conf.getInt(
+      MAX_COALESCED_MUTATIONS_CONF_KEY, DEFAULT_MAX_COALESCED_MUTATIONS));
+  }
+
+  IndexWriteCoalescer(long windowMs, int maxMutations) {
+    this.windowMs = windowMs;
+    this.maxMutations = maxMutations;
+  }
+
+  /**
+   * Get the coalescer shared by all the regions on the server, creating it if necessary
+   * @param env environment of the region
+   * @return the coalescer for the server
+   */
+  public static IndexWriteCoalescer getCoalescer(RegionCoprocessorEnvironment env) {
+    ConcurrentMap<String, Object> sharedData = env.getSharedData();
+    String key = IndexWriteCoalescer.class.getName();
+    IndexWriteCoalescer coalescer = (IndexWriteCoalescer) sharedData.get(key);
+    if (coalescer == null) {
+      IndexWriteCoalescer newCoalescer = new IndexWriteCoalescer(env.getConfiguration());
+      coalescer = (IndexWriteCoalescer) sharedData.putIfAbsent(key, newCoalescer);
+      if (coalescer == null) {
+        coalescer = newCoalescer;
+      }
+    }
+    return coalescer;
+  }
+
+  /**
+   * Add the mutations to the open batch of the table, starting a new batch - which the current
+   * thread then leads - if there is none.
+   * @param table index table to write to
+   * @param mutations to write
+   * @return the batch the mutations were added to
+   */
+  public synchronized Group join(HTableInterfaceReference table, Collection<Mutation> mutations) {
+    Group group = open.get(table);
+    if (group == null) {
+      group = new Group(table);
+      open.put(table, group);
+    }
+    group.mutations.addAll(mutations);
+    if (group.mutations.size() >= maxMutations) {
+      // full, so let the leader write it right away
+      close(group);
+      notifyAll();
+    }
+    return group;
+  }
+
+  /**
+   * Wait for the coalescing window of the group to close, unless it is full already, and stop it
+   * from taking any more mutations. Should only be called by the leader of the group.
+   * @param group to seal
+   * @return all the mutations in the group
+   */
+  public synchronized List<Mutation> seal(Group group) {
+    boolean interrupted = false;
+    long remaining = group.created + windowMs - EnvironmentEdgeManager.currentTimeMillis();
+    while (!group.sealed && remaining > 0 && !interrupted) {
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        // write what we have so far, rather than making the other writers wait for us
+        interrupted = true;
+      }
+      remaining = group.created + windowMs - EnvironmentEdgeManager.currentTimeMillis();
+    }
+    close(group);
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return group.mutations;
+  }
+
+  private void close(Group group) {
+    if (!group.sealed) {
+      group.sealed = true;
+      open.remove(group.table);
+    }
+  }
+
+  /**
+   * Publish the outcome of writing the group to the writers waiting on it
+   * @param group that was written
+   * @param failure why the write failed, or <tt>null</tt> if it succeeded
+   */
+  public void complete(Group group, IndexWriteException failure) {
+    group.failure = failure;
+    group.done.countDown();
+  }
+
+  /**
+   * Wait for the leader of the group to write it.
+   * @param group to wait on
+   * @throws IndexWriteException if the group could not be written
+   */
+  public void await(Group group) throws IndexWriteException {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        group.done.await();
+        break;
+      } catch (InterruptedException e) {
+        // the mutations are being written anyway, so we need to wait for the outcome
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (group.failure != null) {
+      throw group.failure;
+    }
+  }
+}
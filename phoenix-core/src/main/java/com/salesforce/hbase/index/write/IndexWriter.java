@@ -57,7 +57,7 @@ import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 public class IndexWriter implements Stoppable {
 
   private static final Log LOG = LogFactory.getLog(IndexWriter.class);
-  private static final String INDEX_COMMITTER_CONF_KEY = "index.writer.commiter.class";
+  public static final String INDEX_COMMITTER_CONF_KEY = "index.writer.commiter.class";
   public static final String INDEX_FAILURE_POLICY_CONF_KEY = "index.writer.failurepolicy.class";
   private AtomicBoolean stopped = new AtomicBoolean(false);
   private IndexCommitter writer;
@@ -125,6 +125,18 @@ public class IndexWriter implements Stoppable {
     this.failurePolicy = policy;
   }
   
+  /**
+   * Pass the failure of updates that were not written through this writer, such as the updates of
+   * local indexes, to the installed {@link IndexFailurePolicy}.
+   * @param attempted map of index table -> mutations that could not be applied
+   * @param cause reason why there was a failure
+   * @throws IOException if the policy doesn't kill the server, but throws instead
+   */
+  public void handleFailure(Multimap<HTableInterfaceReference, Mutation> attempted, Exception cause)
+      throws IOException {
+    this.failurePolicy.handleFailure(attempted, cause);
+  }
+
   /**
    * Write the mutations to their respective table.
    * <p>
@@ -29,6 +29,7 @@ package com.salesforce.phoenix.cache;
 
 import static com.salesforce.phoenix.query.QueryServices.MAX_MEMORY_PERC_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_MEMORY_WAIT_MS_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.MAX_OFF_HEAP_MEMORY_PERC_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_TENANT_MEMORY_PERC_ATTRIB;
 
 import java.util.concurrent.ConcurrentHashMap;
@@ -93,6 +94,9 @@ public class GlobalCache extends TenantCacheImpl {
         super(new GlobalMemoryManager(Runtime.getRuntime().totalMemory() * 
                                           config.getInt(MAX_MEMORY_PERC_ATTRIB, QueryServicesOptions.DEFAULT_MAX_MEMORY_PERC) / 100,
                                       config.getInt(MAX_MEMORY_WAIT_MS_ATTRIB, QueryServicesOptions.DEFAULT_MAX_MEMORY_WAIT_MS)),
+              new GlobalMemoryManager(Runtime.getRuntime().maxMemory() * 
+                                          config.getInt(MAX_OFF_HEAP_MEMORY_PERC_ATTRIB, QueryServicesOptions.DEFAULT_MAX_OFF_HEAP_MEMORY_PERC) / 100,
+                                      config.getInt(MAX_MEMORY_WAIT_MS_ATTRIB, QueryServicesOptions.DEFAULT_MAX_MEMORY_WAIT_MS)),
               config.getInt(QueryServices.MAX_SERVER_CACHE_TIME_TO_LIVE_MS, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS));
         this.config = config;
     }
@@ -111,7 +115,7 @@ public class GlobalCache extends TenantCacheImpl {
         if (tenantCache == null) {
             int maxTenantMemoryPerc = config.getInt(MAX_TENANT_MEMORY_PERC_ATTRIB, QueryServicesOptions.DEFAULT_MAX_TENANT_MEMORY_PERC);
             int maxServerCacheTimeToLive = config.getInt(QueryServices.MAX_SERVER_CACHE_TIME_TO_LIVE_MS, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS);
-            TenantCacheImpl newTenantCache = new TenantCacheImpl(new ChildMemoryManager(getMemoryManager(), maxTenantMemoryPerc), maxServerCacheTimeToLive);
+            TenantCacheImpl newTenantCache = new TenantCacheImpl(new ChildMemoryManager(getMemoryManager(), maxTenantMemoryPerc), new ChildMemoryManager(getOffHeapMemoryManager(), maxTenantMemoryPerc), maxServerCacheTimeToLive);
             tenantCache = perTenantCacheMap.putIfAbsent(tenantId, newTenantCache);
             if (tenantCache == null) {
                 tenantCache = newTenantCache;
@@ -46,6 +46,7 @@ import com.salesforce.phoenix.memory.MemoryManager;
  */
 public interface TenantCache {
     MemoryManager getMemoryManager();
+    MemoryManager getOffHeapMemoryManager();
     Closeable getServerCache(ImmutableBytesPtr cacheId);
     Closeable addServerCache(ImmutableBytesPtr cacheId, ImmutableBytesWritable cachePtr, ServerCacheFactory cacheFactory) throws SQLException;
     void removeServerCache(ImmutableBytesPtr cacheId) throws SQLException;
@@ -52,10 +52,12 @@ import com.salesforce.phoenix.util.Closeables;
 public class TenantCacheImpl implements TenantCache {
     private final int maxTimeToLiveMs;
     private final MemoryManager memoryManager;
+    private final MemoryManager offHeapMemoryManager;
     private volatile Cache<ImmutableBytesPtr, Closeable> serverCaches;
 
-    public TenantCacheImpl(MemoryManager memoryManager, int maxTimeToLiveMs) {
+    public TenantCacheImpl(MemoryManager memoryManager, MemoryManager offHeapMemoryManager, int maxTimeToLiveMs) {
         this.memoryManager = memoryManager;
+        this.offHeapMemoryManager = offHeapMemoryManager;
         this.maxTimeToLiveMs = maxTimeToLiveMs;
     }
     
@@ -63,6 +65,11 @@ public class TenantCacheImpl implements TenantCache {
     public MemoryManager getMemoryManager() {
         return memoryManager;
     }
+    
+    @Override
+    public MemoryManager getOffHeapMemoryManager() {
+        return offHeapMemoryManager;
+    }
 
     private Cache<ImmutableBytesPtr,Closeable> getServerCaches() {
         /* Delay creation of this map until it's needed */
@@ -92,7 +99,16 @@ public class TenantCacheImpl implements TenantCache {
     @Override
     public Closeable addServerCache(ImmutableBytesPtr cacheId, ImmutableBytesWritable cachePtr, ServerCacheFactory cacheFactory) throws SQLException {
         MemoryChunk chunk = this.getMemoryManager().allocate(cachePtr.getLength());
-        Closeable element = cacheFactory.newCache(cachePtr, chunk);
+        Closeable element;
+        boolean success = false;
+        try {
+            element = cacheFactory.newCache(cachePtr, chunk, this.getOffHeapMemoryManager());
+            success = true;
+        } finally {
+            if (!success) {
+                chunk.close();
+            }
+        }
         getServerCaches().put(cacheId, element);
         return element;
     }
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.cache.aggcache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.salesforce.phoenix.util.SizedUtil;
+
+/**
+ * Flat storage for the fixed width aggregator state of many groups. The state of each
+ * group lives in a slot of a fixed number of bytes within a page, so aggregating a row
+ * into an existing group does not allocate any objects, and moving a group in or out of
+ * memory is a copy of its bytes. Slots that are freed are reused before the slab grows.
+ *
+ * @since 3.0.0
+ */
+public class GroupStateSlab {
+    private static final int SLOTS_PER_PAGE = 1024;
+    
+    private final int stateWidth;
+    private final List<byte[]> pages = new ArrayList<byte[]>();
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount;
+    private int slotCount;
+    
+    public GroupStateSlab(int stateWidth) {
+        if (stateWidth <= 0) {
+            throw new IllegalArgumentException("State width must be greater than zero, but instead is " + stateWidth);
+        }
+        this.stateWidth = stateWidth;
+    }
+    
+    /**
+     * Estimate of the heap size used per group, including the boxed slot
+     * number when slots are held as the values of a map.
+     */
+    public static int getEstimatedSlotSize(int stateWidth) {
+        return SizedUtil.INT_OBJECT_SIZE + stateWidth;
+    }
+    
+    public int getStateWidth() {
+        return stateWidth;
+    }
+    
+    /**
+     * Allocate a slot whose state is all zero bytes.
+     * @return the slot number
+     */
+    public int allocate() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (slotCount == pages.size() * SLOTS_PER_PAGE) {
+            pages.add(new byte[SLOTS_PER_PAGE * stateWidth]);
+        }
+        return slotCount++;
+    }
+    
+    /**
+     * Clear the state of a slot and make it available for reuse.
+     */
+    public void free(int slot) {
+        int offset = getOffset(slot);
+        Arrays.fill(getPage(slot), offset, offset + stateWidth, (byte)0);
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeSlotCount++] = slot;
+    }
+    
+    /**
+     * Get the page holding the state of a slot
+     */
+    public byte[] getPage(int slot) {
+        return pages.get(slot / SLOTS_PER_PAGE);
+    }
+    
+    /**
+     * Get the offset of the state of a slot within its page
+     */
+    public int getOffset(int slot) {
+        return (slot % SLOTS_PER_PAGE) * stateWidth;
+    }
+}
@@ -131,7 +131,12 @@ public class SpillManager implements Closeable {
     // WARNING: expensive
     private byte[] serialize(ImmutableBytesPtr key, Aggregator[] aggs,
             ServerAggregators serverAggs) throws IOException {
+        byte[] aggsByte = serverAggs.toBytes(aggs);
+        return serialize(key, aggsByte, 0, aggsByte.length);
+    }
 
+    // serialize a key/value tuple into a byte array, where the value is already in serialized form
+    private static byte[] serialize(ImmutableBytesPtr key, byte[] value, int offset, int length) throws IOException {
         DataOutputStream output = null;
         ByteArrayOutputStream bai = null;
         try {
@@ -141,11 +146,10 @@ public class SpillManager implements Closeable {
             WritableUtils.writeVInt(output, key.getLength());
             // key
             output.write(key.get(), key.getOffset(), key.getLength());
-            byte[] aggsByte = serverAggs.toBytes(aggs);
-            // aggs length
-            WritableUtils.writeVInt(output, aggsByte.length);
-            // aggs
-            output.write(aggsByte);
+            // value length
+            WritableUtils.writeVInt(output, length);
+            // value
+            output.write(value, offset, length);
             return bai.toByteArray();
         } finally {
 
@@ -183,6 +187,26 @@ public class SpillManager implements Closeable {
         }
     }
 
+    /**
+     * Helper method to get the value part from a serialized byte array
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    static ImmutableBytesPtr getValue(byte[] data) throws IOException {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new ByteArrayInputStream(data));
+            // key length
+            int keyLength = WritableUtils.readVInt(input);
+            input.skip(keyLength);
+            int valueLength = WritableUtils.readVInt(input);
+            int offset = WritableUtils.getVIntSize(keyLength) + keyLength + WritableUtils.getVIntSize(valueLength);
+            return new ImmutableBytesPtr(data, offset, valueLength);
+        } finally {
+            Closeables.closeQuietly(input);
+        }
+    }
     
     // Instantiate Aggregators form a serialized byte array
     private Aggregator[] getAggregators(byte[] data) throws IOException {
@@ -262,6 +286,43 @@ public class SpillManager implements Closeable {
         spillMap.put(keyPtr, data);
     }
 
+    /**
+     * Function that spills the fixed width aggregator state of a groupby key into a partition.
+     * Unlike {@link #spill(ImmutableBytesWritable, Aggregator[])}, the state is copied as is,
+     * without going through the Aggregators.
+     * @param key
+     * @param state the array holding the state
+     * @param offset the offset of the state of the group
+     * @param length the width of the state
+     * @throws IOException
+     */
+    public void spill(ImmutableBytesWritable key, byte[] state, int offset, int length) throws IOException {
+        SpillMap spillMap = spillMaps.get(getPartition(key));
+        ImmutableBytesPtr keyPtr = new ImmutableBytesPtr(key);
+        byte[] data = serialize(keyPtr, state, offset, length);
+        spillMap.put(keyPtr, data);
+    }
+
+    /**
+     * Function that copies the fixed width aggregator state of a spilled groupby key from one
+     * of the spill partitions back into memory.
+     * @param key
+     * @param state the array into which the state is copied
+     * @param offset the offset of the state of the group
+     * @return true if the key was spilled before and false otherwise
+     * @throws IOException
+     */
+    public boolean loadState(ImmutableBytesWritable key, byte[] state, int offset) throws IOException {
+        SpillMap spillMap = spillMaps.get(getPartition(key));
+        byte[] data = spillMap.get(key);
+        if (data == null) {
+            return false;
+        }
+        ImmutableBytesPtr value = getValue(data);
+        System.arraycopy(value.get(), value.getOffset(), state, offset, value.getLength());
+        return true;
+    }
+
     /**
      * Function that loads a spilled key/value groupby tuple from one of the spill partitions into
      * the LRU cache. Loading always involves deserialization
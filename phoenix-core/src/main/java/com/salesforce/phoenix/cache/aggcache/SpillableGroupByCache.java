@@ -37,6 +37,7 @@ import com.salesforce.phoenix.expression.aggregator.Aggregator;
 import com.salesforce.phoenix.expression.aggregator.ServerAggregators;
 import com.salesforce.phoenix.memory.InsufficientMemoryException;
 import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.KeyValueUtil;
 
 /**
@@ -94,10 +95,8 @@ public class SpillableGroupByCache implements GroupByCache {
      * inner class that makes cache queryable for other classes that should not get the full instance. Queryable view of
      * the cache
      */
-    public class QueryCache {
-        public boolean isKeyContained(ImmutableBytesPtr key) {
-            return cache.containsKey(key);
-        }
+    public interface QueryCache {
+        public boolean isKeyContained(ImmutableBytesPtr key);
     }
 
     /**
@@ -167,7 +166,12 @@ public class SpillableGroupByCache implements GroupByCache {
                             // Only create spill data structs if LRU
                             // cache is too small
                             spillManager = new SpillManager(numSpillFilesConf, aggregators, env.getConfiguration(),
-                                    new QueryCache());
+                                    new QueryCache() {
+                                        @Override
+                                        public boolean isKeyContained(ImmutableBytesPtr key) {
+                                            return cache.containsKey(key);
+                                        }
+                                    });
                         }
                         spillManager.spill(eldest.getKey(), eldest.getValue());
                         // keep track of elements in cache
@@ -201,6 +205,10 @@ public class SpillableGroupByCache implements GroupByCache {
      * implements an implicit put() of a new key/value tuple and loads it into the cache
      */
     @Override
+    public void aggregate(ImmutableBytesWritable key, Tuple result) {
+        aggregators.aggregate(cache(key), result);
+    }
+
     public Aggregator[] cache(ImmutableBytesWritable cacheKey) {
         ImmutableBytesPtr key = new ImmutableBytesPtr(cacheKey);
         Aggregator[] rowAggregators = cache.get(key);
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.cache.aggcache;
+
+import static com.salesforce.phoenix.query.QueryConstants.AGG_TIMESTAMP;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static com.salesforce.phoenix.query.QueryServices.GROUPBY_MAX_CACHE_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.GROUPBY_SPILL_FILES_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_MAX_CACHE_MAX;
+import static com.salesforce.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_SPILL_FILES;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.cache.GlobalCache;
+import com.salesforce.phoenix.cache.TenantCache;
+import com.salesforce.phoenix.coprocessor.BaseRegionScanner;
+import com.salesforce.phoenix.coprocessor.GroupByCache;
+import com.salesforce.phoenix.coprocessor.GroupedAggregateRegionObserver;
+import com.salesforce.phoenix.expression.aggregator.ServerAggregators;
+import com.salesforce.phoenix.memory.InsufficientMemoryException;
+import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.KeyValueUtil;
+
+/**
+ * Variant of {@link SpillableGroupByCache} used when all aggregators are fixed width. Instead of
+ * an Aggregator[] per group, the LRU cache maps each group to a slot of a {@link GroupStateSlab}
+ * holding the state of its aggregators. Aggregating a row into a cached group does not allocate,
+ * and spilling or loading back a group copies its state bytes to or from the spill files through
+ * the {@link SpillManager} rather than serializing and deserializing aggregators.
+ *
+ * @since 3.0.0
+ */
+public class SpillableSlabGroupByCache implements GroupByCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpillableSlabGroupByCache.class);
+
+    // Min size of 1st level main memory cache in bytes --> lower bound
+    private static final int SPGBY_CACHE_MIN_SIZE = 4096; // 4K
+
+    private final LinkedHashMap<ImmutableBytesWritable, Integer> cache;
+    private final GroupStateSlab slab;
+    private SpillManager spillManager = null;
+    private final ServerAggregators aggregators;
+    private final int estValueSize;
+    private final MemoryChunk chunk;
+
+    public SpillableSlabGroupByCache(final RegionCoprocessorEnvironment env, ImmutableBytesWritable tenantId,
+            ServerAggregators aggs, final int estSizeNum) {
+        this.aggregators = aggs;
+        this.slab = new GroupStateSlab(aggs.getStateWidth());
+        this.estValueSize = GroupStateSlab.getEstimatedSlotSize(aggs.getStateWidth());
+        final TenantCache tenantCache = GlobalCache.getTenantCache(env, tenantId);
+
+        // Compute Map initial map
+        final Configuration conf = env.getConfiguration();
+        final long maxCacheSizeConf = conf.getLong(GROUPBY_MAX_CACHE_SIZE_ATTRIB, DEFAULT_GROUPBY_MAX_CACHE_MAX);
+        final int numSpillFilesConf = conf.getInt(GROUPBY_SPILL_FILES_ATTRIB, DEFAULT_GROUPBY_SPILL_FILES);
+
+        final int maxSizeNum = (int)(maxCacheSizeConf / estValueSize);
+        final int minSizeNum = (SPGBY_CACHE_MIN_SIZE / estValueSize);
+
+        // use upper and lower bounds for the cache size
+        final int maxCacheSize = Math.max(minSizeNum, Math.min(maxSizeNum, estSizeNum));
+        final int estSize = GroupedAggregateRegionObserver.sizeOfUnorderedGroupByMap(maxCacheSize, estValueSize);
+        try {
+            this.chunk = tenantCache.getMemoryManager().allocate(estSize);
+        } catch (InsufficientMemoryException ime) {
+            logger.error("Requested Map size exceeds memory limit, please decrease max size via config paramter: "
+                    + GROUPBY_MAX_CACHE_SIZE_ATTRIB);
+            throw ime;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Instantiating LRU groupby slab cache of element size: " + maxCacheSize);
+        }
+
+        // LRU cache implemented as LinkedHashMap with access order
+        cache = new LinkedHashMap<ImmutableBytesWritable, Integer>(maxCacheSize, 0.75f, true) {
+            boolean spill = false;
+            int cacheSize = maxCacheSize;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ImmutableBytesWritable, Integer> eldest) {
+                if (!spill && size() > cacheSize) { // increase allocation
+                    cacheSize *= 1.5f;
+                    int estSize = GroupedAggregateRegionObserver.sizeOfUnorderedGroupByMap(cacheSize, estValueSize);
+                    try {
+                        chunk.resize(estSize);
+                    } catch (InsufficientMemoryException im) {
+                        // Cannot extend Map anymore, start spilling
+                        spill = true;
+                    }
+                }
+
+                if (spill) {
+                    try {
+                        if (spillManager == null) {
+                            // Lazy instantiation of spillable data structures, only
+                            // created once the LRU cache is too small
+                            spillManager = new SpillManager(numSpillFilesConf, aggregators, env.getConfiguration(),
+                                    new SpillableGroupByCache.QueryCache() {
+                                        @Override
+                                        public boolean isKeyContained(ImmutableBytesPtr key) {
+                                            return cache.containsKey(key);
+                                        }
+                                    });
+                        }
+                        int slot = eldest.getValue();
+                        spillManager.spill(eldest.getKey(), slab.getPage(slot), slab.getOffset(slot), slab.getStateWidth());
+                        slab.free(slot);
+                    } catch (IOException ioe) {
+                        // Ensure that we always close and delete the temp files
+                        try {
+                            throw new RuntimeException(ioe);
+                        } finally {
+                            Closeables.closeQuietly(SpillableSlabGroupByCache.this);
+                        }
+                    }
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Size function returns the estimate LRU cache size in bytes
+     */
+    @Override
+    public int size() {
+        return cache.size() * estValueSize;
+    }
+
+    /**
+     * Aggregates into the state of the group, first loading the state back from the spill files if
+     * the group was spilled before, or starting from a cleared state if the group is new.
+     */
+    @Override
+    public void aggregate(ImmutableBytesWritable cacheKey, Tuple result) {
+        ImmutableBytesPtr key = new ImmutableBytesPtr(cacheKey);
+        Integer slot = cache.get(key);
+        if (slot == null) {
+            slot = slab.allocate();
+            boolean loaded = false;
+            if (spillManager != null) {
+                // Spill manager present, check if key has been spilled before
+                try {
+                    loaded = spillManager.loadState(key, slab.getPage(slot), slab.getOffset(slot));
+                } catch (IOException ioe) {
+                    // Ensure that we always close and delete the temp files
+                    try {
+                        throw new RuntimeException(ioe);
+                    } finally {
+                        Closeables.closeQuietly(this);
+                    }
+                }
+            }
+            if (!loaded && logger.isDebugEnabled()) {
+                logger.debug("Adding new aggregate slot for row key "
+                        + Bytes.toStringBinary(key.get(), key.getOffset(), key.getLength()));
+            }
+            cache.put(key, slot);
+        }
+        aggregators.aggregate(slab.getPage(slot), slab.getOffset(slot), result);
+    }
+
+    /**
+     * Closes cache and releases spill resources
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        // Close spillable resources
+        Closeables.closeQuietly(spillManager);
+        Closeables.closeQuietly(chunk);
+    }
+
+    /**
+     * Get the next aggregated group, first from the spilled groups that are not in the
+     * LRU cache (which take precedence, since they are more up to date), and then from
+     * the LRU cache. Groups are returned in non-deterministic order.
+     */
+    private KeyValue nextKeyValue(Iterator<byte[]> spilledCacheIter, Iterator<Map.Entry<ImmutableBytesWritable, Integer>> cacheIter) throws IOException {
+        byte[] value;
+        ImmutableBytesWritable key;
+        if (spilledCacheIter != null) {
+            while (spilledCacheIter.hasNext()) {
+                byte[] data = spilledCacheIter.next();
+                key = SpillManager.getKey(data);
+                if (!cache.containsKey(key)) {
+                    ImmutableBytesPtr state = SpillManager.getValue(data);
+                    value = aggregators.toBytes(state.get(), state.getOffset());
+                    return KeyValueUtil.newKeyValue(key.get(), key.getOffset(), key.getLength(), SINGLE_COLUMN_FAMILY,
+                            SINGLE_COLUMN, AGG_TIMESTAMP, value, 0, value.length);
+                }
+            }
+        }
+        if (!cacheIter.hasNext()) {
+            return null;
+        }
+        Map.Entry<ImmutableBytesWritable, Integer> entry = cacheIter.next();
+        key = entry.getKey();
+        int slot = entry.getValue();
+        value = aggregators.toBytes(slab.getPage(slot), slab.getOffset(slot));
+        return KeyValueUtil.newKeyValue(key.get(), key.getOffset(), key.getLength(), SINGLE_COLUMN_FAMILY,
+                SINGLE_COLUMN, AGG_TIMESTAMP, value, 0, value.length);
+    }
+
+    @Override
+    public RegionScanner getScanner(final RegionScanner s) {
+        final Iterator<Map.Entry<ImmutableBytesWritable, Integer>> cacheIter = cache.entrySet().iterator();
+        final Iterator<byte[]> spilledCacheIter = spillManager == null ? null : spillManager.newDataIterator();
+
+        // scanner using the spillable implementation
+        return new BaseRegionScanner() {
+            private KeyValue next;
+            
+            @Override
+            public HRegionInfo getRegionInfo() {
+                return s.getRegionInfo();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    s.close();
+                } finally {
+                    // Always close gbCache and swallow possible Exceptions
+                    Closeables.closeQuietly(SpillableSlabGroupByCache.this);
+                }
+            }
+
+            @Override
+            public boolean next(List<KeyValue> results) throws IOException {
+                if (next == null) {
+                    next = nextKeyValue(spilledCacheIter, cacheIter);
+                }
+                if (next == null) {
+                    return false;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Adding new distinct group: " + next);
+                }
+                results.add(next);
+                next = nextKeyValue(spilledCacheIter, cacheIter);
+                return next != null;
+            }
+        };
+    }
+}
@@ -33,14 +33,12 @@ import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.cache.ServerCacheClient.ServerCache;
 import com.salesforce.phoenix.compile.GroupByCompiler.GroupBy;
@@ -49,6 +47,7 @@ import com.salesforce.phoenix.coprocessor.UngroupedAggregateRegionObserver;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
 import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.execute.AggregatePlan;
+import com.salesforce.phoenix.execute.MutationBuffer;
 import com.salesforce.phoenix.execute.MutationState;
 import com.salesforce.phoenix.index.IndexMetaDataCacheClient;
 import com.salesforce.phoenix.index.PhoenixIndexCodec;
@@ -93,7 +92,7 @@ public class DeleteCompiler {
         ConnectionQueryServices services = connection.getQueryServices();
         final int maxSize = services.getProps().getInt(QueryServices.MAX_MUTATION_SIZE_ATTRIB,QueryServicesOptions.DEFAULT_MAX_MUTATION_SIZE);
         final int batchSize = Math.min(connection.getMutateBatchSize(), maxSize);
-        Map<ImmutableBytesPtr,Map<PColumn,byte[]>> mutations = Maps.newHashMapWithExpectedSize(batchSize);
+        MutationBuffer mutations = new MutationBuffer(batchSize);
         try {
             PTable table = tableRef.getTable();
             List<PColumn> pkColumns = table.getPKColumns();
@@ -114,7 +113,7 @@ public class DeleteCompiler {
                 }
                 ImmutableBytesPtr ptr = new ImmutableBytesPtr();
                 table.newKey(ptr, values);
-                mutations.put(ptr, null);
+                mutations.delete(ptr);
                 if (mutations.size() > maxSize) {
                     throw new IllegalArgumentException("MutationState size of " + mutations.size() + " is bigger than max allowed size of " + maxSize);
                 }
@@ -229,8 +228,8 @@ public class DeleteCompiler {
 
                 @Override
                 public MutationState execute() {
-                    Map<ImmutableBytesPtr,Map<PColumn,byte[]>> mutation = Maps.newHashMapWithExpectedSize(1);
-                    mutation.put(key, null);
+                    MutationBuffer mutation = new MutationBuffer(1);
+                    mutation.delete(key);
                     return new MutationState(tableRef, mutation, 0, maxSize, connection);
                 }
 
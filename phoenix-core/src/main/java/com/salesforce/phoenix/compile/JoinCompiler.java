@@ -302,7 +302,7 @@ public class JoinCompiler {
             PTable t = PTableImpl.makePTable(PNameFactory.newName(PROJECTED_TABLE_SCHEMA), table.getName(), PTableType.JOIN, table.getIndexState(),
                         table.getTimeStamp(), table.getSequenceNumber(), table.getPKName(), retainPKColumns ? table.getBucketNum() : null,
                         projectedColumns, table.getParentTableName(), table.getIndexes(),
-                        table.isImmutableRows(), table.getBaseSchemaName(), null, null, null, table.isWALDisabled(), table.isMultiTenant(), table.getViewType());
+                        table.isImmutableRows(), table.getBaseSchemaName(), null, null, null, table.isWALDisabled(), table.isMultiTenant(), table.getViewType(), null);
             return new ProjectedPTableWrapper(t, columnNameMap, sourceExpressions);
         }
         
@@ -579,6 +579,44 @@ public class JoinCompiler {
             return new Pair<List<Expression>, List<Expression>>(lConditions, rConditions);
         }
         
+        /**
+         * Compiles the join conditions for a sort-merge join, in which case the keys of both
+         * sides are compared as is, since each side is sorted independently by its own keys.
+         * @return the left and right join key expressions, or null if a sort-merge join may
+         * not be used because a pair of keys doesn't have the same type and sort order
+         */
+        public Pair<List<Expression>, List<Expression>> compileSortMergeJoinConditions(StatementContext context, ColumnResolver leftResolver, ColumnResolver rightResolver) throws SQLException {
+            ColumnResolver resolver = context.getResolver();
+            List<Expression> lConditions = new ArrayList<Expression>(conditions.size());
+            List<Expression> rConditions = new ArrayList<Expression>(conditions.size());
+            try {
+                context.setResolver(leftResolver);
+                ExpressionCompiler expressionCompiler = new ExpressionCompiler(context);
+                for (ParseNode condition : conditions) {
+                    expressionCompiler.reset();
+                    lConditions.add(((EqualParseNode) condition).getLHS().accept(expressionCompiler));
+                }
+                context.setResolver(rightResolver);
+                expressionCompiler = new ExpressionCompiler(context);
+                for (ParseNode condition : conditions) {
+                    expressionCompiler.reset();
+                    rConditions.add(((EqualParseNode) condition).getRHS().accept(expressionCompiler));
+                }
+            } finally {
+                context.setResolver(resolver); // recover the resolver
+            }
+            for (int i = 0; i < lConditions.size(); i++) {
+                Expression left = lConditions.get(i);
+                Expression right = rConditions.get(i);
+                if (left.getDataType() != right.getDataType() 
+                        || left.getColumnModifier() != null || right.getColumnModifier() != null) {
+                    return null;
+                }
+            }
+            
+            return new Pair<List<Expression>, List<Expression>>(lConditions, rConditions);
+        }
+        
         private PDataType getCommonType(PDataType lType, PDataType rType) throws SQLException {
             if (lType == rType)
                 return lType;
@@ -981,6 +1019,27 @@ public class JoinCompiler {
         return NODE_FACTORY.select(statement.getFrom().subList(0, 1), statement.getHint(), statement.isDistinct(), statement.getSelect(), join.getPreFiltersCombined(), statement.getGroupBy(), statement.getHaving(), statement.getOrderBy(), statement.getLimit(), statement.getBindCount(), statement.isAggregate());
     }
     
+    // Get the main table select statement ordered by the join keys of the only join table.
+    public static SelectStatement getSortedSubqueryWithoutJoin(SelectStatement statement, JoinSpec join) {
+        JoinTable joinTable = join.getJoinTables().get(0);
+        List<OrderByNode> orderBy = new ArrayList<OrderByNode>(joinTable.getJoinConditions().size());
+        for (ParseNode condition : joinTable.getJoinConditions()) {
+            orderBy.add(NODE_FACTORY.orderBy(((EqualParseNode) condition).getLHS(), false, true));
+        }
+        return NODE_FACTORY.select(statement.getFrom().subList(0, 1), statement.getHint(), false, join.getSelect(), join.getPreFiltersCombined(), null, null, orderBy, null, statement.getBindCount(), false);
+    }
+    
+    // Get the join table select statement ordered by its join keys.
+    public static SelectStatement getSortedSubqueryForJoinTable(SelectStatement statement, JoinTable joinTable) {
+        List<OrderByNode> orderBy = new ArrayList<OrderByNode>(joinTable.getJoinConditions().size());
+        for (ParseNode condition : joinTable.getJoinConditions()) {
+            orderBy.add(NODE_FACTORY.orderBy(((EqualParseNode) condition).getRHS(), false, true));
+        }
+        List<TableNode> from = new ArrayList<TableNode>(1);
+        from.add(joinTable.getTableNode());
+        return NODE_FACTORY.select(from, statement.getHint(), false, joinTable.getSelect(), joinTable.getPreFiltersCombined(), null, null, orderBy, null, statement.getBindCount(), false);
+    }
+    
     // Get the last join table select statement with fixed-up select and where nodes.
     // Currently does NOT support last join table as a subquery.
     public static SelectStatement getSubqueryForLastJoinTable(SelectStatement statement, JoinSpec join) throws SQLException {
@@ -1033,7 +1092,7 @@ public class JoinCompiler {
         }
         PTable t = PTableImpl.makePTable(left.getSchemaName(), PNameFactory.newName(SchemaUtil.getTableName(left.getName().getString(), right.getName().getString())),
                 left.getType(), left.getIndexState(), left.getTimeStamp(), left.getSequenceNumber(), left.getPKName(), left.getBucketNum(), merged, left.getParentTableName(),
-                left.getIndexes(), left.isImmutableRows(), null, null, null, null, PTable.DEFAULT_DISABLE_WAL, left.isMultiTenant(), left.getViewType());
+                left.getIndexes(), left.isImmutableRows(), null, null, null, null, PTable.DEFAULT_DISABLE_WAL, left.isMultiTenant(), left.getViewType(), null);
 
         ListMultimap<String, String> mergedMap = ArrayListMultimap.<String, String>create();
         mergedMap.putAll(lWrapper.getColumnNameMap());
@@ -27,18 +27,69 @@
  ******************************************************************************/
 package com.salesforce.phoenix.compile;
 
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_BUILD_RANGE_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TABLE_FAMILY_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_TABLE_NAME_BYTES;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.exception.SQLExceptionCode;
+import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.execute.MutationState;
 import com.salesforce.phoenix.jdbc.PhoenixConnection;
 import com.salesforce.phoenix.jdbc.PhoenixParameterMetaData;
+import com.salesforce.phoenix.job.JobGroup;
+import com.salesforce.phoenix.job.JobManager.JobCallable;
+import com.salesforce.phoenix.query.ConnectionQueryServices;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.ColumnNotFoundException;
 import com.salesforce.phoenix.schema.PColumn;
+import com.salesforce.phoenix.schema.PIndexState;
 import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.PTable.IndexType;
+import com.salesforce.phoenix.schema.PTableImpl;
+import com.salesforce.phoenix.schema.PTableType;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.util.ByteUtil;
 import com.salesforce.phoenix.util.IndexUtil;
+import com.salesforce.phoenix.util.IndexUtil.IndexBuildListener;
+import com.salesforce.phoenix.util.ReadOnlyProps;
+import com.salesforce.phoenix.util.ScanUtil;
+import com.salesforce.phoenix.util.SchemaUtil;
+import com.salesforce.phoenix.util.ServerUtil;
 
 
 /**
@@ -46,6 +97,7 @@ import com.salesforce.phoenix.util.IndexUtil;
  * index table.
  */
 public class PostIndexDDLCompiler {
+    private static final Logger logger = LoggerFactory.getLogger(PostIndexDDLCompiler.class);
     private final PhoenixConnection connection;
     private final TableRef dataTableRef;
 
@@ -77,16 +129,23 @@ public class PostIndexDDLCompiler {
                 boolean wasAutoCommit = connection.getAutoCommit();
                 try {
                     connection.setAutoCommit(true);
+                    // Rows of a view or of a tenant are a subset of the rows of the physical table, so
+                    // their indexes still go through the UPSERT SELECT below
+                    if (indexTable.getIndexType() == IndexType.LOCAL
+                            || (dataTableRef.getTable().getType() == PTableType.USER && connection.getTenantId() == null)) {
+                        final long count = buildIndexOnServer(indexTable);
+                        return new MutationState(1, connection) {
+                            @Override
+                            public long getUpdateCount() {
+                                return count;
+                            }
+                        };
+                    }
                     /*
                      * Handles:
                      * 1) Populate a newly created table with contents.
                      * 2) Activate the index by setting the INDEX_STATE to 
                      */
-                    // NOTE: For first version, we would use a upsert/select to populate the new index table and
-                    //   returns synchronously. Creating an index on an existing table with large amount of data
-                    //   will as a result take a very very long time.
-                    //   In the long term, we should change this to an asynchronous process to populate the index
-                    //   that would allow the user to easily monitor the process of index creation.
                     StringBuilder indexColumns = new StringBuilder();
                     StringBuilder dataColumns = new StringBuilder();
                     for (PColumn col: dataTableRef.getTable().getColumns()) {
@@ -124,4 +183,276 @@ public class PostIndexDDLCompiler {
         };
     }
 
+    /**
+     * Progress of the server-side build of an index over a key range of the data table, kept in the
+     * header row of the index so that a build that didn't complete is resumed by ALTER INDEX ... REBUILD.
+     * The key ranges are those of the regions of the data table when the build began.
+     */
+    private static class RangeProgress {
+        private final byte[] startKey;
+        private final byte[] stopKey;
+        private final byte[] resumeKey; // Null once the range is built
+        
+        private RangeProgress(byte[] startKey, byte[] stopKey, byte[] resumeKey) {
+            this.startKey = startKey;
+            this.stopKey = stopKey;
+            this.resumeKey = resumeKey;
+        }
+        
+        private static RangeProgress fromKeyValue(KeyValue kv) throws IOException {
+            byte[] qualifier = kv.getQualifier();
+            byte[] startKey = Arrays.copyOfRange(qualifier, INDEX_BUILD_RANGE_BYTES.length, qualifier.length);
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(kv.getValue()));
+            boolean isBuilt = input.readBoolean();
+            byte[] stopKey = Bytes.readByteArray(input);
+            byte[] resumeKey = Bytes.readByteArray(input);
+            return new RangeProgress(startKey, stopKey, isBuilt ? null : resumeKey);
+        }
+        
+        private byte[] getQualifier() {
+            return ByteUtil.concat(INDEX_BUILD_RANGE_BYTES, startKey);
+        }
+        
+        private byte[] getValue() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeBoolean(resumeKey == null);
+            Bytes.writeByteArray(output, stopKey);
+            Bytes.writeByteArray(output, resumeKey == null ? ByteUtil.EMPTY_BYTE_ARRAY : resumeKey);
+            output.flush();
+            return bytes.toByteArray();
+        }
+    }
+    
+    private static byte[] getIndexKey(PhoenixConnection connection, PTable index) {
+        return SchemaUtil.getTableKey(connection.getTenantId() == null ? null : connection.getTenantId().getString(),
+                index.getSchemaName().getString(), index.getTableName().getString());
+    }
+    
+    private static List<RangeProgress> getBuildProgress(PhoenixConnection connection, PTable index) throws SQLException {
+        Get get = new Get(getIndexKey(connection, index));
+        get.addFamily(TABLE_FAMILY_BYTES);
+        get.setFilter(new ColumnPrefixFilter(INDEX_BUILD_RANGE_BYTES));
+        try {
+            HTableInterface htable = connection.getQueryServices().getTable(TYPE_TABLE_NAME_BYTES);
+            try {
+                KeyValue[] kvs = htable.get(get).raw();
+                List<RangeProgress> ranges = Lists.newArrayListWithExpectedSize(kvs.length);
+                for (KeyValue kv : kvs) {
+                    ranges.add(RangeProgress.fromKeyValue(kv));
+                }
+                return ranges;
+            } finally {
+                htable.close();
+            }
+        } catch (IOException e) {
+            throw ServerUtil.parseServerException(e);
+        }
+    }
+    
+    private static void saveBuildProgress(ConnectionQueryServices services, byte[] indexKey, List<RangeProgress> ranges) throws IOException, SQLException {
+        Put put = new Put(indexKey);
+        for (RangeProgress range : ranges) {
+            put.add(TABLE_FAMILY_BYTES, range.getQualifier(), range.getValue());
+        }
+        HTableInterface htable = services.getTable(TYPE_TABLE_NAME_BYTES);
+        try {
+            htable.put(put);
+        } finally {
+            htable.close();
+        }
+    }
+    
+    /**
+     * Determines whether the server-side build of an index didn't complete, in which case it may
+     * be resumed, as long as the index has been maintained since the build began.
+     */
+    public static boolean hasBuildProgress(PhoenixConnection connection, PTable index) throws SQLException {
+        return !getBuildProgress(connection, index).isEmpty();
+    }
+    
+    private static void clearBuildProgress(PhoenixConnection connection, PTable index) throws SQLException {
+        List<RangeProgress> ranges = getBuildProgress(connection, index);
+        if (ranges.isEmpty()) {
+            return;
+        }
+        Delete delete = new Delete(getIndexKey(connection, index));
+        for (RangeProgress range : ranges) {
+            delete.deleteColumns(TABLE_FAMILY_BYTES, range.getQualifier());
+        }
+        try {
+            HTableInterface htable = connection.getQueryServices().getTable(TYPE_TABLE_NAME_BYTES);
+            try {
+                htable.delete(delete);
+            } finally {
+                htable.close();
+            }
+        } catch (IOException e) {
+            throw ServerUtil.parseServerException(e);
+        }
+    }
+
+    /**
+     * Populates the index on the region servers instead of through an UPSERT SELECT, which funnels
+     * every row of the data table through the client. The regions of the data table are built in
+     * parallel, at most {@link QueryServices#INDEX_BUILD_MAX_CONCURRENT_REGIONS_ATTRIB} at a time,
+     * each by scanning itself and writing the rows of the index, in chunks bounded by
+     * {@link QueryServices#INDEX_BUILD_CHUNK_TIME_MS_ATTRIB}. A region reports the key at which
+     * its build is to be resumed after each chunk, so that a failed chunk is retried from there.
+     * Unless the connection is at a fixed point in time, that key is also saved in the header row
+     * of the index, so that a build that failed is resumed from the progress it saved: regions
+     * already built are skipped and the others continue from their last chunk.
+     * This only returns once every region has completed its build.
+     * @return the number of data rows scanned by this build
+     */
+    private long buildIndexOnServer(PTable indexTable) throws SQLException {
+        final PTable dataTable = dataTableRef.getTable();
+        final ConnectionQueryServices services = connection.getQueryServices();
+        ReadOnlyProps props = services.getProps();
+        final int maxRetries = props.getInt(QueryServices.INDEX_BUILD_RETRIES_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_BUILD_RETRIES);
+        long chunkTimeMs = props.getInt(QueryServices.INDEX_BUILD_CHUNK_TIME_MS_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_BUILD_CHUNK_TIME_MS);
+        // The data table may have been resolved before the index was created
+        List<PTable> indexes = Collections.singletonList(indexTable);
+        final Scan scan = IndexUtil.newIndexBuildScan(PTableImpl.makePTable(dataTable, dataTable.getTimeStamp(), indexes), indexes, chunkTimeMs);
+        Long scn = connection.getSCN();
+        ScanUtil.setTimeRange(scan, scn == null ? HConstants.LATEST_TIMESTAMP : scn);
+        
+        final byte[] physicalTableName = dataTable.getPhysicalName().getBytes();
+        // Progress kept at a later time stamp than that of a connection at a fixed point in time
+        // would survive a drop of the index by it
+        final byte[] indexKey = scn == null ? getIndexKey(connection, indexTable) : null;
+        List<RangeProgress> ranges = Collections.emptyList();
+        if (indexKey != null) {
+            // The index was in the given state before this build. Only an index that was still building
+            // has been maintained since its last build began, so the progress of any other is discarded.
+            if (indexTable.getIndexState() == PIndexState.BUILDING) {
+                ranges = getBuildProgress(connection, indexTable);
+            } else {
+                clearBuildProgress(connection, indexTable);
+            }
+        }
+        if (ranges.isEmpty()) {
+            List<HRegionLocation> regions = services.getAllTableRegions(physicalTableName);
+            ranges = Lists.newArrayListWithExpectedSize(regions.size());
+            for (HRegionLocation region : regions) {
+                HRegionInfo regionInfo = region.getRegionInfo();
+                ranges.add(new RangeProgress(regionInfo.getStartKey(), regionInfo.getEndKey(), regionInfo.getStartKey()));
+            }
+            if (indexKey != null) {
+                try {
+                    saveBuildProgress(services, indexKey, ranges);
+                } catch (IOException e) {
+                    throw ServerUtil.parseServerException(e);
+                }
+            }
+        }
+        final AtomicBoolean isCanceled = new AtomicBoolean();
+        int maxConcurrentRegions = props.getInt(QueryServices.INDEX_BUILD_MAX_CONCURRENT_REGIONS_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_BUILD_MAX_CONCURRENT_REGIONS);
+        // All regions of this index build are scheduled together, like the scans of a query
+        Object shareKey = connection.getTenantId() == null ? connection : connection.getTenantId().getString();
+        final JobGroup jobGroup = new JobGroup(shareKey, JobGroup.Priority.NORMAL, 1, maxConcurrentRegions);
+        // The queue only holds back the regions of a job group beyond its maximum concurrency while
+        // other jobs are waiting, so the regions in flight are capped here as well, which also keeps
+        // the remaining regions of a large table from filling up the queue
+        final Semaphore inFlight = new Semaphore(maxConcurrentRegions <= 0 ? Integer.MAX_VALUE : maxConcurrentRegions);
+        ExecutorService executor = services.getExecutor();
+        List<Future<Long>> futures = Lists.newArrayListWithExpectedSize(ranges.size());
+        long rowCount = 0;
+        boolean success = false;
+        try {
+            for (final RangeProgress range : ranges) {
+                if (range.resumeKey == null) {
+                    continue;
+                }
+                inFlight.acquire();
+                if (isCanceled.get()) {
+                    // A region failed, which is reported when its future is checked below
+                    inFlight.release();
+                    break;
+                }
+                try {
+                    futures.add(executor.submit(new JobCallable<Long>() {
+
+                        @Override
+                        public Long call() throws Exception {
+                            try {
+                                return buildRangeIndex(services, physicalTableName, scan, range, maxRetries, isCanceled, indexKey);
+                            } catch (Exception e) {
+                                // Don't start the build of any more regions
+                                isCanceled.set(true);
+                                throw e;
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+
+                        @Override
+                        public Object getJobId() {
+                            return jobGroup;
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    // The executor is saturated, so build the region on this thread instead
+                    try {
+                        rowCount += buildRangeIndex(services, physicalTableName, scan, range, maxRetries, isCanceled, indexKey);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            }
+            // No timeout, as the build of a region takes as long as its data requires
+            for (Future<Long> future : futures) {
+                rowCount += future.get();
+            }
+            if (indexKey != null) {
+                clearBuildProgress(connection, indexTable);
+            }
+            success = true;
+            return rowCount;
+        } catch (ExecutionException e) {
+            throw ServerUtil.parseServerException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLExceptionInfo.Builder(SQLExceptionCode.INTERRUPTED_EXCEPTION).setRootCause(e).build().buildException();
+        } finally {
+            if (!success) {
+                isCanceled.set(true);
+                for (Future<Long> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Builds the index for a key range of the data table that was a region when the build began,
+     * from the key at which its build is to be resumed, saving its progress after each chunk if
+     * an index key is given. If the region has split since, the scan runs across its daughters.
+     * @return the number of data rows scanned
+     */
+    private static long buildRangeIndex(final ConnectionQueryServices services, byte[] physicalTableName, Scan scan, final RangeProgress range,
+            int maxRetries, AtomicBoolean isCanceled, final byte[] indexKey) throws SQLException {
+        IndexBuildListener listener = indexKey == null ? null : new IndexBuildListener() {
+            @Override
+            public void chunkBuilt(byte[] resumeKey) throws IOException {
+                try {
+                    saveBuildProgress(services, indexKey, Collections.singletonList(new RangeProgress(range.startKey, range.stopKey, resumeKey)));
+                } catch (SQLException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        HTableInterface htable = services.getTable(physicalTableName);
+        try {
+            return IndexUtil.buildIndex(htable, scan, new AtomicReference<byte[]>(range.resumeKey), range.stopKey, maxRetries, isCanceled, listener);
+        } catch (IOException e) {
+            throw ServerUtil.parseServerException(e);
+        } finally {
+            try {
+                htable.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close table after index build of " + Bytes.toStringBinary(range.startKey), e);
+            }
+        }
+    }
 }
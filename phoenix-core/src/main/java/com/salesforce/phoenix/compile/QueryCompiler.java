@@ -32,6 +32,7 @@ import java.sql.SQLFeatureNotSupportedException;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.util.Pair;
 
@@ -48,17 +49,24 @@ import com.salesforce.phoenix.execute.BasicQueryPlan;
 import com.salesforce.phoenix.execute.DegenerateQueryPlan;
 import com.salesforce.phoenix.execute.HashJoinPlan;
 import com.salesforce.phoenix.execute.ScanPlan;
+import com.salesforce.phoenix.execute.SortMergeJoinPlan;
 import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.expression.RowKeyColumnExpression;
+import com.salesforce.phoenix.iterate.DefaultParallelIteratorRegionSplitter;
 import com.salesforce.phoenix.iterate.ParallelIterators.ParallelIteratorFactory;
 import com.salesforce.phoenix.jdbc.PhoenixConnection;
 import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
 import com.salesforce.phoenix.jdbc.PhoenixStatement;
 import com.salesforce.phoenix.join.HashJoinInfo;
 import com.salesforce.phoenix.join.ScanProjector;
+import com.salesforce.phoenix.parse.HintNode.Hint;
 import com.salesforce.phoenix.parse.JoinTableNode.JoinType;
 import com.salesforce.phoenix.parse.ParseNode;
 import com.salesforce.phoenix.parse.SelectStatement;
+import com.salesforce.phoenix.query.ConnectionQueryServices;
 import com.salesforce.phoenix.query.QueryConstants;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.AmbiguousColumnException;
 import com.salesforce.phoenix.schema.ColumnNotFoundException;
 import com.salesforce.phoenix.schema.PDatum;
@@ -66,6 +74,7 @@ import com.salesforce.phoenix.schema.PIndexState;
 import com.salesforce.phoenix.schema.PTable;
 import com.salesforce.phoenix.schema.PTableType;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
 import com.salesforce.phoenix.util.ScanUtil;
 
 
@@ -159,6 +168,12 @@ public class QueryCompiler {
         
         boolean[] starJoinVector = JoinCompiler.getStarJoinVector(join);
         if (starJoinVector != null) {
+            if (joinTables.size() == 1 && !asSubquery) {
+                QueryPlan plan = compileSortMergeJoinQuery(select, binds, join);
+                if (plan != null) {
+                    return plan;
+                }
+            }
             ProjectedPTableWrapper initialProjectedTable = join.createProjectedTable(join.getMainTable(), !asSubquery);
             PTableWrapper projectedTable = initialProjectedTable;
             int count = joinTables.size();
@@ -169,6 +184,9 @@ public class QueryCompiler {
             PTable[] tables = new PTable[count];
             int[] fieldPositions = new int[count];
             QueryPlan[] joinPlans = new QueryPlan[count];
+            int keyRangeJoinIndex = -1;
+            Expression keyRangeLhsExpression = null;
+            Expression keyRangeRhsExpression = null;
             fieldPositions[0] = projectedTable.getTable().getColumns().size() - projectedTable.getTable().getPKColumns().size();
             for (int i = 0; i < count; i++) {
                 JoinTable joinTable = joinTables.get(i);
@@ -196,6 +214,14 @@ public class QueryCompiler {
                 joinExpressions[i] = joinConditions.getFirst();
                 hashExpressions[i] = joinConditions.getSecond();
                 joinTypes[i] = joinTable.getType();
+                if (keyRangeJoinIndex < 0 && joinTypes[i] == JoinType.Inner) {
+                    int pos = getLeadingRowKeyColumnJoinPosition(join.getMainTable(), joinExpressions[i], select);
+                    if (pos >= 0) {
+                        keyRangeJoinIndex = i;
+                        keyRangeLhsExpression = joinExpressions[i].get(pos);
+                        keyRangeRhsExpression = hashExpressions[i].get(pos);
+                    }
+                }
                 if (i < count - 1) {
                     fieldPositions[i + 1] = fieldPositions[i] + (tables[i] == null ? 0 : (tables[i].getColumns().size() - tables[i].getPKColumns().size()));
                 }
@@ -207,7 +233,7 @@ public class QueryCompiler {
             BasicQueryPlan plan = compileSingleQuery(context, JoinCompiler.getSubqueryWithoutJoin(select, join), binds);
             Expression postJoinFilterExpression = join.compilePostFilterExpression(context);
             HashJoinInfo joinInfo = new HashJoinInfo(projectedTable.getTable(), joinIds, joinExpressions, joinTypes, starJoinVector, tables, fieldPositions, postJoinFilterExpression);
-            return new HashJoinPlan(plan, joinInfo, hashExpressions, joinPlans);
+            return new HashJoinPlan(plan, joinInfo, hashExpressions, joinPlans, keyRangeJoinIndex, keyRangeLhsExpression, keyRangeRhsExpression);
         }
         
         JoinTable lastJoinTable = joinTables.get(joinTables.size() - 1);
@@ -246,6 +272,126 @@ public class QueryCompiler {
         throw new SQLFeatureNotSupportedException("Joins with pattern 'A right join B left join C' not supported.");
     }
     
+    /**
+     * Finds the join key of the main table that is its leading row key column, in which case the
+     * key values of the join table may be used to skip scan over the main table.
+     * @return the index of the join key, or -1 if there's none
+     */
+    private int getLeadingRowKeyColumnJoinPosition(TableRef mainTable, List<Expression> joinExpressions, SelectStatement select) {
+        PTable table = mainTable.getTable();
+        if (table.getBucketNum() != null || select.getHint().hasHint(Hint.RANGE_SCAN)) {
+            return -1;
+        }
+        int pkPos = statement.getConnection().getTenantId() != null && table.isMultiTenant() ? 1 : 0;
+        for (int i = 0; i < joinExpressions.size(); i++) {
+            Expression expression = joinExpressions.get(i);
+            if (expression instanceof RowKeyColumnExpression 
+                    && ((RowKeyColumnExpression) expression).getPosition() == pkPos
+                    && expression.getColumnModifier() == null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Compiles a join of the main table with a single join table as a sort-merge join, which
+     * is used instead of a hash join when the join table is hinted or estimated to be too big
+     * to fit into the server-side hash cache.
+     * @return the sort-merge join plan, or null if a hash join should be used instead
+     */
+    protected QueryPlan compileSortMergeJoinQuery(SelectStatement select, List<Object> binds, JoinSpec join) throws SQLException {
+        JoinTable joinTable = join.getJoinTables().get(0);
+        // The hash join pushes aggregation to the server, while the merge only happens on the client
+        if (select.isAggregate() || select.isDistinct() || !select.getGroupBy().isEmpty() || joinTable.getSubquery() != null) {
+            return null;
+        }
+        ConnectionQueryServices services = statement.getConnection().getQueryServices();
+        long maxServerCacheSize = services.getProps().getLong(QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_SIZE);
+        boolean isHinted = select.getHint().hasHint(Hint.USE_SORT_MERGE_JOIN);
+        // Rule out the common case of a small join table before compiling anything
+        if (!isHinted && getEstimatedByteCount(joinTable.getTable(), null) <= maxServerCacheSize) {
+            return null;
+        }
+        
+        TableRef mainTable = join.getMainTable();
+        ProjectedPTableWrapper lhsProjTable = join.createProjectedTable(mainTable, true);
+        ColumnResolver lhsResolver = JoinCompiler.getColumnResolver(lhsProjTable);
+        Scan lhsScan = ScanUtil.newScan(scanCopy);
+        ScanProjector.serializeProjectorIntoScan(lhsScan, JoinCompiler.getScanProjector(lhsProjTable));
+        StatementContext lhsContext = new StatementContext(statement, lhsResolver, binds, lhsScan);
+        lhsContext.setCurrentTable(mainTable);
+        join.projectColumns(lhsScan, mainTable);
+        
+        ProjectedPTableWrapper rhsProjTable = join.createProjectedTable(joinTable.getTable(), false);
+        ColumnResolver rhsResolver = JoinCompiler.getColumnResolver(rhsProjTable);
+        Scan rhsScan = ScanUtil.newScan(scanCopy);
+        ScanProjector.serializeProjectorIntoScan(rhsScan, JoinCompiler.getScanProjector(rhsProjTable));
+        StatementContext rhsContext = new StatementContext(statement, rhsResolver, binds, rhsScan);
+        rhsContext.setCurrentTable(joinTable.getTable());
+        join.projectColumns(rhsScan, joinTable.getTable());
+        
+        Pair<List<Expression>, List<Expression>> joinConditions = joinTable.compileSortMergeJoinConditions(lhsContext, lhsResolver, rhsResolver);
+        if (joinConditions == null) {
+            return null;
+        }
+        QueryPlan rhsPlan = compileSingleQuery(rhsContext, JoinCompiler.getSortedSubqueryForJoinTable(select, joinTable), binds);
+        // Only the regions of the join table that will actually be scanned count towards its size
+        if (!isHinted && getEstimatedByteCount(joinTable.getTable(), rhsScan) <= maxServerCacheSize) {
+            return null;
+        }
+        QueryPlan lhsPlan = compileSingleQuery(lhsContext, JoinCompiler.getSortedSubqueryWithoutJoin(select, join), binds);
+        
+        JoinType type = joinTable.getType();
+        PTableWrapper projectedTable = lhsProjTable;
+        PTable rhsTable = null;
+        if (join.hasPostReference(joinTable.getTable())) {
+            rhsTable = rhsProjTable.getTable();
+            projectedTable = JoinCompiler.mergeProjectedTables(lhsProjTable, rhsProjTable, type == JoinType.Inner);
+        }
+        int fieldPosition = lhsProjTable.getTable().getColumns().size() - lhsProjTable.getTable().getPKColumns().size();
+        SelectStatement subquery = JoinCompiler.getSubqueryWithoutJoin(select, join);
+        StatementContext context = new StatementContext(statement, JoinCompiler.getColumnResolver(projectedTable), binds, ScanUtil.newScan(scanCopy));
+        context.setCurrentTable(mainTable);
+        Integer limit = LimitCompiler.compile(context, subquery);
+        OrderBy orderBy = OrderByCompiler.compile(context, subquery, GroupBy.EMPTY_GROUP_BY, limit);
+        // Rows come back in the order of the join keys, not of the row key of the main table
+        if (orderBy == OrderBy.ROW_KEY_ORDER_BY) {
+            return null;
+        }
+        RowProjector projector = ProjectionCompiler.compile(context, subquery, GroupBy.EMPTY_GROUP_BY, targetColumns);
+        Expression postJoinFilterExpression = join.compilePostFilterExpression(context);
+        int maxRows = statement.getMaxRows();
+        if (maxRows > 0) {
+            if (limit != null) {
+                limit = Math.min(limit, maxRows);
+            } else {
+                limit = maxRows;
+            }
+        }
+        return new SortMergeJoinPlan(context, subquery, mainTable, type, lhsPlan, rhsPlan, 
+                joinConditions.getFirst(), joinConditions.getSecond(), projectedTable.getTable(), 
+                lhsProjTable.getTable(), rhsTable, fieldPosition, postJoinFilterExpression, projector, limit, orderBy);
+    }
+    
+    /**
+     * Estimates the number of bytes of a table from the statistics collected for each of its
+     * regions, only counting the regions that intersect the range of the scan if provided.
+     */
+    private long getEstimatedByteCount(TableRef tableRef, Scan scan) throws SQLException {
+        ConnectionQueryServices services = statement.getConnection().getQueryServices();
+        List<HRegionLocation> regions = services.getAllTableRegions(tableRef.getTable().getPhysicalName().getBytes());
+        if (scan != null) {
+            regions = DefaultParallelIteratorRegionSplitter.filterRegions(regions, scan.getStartRow(), scan.getStopRow());
+        }
+        PTableStats tableStats = services.getStatsManager().getTableStats(tableRef);
+        long byteCount = 0;
+        for (HRegionLocation region : regions) {
+            byteCount += tableStats.getRegionByteCount(region.getRegionInfo());
+        }
+        return byteCount;
+    }
+    
     protected BasicQueryPlan compileSingleQuery(StatementContext context, SelectStatement select, List<Object> binds) throws SQLException{
         PhoenixConnection connection = statement.getConnection();
         ColumnResolver resolver = context.getResolver();
@@ -30,11 +30,15 @@ package com.salesforce.phoenix.compile;
 import java.sql.SQLException;
 import java.text.Format;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
+import com.salesforce.phoenix.coprocessor.BatchFilterRegionScanner;
+import com.salesforce.phoenix.exception.SQLExceptionCode;
+import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.jdbc.PhoenixConnection;
 import com.salesforce.phoenix.jdbc.PhoenixStatement;
 import com.salesforce.phoenix.query.KeyRange;
@@ -73,6 +77,9 @@ public class StatementContext {
     private ScanRanges scanRanges = ScanRanges.EVERYTHING;
     private KeyRange minMaxRange = null;
     private final SequenceManager sequences; 
+    private final AtomicBoolean isCancelled;
+    private final long queryTimeoutMs;
+    private final long deadline;
 
     private TableRef currentTable;
     
@@ -91,6 +98,9 @@ public class StatementContext {
         this.tempPtr = new ImmutableBytesWritable();
         this.currentTable = resolver != null && !resolver.getTables().isEmpty() ? resolver.getTables().get(0) : null;
         this.sequences = new SequenceManager(statement);
+        this.isCancelled = statement.getCancelledFlag();
+        this.queryTimeoutMs = statement.getQueryTimeoutMs();
+        this.deadline = queryTimeoutMs > 0 ? System.currentTimeMillis() + queryTimeoutMs : Long.MAX_VALUE;
     }
 
     public String getDateFormat() {
@@ -227,10 +237,38 @@ public class StatementContext {
     }
     
     public boolean isSingleRowScan() {
-        return this.getScanRanges().isSingleRowScan() && ! (this.getScan().getFilter() instanceof FilterList);
+        return this.getScanRanges().isSingleRowScan() && ! (this.getScan().getFilter() instanceof FilterList)
+                && this.getScan().getAttribute(BatchFilterRegionScanner.BATCH_FILTER) == null;
     }
     
     public SequenceManager getSequenceManager(){
         return sequences;
     }
+    
+    /**
+     * Cancels the query, causing the scans being run for it to stop at their next row
+     */
+    public void cancel() {
+        isCancelled.set(true);
+    }
+    
+    public boolean isCancelled() {
+        return isCancelled.get();
+    }
+    
+    /**
+     * Checked by each scan run for the query between rows, so that a query that has been cancelled
+     * or has outlived the query timeout of its statement closes its scanners and frees their memory
+     * instead of running to completion.
+     * @throws SQLException if the query has been cancelled or has timed out
+     */
+    public void checkCancelled() throws SQLException {
+        if (isCancelled.get()) {
+            throw new SQLExceptionInfo.Builder(SQLExceptionCode.QUERY_CANCELLED).build().buildException();
+        }
+        if (deadline != Long.MAX_VALUE && System.currentTimeMillis() > deadline) {
+            throw new SQLExceptionInfo.Builder(SQLExceptionCode.QUERY_TIMEOUT)
+                .setMessage("Exceeded query timeout of " + queryTimeoutMs + "ms").build().buildException();
+        }
+    }
 }
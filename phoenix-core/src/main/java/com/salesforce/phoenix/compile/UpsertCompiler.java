@@ -54,6 +54,7 @@ import com.salesforce.phoenix.coprocessor.UngroupedAggregateRegionObserver;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
 import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.execute.AggregatePlan;
+import com.salesforce.phoenix.execute.MutationBuffer;
 import com.salesforce.phoenix.execute.MutationState;
 import com.salesforce.phoenix.expression.Expression;
 import com.salesforce.phoenix.expression.LiteralExpression;
@@ -77,6 +78,7 @@ import com.salesforce.phoenix.parse.LiteralParseNode;
 import com.salesforce.phoenix.parse.ParseNode;
 import com.salesforce.phoenix.parse.SelectStatement;
 import com.salesforce.phoenix.parse.SequenceValueParseNode;
+import com.salesforce.phoenix.parse.StatelessTraverseAllParseNodeVisitor;
 import com.salesforce.phoenix.parse.UpsertStatement;
 import com.salesforce.phoenix.parse.UpsertStmtArrayNode;
 import com.salesforce.phoenix.query.ConnectionQueryServices;
@@ -101,8 +103,10 @@ import com.salesforce.phoenix.util.ByteUtil;
 import com.salesforce.phoenix.util.SchemaUtil;
 
 public class UpsertCompiler {
-    private static void setValues(byte[][] values, int[] pkSlotIndex, int[] columnIndexes, PTable table, Map<ImmutableBytesPtr,Map<PColumn,byte[]>> mutation) {
-        Map<PColumn,byte[]> columnValues = Maps.newHashMapWithExpectedSize(columnIndexes.length);
+    private static void setValues(byte[][] values, int[] pkSlotIndex, int[] columnIndexes, PTable table, MutationBuffer mutation) {
+        PColumn[] columns = new PColumn[columnIndexes.length];
+        byte[][] columnValues = new byte[columnIndexes.length][];
+        int nColumns = 0;
         byte[][] pkValues = new byte[table.getPKColumns().size()][];
         // If the table uses salting, the first byte is the salting byte, set to an empty array
         // here and we will fill in the byte later in PRowImpl.
@@ -115,12 +119,13 @@ public class UpsertCompiler {
             if (SchemaUtil.isPKColumn(column)) {
                 pkValues[pkSlotIndex[i]] = value;
             } else {
-                columnValues.put(column, value);
+                columns[nColumns] = column;
+                columnValues[nColumns++] = value;
             }
         }
         ImmutableBytesPtr ptr = new ImmutableBytesPtr();
         table.newKey(ptr, pkValues);
-        mutation.put(ptr, columnValues);
+        mutation.upsert(ptr, columns, columnValues, nColumns);
     }
 
     private static MutationState upsertSelect(PhoenixStatement statement, 
@@ -134,7 +139,7 @@ public class UpsertCompiler {
             boolean isAutoCommit = connection.getAutoCommit();
             byte[][] values = new byte[columnIndexes.length][];
             int rowCount = 0;
-            Map<ImmutableBytesPtr,Map<PColumn,byte[]>> mutation = Maps.newHashMapWithExpectedSize(batchSize);
+            MutationBuffer mutation = new MutationBuffer(batchSize);
             PTable table = tableRef.getTable();
             ResultSet rs = new PhoenixResultSet(iterator, projector, statement);
             while (rs.next()) {
@@ -214,6 +219,20 @@ public class UpsertCompiler {
     }
     
     public MutationPlan compile(UpsertStatement upsert) throws SQLException {
+        return compile(upsert, Collections.singletonList(statement.getParameters()));
+    }
+    
+    /**
+     * Compile an UPSERT VALUES statement once for a batch of bind parameter sets. The table is
+     * resolved and the target columns are mapped a single time, after which only the value
+     * expressions are bound and evaluated for each parameter set. Executing the returned plan
+     * encodes every row of the batch into the same mutation state.
+     * @param upsert the UPSERT statement
+     * @param batch the bind values for each row, in the order they were added
+     * @return the plan that upserts all rows of the batch
+     * @throws SQLException
+     */
+    public MutationPlan compile(UpsertStatement upsert, List<List<Object>> batch) throws SQLException {
         final PhoenixConnection connection = statement.getConnection();
         ConnectionQueryServices services = connection.getQueryServices();
         final int maxSize = services.getProps().getInt(QueryServices.MAX_MUTATION_SIZE_ATTRIB,QueryServicesOptions.DEFAULT_MAX_MUTATION_SIZE);
@@ -602,74 +621,85 @@ public class UpsertCompiler {
         ////////////////////////////////////////////////////////////////////
         // UPSERT VALUES
         /////////////////////////////////////////////////////////////////////
-        int nodeIndex = 0;
         // Allocate array based on size of all columns in table,
         // since some values may not be set (if they're nullable).
-        final StatementContext context = new StatementContext(statement, resolver, statement.getParameters(), new Scan());
-        ImmutableBytesWritable ptr = context.getTempPtr();
-        UpsertValuesCompiler expressionBuilder = new UpsertValuesCompiler(context);
-        List<Expression> constantExpressions = Lists.newArrayListWithExpectedSize(valueNodes.size());
-        // First build all the expressions, as with sequences we want to collect them all first
-        // and initialize them in one batch
-        for (ParseNode valueNode : valueNodes) {
+        final StatementContext context = new StatementContext(statement, resolver, batch.get(0), new Scan());
+        final byte[][][] rows = new byte[batch.size()][][];
+        final List<SequenceManager> sequenceManagers = Lists.newArrayListWithExpectedSize(1);
+        // Classify the value nodes once for the whole batch: values that reference neither bind
+        // parameters nor sequences are the same for every row, while a top level bind parameter
+        // only needs its bound value converted. Anything else is recompiled for each row.
+        final int nValueNodes = valueNodes.size();
+        final boolean[] isRowInvariant = new boolean[nValueNodes];
+        boolean recompilePerRow = false;
+        RowDependentNodeVisitor rowDependentVisitor = new RowDependentNodeVisitor();
+        for (int i = 0; i < nValueNodes; i++) {
+            ParseNode valueNode = valueNodes.get(i);
             if (!valueNode.isStateless()) {
                 throw new SQLExceptionInfo.Builder(SQLExceptionCode.VALUE_IN_UPSERT_NOT_CONSTANT).build().buildException();
             }
-            PColumn column = allColumns.get(columnIndexes[nodeIndex]);
-            expressionBuilder.setColumn(column);
-            constantExpressions.add(valueNode.accept(expressionBuilder));
-            nodeIndex++;
-        }
-        final SequenceManager sequenceManager = context.getSequenceManager();
-        sequenceManager.initSequences();
-        // Next evaluate all the expressions
-        nodeIndex = 0;
-        final byte[][] values = new byte[nValuesToSet][];
-        for (Expression constantExpression : constantExpressions) {
-            PColumn column = allColumns.get(columnIndexes[nodeIndex]);
-            constantExpression.evaluate(null, ptr);
-            Object value = null;
-            byte[] byteValue = ByteUtil.copyKeyBytesIfNecessary(ptr);
-            if (constantExpression.getDataType() != null) {
-                // If ColumnModifier from expression in SELECT doesn't match the
-                // column being projected into then invert the bits.
-                if (constantExpression.getColumnModifier() != column.getColumnModifier()) {
-                    byte[] tempByteValue = Arrays.copyOf(byteValue, byteValue.length);
-                    byteValue = ColumnModifier.SORT_DESC.apply(byteValue, 0, tempByteValue, 0, byteValue.length);
+            rowDependentVisitor.reset();
+            valueNode.accept(rowDependentVisitor);
+            isRowInvariant[i] = !rowDependentVisitor.isRowDependent();
+            recompilePerRow |= rowDependentVisitor.isRowDependent() && !(valueNode instanceof BindParseNode);
+        }
+        for (int row = 0; row < rows.length; row++) {
+            // The first row compiles every value and registers the parameter meta data. Later rows
+            // reuse its row invariant values and only create a context if something must be recompiled.
+            StatementContext rowContext = row == 0 ? context : recompilePerRow ? new StatementContext(statement, resolver, batch.get(row), new Scan()) : null;
+            UpsertValuesCompiler expressionBuilder = rowContext == null ? null : new UpsertValuesCompiler(rowContext);
+            BindManager rowBinds = row == 0 ? null : rowContext == null ? new BindManager(batch.get(row)) : rowContext.getBindManager();
+            Expression[] constantExpressions = new Expression[nValueNodes];
+            // First build all the expressions, as with sequences we want to collect them all first
+            // and initialize them in one batch
+            for (int nodeIndex = 0; nodeIndex < nValueNodes; nodeIndex++) {
+                ParseNode valueNode = valueNodes.get(nodeIndex);
+                PColumn column = allColumns.get(columnIndexes[nodeIndex]);
+                if (row == 0) {
+                    expressionBuilder.setColumn(column);
+                    Expression expression = valueNode.accept(expressionBuilder);
+                    // Non deterministic values must be evaluated again for each row
+                    isRowInvariant[nodeIndex] &= expression.isDeterministic();
+                    recompilePerRow |= !isRowInvariant[nodeIndex] && !(valueNode instanceof BindParseNode);
+                    constantExpressions[nodeIndex] = expression;
+                } else if (isRowInvariant[nodeIndex]) {
+                    continue;
+                } else if (valueNode instanceof BindParseNode) {
+                    Object value = rowBinds.getBindValue((BindParseNode)valueNode);
+                    constantExpressions[nodeIndex] = LiteralExpression.newConstant(value, column.getDataType(), column.getColumnModifier(), true);
+                } else {
+                    expressionBuilder.setColumn(column);
+                    constantExpressions[nodeIndex] = valueNode.accept(expressionBuilder);
                 }
-                value = constantExpression.getDataType().toObject(byteValue);
-                if (!constantExpression.getDataType().isCoercibleTo(column.getDataType(), value)) { 
-                    throw TypeMismatchException.newException(
-                        constantExpression.getDataType(), column.getDataType(), "expression: "
-                                + constantExpression.toString() + " in column " + column);
+            }
+            if (rowContext != null) {
+                SequenceManager sequenceManager = rowContext.getSequenceManager();
+                sequenceManager.initSequences();
+                if (sequenceManager.getSequenceCount() > 0) {
+                    sequenceManagers.add(sequenceManager);
                 }
-                if (!column.getDataType().isSizeCompatible(constantExpression.getDataType(),
-                        value, byteValue, constantExpression.getMaxLength(),
-                        column.getMaxLength(), constantExpression.getScale(), column.getScale())) { 
-                    throw new SQLExceptionInfo.Builder(
-                        SQLExceptionCode.DATA_INCOMPATIBLE_WITH_TYPE).setColumnName(column.getName().getString())
-                        .setMessage("value=" + constantExpression.toString()).build().buildException();
+            }
+            // Next evaluate all the expressions
+            ImmutableBytesWritable ptr = context.getTempPtr();
+            final byte[][] values = new byte[nValuesToSet][];
+            int nodeIndex = 0;
+            for (; nodeIndex < nValueNodes; nodeIndex++) {
+                Expression constantExpression = constantExpressions[nodeIndex];
+                if (constantExpression == null) {
+                    values[nodeIndex] = rows[0][nodeIndex];
+                    continue;
                 }
+                PColumn column = allColumns.get(columnIndexes[nodeIndex]);
+                values[nodeIndex] = toColumnValue(constantExpression, column, overlapViewColumns.get(column), ptr);
             }
-            byteValue = column.getDataType().coerceBytes(byteValue, value,
-                    constantExpression.getDataType(), constantExpression.getMaxLength(), constantExpression.getScale(),
-                    column.getMaxLength(), column.getScale());
-            byte[] viewValue = overlapViewColumns.get(column);
-            if (viewValue != null && Bytes.compareTo(byteValue, viewValue) != 0) {
-                throw new SQLExceptionInfo.Builder(
-                        SQLExceptionCode.CANNOT_UPDATE_VIEW_COLUMN)
-                        .setColumnName(column.getName().getString())
-                        .setMessage("value=" + constantExpression.toString()).build().buildException();
+            // Add columns based on view
+            for (byte[] value : addViewColumns.values()) {
+                values[nodeIndex++] = value;
             }
-            values[nodeIndex] = byteValue;
-            nodeIndex++;
-        }
-        // Add columns based on view
-        for (byte[] value : addViewColumns.values()) {
-            values[nodeIndex++] = value;
-        }
-        if (isTenantSpecific) {
-            values[nodeIndex++] = connection.getTenantId().getBytes();
+            if (isTenantSpecific) {
+                values[nodeIndex++] = connection.getTenantId().getBytes();
+            }
+            rows[row] = values;
         }
         return new MutationPlan() {
 
@@ -686,12 +716,16 @@ public class UpsertCompiler {
             @Override
             public MutationState execute() { // TODO: add throws SQLException
                 try {
-                    sequenceManager.incrementSequenceValues();
+                    for (SequenceManager sequenceManager : sequenceManagers) {
+                        sequenceManager.incrementSequenceValues();
+                    }
                 } catch (SQLException e) {
                     throw new RuntimeException(e); // Will get unwrapped
                 }
-                Map<ImmutableBytesPtr, Map<PColumn, byte[]>> mutation = Maps.newHashMapWithExpectedSize(1);
-                setValues(values, pkSlotIndexes, columnIndexes, tableRef.getTable(), mutation);
+                MutationBuffer mutation = new MutationBuffer(rows.length);
+                for (byte[][] values : rows) {
+                    setValues(values, pkSlotIndexes, columnIndexes, tableRef.getTable(), mutation);
+                }
                 return new MutationState(tableRef, mutation, 0, maxSize, connection);
             }
 
@@ -701,13 +735,78 @@ public class UpsertCompiler {
                 if (context.getSequenceManager().getSequenceCount() > 0) {
                     planSteps.add("CLIENT RESERVE " + context.getSequenceManager().getSequenceCount() + " SEQUENCES");
                 }
-                planSteps.add("PUT SINGLE ROW");
+                planSteps.add(rows.length == 1 ? "PUT SINGLE ROW" : "PUT " + rows.length + " ROWS");
                 return new ExplainPlan(planSteps);
             }
 
         };
     }
     
+    private static byte[] toColumnValue(Expression constantExpression, PColumn column, byte[] viewValue, ImmutableBytesWritable ptr) throws SQLException {
+        constantExpression.evaluate(null, ptr);
+        Object value = null;
+        byte[] byteValue = ByteUtil.copyKeyBytesIfNecessary(ptr);
+        if (constantExpression.getDataType() != null) {
+            // If ColumnModifier from expression in SELECT doesn't match the
+            // column being projected into then invert the bits.
+            if (constantExpression.getColumnModifier() != column.getColumnModifier()) {
+                byte[] tempByteValue = Arrays.copyOf(byteValue, byteValue.length);
+                byteValue = ColumnModifier.SORT_DESC.apply(byteValue, 0, tempByteValue, 0, byteValue.length);
+            }
+            value = constantExpression.getDataType().toObject(byteValue);
+            if (!constantExpression.getDataType().isCoercibleTo(column.getDataType(), value)) { 
+                throw TypeMismatchException.newException(
+                    constantExpression.getDataType(), column.getDataType(), "expression: "
+                            + constantExpression.toString() + " in column " + column);
+            }
+            if (!column.getDataType().isSizeCompatible(constantExpression.getDataType(),
+                    value, byteValue, constantExpression.getMaxLength(),
+                    column.getMaxLength(), constantExpression.getScale(), column.getScale())) { 
+                throw new SQLExceptionInfo.Builder(
+                    SQLExceptionCode.DATA_INCOMPATIBLE_WITH_TYPE).setColumnName(column.getName().getString())
+                    .setMessage("value=" + constantExpression.toString()).build().buildException();
+            }
+        }
+        byteValue = column.getDataType().coerceBytes(byteValue, value,
+                constantExpression.getDataType(), constantExpression.getMaxLength(), constantExpression.getScale(),
+                column.getMaxLength(), column.getScale());
+        if (viewValue != null && Bytes.compareTo(byteValue, viewValue) != 0) {
+            throw new SQLExceptionInfo.Builder(
+                    SQLExceptionCode.CANNOT_UPDATE_VIEW_COLUMN)
+                    .setColumnName(column.getName().getString())
+                    .setMessage("value=" + constantExpression.toString()).build().buildException();
+        }
+        return byteValue;
+    }
+    
+    /**
+     * Determines whether an UPSERT VALUES value depends on the row of the batch being
+     * compiled, i.e. whether it references a bind parameter or a sequence.
+     */
+    private static class RowDependentNodeVisitor extends StatelessTraverseAllParseNodeVisitor {
+        private boolean isRowDependent;
+        
+        public void reset() {
+            isRowDependent = false;
+        }
+        
+        public boolean isRowDependent() {
+            return isRowDependent;
+        }
+        
+        @Override
+        public Void visit(BindParseNode node) throws SQLException {
+            isRowDependent = true;
+            return null;
+        }
+        
+        @Override
+        public Void visit(SequenceValueParseNode node) throws SQLException {
+            isRowDependent = true;
+            return null;
+        }
+    }
+    
     private static final class UpsertValuesCompiler extends ExpressionCompiler {
         private PColumn column;
         
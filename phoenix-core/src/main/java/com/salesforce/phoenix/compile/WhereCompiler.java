@@ -37,6 +37,7 @@ import org.apache.hadoop.hbase.filter.Filter;
 
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
+import com.salesforce.phoenix.coprocessor.BatchFilterRegionScanner;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
 import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.expression.Expression;
@@ -53,6 +54,8 @@ import com.salesforce.phoenix.parse.FilterableStatement;
 import com.salesforce.phoenix.parse.HintNode.Hint;
 import com.salesforce.phoenix.parse.ParseNode;
 import com.salesforce.phoenix.parse.ParseNodeFactory;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.AmbiguousColumnException;
 import com.salesforce.phoenix.schema.ColumnNotFoundException;
 import com.salesforce.phoenix.schema.ColumnRef;
@@ -199,7 +202,7 @@ public class WhereCompiler {
                 PTable table = context.getResolver().getTables().get(0).getTable();
                 byte[] essentialCF = table.getType() == PTableType.VIEW 
                         ? ByteUtil.EMPTY_BYTE_ARRAY 
-                        : SchemaUtil.getEmptyColumnFamily(table.getColumnFamilies());
+                        : SchemaUtil.getEmptyColumnFamily(table);
                 filter = new RowKeyComparisonFilter(whereClause, essentialCF);
                 break;
             case SINGLE:
@@ -209,6 +212,15 @@ public class WhereCompiler {
                 filter = disambiguateWithFamily ? new MultiCFCQKeyValueComparisonFilter(whereClause) : new MultiCQKeyValueComparisonFilter(whereClause);
                 break;
             }
+            // A filter on the row key alone is left to HBase, since it rejects rows before
+            // any of their key values are read. Otherwise, the region observers may evaluate
+            // the expression over batches of complete rows instead.
+            if (counter.getCount() != Counter.Count.NONE && (statement.getHint().hasHint(Hint.BATCH_FILTER) 
+                    || context.getConnection().getQueryServices().getProps().getBoolean(
+                            QueryServices.BATCH_FILTER_ATTRIB, QueryServicesOptions.DEFAULT_BATCH_FILTER))) {
+                BatchFilterRegionScanner.serializeIntoScan(scan, whereClause);
+                filter = null;
+            }
         }
 
         scan.setFilter(filter);
@@ -31,8 +31,10 @@ import java.io.IOException;
 
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.coprocessor.*;
+import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 
+import com.salesforce.phoenix.filter.LocalIndexFilter;
 import com.salesforce.phoenix.util.ServerUtil;
 
 
@@ -46,6 +48,23 @@ abstract public class BaseScannerRegionObserver extends BaseRegionObserver {
         return this.getClass().getName();
     }
     
+    /**
+     * Wraps the filter of a scan over a local index so that it sees the rows of the
+     * index without the prefix under which they're stored in the region. This must be
+     * done before the region scanner is opened, since it captures the filter of the scan.
+     */
+    @Override
+    public RegionScanner preScannerOpen(final ObserverContext<RegionCoprocessorEnvironment> c, final Scan scan, final RegionScanner s) throws IOException {
+        Filter filter = scan.getFilter();
+        if (filter != null && !(filter instanceof LocalIndexFilter)) {
+            byte[] prefix = LocalIndexRegionScanner.getPrefix(scan, c.getEnvironment().getRegion().getRegionInfo());
+            if (prefix != null) {
+                scan.setFilter(new LocalIndexFilter(prefix, filter));
+            }
+        }
+        return s;
+    }
+    
     abstract protected RegionScanner doPostScannerOpen(final ObserverContext<RegionCoprocessorEnvironment> c, final Scan scan, final RegionScanner s) throws Throwable;
     
     /**
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.coprocessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.expression.ExpressionSpecializer;
+import com.salesforce.phoenix.expression.ExpressionType;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.tuple.ResultTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+
+/**
+ * 
+ * Region scanner that evaluates the WHERE clause of a scan over batches of rows
+ * instead of one row at a time through an HBase filter. Rows are read ahead from
+ * the underlying scanner into a batch, the whole batch is passed through
+ * {@link Expression#filter(Tuple[], BitSet, ImmutableBytesWritable)}, and the rows
+ * that remain selected are then returned one at a time, up to the limit of the scan.
+ *
+ * @since 3.0.0
+ */
+public class BatchFilterRegionScanner implements RegionScanner {
+    public static final String BATCH_FILTER = "BatchFilter";
+    public static final String BATCH_FILTER_LIMIT = "BatchFilterLimit";
+    
+    private final RegionScanner scanner;
+    private final Expression filter;
+    private final int limit;
+    private final List<KeyValue>[] rows;
+    private final ResultTuple[] tuples;
+    private final BitSet selection;
+    private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+    private int position = -1;
+    private boolean hasMore = true;
+    private int rowCount = 0;
+    
+    /**
+     * @param limit maximum number of rows to return, as a PageFilter cannot be used with a batch filter
+     */
+    @SuppressWarnings("unchecked")
+    public BatchFilterRegionScanner(RegionScanner scanner, Expression filter, int batchSize, int limit) {
+        this.scanner = scanner;
+        this.filter = filter;
+        this.limit = limit;
+        this.rows = new List[batchSize];
+        this.tuples = new ResultTuple[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            rows[i] = new ArrayList<KeyValue>();
+            tuples[i] = new ResultTuple();
+        }
+        this.selection = new BitSet(batchSize);
+    }
+    
+    /**
+     * Wraps the scanner so that the WHERE clause carried by the scan, if any, is evaluated
+     * in batches of {@link QueryServices#FILTER_BATCH_SIZE_ATTRIB} rows.
+     * @return the wrapped scanner or the scanner itself if the scan has no batch filter.
+     */
+    public static RegionScanner wrap(Scan scan, RegionScanner s, Configuration conf) {
+        Expression filter = deserializeFromScan(scan);
+        if (filter == null) {
+            return s;
+        }
+        int batchSize = conf.getInt(QueryServices.FILTER_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_FILTER_BATCH_SIZE);
+        byte[] limitBytes = scan.getAttribute(BATCH_FILTER_LIMIT);
+        int limit = limitBytes == null ? Integer.MAX_VALUE : Bytes.toInt(limitBytes);
+        return new BatchFilterRegionScanner(s, ExpressionSpecializer.specialize(filter), batchSize, limit);
+    }
+    
+    /**
+     * Limits the number of rows each region returns once they've passed the batch filter of the scan.
+     */
+    public static void setLimit(Scan scan, int limit) {
+        scan.setAttribute(BATCH_FILTER_LIMIT, Bytes.toBytes(limit));
+    }
+    
+    public static void serializeIntoScan(Scan scan, Expression filter) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(stream);
+            WritableUtils.writeVInt(output, ExpressionType.valueOf(filter).ordinal());
+            filter.write(output);
+            scan.setAttribute(BATCH_FILTER, stream.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+    
+    public static Expression deserializeFromScan(Scan scan) {
+        byte[] filterBytes = scan.getAttribute(BATCH_FILTER);
+        if (filterBytes == null) {
+            return null;
+        }
+        ByteArrayInputStream stream = new ByteArrayInputStream(filterBytes);
+        try {
+            DataInputStream input = new DataInputStream(stream);
+            Expression filter = ExpressionType.values()[WritableUtils.readVInt(input)].newInstance();
+            filter.readFields(input);
+            return filter;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+    
+    private void nextBatch(boolean isRaw, String metric) throws IOException {
+        int count = 0;
+        selection.clear();
+        while (count < rows.length && hasMore) {
+            List<KeyValue> row = rows[count];
+            row.clear();
+            if (isRaw) {
+                hasMore = scanner.nextRaw(row, metric);
+            } else if (metric == null) {
+                hasMore = scanner.next(row);
+            } else {
+                hasMore = scanner.next(row, metric);
+            }
+            if (!row.isEmpty()) {
+                tuples[count].setResult(new Result(row));
+                selection.set(count++);
+            }
+        }
+        if (count > 0) {
+            filter.filter(tuples, selection, ptr);
+        }
+        position = selection.nextSetBit(0);
+    }
+    
+    private boolean next(List<KeyValue> result, boolean isRaw, String metric) throws IOException {
+        if (rowCount >= limit) {
+            return false;
+        }
+        while (position < 0) {
+            if (!hasMore) {
+                return false;
+            }
+            nextBatch(isRaw, metric);
+        }
+        result.addAll(rows[position]);
+        position = selection.nextSetBit(position+1);
+        return ++rowCount < limit && (position >= 0 || hasMore);
+    }
+
+    @Override
+    public boolean nextRaw(List<KeyValue> result, String metric) throws IOException {
+        return next(result, true, metric);
+    }
+
+    /**
+     * Rows are always read whole, since a partial row cannot be filtered.
+     */
+    @Override
+    public boolean nextRaw(List<KeyValue> result, int limit, String metric) throws IOException {
+        return next(result, true, metric);
+    }
+
+    @Override
+    public boolean next(List<KeyValue> result) throws IOException {
+        return next(result, false, null);
+    }
+
+    @Override
+    public boolean next(List<KeyValue> result, String metric) throws IOException {
+        return next(result, false, metric);
+    }
+
+    @Override
+    public boolean next(List<KeyValue> result, int limit) throws IOException {
+        return next(result, false, null);
+    }
+
+    @Override
+    public boolean next(List<KeyValue> result, int limit, String metric) throws IOException {
+        return next(result, false, metric);
+    }
+
+    @Override
+    public boolean reseek(byte[] row) throws IOException {
+        // Rows read ahead of the new position are no longer valid
+        position = -1;
+        hasMore = true;
+        return scanner.reseek(row);
+    }
+
+    @Override
+    public long getMvccReadPoint() {
+        return scanner.getMvccReadPoint();
+    }
+
+    @Override
+    public HRegionInfo getRegionInfo() {
+        return scanner.getRegionInfo();
+    }
+
+    @Override
+    public boolean isFilterDone() {
+        return (scanner.isFilterDone() && position < 0) || rowCount >= limit;
+    }
+
+    @Override
+    public void close() throws IOException {
+        scanner.close();
+    }
+}
@@ -23,7 +23,7 @@ import java.io.Closeable;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 
-import com.salesforce.phoenix.expression.aggregator.Aggregator;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 
 /**
  * 
@@ -35,6 +35,9 @@ import com.salesforce.phoenix.expression.aggregator.Aggregator;
  */
 public interface GroupByCache extends Closeable {
     int size();
-    Aggregator[] cache(ImmutableBytesWritable key);
+    /**
+     * Aggregate the row into the group identified by key, adding the group if it's new
+     */
+    void aggregate(ImmutableBytesWritable key, Tuple result);
     RegionScanner getScanner(RegionScanner s);
 }
@@ -56,7 +56,9 @@ import com.google.common.io.Closeables;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.cache.GlobalCache;
 import com.salesforce.phoenix.cache.TenantCache;
+import com.salesforce.phoenix.cache.aggcache.GroupStateSlab;
 import com.salesforce.phoenix.cache.aggcache.SpillableGroupByCache;
+import com.salesforce.phoenix.cache.aggcache.SpillableSlabGroupByCache;
 import com.salesforce.phoenix.expression.Expression;
 import com.salesforce.phoenix.expression.ExpressionType;
 import com.salesforce.phoenix.expression.aggregator.Aggregator;
@@ -66,6 +68,7 @@ import com.salesforce.phoenix.join.ScanProjector;
 import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
 import com.salesforce.phoenix.query.QueryConstants;
 import com.salesforce.phoenix.schema.tuple.MultiKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.KeyValueUtil;
 import com.salesforce.phoenix.util.ScanUtil;
 import com.salesforce.phoenix.util.SizedUtil;
@@ -118,10 +121,10 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
 
         final ScanProjector p = ScanProjector.deserializeProjectorFromScan(scan);
         final HashJoinInfo j = HashJoinInfo.deserializeHashJoinFromScan(scan);
-        RegionScanner innerScanner = s;
+        RegionScanner innerScanner = BatchFilterRegionScanner.wrap(scan, LocalIndexRegionScanner.wrap(scan, s), c.getEnvironment().getConfiguration());
         if (p != null || j != null) {
             innerScanner =
-                    new HashJoinRegionScanner(s, p, j, ScanUtil.getTenantId(scan),
+                    new HashJoinRegionScanner(innerScanner, p, j, ScanUtil.getTenantId(scan),
                             c.getEnvironment());
         }
 
@@ -222,7 +225,11 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
         }
 
         @Override
-        public Aggregator[] cache(ImmutableBytesWritable cacheKey) {
+        public void aggregate(ImmutableBytesWritable key, Tuple result) {
+            aggregators.aggregate(cache(key), result);
+        }
+
+        private Aggregator[] cache(ImmutableBytesWritable cacheKey) {
             ImmutableBytesPtr key = new ImmutableBytesPtr(cacheKey);
             Aggregator[] rowAggregators = aggregateMap.get(key);
             if (rowAggregators == null) {
@@ -277,39 +284,128 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
                 aggResults.add(keyValue);
             }
             // scanner using the non spillable, memory-only implementation
-            return new BaseRegionScanner() {
-                private int index = 0;
+            return newInMemoryScanner(s, aggResults, this);
+        }
 
-                @Override
-                public HRegionInfo getRegionInfo() {
-                    return s.getRegionInfo();
+        @Override
+        public int size() {
+            return aggregateMap.size();
+        }
+        
+    }
+    /**
+     * 
+     * Cache for distinct values and their aggregations which is completely in-memory,
+     * used instead of InMemoryGroupByCache when all aggregators are fixed width. The
+     * state of the aggregators of each group is kept in a slot of a {@link GroupStateSlab}
+     * instead of in a new set of Aggregator instances per group.
+     *
+     * @since 3.0.0
+     */
+    private static final class InMemorySlabGroupByCache implements GroupByCache {
+        private final MemoryChunk chunk;
+        private final Map<ImmutableBytesPtr, Integer> slotMap;
+        private final GroupStateSlab slab;
+        private final ServerAggregators aggregators;
+        private final int estValueSize;
+        
+        private int estDistVals;
+        
+        InMemorySlabGroupByCache(RegionCoprocessorEnvironment env, ImmutableBytesWritable tenantId, ServerAggregators aggregators, int estDistVals) {
+            this.estValueSize = GroupStateSlab.getEstimatedSlotSize(aggregators.getStateWidth());
+            int estSize = sizeOfUnorderedGroupByMap(estDistVals, estValueSize);
+            TenantCache tenantCache = GlobalCache.getTenantCache(env, tenantId);
+            this.estDistVals = estDistVals;
+            this.aggregators = aggregators;
+            this.slab = new GroupStateSlab(aggregators.getStateWidth());
+            this.slotMap = Maps.newHashMapWithExpectedSize(estDistVals);
+            this.chunk = tenantCache.getMemoryManager().allocate(estSize);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            this.chunk.close();
+        }
+
+        @Override
+        public void aggregate(ImmutableBytesWritable cacheKey, Tuple result) {
+            ImmutableBytesPtr key = new ImmutableBytesPtr(cacheKey);
+            Integer slot = slotMap.get(key);
+            if (slot == null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Adding new aggregate slot for row key "
+                            + Bytes.toStringBinary(key.get(), key.getOffset(),
+                                key.getLength()));
                 }
+                slot = slab.allocate();
+                slotMap.put(key, slot);
 
-                @Override
-                public void close() throws IOException {
-                    try {
-                        s.close();
-                    } finally {
-                        InMemoryGroupByCache.this.close();
-                    }
+                if (slotMap.size() > estDistVals) { // increase allocation
+                    estDistVals *= 1.5f;
+                    int estSize = sizeOfUnorderedGroupByMap(estDistVals, estValueSize);
+                    chunk.resize(estSize);
                 }
+            }
+            aggregators.aggregate(slab.getPage(slot), slab.getOffset(slot), result);
+        }
+
+        @Override
+        public RegionScanner getScanner(final RegionScanner s) {
+            // Compute final allocation
+            int estSize = sizeOfUnorderedGroupByMap(slotMap.size(), estValueSize);
+            chunk.resize(estSize);
 
-                @Override
-                public boolean next(List<KeyValue> results) throws IOException {
-                    if (index >= aggResults.size()) return false;
-                    results.add(aggResults.get(index));
-                    index++;
-                    return index < aggResults.size();
+            final List<KeyValue> aggResults = new ArrayList<KeyValue>(slotMap.size());
+            for (Map.Entry<ImmutableBytesPtr, Integer> entry : slotMap.entrySet()) {
+                ImmutableBytesPtr key = entry.getKey();
+                int slot = entry.getValue();
+                byte[] value = aggregators.toBytes(slab.getPage(slot), slab.getOffset(slot));
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Adding new distinct group: "
+                            + Bytes.toStringBinary(key.get(), key.getOffset(), key.getLength())
+                            + " value = " + Bytes.toStringBinary(value));
                 }
-            };
+                aggResults.add(KeyValueUtil.newKeyValue(key.get(), key.getOffset(), key.getLength(),
+                            SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, AGG_TIMESTAMP, value, 0,
+                            value.length));
+            }
+            return newInMemoryScanner(s, aggResults, this);
         }
 
         @Override
         public int size() {
-            return aggregateMap.size();
+            return slotMap.size();
         }
-        
     }
+    
+    private static RegionScanner newInMemoryScanner(final RegionScanner s, final List<KeyValue> aggResults, final GroupByCache cache) {
+        return new BaseRegionScanner() {
+            private int index = 0;
+
+            @Override
+            public HRegionInfo getRegionInfo() {
+                return s.getRegionInfo();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    s.close();
+                } finally {
+                    cache.close();
+                }
+            }
+
+            @Override
+            public boolean next(List<KeyValue> results) throws IOException {
+                if (index >= aggResults.size()) return false;
+                results.add(aggResults.get(index));
+                index++;
+                return index < aggResults.size();
+            }
+        };
+    }
+    
     private static final class GroupByCacheFactory {
         public static final GroupByCacheFactory INSTANCE = new GroupByCacheFactory();
         
@@ -320,10 +416,17 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
             Configuration conf = env.getConfiguration();
             boolean spillableEnabled =
                     conf.getBoolean(GROUPBY_SPILLABLE_ATTRIB, DEFAULT_GROUPBY_SPILLABLE);
+            // Keep the state of fixed width aggregators in a slab instead of in Aggregator instances
+            boolean isFixedWidth = aggregators.getStateWidth() > 0;
             if (spillableEnabled) {
+                if (isFixedWidth) {
+                    return new SpillableSlabGroupByCache(env, tenantId, aggregators, estDistVals);
+                }
                 return new SpillableGroupByCache(env, tenantId, aggregators, estDistVals);
             } 
-            
+            if (isFixedWidth) {
+                return new InMemorySlabGroupByCache(env, tenantId, aggregators, estDistVals);
+            }
             return new InMemoryGroupByCache(env, tenantId, aggregators, estDistVals);
         }
     }
@@ -382,9 +485,8 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
                         result.setKeyValues(results);
                         ImmutableBytesWritable key =
                                 TupleUtil.getConcatenatedValue(result, expressions);
-                        Aggregator[] rowAggregators = groupByCache.cache(key);
                         // Aggregate values here
-                        aggregators.aggregate(rowAggregators, result);
+                        groupByCache.aggregate(key, result);
                     }
                 } while (hasMore);
             } finally {
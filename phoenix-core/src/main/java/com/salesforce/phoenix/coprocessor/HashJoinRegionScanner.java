@@ -55,6 +55,7 @@ import com.salesforce.phoenix.schema.KeyValueSchema;
 import com.salesforce.phoenix.schema.ValueBitSet;
 import com.salesforce.phoenix.schema.tuple.ResultTuple;
 import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.TrustedByteArrayOutputStream;
 import com.salesforce.phoenix.util.TupleUtil;
 
 public class HashJoinRegionScanner implements RegionScanner {
@@ -68,6 +69,9 @@ public class HashJoinRegionScanner implements RegionScanner {
     private List<Tuple>[] tempTuples;
     private ValueBitSet tempDestBitSet;
     private ValueBitSet[] tempSrcBitSet;
+    // Reused to evaluate the join key of each row when probing the hash caches
+    private final ImmutableBytesPtr tempKey = new ImmutableBytesPtr();
+    private final TrustedByteArrayOutputStream tempKeyOutput = new TrustedByteArrayOutputStream(64);
     
     @SuppressWarnings("unchecked")
     public HashJoinRegionScanner(RegionScanner scanner, ScanProjector projector, HashJoinInfo joinInfo, ImmutableBytesWritable tenantId, RegionCoprocessorEnvironment env) throws IOException {
@@ -118,8 +122,8 @@ public class HashJoinRegionScanner implements RegionScanner {
         for (int i = 0; i < count; i++) {
             if (!(joinInfo.earlyEvaluation()[i]))
                 continue;
-            ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(tuple, joinInfo.getJoinExpressions()[i]);
-            tempTuples[i] = hashCaches[i].get(key);
+            TupleUtil.getConcatenatedValue(tuple, joinInfo.getJoinExpressions()[i], tempKey, tempKeyOutput);
+            tempTuples[i] = hashCaches[i].get(tempKey);
             JoinType type = joinInfo.getJoinTypes()[i];
             if (type == JoinType.Inner && (tempTuples[i] == null || tempTuples[i].isEmpty())) {
                 cont = false;
@@ -138,8 +142,8 @@ public class HashJoinRegionScanner implements RegionScanner {
                 while (j-- > 0) {
                     ProjectedValueTuple lhs = resultQueue.poll();
                     if (!earlyEvaluation) {
-                        ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(lhs, joinInfo.getJoinExpressions()[i]);
-                        tempTuples[i] = hashCaches[i].get(key);                        	
+                        TupleUtil.getConcatenatedValue(lhs, joinInfo.getJoinExpressions()[i], tempKey, tempKeyOutput);
+                        tempTuples[i] = hashCaches[i].get(tempKey);
                         if (tempTuples[i] == null || tempTuples[i].isEmpty()) {
                             if (joinInfo.getJoinTypes()[i] != JoinType.Inner) {
                                 resultQueue.offer(lhs);
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.coprocessor;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+
+import com.salesforce.phoenix.util.ByteUtil;
+import com.salesforce.phoenix.util.IndexUtil;
+
+
+/**
+ * 
+ * Region scanner over the rows of a local index that removes the prefix under which
+ * the rows are stored in the region of the data table, so that the rows returned have
+ * the same row key as they would in a global index.
+ *
+ * @since 3.0.0
+ */
+public class LocalIndexRegionScanner implements RegionScanner {
+    public static final String LOCAL_INDEX = "LocalIndex";
+    
+    private final RegionScanner scanner;
+    private final byte[] prefix;
+    
+    public LocalIndexRegionScanner(RegionScanner scanner, byte[] prefix) {
+        this.scanner = scanner;
+        this.prefix = prefix;
+    }
+    
+    /**
+     * @return the prefix of the rows of the local index scanned by the scan in the given
+     * region, or null if the scan is not over a local index.
+     */
+    public static byte[] getPrefix(Scan scan, HRegionInfo region) {
+        byte[] indexName = scan.getAttribute(LOCAL_INDEX);
+        if (indexName == null) {
+            return null;
+        }
+        return IndexUtil.getLocalIndexRowKeyPrefix(region.getStartKey(), region.getEndKey(), indexName);
+    }
+    
+    /**
+     * Wraps the scanner if the scan is over a local index.
+     * @return the wrapped scanner or the scanner itself if the scan is not over a local index.
+     */
+    public static RegionScanner wrap(Scan scan, RegionScanner s) {
+        byte[] prefix = getPrefix(scan, s.getRegionInfo());
+        if (prefix == null) {
+            return s;
+        }
+        return new LocalIndexRegionScanner(s, prefix);
+    }
+    
+    private void stripPrefix(List<KeyValue> result, int start) {
+        for (int i = start; i < result.size(); i++) {
+            KeyValue kv = result.get(i);
+            result.set(i, new KeyValue(kv.getBuffer(), kv.getRowOffset() + prefix.length, kv.getRowLength() - prefix.length,
+                    kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength(),
+                    kv.getBuffer(), kv.getQualifierOffset(), kv.getQualifierLength(),
+                    kv.getTimestamp(), KeyValue.Type.codeToType(kv.getType()),
+                    kv.getBuffer(), kv.getValueOffset(), kv.getValueLength()));
+        }
+    }
+
+    @Override
+    public boolean nextRaw(List<KeyValue> result, String metric) throws IOException {
+        int start = result.size();
+        boolean hasMore = scanner.nextRaw(result, metric);
+        stripPrefix(result, start);
+        return hasMore;
+    }
+
+    @Override
+    public boolean nextRaw(List<KeyValue> result, int limit, String metric) throws IOException {
+        int start = result.size();
+        boolean hasMore = scanner.nextRaw(result, limit, metric);
+        stripPrefix(result, start);
+        return hasMore;
+    }
+
+    @Override
+    public boolean next(List<KeyValue> result) throws IOException {
+        int start = result.size();
+        boolean hasMore = scanner.next(result);
+        stripPrefix(result, start);
+        return hasMore;
+    }
+
+    @Override
+    public boolean next(List<KeyValue> result, String metric) throws IOException {
+        int start = result.size();
+        boolean hasMore = scanner.next(result, metric);
+        stripPrefix(result, start);
+        return hasMore;
+    }
+
+    @Override
+    public boolean next(List<KeyValue> result, int limit) throws IOException {
+        int start = result.size();
+        boolean hasMore = scanner.next(result, limit);
+        stripPrefix(result, start);
+        return hasMore;
+    }
+
+    @Override
+    public boolean next(List<KeyValue> result, int limit, String metric) throws IOException {
+        int start = result.size();
+        boolean hasMore = scanner.next(result, limit, metric);
+        stripPrefix(result, start);
+        return hasMore;
+    }
+
+    @Override
+    public boolean reseek(byte[] row) throws IOException {
+        return scanner.reseek(ByteUtil.concat(prefix, row));
+    }
+
+    @Override
+    public long getMvccReadPoint() {
+        return scanner.getMvccReadPoint();
+    }
+
+    @Override
+    public HRegionInfo getRegionInfo() {
+        return scanner.getRegionInfo();
+    }
+
+    @Override
+    public boolean isFilterDone() {
+        return scanner.isFilterDone();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scanner.close();
+    }
+}
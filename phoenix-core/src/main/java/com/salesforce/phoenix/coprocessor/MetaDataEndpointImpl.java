@@ -30,6 +30,7 @@ package com.salesforce.phoenix.coprocessor;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.BASE_SCHEMA_NAME_BYTES;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.BASE_TABLE_NAME_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_TYPE_BYTES;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.COLUMN_COUNT_BYTES;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.COLUMN_MODIFIER;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.COLUMN_NAME_INDEX;
@@ -41,6 +42,9 @@ import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DEFAULT_COLUMN
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DISABLE_WAL_BYTES;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.FAMILY_NAME_INDEX;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.IMMUTABLE_ROWS_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_DISABLE_TIMESTAMP_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_LAGGING_REGION_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_LAG_INACTIVE_BYTES;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_STATE_BYTES;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.MULTI_TENANT_BYTES;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.NULLABLE;
@@ -74,11 +78,13 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.coprocessor.BaseEndpointCoprocessor;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
@@ -110,6 +116,7 @@ import com.salesforce.phoenix.schema.PIndexState;
 import com.salesforce.phoenix.schema.PName;
 import com.salesforce.phoenix.schema.PNameFactory;
 import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.PTable.IndexType;
 import com.salesforce.phoenix.schema.PTable.ViewType;
 import com.salesforce.phoenix.schema.PTableImpl;
 import com.salesforce.phoenix.schema.PTableType;
@@ -155,6 +162,7 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
     private static final KeyValue VIEW_TYPE_KV = KeyValue.createFirstOnRow(ByteUtil.EMPTY_BYTE_ARRAY, TABLE_FAMILY_BYTES, VIEW_TYPE_BYTES);
     private static final KeyValue BASE_SCHEMA_NAME_KV = KeyValue.createFirstOnRow(ByteUtil.EMPTY_BYTE_ARRAY, TABLE_FAMILY_BYTES, BASE_SCHEMA_NAME_BYTES);
     private static final KeyValue BASE_TABLE_NAME_KV = KeyValue.createFirstOnRow(ByteUtil.EMPTY_BYTE_ARRAY, TABLE_FAMILY_BYTES, BASE_TABLE_NAME_BYTES);
+    private static final KeyValue INDEX_TYPE_KV = KeyValue.createFirstOnRow(ByteUtil.EMPTY_BYTE_ARRAY, TABLE_FAMILY_BYTES, INDEX_TYPE_BYTES);
     private static final List<KeyValue> TABLE_KV_COLUMNS = Arrays.<KeyValue>asList(
             TABLE_TYPE_KV,
             TABLE_SEQ_NUM_KV,
@@ -170,7 +178,8 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
             MULTI_TENANT_KV,
             VIEW_TYPE_KV,
             BASE_SCHEMA_NAME_KV,
-            BASE_TABLE_NAME_KV
+            BASE_TABLE_NAME_KV,
+            INDEX_TYPE_KV
             );
     static {
         Collections.sort(TABLE_KV_COLUMNS, KeyValue.COMPARATOR);
@@ -190,6 +199,7 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
     private static final int VIEW_TYPE_INDEX = TABLE_KV_COLUMNS.indexOf(VIEW_TYPE_KV);
     private static final int BASE_SCHEMA_NAME_INDEX = TABLE_KV_COLUMNS.indexOf(BASE_SCHEMA_NAME_KV);
     private static final int BASE_TABLE_NAME_INDEX = TABLE_KV_COLUMNS.indexOf(BASE_TABLE_NAME_KV);
+    private static final int INDEX_TYPE_INDEX = TABLE_KV_COLUMNS.indexOf(INDEX_TYPE_KV);
     
     // KeyValues for Column
     private static final KeyValue DECIMAL_DIGITS_KV = KeyValue.createFirstOnRow(ByteUtil.EMPTY_BYTE_ARRAY, TABLE_FAMILY_BYTES, Bytes.toBytes(DECIMAL_DIGITS));
@@ -412,6 +422,8 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
         PName baseSchemaName = baseSchemaNameKv != null ? newPName(baseSchemaNameKv.getBuffer(), baseSchemaNameKv.getValueOffset(), baseSchemaNameKv.getValueLength()) : null;
         KeyValue baseTableNameKv = tableKeyValues[BASE_TABLE_NAME_INDEX];
         PName baseTableName = baseTableNameKv != null ? newPName(baseTableNameKv.getBuffer(), baseTableNameKv.getValueOffset(), baseTableNameKv.getValueLength()) : null;
+        KeyValue indexTypeKv = tableKeyValues[INDEX_TYPE_INDEX];
+        IndexType indexType = indexTypeKv == null ? null : IndexType.fromSerializedValue(indexTypeKv.getBuffer()[indexTypeKv.getValueOffset()]);
         
         List<PColumn> columns = Lists.newArrayListWithExpectedSize(columnCount);
         List<PTable> indexes = new ArrayList<PTable>();
@@ -434,7 +446,7 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
         }
         
         return PTableImpl.makePTable(schemaName, tableName, tableType, indexState, timeStamp, tableSeqNum, pkName, saltBucketNum, columns, tableType == INDEX ? dataTableName : null, 
-                indexes, isImmutableRows, baseSchemaName, baseTableName, defaultFamilyName, viewExpression, disableWAL, multiTenant, viewType);
+                indexes, isImmutableRows, baseSchemaName, baseTableName, defaultFamilyName, viewExpression, disableWAL, multiTenant, viewType, indexType);
     }
 
     private PTable buildDeletedTable(byte[] key, ImmutableBytesPtr cacheKey, HRegion region, long clientTimeStamp) throws IOException {
@@ -733,7 +745,8 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
         if (hasViews(region, tenantId, table)) {
             return new MetaDataMutationResult(MutationCode.UNALLOWED_TABLE_MUTATION, EnvironmentEdgeManager.currentTimeMillis(), null);
         }
-        if (table.getType() != PTableType.VIEW) { // Add to list of HTables to delete, unless it's a view
+        // Add to list of HTables to delete, unless it's a view or a local index (which lives in the data table)
+        if (table.getType() != PTableType.VIEW && table.getIndexType() != IndexType.LOCAL) {
             tableNamesToDelete.add(table.getName().getBytes());
         }
         List<byte[]> indexNames = Lists.newArrayList();
@@ -1124,6 +1137,16 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
             List<KeyValue> newKVs = tableMetadata.get(0).getFamilyMap().get(TABLE_FAMILY_BYTES);
             KeyValue newKV = newKVs.get(0);
             PIndexState newState =  PIndexState.fromSerializedValue(newKV.getBuffer()[newKV.getValueOffset()]);
+            PIndexState requestedState = newState;
+            KeyValue newDisableTimeStampKV = null;
+            KeyValue laggingRegionKV = null;
+            for (KeyValue kv : newKVs) {
+                if (Bytes.compareTo(kv.getBuffer(), kv.getQualifierOffset(), kv.getQualifierLength(), INDEX_DISABLE_TIMESTAMP_BYTES, 0, INDEX_DISABLE_TIMESTAMP_BYTES.length) == 0) {
+                    newDisableTimeStampKV = kv;
+                } else if (Bytes.startsWith(kv.getQualifier(), INDEX_LAGGING_REGION_BYTES)) {
+                    laggingRegionKV = kv;
+                }
+            }
             Integer lid = region.getLock(null, key, true);
             if (lid == null) {
                 throw new IOException("Failed to acquire lock on " + Bytes.toStringBinary(key));
@@ -1132,12 +1155,19 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
                 Get get = new Get(key);
                 get.setTimeRange(PTable.INITIAL_SEQ_NUM, timeStamp);
                 get.addColumn(TABLE_FAMILY_BYTES, INDEX_STATE_BYTES);
+                get.addColumn(TABLE_FAMILY_BYTES, INDEX_DISABLE_TIMESTAMP_BYTES);
+                get.addColumn(TABLE_FAMILY_BYTES, INDEX_LAG_INACTIVE_BYTES);
                 Result currentResult = region.get(get);
-                if (currentResult.raw().length == 0) {
+                KeyValue currentStateKV = currentResult.getColumnLatest(TABLE_FAMILY_BYTES, INDEX_STATE_BYTES);
+                if (currentStateKV == null) {
                     return new MetaDataMutationResult(MutationCode.TABLE_NOT_FOUND, EnvironmentEdgeManager.currentTimeMillis(), null);
                 }
-                KeyValue currentStateKV = currentResult.raw()[0];
+                KeyValue currentDisableTimeStampKV = currentResult.getColumnLatest(TABLE_FAMILY_BYTES, INDEX_DISABLE_TIMESTAMP_BYTES);
                 PIndexState currentState = PIndexState.fromSerializedValue(currentStateKV.getBuffer()[currentStateKV.getValueOffset()]);
+                boolean isLagInactive = currentResult.getColumnLatest(TABLE_FAMILY_BYTES, INDEX_LAG_INACTIVE_BYTES) != null;
+                if (laggingRegionKV != null) {
+                    return updateIndexLag(region, key, cacheKey, currentState, isLagInactive, newState, laggingRegionKV, timeStamp);
+                }
                 // Detect invalid transitions
                 if (currentState == PIndexState.BUILDING) {
                     if (newState == PIndexState.USABLE) {
@@ -1153,18 +1183,55 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
                     }
                 }
 
+                long clientTimeStamp = timeStamp;
                 if (currentState == PIndexState.BUILDING && newState != PIndexState.ACTIVE) {
                     timeStamp = currentStateKV.getTimestamp();
                 }
-                if ((currentState == PIndexState.UNUSABLE && newState == PIndexState.ACTIVE) || (currentState == PIndexState.ACTIVE && newState == PIndexState.UNUSABLE)) {
+                // Repeated UNUSABLE/USABLE transitions leave the state as is
+                if ((currentState == PIndexState.UNUSABLE && newState == PIndexState.ACTIVE) || ((currentState == PIndexState.ACTIVE || currentState == PIndexState.INACTIVE) && newState == PIndexState.UNUSABLE)) {
                     newState = PIndexState.INACTIVE;
                     newKVs.set(0, KeyValueUtil.newKeyValue(key, TABLE_FAMILY_BYTES, INDEX_STATE_BYTES, timeStamp, Bytes.toBytes(newState.getSerializedValue())));
-                } else if (currentState == PIndexState.INACTIVE && newState == PIndexState.USABLE) {
+                } else if ((currentState == PIndexState.INACTIVE || currentState == PIndexState.ACTIVE) && newState == PIndexState.USABLE) {
                     newState = PIndexState.ACTIVE;
                     newKVs.set(0, KeyValueUtil.newKeyValue(key, TABLE_FAMILY_BYTES, INDEX_STATE_BYTES, timeStamp, Bytes.toBytes(newState.getSerializedValue())));
                 }
-                if (currentState != newState) {
-                    region.mutateRowsWithLocks(tableMetadata, Collections.<byte[]>emptySet());
+                /*
+                 * The time stamp of the earliest index update lost while the index is disabled is kept
+                 * until the index is rebuilt from it, so that only the data rows changed since then need
+                 * to be rebuilt. It's cleared by any other change of state, unless the change turned into
+                 * a disable, as when the build of a disabled index completes.
+                 */
+                boolean isDisableTimeStampChanged = false;
+                List<Mutation> mutations = tableMetadata;
+                if (newDisableTimeStampKV != null) {
+                    isDisableTimeStampChanged = currentDisableTimeStampKV == null || Bytes.compareTo(
+                            currentDisableTimeStampKV.getBuffer(), currentDisableTimeStampKV.getValueOffset(), currentDisableTimeStampKV.getValueLength(),
+                            newDisableTimeStampKV.getBuffer(), newDisableTimeStampKV.getValueOffset(), newDisableTimeStampKV.getValueLength()) > 0;
+                    if (!isDisableTimeStampChanged) {
+                        newKVs.remove(newDisableTimeStampKV);
+                    }
+                } else if (currentDisableTimeStampKV != null && !(newState == PIndexState.DISABLE && requestedState != PIndexState.DISABLE)) {
+                    isDisableTimeStampChanged = true;
+                    Delete delete = new Delete(key);
+                    delete.deleteColumns(TABLE_FAMILY_BYTES, INDEX_DISABLE_TIMESTAMP_BYTES, clientTimeStamp);
+                    mutations = Lists.newArrayList(tableMetadata);
+                    mutations.add(delete);
+                }
+                // Any other change of state takes over from the lag, so that an index made INACTIVE
+                // explicitly isn't made ACTIVE again once the lagging regions catch up
+                if (isLagInactive) {
+                    Delete delete = new Delete(key);
+                    delete.deleteColumns(TABLE_FAMILY_BYTES, INDEX_LAG_INACTIVE_BYTES, clientTimeStamp);
+                    if (mutations == tableMetadata) {
+                        mutations = Lists.newArrayList(tableMetadata);
+                    }
+                    mutations.add(delete);
+                }
+                if (currentState != newState || isDisableTimeStampChanged || isLagInactive) {
+                    if (newState != requestedState) {
+                        newKVs.set(0, KeyValueUtil.newKeyValue(key, TABLE_FAMILY_BYTES, INDEX_STATE_BYTES, newKVs.get(0).getTimestamp(), newState.getSerializedBytes()));
+                    }
+                    region.mutateRowsWithLocks(mutations, Collections.<byte[]>emptySet());
                     // Invalidate from cache
                     Map<ImmutableBytesPtr,PTable> metaDataCache = GlobalCache.getInstance(this.getEnvironment()).getMetaDataCache();
                     metaDataCache.remove(cacheKey);
@@ -1180,4 +1247,68 @@ public class MetaDataEndpointImpl extends BaseEndpointCoprocessor implements Met
             return null; // impossible
         }
     }
+
+    /**
+     * Record that a region of the data table fell behind in writing the index (on UNUSABLE) or caught up
+     * again (on USABLE), as reported by the index lag policy. The lag is tracked across the regions: an
+     * ACTIVE index becomes INACTIVE when a region falls behind and only becomes ACTIVE again once no region
+     * is behind any more. An index that was INACTIVE for any other reason, such as an ALTER INDEX, is
+     * left as is. The entry of a region expires unless it's reported again, so that a region that went
+     * away while behind doesn't keep the index INACTIVE past the next region to catch up.
+     */
+    private MetaDataMutationResult updateIndexLag(HRegion region, byte[] key, ImmutableBytesPtr cacheKey, PIndexState currentState,
+            boolean isLagInactive, PIndexState requestedState, KeyValue laggingRegionKV, long timeStamp) throws IOException {
+        byte[] laggingRegion = laggingRegionKV.getQualifier();
+        Put put = new Put(key);
+        Delete delete = new Delete(key);
+        PIndexState newState = currentState;
+        if (requestedState == PIndexState.UNUSABLE) {
+            put.add(TABLE_FAMILY_BYTES, laggingRegion, timeStamp, laggingRegionKV.getValue());
+            if (currentState == PIndexState.ACTIVE) {
+                newState = PIndexState.INACTIVE;
+                put.add(TABLE_FAMILY_BYTES, INDEX_LAG_INACTIVE_BYTES, timeStamp, PDataType.TRUE_BYTES);
+            }
+        } else if (requestedState == PIndexState.USABLE) {
+            Get get = new Get(key);
+            get.addFamily(TABLE_FAMILY_BYTES);
+            get.setFilter(new ColumnPrefixFilter(INDEX_LAGGING_REGION_BYTES));
+            long now = EnvironmentEdgeManager.currentTimeMillis();
+            boolean isLagging = false;
+            for (KeyValue kv : region.get(get).raw()) {
+                long expireTime = PDataType.LONG.getCodec().decodeLong(kv.getBuffer(), kv.getValueOffset(), null);
+                if (expireTime <= now || Bytes.equals(kv.getQualifier(), laggingRegion)) {
+                    delete.deleteColumns(TABLE_FAMILY_BYTES, kv.getQualifier(), timeStamp);
+                } else {
+                    isLagging = true;
+                }
+            }
+            if (isLagInactive && !isLagging) {
+                if (currentState == PIndexState.INACTIVE) {
+                    newState = PIndexState.ACTIVE;
+                }
+                delete.deleteColumns(TABLE_FAMILY_BYTES, INDEX_LAG_INACTIVE_BYTES, timeStamp);
+            }
+        } else {
+            return new MetaDataMutationResult(MutationCode.UNALLOWED_TABLE_MUTATION, EnvironmentEdgeManager.currentTimeMillis(), null);
+        }
+        if (newState != currentState) {
+            put.add(TABLE_FAMILY_BYTES, INDEX_STATE_BYTES, timeStamp, newState.getSerializedBytes());
+        }
+        List<Mutation> mutations = Lists.newArrayListWithExpectedSize(2);
+        if (!put.isEmpty()) {
+            mutations.add(put);
+        }
+        if (!delete.isEmpty()) {
+            mutations.add(delete);
+        }
+        if (!mutations.isEmpty()) {
+            region.mutateRowsWithLocks(mutations, Collections.<byte[]>emptySet());
+        }
+        if (newState != currentState) {
+            // Invalidate from cache
+            Map<ImmutableBytesPtr,PTable> metaDataCache = GlobalCache.getInstance(this.getEnvironment()).getMetaDataCache();
+            metaDataCache.remove(cacheKey);
+        }
+        return new MetaDataMutationResult(MutationCode.TABLE_ALREADY_EXISTS, EnvironmentEdgeManager.currentTimeMillis(), null);
+    }
 }
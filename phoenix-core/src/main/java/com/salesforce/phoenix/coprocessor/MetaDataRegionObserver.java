@@ -27,22 +27,353 @@
  ******************************************************************************/
 package com.salesforce.phoenix.coprocessor;
 
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DATA_TABLE_NAME_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_DISABLE_TIMESTAMP_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_STATE_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TABLE_FAMILY_BYTES;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
 import org.apache.hadoop.hbase.coprocessor.ObserverContext;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.cache.GlobalCache;
+import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
+import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MutationCode;
+import com.salesforce.phoenix.index.PhoenixIndexFailurePolicy;
+import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
+import com.salesforce.phoenix.query.QueryConstants;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PIndexState;
+import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.PTableType;
+import com.salesforce.phoenix.util.ByteUtil;
+import com.salesforce.phoenix.util.IndexUtil;
+import com.salesforce.phoenix.util.SchemaUtil;
 
 
 /**
  * Coprocessor for metadata related operations. This coprocessor would only be registered
  * to SYSTEM.TABLE.
+ * 
+ * While the region is open, it periodically looks for indexes that were disabled because
+ * an index write failed (see {@link PhoenixIndexFailurePolicy}) and rebuilds only the data
+ * rows changed since the earliest failed write before making the index active again.
  */
 public class MetaDataRegionObserver extends BaseRegionObserver {
+    private static final Logger logger = LoggerFactory.getLogger(MetaDataRegionObserver.class);
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+    private ScheduledExecutorService executor;
 
     @Override
     public void preClose(final ObserverContext<RegionCoprocessorEnvironment> c,
             boolean abortRequested) {
+        isClosed.set(true);
+        if (executor != null) {
+            executor.shutdown();
+        }
         GlobalCache.getInstance(c.getEnvironment()).getMetaDataCache().clear();
     }
+
+    @Override
+    public void postOpen(ObserverContext<RegionCoprocessorEnvironment> e) {
+        RegionCoprocessorEnvironment env = e.getEnvironment();
+        Configuration config = env.getConfiguration();
+        if (!config.getBoolean(QueryServices.INDEX_FAILURE_HANDLING_REBUILD_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_FAILURE_HANDLING_REBUILD)) {
+            return;
+        }
+        long interval = config.getLong(QueryServices.INDEX_FAILURE_HANDLING_REBUILD_INTERVAL_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_INTERVAL);
+        long overlapTime = config.getLong(QueryServices.INDEX_FAILURE_HANDLING_REBUILD_OVERLAP_TIME_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_OVERLAP_TIME);
+        long maxBackoff = config.getLong(QueryServices.INDEX_FAILURE_HANDLING_REBUILD_MAX_BACKOFF_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_MAX_BACKOFF);
+        isClosed.set(false);
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("phoenix-index-rebuild-" + env.getRegion().getRegionNameAsString() + "-%s")
+                .setDaemon(true).build());
+        executor.scheduleWithFixedDelay(new RebuildDisabledIndexesTask(env, interval, overlapTime, maxBackoff), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Task that rebuilds the indexes disabled by a failed index write whose header rows are in
+     * this region. An index is first rebuilt while still disabled, so that an index table that is
+     * still unavailable leaves it as is. It's then made to be maintained again by moving it to
+     * the BUILDING state, the changes made in the meantime are rebuilt, and it's made active.
+ * As clients that looked up the index just before it became BUILDING may still write without
+ * maintaining it, the changes are rebuilt only once the overlap time has passed since then,
+ * and up to the end of the rebuild.
+     * 
+     * A failed rebuild is retried after a wait that doubles with each failure, up to a maximum.
+     * The retry keeps the time stamp up to which the disabled index was already rebuilt and, if
+     * that rebuild didn't complete, the key from which to resume it.
+     */
+    private class RebuildDisabledIndexesTask implements Runnable {
+        private final RegionCoprocessorEnvironment env;
+        private final long interval;
+        private final long overlapTime;
+        private final long maxBackoff;
+        private final Map<ImmutableBytesPtr,RebuildProgress> progressMap = new HashMap<ImmutableBytesPtr,RebuildProgress>();
+
+        private RebuildDisabledIndexesTask(RegionCoprocessorEnvironment env, long interval, long overlapTime, long maxBackoff) {
+            this.env = env;
+            this.interval = interval;
+            this.overlapTime = overlapTime;
+            this.maxBackoff = maxBackoff;
+        }
+
+        @Override
+        public void run() {
+            try {
+                HRegion region = env.getRegion();
+                // Only the header rows of indexes disabled by a failed write have a disable time stamp
+                Scan scan = new Scan();
+                scan.addColumn(TABLE_FAMILY_BYTES, INDEX_DISABLE_TIMESTAMP_BYTES);
+                List<KeyValue> disabledIndexes = new ArrayList<KeyValue>();
+                RegionScanner scanner = region.getScanner(scan);
+                try {
+                    boolean hasMore;
+                    do {
+                        List<KeyValue> results = new ArrayList<KeyValue>();
+                        hasMore = scanner.next(results);
+                        disabledIndexes.addAll(results);
+                    } while (hasMore && !isClosed.get());
+                } finally {
+                    scanner.close();
+                }
+                // Forget about the indexes no longer disabled
+                Set<ImmutableBytesPtr> indexKeys = new HashSet<ImmutableBytesPtr>();
+                for (KeyValue kv : disabledIndexes) {
+                    indexKeys.add(new ImmutableBytesPtr(kv.getRow()));
+                }
+                progressMap.keySet().retainAll(indexKeys);
+                for (KeyValue kv : disabledIndexes) {
+                    if (isClosed.get()) {
+                        return;
+                    }
+                    ImmutableBytesPtr indexKey = new ImmutableBytesPtr(kv.getRow());
+                    long disableTimeStamp = (Long)PDataType.LONG.toObject(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+                    RebuildProgress progress = progressMap.get(indexKey);
+                    // An earlier failure makes any progress from a later one irrelevant
+                    if (progress == null || progress.disableTimeStamp != disableTimeStamp) {
+                        progress = new RebuildProgress(disableTimeStamp);
+                        progressMap.put(indexKey, progress);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now < progress.nextAttemptTime) {
+                        continue;
+                    }
+                    Throwable cause = null;
+                    try {
+                        if (rebuildIndex(region, kv.getRow(), progress)) {
+                            progressMap.remove(indexKey);
+                            continue;
+                        }
+                    } catch (Throwable t) {
+                        cause = t;
+                    }
+                    long backoff = Math.min(maxBackoff, interval << Math.min(progress.failures++, 30));
+                    progress.nextAttemptTime = now + backoff;
+                    logger.warn("Unable to rebuild index " + Bytes.toStringBinary(kv.getRow()) + ", will retry in " + backoff + "ms", cause);
+                }
+            } catch (Throwable t) {
+                // An exception would stop any further execution of the task
+                logger.warn("Unable to look for disabled indexes to rebuild", t);
+            }
+        }
+
+        /**
+         * @return true if the index was rebuilt or isn't to be rebuilt here, and false if its rebuild
+         * is to be retried
+         */
+        private boolean rebuildIndex(HRegion region, byte[] indexKey, RebuildProgress progress) throws Exception {
+            long disableTimeStamp = progress.disableTimeStamp;
+            byte[][] rowKeyMetaData = new byte[3][];
+            SchemaUtil.getVarChars(indexKey, rowKeyMetaData);
+            byte[] tenantId = rowKeyMetaData[PhoenixDatabaseMetaData.TENANT_ID_INDEX];
+            byte[] schemaName = rowKeyMetaData[PhoenixDatabaseMetaData.SCHEMA_NAME_INDEX];
+            byte[] indexName = rowKeyMetaData[PhoenixDatabaseMetaData.TABLE_NAME_INDEX];
+            String indexFullName = SchemaUtil.getTableName(schemaName, indexName);
+            Get get = new Get(indexKey);
+            get.addColumn(TABLE_FAMILY_BYTES, INDEX_STATE_BYTES);
+            get.addColumn(TABLE_FAMILY_BYTES, DATA_TABLE_NAME_BYTES);
+            Result result = region.get(get);
+            KeyValue stateKV = result.getColumnLatest(TABLE_FAMILY_BYTES, INDEX_STATE_BYTES);
+            KeyValue dataTableNameKV = result.getColumnLatest(TABLE_FAMILY_BYTES, DATA_TABLE_NAME_BYTES);
+            if (stateKV == null || dataTableNameKV == null) {
+                return true;
+            }
+            PIndexState state = PIndexState.fromSerializedValue(stateKV.getBuffer()[stateKV.getValueOffset()]);
+            // A BUILDING index with a disable time stamp is one whose rebuild was interrupted
+            if (state != PIndexState.DISABLE && state != PIndexState.BUILDING) {
+                return true;
+            }
+            // Rows of a view or of a tenant are a subset of the rows of the physical table,
+            // so the index must be rebuilt by the client instead
+            if (tenantId.length > 0) {
+                return true;
+            }
+            byte[] dataTableName = dataTableNameKV.getValue();
+            PTable dataTable = getDataTable(schemaName, dataTableName);
+            if (dataTable == null || dataTable.getType() != PTableType.USER) {
+                return true;
+            }
+            PTable index = null;
+            for (PTable dataTableIndex : dataTable.getIndexes()) {
+                if (Bytes.compareTo(dataTableIndex.getTableName().getBytes(), indexName) == 0) {
+                    index = dataTableIndex;
+                    break;
+                }
+            }
+            if (index == null) {
+                return true;
+            }
+            
+            Configuration config = env.getConfiguration();
+            int maxRetries = config.getInt(QueryServices.INDEX_BUILD_RETRIES_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_BUILD_RETRIES);
+            long chunkTimeMs = config.getInt(QueryServices.INDEX_BUILD_CHUNK_TIME_MS_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_BUILD_CHUNK_TIME_MS);
+            Scan scan = IndexUtil.newIndexBuildScan(dataTable, Collections.singletonList(index), chunkTimeMs);
+            scan.setAttribute(UngroupedAggregateRegionObserver.INDEX_BUILD_INCREMENTAL, QueryConstants.TRUE);
+            scan.setRaw(true);
+            scan.setMaxVersions();
+            HTableInterface htable = env.getTable(dataTable.getPhysicalName().getBytes());
+            try {
+                long buildTimeStamp = progress.buildTimeStamp;
+                long buildingTime;
+                if (state == PIndexState.DISABLE) {
+                    logger.info("Rebuilding disabled index " + indexFullName + " from " + buildTimeStamp);
+                    buildTimeStamp = buildDisabledIndex(htable, scan, progress, maxRetries);
+                    if (!updateIndexState(indexFullName, PIndexState.BUILDING, disableTimeStamp)) {
+                        return false;
+                    }
+                    buildingTime = System.currentTimeMillis();
+                } else {
+                    buildingTime = stateKV.getTimestamp();
+                }
+                try {
+                    // Catch up with the changes made before clients began to maintain the index again,
+                    // including those of clients that still found it disabled and were writing when it
+                    // became BUILDING. Unlike the build of the disabled index, it's not resumed from the
+                    // key it reached, as a failed index write may have missed a row before it in the meantime.
+                    waitUntil(buildingTime + overlapTime);
+                    buildIndex(htable, scan, buildTimeStamp, System.currentTimeMillis(), new AtomicReference<byte[]>(ByteUtil.EMPTY_BYTE_ARRAY), maxRetries);
+                } catch (Exception e) {
+                    updateIndexState(indexFullName, PIndexState.DISABLE, disableTimeStamp);
+                    throw e;
+                }
+            } finally {
+                htable.close();
+            }
+            if (isClosed.get() || !updateIndexState(indexFullName, PIndexState.ACTIVE, null)) {
+                return false;
+            }
+            logger.info("Rebuilt index " + indexFullName + " from " + disableTimeStamp + " and made it active");
+            return true;
+        }
+
+        /**
+         * Builds the index rows of the data rows changed since the time stamp up to which the disabled
+         * index was already built, resuming a build that didn't complete from the key it reached.
+         * Since clients don't maintain a disabled index, none of the rows before that key can have
+         * been missed in the meantime.
+         * @return the time stamp up to which the index was built
+         */
+        private long buildDisabledIndex(HTableInterface htable, Scan scan, RebuildProgress progress, int maxRetries) throws IOException {
+            if (progress.resumeKey.get() == null) {
+                progress.maxTimeStamp = System.currentTimeMillis();
+                progress.resumeKey.set(ByteUtil.EMPTY_BYTE_ARRAY);
+            }
+            buildIndex(htable, scan, progress.buildTimeStamp, progress.maxTimeStamp, progress.resumeKey, maxRetries);
+            progress.buildTimeStamp = progress.maxTimeStamp;
+            return progress.buildTimeStamp;
+        }
+
+        /**
+         * Builds the index rows of the data rows changed within the given time range, starting from
+         * the given resume key and advancing it as the build progresses.
+         */
+        private void buildIndex(HTableInterface htable, Scan scan, long minTimeStamp, long maxTimeStamp, AtomicReference<byte[]> resumeKey, int maxRetries) throws IOException {
+            scan.setTimeRange(minTimeStamp, maxTimeStamp);
+            IndexUtil.buildIndex(htable, scan, resumeKey, ByteUtil.EMPTY_BYTE_ARRAY, maxRetries, isClosed);
+            if (isClosed.get()) {
+                throw new IOException("Region closed while rebuilding index");
+            }
+        }
+
+        private void waitUntil(long time) throws IOException, InterruptedException {
+            long now;
+            while ((now = System.currentTimeMillis()) < time) {
+                if (isClosed.get()) {
+                    throw new IOException("Region closed while rebuilding index");
+                }
+                Thread.sleep(Math.min(time - now, interval));
+            }
+        }
+
+        private PTable getDataTable(byte[] schemaName, byte[] dataTableName) throws IOException {
+            byte[] dataTableKey = SchemaUtil.getTableKey(ByteUtil.EMPTY_BYTE_ARRAY, schemaName, dataTableName);
+            HTableInterface systemTable = env.getTable(PhoenixDatabaseMetaData.TYPE_TABLE_NAME_BYTES);
+            try {
+                MetaDataProtocol mdProxy = systemTable.coprocessorProxy(MetaDataProtocol.class, dataTableKey);
+                MetaDataMutationResult result = mdProxy.getTable(ByteUtil.EMPTY_BYTE_ARRAY, schemaName, dataTableName, HConstants.LATEST_TIMESTAMP, HConstants.LATEST_TIMESTAMP);
+                return result.getMutationCode() == MutationCode.TABLE_ALREADY_EXISTS ? result.getTable() : null;
+            } finally {
+                systemTable.close();
+            }
+        }
+
+        private boolean updateIndexState(String indexFullName, PIndexState newState, Long disableTimeStamp) throws IOException {
+            MetaDataMutationResult result = PhoenixIndexFailurePolicy.updateIndexState(env, indexFullName, newState, disableTimeStamp);
+            if (result.getMutationCode() != MutationCode.TABLE_ALREADY_EXISTS) {
+                logger.warn("Unable to update the state of index " + indexFullName + " to " + newState + ", failed with code = " + result.getMutationCode());
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Progress of the rebuild of an index disabled by a failed index write, kept across attempts
+     */
+    private static class RebuildProgress {
+        private final long disableTimeStamp;
+        // Time stamp up to which the index was built while disabled
+        private long buildTimeStamp;
+        // End of the time range and next key of a build of the disabled index that didn't complete
+        private long maxTimeStamp;
+        private final AtomicReference<byte[]> resumeKey = new AtomicReference<byte[]>();
+        private int failures;
+        private long nextAttemptTime;
+
+        private RebuildProgress(long disableTimeStamp) {
+            this.disableTimeStamp = disableTimeStamp;
+            this.buildTimeStamp = disableTimeStamp;
+        }
+    }
 }
@@ -73,7 +73,7 @@ import com.salesforce.phoenix.util.ServerUtil;
  */
 public class ScanRegionObserver extends BaseScannerRegionObserver {
     public static final String NON_AGGREGATE_QUERY = "NonAggregateQuery";
-    private static final String TOPN = "TopN";
+    public static final String TOPN = "TopN";
 
     public static void serializeIntoScan(Scan scan, int thresholdBytes, int limit, List<OrderByExpression> orderByExpressions, int estimatedRowSize) {
         ByteArrayOutputStream stream = new ByteArrayOutputStream(); // TODO: size?
@@ -141,9 +141,9 @@ public class ScanRegionObserver extends BaseScannerRegionObserver {
         final HashJoinInfo j = HashJoinInfo.deserializeHashJoinFromScan(scan);
         final ImmutableBytesWritable tenantId = ScanUtil.getTenantId(scan);
         
-        RegionScanner innerScanner = s;
+        RegionScanner innerScanner = BatchFilterRegionScanner.wrap(scan, LocalIndexRegionScanner.wrap(scan, s), c.getEnvironment().getConfiguration());
         if (p != null || j != null) {
-            innerScanner = new HashJoinRegionScanner(s, p, j, tenantId, c.getEnvironment());
+            innerScanner = new HashJoinRegionScanner(innerScanner, p, j, tenantId, c.getEnvironment());
         }
         
         final OrderedResultIterator iterator = deserializeFromScan(scan,innerScanner);
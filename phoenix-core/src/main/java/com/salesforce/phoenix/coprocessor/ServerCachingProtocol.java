@@ -34,6 +34,7 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
 import org.apache.hadoop.io.Writable;
 
+import com.salesforce.phoenix.memory.MemoryManager;
 import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
 
 /**
@@ -47,7 +48,13 @@ import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
  */
 public interface ServerCachingProtocol extends CoprocessorProtocol {
     public static interface ServerCacheFactory extends Writable {
-        public Closeable newCache(ImmutableBytesWritable cachePtr, MemoryChunk chunk) throws SQLException;
+        /**
+         * Create the cache from its serialized form.
+         * @param cachePtr the serialized cache
+         * @param chunk memory chunk, sized to the serialized cache, which the cache must close once it's closed
+         * @param offHeapMemoryManager memory manager for any memory the cache allocates outside of the Java heap
+         */
+        public Closeable newCache(ImmutableBytesWritable cachePtr, MemoryChunk chunk, MemoryManager offHeapMemoryManager) throws SQLException;
     }
     /**
      * Add the cache to the region server cache.  
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.coprocessor;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
+import com.salesforce.phoenix.query.QueryConstants;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.util.ByteUtil;
+import com.salesforce.phoenix.util.StatisticsUtil;
+
+
+/**
+ * 
+ * Region observer coprocessor that collects statistics for each column family of a region
+ * while it is being major compacted, since at that time every row of the store is read anyway.
+ * A guide post is recorded each time another {@link QueryServices#STATS_GUIDEPOST_WIDTH_BYTES_ATTRIB}
+ * bytes have been read, so that the guide posts divide the region into chunks of roughly equal
+ * size. The guide posts, along with the row and byte count of the store, are written to the
+ * SYSTEM.STATS table when the compaction completes. The stats of a region are deleted once it's split,
+ * as its daughters have region names of their own.
+ *
+ * @since 3.0.0
+ */
+public class StatisticsCollector extends BaseRegionObserver {
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsCollector.class);
+
+    @Override
+    public InternalScanner preCompact(ObserverContext<RegionCoprocessorEnvironment> c, Store store,
+            InternalScanner scanner, CompactionRequest request) throws IOException {
+        // Only a major compaction sees every row of the store
+        if (request == null || !request.isMajor()) {
+            return scanner;
+        }
+        RegionCoprocessorEnvironment env = c.getEnvironment();
+        long guidePostWidth = env.getConfiguration().getLong(QueryServices.STATS_GUIDEPOST_WIDTH_BYTES_ATTRIB,
+                QueryServicesOptions.DEFAULT_STATS_GUIDEPOST_WIDTH_BYTES);
+        return new StatisticsScanner(scanner, env, store.getFamily().getName(), guidePostWidth);
+    }
+    
+    @Override
+    public void postSplit(ObserverContext<RegionCoprocessorEnvironment> c, HRegion l, HRegion r) throws IOException {
+        HRegion region = c.getEnvironment().getRegion();
+        byte[] physicalName = region.getTableDesc().getName();
+        byte[] regionName = Bytes.toBytes(region.getRegionNameAsString());
+        try {
+            HTableInterface statsTable = c.getEnvironment().getTable(PhoenixDatabaseMetaData.STATS_TABLE_NAME_BYTES);
+            try {
+                StatisticsUtil.deleteStats(statsTable, StatisticsUtil.getRowKeyPrefix(physicalName, regionName));
+            } finally {
+                statsTable.close();
+            }
+        } catch (IOException e) {
+            // Don't fail the split because of stats, as they're only used as a hint
+            logger.warn("Unable to delete statistics for " + region.getRegionNameAsString(), e);
+        }
+    }
+    
+    /**
+     * 
+     * Scanner that passes through the results of the compaction scanner while
+     * tracking the row count, byte count, and guide posts of the store.
+     *
+     * @since 3.0.0
+     */
+    private static class StatisticsScanner implements InternalScanner {
+        private final InternalScanner delegate;
+        private final RegionCoprocessorEnvironment env;
+        private final byte[] familyName;
+        private final long guidePostWidth;
+        private final List<byte[]> guidePosts = Lists.newArrayList();
+        private byte[] currentRow;
+        private long rowCount;
+        private long byteCount;
+        private long byteCountSinceGuidePost;
+
+        private StatisticsScanner(InternalScanner delegate, RegionCoprocessorEnvironment env, byte[] familyName, long guidePostWidth) {
+            this.delegate = delegate;
+            this.env = env;
+            this.familyName = familyName;
+            this.guidePostWidth = guidePostWidth;
+        }
+        
+        private void collect(List<KeyValue> results) {
+            for (KeyValue kv : results) {
+                if (currentRow == null || !Bytes.equals(currentRow, 0, currentRow.length, kv.getBuffer(), kv.getRowOffset(), kv.getRowLength())) {
+                    currentRow = kv.getRow();
+                    rowCount++;
+                    // Only start a new guide post on a row boundary
+                    if (byteCountSinceGuidePost >= guidePostWidth) {
+                        guidePosts.add(currentRow);
+                        byteCountSinceGuidePost = 0;
+                    }
+                }
+                byteCount += kv.getLength();
+                byteCountSinceGuidePost += kv.getLength();
+            }
+        }
+        
+        @Override
+        public boolean next(List<KeyValue> results) throws IOException {
+            int size = results.size();
+            boolean hasMore = delegate.next(results);
+            collect(results.subList(size, results.size()));
+            return hasMore;
+        }
+
+        @Override
+        public boolean next(List<KeyValue> results, String metric) throws IOException {
+            int size = results.size();
+            boolean hasMore = delegate.next(results, metric);
+            collect(results.subList(size, results.size()));
+            return hasMore;
+        }
+
+        @Override
+        public boolean next(List<KeyValue> results, int limit) throws IOException {
+            int size = results.size();
+            boolean hasMore = delegate.next(results, limit);
+            collect(results.subList(size, results.size()));
+            return hasMore;
+        }
+
+        @Override
+        public boolean next(List<KeyValue> results, int limit, String metric) throws IOException {
+            int size = results.size();
+            boolean hasMore = delegate.next(results, limit, metric);
+            collect(results.subList(size, results.size()));
+            return hasMore;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+            try {
+                writeStats();
+            } catch (IOException e) {
+                // Don't fail the compaction because of stats, as they're only used as a hint
+                logger.warn("Unable to write statistics for " + env.getRegion().getRegionNameAsString(), e);
+            }
+        }
+        
+        private void writeStats() throws IOException {
+            byte[] physicalName = env.getRegion().getTableDesc().getName();
+            byte[] regionName = Bytes.toBytes(env.getRegion().getRegionNameAsString());
+            byte[] key = StatisticsUtil.getRowKey(physicalName, regionName, familyName);
+            Put put = new Put(key);
+            put.add(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, QueryConstants.EMPTY_COLUMN_BYTES, ByteUtil.EMPTY_BYTE_ARRAY);
+            put.add(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.GUIDE_POSTS_BYTES, StatisticsUtil.toGuidePostsBytes(guidePosts));
+            put.add(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.ROW_COUNT_BYTES, PDataType.LONG.toBytes(rowCount));
+            put.add(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.BYTE_COUNT_BYTES, PDataType.LONG.toBytes(byteCount));
+            HTableInterface statsTable = env.getTable(PhoenixDatabaseMetaData.STATS_TABLE_NAME_BYTES);
+            try {
+                statsTable.put(put);
+            } finally {
+                statsTable.close();
+            }
+        }
+    }
+}
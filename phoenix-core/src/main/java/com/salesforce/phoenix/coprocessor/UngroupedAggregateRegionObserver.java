@@ -31,6 +31,7 @@ import static com.salesforce.phoenix.query.QueryConstants.AGG_TIMESTAMP;
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
 import static com.salesforce.phoenix.query.QueryConstants.UNGROUPED_AGG_ROW_KEY;
+import static com.salesforce.phoenix.query.QueryServices.INDEX_FAILURE_HANDLING_REBUILD_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MUTATE_BATCH_SIZE_ATTRIB;
 
 import java.io.ByteArrayInputStream;
@@ -43,11 +44,17 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.apache.hadoop.hbase.CoprocessorEnvironment;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Scan;
@@ -55,8 +62,13 @@ import org.apache.hadoop.hbase.coprocessor.ObserverContext;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
 import org.apache.hadoop.hbase.regionserver.MultiVersionConsistencyControl;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreScanner;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.io.WritableUtils;
@@ -65,6 +77,10 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.salesforce.hbase.index.Indexer;
+import com.salesforce.hbase.index.ValueGetter;
+import com.salesforce.hbase.index.covered.update.ColumnReference;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.client.KeyValueBuilder;
 import com.salesforce.phoenix.exception.ValueTypeIncompatibleException;
 import com.salesforce.phoenix.expression.Expression;
@@ -72,6 +88,8 @@ import com.salesforce.phoenix.expression.ExpressionType;
 import com.salesforce.phoenix.expression.aggregator.Aggregator;
 import com.salesforce.phoenix.expression.aggregator.Aggregators;
 import com.salesforce.phoenix.expression.aggregator.ServerAggregators;
+import com.salesforce.phoenix.index.IndexMaintainer;
+import com.salesforce.phoenix.index.PendingIndexRebuildTracker;
 import com.salesforce.phoenix.index.PhoenixIndexCodec;
 import com.salesforce.phoenix.join.HashJoinInfo;
 import com.salesforce.phoenix.join.ScanProjector;
@@ -107,6 +125,11 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
     public static final String DELETE_CQ = "DeleteCQ";
     public static final String DELETE_CF = "DeleteCF";
     public static final String EMPTY_CF = "EmptyCF";
+    public static final String INDEX_BUILD = "IndexBuild";
+    public static final String INDEX_BUILD_CHUNK_TIME_MS = "IndexBuildChunkTimeMs";
+    public static final String INDEX_BUILD_INCREMENTAL = "IndexBuildIncremental";
+    public static final byte[] INDEX_BUILD_RESUME_KEY = Bytes.toBytes("ResumeKey");
+    public static final byte[] INDEX_BUILD_ROW_COUNT = Bytes.toBytes("RowCount");
     private KeyValueBuilder kvBuilder;
     
     @Override
@@ -127,12 +150,40 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
         region.batchMutate(mutations.toArray(mutationArray));
     }
     
+    /**
+     * @return getter of the values of the current row of the result that are used by the index maintainer.
+     * The empty key value is never returned, so that a row is always built as a new row of the index.
+     */
+    private static ValueGetter newValueGetter(final IndexMaintainer maintainer, final MultiKeyValueTuple result) {
+        return new ValueGetter() {
+            @Override
+            public ImmutableBytesPtr getLatestValue(ColumnReference ref) {
+                if (!maintainer.getAllColumns().contains(ref)) {
+                    return null;
+                }
+                KeyValue kv = result.getValue(ref.getFamily(), ref.getQualifier());
+                if (kv == null) {
+                    return null;
+                }
+                return new ImmutableBytesPtr(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+            }
+        };
+    }
+    
+    private static byte[] getRowKey(byte[] localIndexPrefix, KeyValue kv) {
+        return localIndexPrefix == null ? kv.getRow() : ByteUtil.concat(localIndexPrefix, kv.getRow());
+    }
+    
     public static void serializeIntoScan(Scan scan) {
         scan.setAttribute(UNGROUPED_AGG, QueryConstants.TRUE);
     }
 
     @Override
     protected RegionScanner doPostScannerOpen(final ObserverContext<RegionCoprocessorEnvironment> c, final Scan scan, final RegionScanner s) throws IOException {
+        byte[] indexBuild = scan.getAttribute(INDEX_BUILD);
+        if (indexBuild != null) {
+            return buildIndex(c, scan, s, indexBuild);
+        }
         byte[] isUngroupedAgg = scan.getAttribute(UNGROUPED_AGG);
         if (isUngroupedAgg == null) {
             return s;
@@ -140,9 +191,9 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
         
         final ScanProjector p = ScanProjector.deserializeProjectorFromScan(scan);
         final HashJoinInfo j = HashJoinInfo.deserializeHashJoinFromScan(scan);
-        RegionScanner theScanner = s;
+        RegionScanner theScanner = BatchFilterRegionScanner.wrap(scan, LocalIndexRegionScanner.wrap(scan, s), c.getEnvironment().getConfiguration());
         if (p != null || j != null)  {
-            theScanner = new HashJoinRegionScanner(s, p, j, ScanUtil.getTenantId(scan), c.getEnvironment());
+            theScanner = new HashJoinRegionScanner(theScanner, p, j, ScanUtil.getTenantId(scan), c.getEnvironment());
         }
         final RegionScanner innerScanner = theScanner;
         
@@ -157,6 +208,7 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
         byte[][] values = null;
         byte[] emptyCF = null;
         ImmutableBytesWritable ptr = null;
+        MultiKeyValueTuple result = new MultiKeyValueTuple();
         if (upsertSelectTable != null) {
             isUpsert = true;
             projectedTable = deserializeTable(upsertSelectTable);
@@ -176,6 +228,8 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
         int batchSize = 0;
         long ts = scan.getTimeRange().getMax();
         HRegion region = c.getEnvironment().getRegion();
+        // Rows of a local index are returned without their prefix, so it must be put back to mutate them
+        byte[] localIndexPrefix = LocalIndexRegionScanner.getPrefix(scan, region.getRegionInfo());
         List<Pair<Mutation,Integer>> mutations = Collections.emptyList();
         if (isDelete || isUpsert || (deleteCQ != null && deleteCF != null) || emptyCF != null) {
             // TODO: size better
@@ -187,7 +241,6 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
         Aggregator[] rowAggregators = aggregators.getAggregators();
         boolean hasMore;
         boolean hasAny = false;
-        MultiKeyValueTuple result = new MultiKeyValueTuple();
         if (logger.isInfoEnabled()) {
         	logger.info("Starting ungrouped coprocessor scan " + scan);
         }
@@ -210,7 +263,11 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
                             // FIXME: the version of the Delete constructor without the lock args was introduced
                             // in 0.94.4, thus if we try to use it here we can no longer use the 0.94.2 version
                             // of the client.
-                            Delete delete = new Delete(results.get(0).getRow(),ts,null);
+                            Delete delete = new Delete(getRowKey(localIndexPrefix, results.get(0)),ts,null);
+                            if (localIndexPrefix != null) {
+                                // Leave any data row that happens to share the same key alone
+                                delete.deleteFamily(QueryConstants.LOCAL_INDEX_COLUMN_FAMILY_BYTES, ts);
+                            }
                             mutations.add(new Pair<Mutation,Integer>(delete,null));
                         } else if (isUpsert) {
                             Arrays.fill(values, null);
@@ -264,7 +321,7 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
                             // No need to search for delete column, since we project only it
                             // if no empty key value is being set
                             if (emptyCF == null || result.getValue(deleteCF, deleteCQ) != null) {
-                                Delete delete = new Delete(results.get(0).getRow());
+                                Delete delete = new Delete(getRowKey(localIndexPrefix, results.get(0)));
                                 delete.deleteColumns(deleteCF,  deleteCQ, ts);
                                 mutations.add(new Pair<Mutation,Integer>(delete,null));
                             }
@@ -282,7 +339,7 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
                             for (KeyValue kv : results) {
                                 long kvts = kv.getTimestamp();
                                 if (!timeStamps.contains(kvts)) {
-                                    Put put = new Put(kv.getRow());
+                                    Put put = new Put(getRowKey(localIndexPrefix, kv));
                                     put.add(emptyCF, QueryConstants.EMPTY_COLUMN_BYTES, kvts, ByteUtil.EMPTY_BYTE_ARRAY);
                                     mutations.add(new Pair<Mutation,Integer>(put,null));
                                 }
@@ -352,6 +409,298 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
         return scanner;
     }
     
+    /**
+     * Builds the rows of new indexes from the rows of the region at and after the start row of the scan,
+     * writing the rows of local indexes into the region and those of global indexes into their tables.
+     * Once the time given by {@link #INDEX_BUILD_CHUNK_TIME_MS} is spent, the build stops after the next
+     * batch is committed, so that a single call stays well within the RPC timeout. A single row is
+     * returned with the number of data rows read and the key at which the build is to be resumed, which
+     * is empty if the end of the region was reached.
+     * If {@link #INDEX_BUILD_INCREMENTAL} is set, the scan is expected to be a raw scan of all versions
+     * over the time range in which index writes were lost, so that only the data rows changed in that
+     * time range are visited, and their index rows are corrected by
+     * {@link #buildIncrementalIndexMutations(HRegion, Scan, ImmutableBytesWritable, List, List, List, MultiKeyValueTuple, List)}.
+     */
+    private RegionScanner buildIndex(final ObserverContext<RegionCoprocessorEnvironment> c, final Scan scan, final RegionScanner s, byte[] indexBuild) throws IOException {
+        RegionCoprocessorEnvironment env = c.getEnvironment();
+        HRegion region = env.getRegion();
+        List<IndexMaintainer> maintainers = IndexMaintainer.deserialize(indexBuild, kvBuilder);
+        MultiKeyValueTuple result = new MultiKeyValueTuple();
+        List<ValueGetter> valueGetters = Lists.newArrayListWithExpectedSize(maintainers.size());
+        List<List<Mutation>> indexMutations = Lists.newArrayListWithExpectedSize(maintainers.size());
+        for (IndexMaintainer maintainer : maintainers) {
+            valueGetters.add(newValueGetter(maintainer, result));
+            indexMutations.add(Lists.<Mutation>newArrayList());
+        }
+        byte[] chunkTimeMs = scan.getAttribute(INDEX_BUILD_CHUNK_TIME_MS);
+        long stopTime = chunkTimeMs == null ? Long.MAX_VALUE : System.currentTimeMillis() + Bytes.toLong(chunkTimeMs);
+        int batchSize = env.getConfiguration().getInt(MUTATE_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MUTATE_BATCH_SIZE);
+        long ts = scan.getTimeRange().getMax();
+        boolean isIncremental = scan.getAttribute(INDEX_BUILD_INCREMENTAL) != null;
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        byte[] resumeKey = ByteUtil.EMPTY_BYTE_ARRAY;
+        long rowCount = 0;
+        boolean hasMore;
+        if (logger.isInfoEnabled()) {
+            logger.info("Starting index build of " + region.getRegionNameAsString() + " at " + Bytes.toStringBinary(scan.getStartRow()));
+        }
+        MultiVersionConsistencyControl.setThreadReadPoint(s.getMvccReadPoint());
+        region.startRegionOperation();
+        try {
+            do {
+                List<KeyValue> results = new ArrayList<KeyValue>();
+                hasMore = s.nextRaw(results, null);
+                if (!results.isEmpty()) {
+                    rowCount++;
+                    KeyValue kv = results.get(0);
+                    ptr.set(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+                    if (isIncremental) {
+                        buildIncrementalIndexMutations(region, scan, ptr, results, maintainers, valueGetters, result, indexMutations);
+                        // Reading the history of the row moved the read point of this thread
+                        MultiVersionConsistencyControl.setThreadReadPoint(s.getMvccReadPoint());
+                    } else {
+                        result.setKeyValues(results);
+                        for (int i = 0; i < maintainers.size(); i++) {
+                            Put put = maintainers.get(i).buildUpdateMutation(valueGetters.get(i), ptr, ts, region.getStartKey(), region.getEndKey());
+                            if (put != null) {
+                                indexMutations.get(i).add(put);
+                            }
+                        }
+                    }
+                    if (rowCount % batchSize == 0) {
+                        commitIndexBatch(env, maintainers, indexMutations);
+                        if (hasMore && System.currentTimeMillis() >= stopTime) {
+                            // Resume at the key immediately following the last row read
+                            resumeKey = ByteUtil.concat(kv.getRow(), QueryConstants.SEPARATOR_BYTE_ARRAY);
+                            break;
+                        }
+                    }
+                }
+            } while (hasMore);
+            commitIndexBatch(env, maintainers, indexMutations);
+        } finally {
+            s.close();
+            region.closeRegionOperation();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Built index rows for " + rowCount + " rows of " + region.getRegionNameAsString() + (resumeKey.length == 0 ? "" : ", resuming at " + Bytes.toStringBinary(resumeKey)));
+        }
+        
+        byte[] rowCountBytes = PDataType.LONG.toBytes(rowCount);
+        // Key values must be in sorted order, so the resume key goes first
+        final List<KeyValue> buildResult = Arrays.asList(
+                KeyValueUtil.newKeyValue(UNGROUPED_AGG_ROW_KEY, SINGLE_COLUMN_FAMILY, INDEX_BUILD_RESUME_KEY, AGG_TIMESTAMP, resumeKey, 0, resumeKey.length),
+                KeyValueUtil.newKeyValue(UNGROUPED_AGG_ROW_KEY, SINGLE_COLUMN_FAMILY, INDEX_BUILD_ROW_COUNT, AGG_TIMESTAMP, rowCountBytes, 0, rowCountBytes.length));
+        final HRegionInfo regionInfo = s.getRegionInfo();
+        return new BaseRegionScanner() {
+            private boolean done = false;
+
+            @Override
+            public HRegionInfo getRegionInfo() {
+                return regionInfo;
+            }
+
+            @Override
+            public boolean isFilterDone() {
+                return done;
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+
+            @Override
+            public boolean next(List<KeyValue> results) throws IOException {
+                if (done) return false;
+                done = true;
+                results.addAll(buildResult);
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * Builds the index mutations for a data row changed within the time range of the scan, given the key
+     * values and delete markers of those changes. The index row of the state of the data row at the end of
+     * the time range is put, while the index rows of each of its states before a change are deleted, since
+     * any of them may have been left behind by an index write that failed. The history of the row is complete,
+     * as flushes and compactions keep every version while the rebuild is pending (see
+     * {@link #isIndexRebuildPending(RegionCoprocessorEnvironment)}).
+     */
+    private static void buildIncrementalIndexMutations(HRegion region, Scan scan, ImmutableBytesWritable rowKeyPtr, List<KeyValue> changes,
+            List<IndexMaintainer> maintainers, List<ValueGetter> valueGetters, MultiKeyValueTuple result, List<List<Mutation>> indexMutations) throws IOException {
+        long ts = scan.getTimeRange().getMax();
+        byte[] regionStartKey = region.getStartKey();
+        byte[] regionEndKey = region.getEndKey();
+        // Delete markers mask the versions before them regardless of the time range of a Get,
+        // so the earlier states of the row are computed from all of its versions instead
+        Scan historyScan = new Scan(new Get(rowKeyPtr.copyBytes()));
+        historyScan.setRaw(true);
+        historyScan.setMaxVersions();
+        historyScan.setTimeRange(0, ts);
+        for (byte[] family : scan.getFamilyMap().keySet()) {
+            historyScan.addFamily(family);
+        }
+        List<KeyValue> history = new ArrayList<KeyValue>();
+        RegionScanner scanner = region.getScanner(historyScan);
+        try {
+            scanner.next(history);
+        } finally {
+            scanner.close();
+        }
+        SortedSet<Long> changeTimeStamps = new TreeSet<Long>();
+        for (KeyValue kv : changes) {
+            changeTimeStamps.add(kv.getTimestamp());
+        }
+        List<Set<ImmutableBytesPtr>> staleRowKeys = Lists.newArrayListWithExpectedSize(maintainers.size());
+        for (int i = 0; i < maintainers.size(); i++) {
+            staleRowKeys.add(Sets.<ImmutableBytesPtr>newHashSet());
+        }
+        for (Long changeTimeStamp : changeTimeStamps) {
+            List<KeyValue> state = getRowStateBefore(history, changeTimeStamp);
+            if (!state.isEmpty()) {
+                result.setKeyValues(state);
+                for (int i = 0; i < maintainers.size(); i++) {
+                    staleRowKeys.get(i).add(new ImmutableBytesPtr(maintainers.get(i).buildRowKey(valueGetters.get(i), rowKeyPtr, regionStartKey, regionEndKey)));
+                }
+            }
+        }
+        List<KeyValue> state = getRowStateBefore(history, ts);
+        for (int i = 0; i < maintainers.size(); i++) {
+            if (!state.isEmpty()) {
+                result.setKeyValues(state);
+                Put put = maintainers.get(i).buildUpdateMutation(valueGetters.get(i), rowKeyPtr, ts, regionStartKey, regionEndKey);
+                if (put != null) {
+                    indexMutations.get(i).add(put);
+                    staleRowKeys.get(i).remove(new ImmutableBytesPtr(put.getRow()));
+                }
+            }
+            for (ImmutableBytesPtr staleRowKey : staleRowKeys.get(i)) {
+                indexMutations.get(i).add(maintainers.get(i).buildRowDeleteMutation(staleRowKey.copyBytesIfNecessary(), ts));
+            }
+        }
+    }
+    
+    /**
+     * @return the latest version of each column of a row that is older than the given time stamp and not
+     * masked by a delete marker that is also older than it, given all versions and delete markers of the row
+     * in their sort order.
+     */
+    private static List<KeyValue> getRowStateBefore(List<KeyValue> history, long ts) {
+        List<KeyValue> state = new ArrayList<KeyValue>();
+        KeyValue prevKV = null;
+        long familyDeleteTimeStamp = -1;
+        long columnDeleteTimeStamp = -1;
+        boolean hasColumnValue = false;
+        Set<Long> versionDeleteTimeStamps = Sets.newHashSet();
+        for (KeyValue kv : history) {
+            if (kv.getTimestamp() >= ts) {
+                continue;
+            }
+            if (prevKV == null || !prevKV.matchingFamily(kv)) {
+                familyDeleteTimeStamp = -1;
+            }
+            if (prevKV == null || !prevKV.matchingFamily(kv) || !prevKV.matchingQualifier(kv)) {
+                columnDeleteTimeStamp = -1;
+                hasColumnValue = false;
+                versionDeleteTimeStamps.clear();
+            }
+            prevKV = kv;
+            byte type = kv.getType();
+            if (type == KeyValue.Type.DeleteFamily.getCode()) {
+                familyDeleteTimeStamp = Math.max(familyDeleteTimeStamp, kv.getTimestamp());
+            } else if (type == KeyValue.Type.DeleteColumn.getCode()) {
+                columnDeleteTimeStamp = Math.max(columnDeleteTimeStamp, kv.getTimestamp());
+            } else if (type == KeyValue.Type.Delete.getCode()) {
+                versionDeleteTimeStamps.add(kv.getTimestamp());
+            } else if (type == KeyValue.Type.Put.getCode() && !hasColumnValue
+                    && kv.getTimestamp() > familyDeleteTimeStamp && kv.getTimestamp() > columnDeleteTimeStamp
+                    && !versionDeleteTimeStamps.contains(kv.getTimestamp())) {
+                state.add(kv);
+                hasColumnValue = true;
+            }
+        }
+        return state;
+    }
+    
+    @Override
+    public InternalScanner preFlushScannerOpen(ObserverContext<RegionCoprocessorEnvironment> c, Store store,
+            KeyValueScanner memstoreScanner, InternalScanner s) throws IOException {
+        if (s != null || !isIndexRebuildPending(c.getEnvironment())) {
+            return s;
+        }
+        return newHistoryRetainingScanner(store, Collections.singletonList(memstoreScanner), ScanType.MINOR_COMPACT, HConstants.OLDEST_TIMESTAMP);
+    }
+
+    @Override
+    public InternalScanner preCompactScannerOpen(ObserverContext<RegionCoprocessorEnvironment> c, Store store,
+            List<? extends KeyValueScanner> scanners, ScanType scanType, long earliestPutTs, InternalScanner s) throws IOException {
+        if (s != null || !isIndexRebuildPending(c.getEnvironment())) {
+            return s;
+        }
+        return newHistoryRetainingScanner(store, scanners, scanType, earliestPutTs);
+    }
+    
+    /**
+     * Creates the scanner of a flush or compaction that keeps every version and delete marker of the store,
+     * instead of only as many versions as the column family allows. Excess versions are pruned again by the
+     * first compaction after the rebuild.
+     */
+    private static InternalScanner newHistoryRetainingScanner(Store store, List<? extends KeyValueScanner> scanners,
+            ScanType scanType, long earliestPutTs) throws IOException {
+        Store.ScanInfo scanInfo = store.getScanInfo();
+        Store.ScanInfo retainingScanInfo = new Store.ScanInfo(scanInfo.getFamily(), scanInfo.getMinVersions(), Integer.MAX_VALUE,
+                scanInfo.getTtl(), true, scanInfo.getTimeToPurgeDeletes(), scanInfo.getComparator());
+        Scan scan = new Scan();
+        scan.setMaxVersions();
+        return new StoreScanner(store, retainingScanInfo, scan, scanners, scanType, store.getHRegion().getSmallestReadPoint(), earliestPutTs);
+    }
+    
+    /**
+     * Determines whether an index of the table of the region was disabled by a failed index write and hasn't
+     * been rebuilt yet. Its rebuild finds the data rows changed since the failure and the index rows of their
+     * prior states from their versions and delete markers, so none of them may be pruned in the meantime,
+     * even if a row is changed more often than the column family keeps versions of it. No RPC is made, as
+     * flushes and compactions must not wait on SYSTEM.TABLE (see {@link PendingIndexRebuildTracker}).
+     */
+    private static boolean isIndexRebuildPending(RegionCoprocessorEnvironment env) {
+        HTableDescriptor desc = env.getRegion().getTableDesc();
+        // Only mutable indexes are disabled by a failed write, and only tables with mutable indexes have an Indexer
+        if (!desc.hasCoprocessor(Indexer.class.getName())
+                || !env.getConfiguration().getBoolean(INDEX_FAILURE_HANDLING_REBUILD_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_FAILURE_HANDLING_REBUILD)) {
+            return false;
+        }
+        return PendingIndexRebuildTracker.getInstance(env.getConfiguration()).isPending(env, desc.getNameAsString());
+    }
+    
+    private static void commitIndexBatch(RegionCoprocessorEnvironment env, List<IndexMaintainer> maintainers, List<List<Mutation>> indexMutations) throws IOException {
+        for (int i = 0; i < maintainers.size(); i++) {
+            List<Mutation> mutations = indexMutations.get(i);
+            if (mutations.isEmpty()) {
+                continue;
+            }
+            IndexMaintainer maintainer = maintainers.get(i);
+            if (maintainer.isLocalIndex()) {
+                List<Pair<Mutation,Integer>> regionMutations = Lists.newArrayListWithExpectedSize(mutations.size());
+                for (Mutation mutation : mutations) {
+                    regionMutations.add(new Pair<Mutation,Integer>(mutation,null));
+                }
+                commitBatch(env.getRegion(), regionMutations, null);
+            } else {
+                HTableInterface indexTable = env.getTable(maintainer.getIndexTableName());
+                try {
+                    indexTable.batch(mutations);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } finally {
+                    indexTable.close();
+                }
+            }
+            mutations.clear();
+        }
+    }
+    
     private static PTable deserializeTable(byte[] b) {
         ByteArrayInputStream stream = new ByteArrayInputStream(b);
         try {
@@ -28,6 +28,7 @@
 package com.salesforce.phoenix.exception;
 
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.util.Map;
 
 import com.google.common.collect.Maps;
@@ -216,6 +217,8 @@ public enum SQLExceptionCode {
     INSUFFICIENT_MULTI_TENANT_COLUMNS(1040, "42Y96", "A MULTI_TENANT table must have 2 or more PK columns with the first column being VARCHAR or CHAR."),
     VIEW_WHERE_IS_CONSTANT(1045, "43A02", "WHERE clause in VIEW should not evaluate to a constant."),
     CANNOT_UPDATE_VIEW_COLUMN(1046, "43A03", "Column used in WHERE clause of VIEW may not be updated."),
+    NO_LOCAL_INDEX_ON_IMMUTABLE_ROWS(1047, "43A04", "Local indexes are not supported on tables with immutable rows."),
+    CANNOT_SALT_LOCAL_INDEX(1048, "43A05", "Local indexes may not be salted."),
         
     /** Sequence related */
     SEQUENCE_ALREADY_EXIST(1200, "42Z00", "Sequence already exists.", new Factory() {
@@ -252,6 +255,8 @@ public enum SQLExceptionCode {
     EXECUTE_QUERY_NOT_APPLICABLE(1103, "XCL03", "executeQuery may not be used."),
     EXECUTE_UPDATE_NOT_APPLICABLE(1104, "XCL03", "executeUpdate may not be used."),
     SPLIT_POINT_NOT_CONSTANT(1105, "XCL04", "Split points must be constants."),
+    QUERY_CANCELLED(1106, "XCL05", "Query was cancelled."),
+    QUERY_TIMEOUT(1107, "XCL06", "Query timed out.", Factory.QUERY_TIMEOUT),
     
     /**
      * Implementation defined class. Phoenix internal error. (errorcode 20, sqlstate INT).
@@ -320,6 +325,14 @@ public enum SQLExceptionCode {
                 return new PhoenixParserException(info.getMessage(), info.getRootCause());
             }
             
+        };
+        public static final Factory QUERY_TIMEOUT = new Factory() {
+
+            @Override
+            public SQLException newException(SQLExceptionInfo info) {
+                return new SQLTimeoutException(info.toString(), info.getCode().getSQLState(), info.getCode().getErrorCode(), info.getRootCause());
+            }
+            
         };
         public SQLException newException(SQLExceptionInfo info);
     }
@@ -46,6 +46,7 @@ import com.salesforce.phoenix.iterate.ConcatResultIterator;
 import com.salesforce.phoenix.iterate.DistinctAggregatingResultIterator;
 import com.salesforce.phoenix.iterate.FilterAggregatingResultIterator;
 import com.salesforce.phoenix.iterate.GroupedAggregatingResultIterator;
+import com.salesforce.phoenix.iterate.HashAggregatingResultIterator;
 import com.salesforce.phoenix.iterate.LimitingResultIterator;
 import com.salesforce.phoenix.iterate.MergeSortRowKeyResultIterator;
 import com.salesforce.phoenix.iterate.OrderedAggregatingResultIterator;
@@ -58,6 +59,7 @@ import com.salesforce.phoenix.iterate.SequenceResultIterator;
 import com.salesforce.phoenix.iterate.SpoolingResultIterator;
 import com.salesforce.phoenix.iterate.UngroupedAggregatingResultIterator;
 import com.salesforce.phoenix.parse.FilterableStatement;
+import com.salesforce.phoenix.parse.HintNode.Hint;
 import com.salesforce.phoenix.query.KeyRange;
 import com.salesforce.phoenix.query.QueryServices;
 import com.salesforce.phoenix.query.QueryServicesOptions;
@@ -121,10 +123,23 @@ public class AggregatePlan extends BasicQueryPlan {
         }
     }
 
-    private ParallelIteratorFactory wrapParallelIteratorFactory () {
+    /**
+     * Whether to merge the partial aggregates of each region in a client-side hash table
+     * instead of sorting them. Only possible when the group by is not already in row key
+     * order and no ORDER BY was optimized out because of the group key order.
+     */
+    private boolean isHashAggregate() {
+        if (groupBy.isEmpty() || groupBy.isOrderPreserving() || orderBy == OrderBy.ROW_KEY_ORDER_BY) {
+            return false;
+        }
+        return statement.getHint().hasHint(Hint.HASH_AGGREGATE) || context.getConnection().getQueryServices().getProps().getBoolean(
+                QueryServices.GROUPBY_CLIENT_HASH_AGGREGATE_ATTRIB, QueryServicesOptions.DEFAULT_GROUPBY_CLIENT_HASH_AGGREGATE);
+    }
+
+    private ParallelIteratorFactory wrapParallelIteratorFactory (boolean isHashAggregate) {
         ParallelIteratorFactory innerFactory;
         QueryServices services = context.getConnection().getQueryServices();
-        if (groupBy.isEmpty() || groupBy.isOrderPreserving()) {
+        if (groupBy.isEmpty() || groupBy.isOrderPreserving() || isHashAggregate) {
             innerFactory = new SpoolingResultIterator.SpoolingResultIteratorFactory(services);
         } else {
             innerFactory = new OrderingResultIteratorFactory(services);
@@ -141,13 +156,16 @@ public class AggregatePlan extends BasicQueryPlan {
         if (groupBy.isEmpty()) {
             UngroupedAggregateRegionObserver.serializeIntoScan(context.getScan());
         }
-        ParallelIterators parallelIterators = new ParallelIterators(context, tableRef, statement, projection, groupBy, null, wrapParallelIteratorFactory());
+        boolean isHashAggregate = isHashAggregate();
+        ParallelIterators parallelIterators = new ParallelIterators(context, tableRef, statement, projection, groupBy, null, wrapParallelIteratorFactory(isHashAggregate));
         splits = parallelIterators.getSplits();
 
         AggregatingResultIterator aggResultIterator;
         // No need to merge sort for ungrouped aggregation
         if (groupBy.isEmpty()) {
             aggResultIterator = new UngroupedAggregatingResultIterator(new ConcatResultIterator(parallelIterators), aggregators);
+        } else if (isHashAggregate) {
+            aggResultIterator = new HashAggregatingResultIterator(new ConcatResultIterator(parallelIterators), aggregators, context.getConnection().getQueryServices());
         } else {
             aggResultIterator = new GroupedAggregatingResultIterator(new MergeSortRowKeyResultIterator(parallelIterators), aggregators);
         }
@@ -141,6 +141,8 @@ public abstract class BasicQueryPlan implements QueryPlan {
 
     public final ResultIterator iterator(final List<SQLCloseable> dependencies) throws SQLException {
         if (context.getScanRanges() == ScanRanges.NOTHING) {
+            // Nothing depends on the resources, such as hash caches, needed to scan the table
+            SQLCloseables.closeAll(dependencies);
             return ResultIterator.EMPTY_ITERATOR;
         }
         
@@ -30,11 +30,14 @@ package com.salesforce.phoenix.execute;
 import java.sql.ParameterMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
 
 import com.google.common.collect.Lists;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
@@ -54,8 +57,15 @@ import com.salesforce.phoenix.join.HashJoinInfo;
 import com.salesforce.phoenix.parse.FilterableStatement;
 import com.salesforce.phoenix.query.ConnectionQueryServices;
 import com.salesforce.phoenix.query.KeyRange;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.RowKeySchema;
 import com.salesforce.phoenix.schema.TableRef;
 import com.salesforce.phoenix.util.SQLCloseable;
+import com.salesforce.phoenix.util.SQLCloseables;
+import com.salesforce.phoenix.util.ScanUtil;
+import com.salesforce.phoenix.util.SchemaUtil;
 
 public class HashJoinPlan implements QueryPlan {
     
@@ -63,13 +73,32 @@ public class HashJoinPlan implements QueryPlan {
     private HashJoinInfo joinInfo;
     private List<Expression>[] hashExpressions;
     private QueryPlan[] hashPlans;
+    private int keyRangeJoinIndex;
+    private Expression keyRangeLhsExpression;
+    private Expression keyRangeRhsExpression;
     
     public HashJoinPlan(BasicQueryPlan plan, HashJoinInfo joinInfo,
             List<Expression>[] hashExpressions, QueryPlan[] hashPlans) {
+        this(plan, joinInfo, hashExpressions, hashPlans, -1, null, null);
+    }
+    
+    /**
+     * @param keyRangeJoinIndex index of the inner join whose key values should narrow down the scan
+     * over the main table, or -1 if none
+     * @param keyRangeLhsExpression the leading row key column of the main table
+     * @param keyRangeRhsExpression the hash expression of the join table that is joined against the
+     * leading row key column of the main table
+     */
+    public HashJoinPlan(BasicQueryPlan plan, HashJoinInfo joinInfo,
+            List<Expression>[] hashExpressions, QueryPlan[] hashPlans, 
+            int keyRangeJoinIndex, Expression keyRangeLhsExpression, Expression keyRangeRhsExpression) {
         this.plan = plan;
         this.joinInfo = joinInfo;
         this.hashExpressions = hashExpressions;
         this.hashPlans = hashPlans;
+        this.keyRangeJoinIndex = keyRangeJoinIndex;
+        this.keyRangeLhsExpression = keyRangeLhsExpression;
+        this.keyRangeRhsExpression = keyRangeRhsExpression;
     }
 
     @Override
@@ -101,6 +130,7 @@ public class HashJoinPlan implements QueryPlan {
         ExecutorService executor = services.getExecutor();
         List<Future<ServerCache>> futures = new ArrayList<Future<ServerCache>>(count);
         List<SQLCloseable> dependencies = new ArrayList<SQLCloseable>(count);
+        final Set<ImmutableBytesPtr> keyRangeRhsValues = keyRangeJoinIndex < 0 ? null : new HashSet<ImmutableBytesPtr>();
         for (int i = 0; i < count; i++) {
             final int index = i;
             futures.add(executor.submit(new JobCallable<ServerCache>() {
@@ -109,7 +139,8 @@ public class HashJoinPlan implements QueryPlan {
                 public ServerCache call() throws Exception {
                     QueryPlan hashPlan = hashPlans[index];
                     return hashClient.addHashCache(ranges, hashPlan.iterator(), 
-                            hashPlan.getEstimatedSize(), hashExpressions[index], plan.getTableRef());
+                            hashPlan.getEstimatedSize(), hashExpressions[index], plan.getTableRef(),
+                            index == keyRangeJoinIndex ? keyRangeRhsExpression : null, keyRangeRhsValues);
                 }
 
                 @Override
@@ -131,8 +162,88 @@ public class HashJoinPlan implements QueryPlan {
             }
         }
         HashJoinInfo.serializeHashJoinIntoScan(scan, joinInfo);
+        if (keyRangeRhsValues != null) {
+            int maxKeys = services.getProps().getInt(QueryServices.MAX_HASH_JOIN_SKIP_SCAN_KEYS_ATTRIB, QueryServicesOptions.DEFAULT_MAX_HASH_JOIN_SKIP_SCAN_KEYS);
+            if (keyRangeRhsValues.size() <= maxKeys) {
+                dependencies.add(pushKeyRangesToScan(keyRangeRhsValues));
+            }
+        }
         
-        return plan.iterator(dependencies);
+        try {
+            return plan.iterator(dependencies);
+        } catch (SQLException e) {
+            SQLCloseables.closeAllQuietly(dependencies);
+            throw e;
+        }
+    }
+    
+    /**
+     * Narrow down the scan over the main table to the rows whose leading row key column
+     * matches one of the values of the join table, so that a skip scan replaces the full
+     * scan and hash table probe of each row. Only done if the scan doesn't already use a
+     * skip scan, in which case it's already limited to point or range lookups.
+     * @return a closeable that restores the scan ranges, start and stop rows and filter of the
+     * statement context, as the key values only apply to this execution of the plan
+     */
+    private SQLCloseable pushKeyRangesToScan(Set<ImmutableBytesPtr> values) {
+        final StatementContext context = plan.getContext();
+        final ScanRanges ranges = context.getScanRanges();
+        final KeyRange minMaxRange = context.getMinMaxRange();
+        final Scan scan = context.getScan();
+        final byte[] startRow = scan.getStartRow();
+        final byte[] stopRow = scan.getStopRow();
+        final Filter filter = scan.getFilter();
+        SQLCloseable restorer = new SQLCloseable() {
+            @Override
+            public void close() throws SQLException {
+                context.setScanRanges(ranges, minMaxRange);
+                scan.setStartRow(startRow);
+                scan.setStopRow(stopRow);
+                scan.setFilter(filter);
+            }
+        };
+        PTable table = plan.getTableRef().getTable();
+        RowKeySchema schema = ranges.isEverything() ? table.getRowKeySchema() : ranges.getSchema();
+        if (ranges.isDegenerate() || ranges.useSkipScanFilter() || schema == SchemaUtil.VAR_BINARY_SCHEMA) {
+            return restorer;
+        }
+        int pkPos = context.getConnection().getTenantId() != null && table.isMultiTenant() ? 1 : 0;
+        List<List<KeyRange>> slots = ranges.getRanges();
+        if (slots.size() < pkPos) {
+            return restorer;
+        }
+        List<KeyRange> slot = slots.size() > pkPos ? slots.get(pkPos) : null;
+        List<KeyRange> keyRanges = Lists.newArrayListWithExpectedSize(values.size());
+        for (ImmutableBytesPtr value : values) {
+            KeyRange keyRange = KeyRange.getKeyRange(value.copyBytesIfNecessary());
+            if (slot == null || intersects(keyRange, slot)) {
+                keyRanges.add(keyRange);
+            }
+        }
+        if (keyRanges.isEmpty()) {
+            context.setScanRanges(ScanRanges.NOTHING);
+            return restorer;
+        }
+        List<List<KeyRange>> newSlots = Lists.newArrayList(slots.subList(0, pkPos));
+        newSlots.add(keyRanges);
+        if (slot != null) {
+            newSlots.addAll(slots.subList(pkPos + 1, slots.size()));
+        }
+        ScanRanges newRanges = ScanRanges.create(newSlots, schema);
+        context.setScanRanges(newRanges, context.getMinMaxRange());
+        if (newRanges.useSkipScanFilter()) {
+            ScanUtil.andFilterAtBeginning(scan, newRanges.getSkipScanFilter());
+        }
+        return restorer;
+    }
+    
+    private static boolean intersects(KeyRange keyRange, List<KeyRange> keyRanges) {
+        for (KeyRange range : keyRanges) {
+            if (range.intersect(keyRange) != KeyRange.EMPTY_RANGE) {
+                return true;
+            }
+        }
+        return false;
     }
     
     @Override
@@ -162,6 +273,11 @@ public class HashJoinPlan implements QueryPlan {
         if (joinInfo.getPostJoinFilterExpression() != null) {
         	planSteps.add("    AFTER-JOIN SERVER FILTER BY " + joinInfo.getPostJoinFilterExpression().toString());
         }
+        if (keyRangeJoinIndex >= 0) {
+            // The skip scan is only used if the join table turns out to have few enough distinct keys
+            int maxKeys = getContext().getConnection().getQueryServices().getProps().getInt(QueryServices.MAX_HASH_JOIN_SKIP_SCAN_KEYS_ATTRIB, QueryServicesOptions.DEFAULT_MAX_HASH_JOIN_SKIP_SCAN_KEYS);
+            planSteps.add("    DYNAMIC SKIP SCAN BY " + keyRangeLhsExpression.toString() + " IN (" + keyRangeRhsExpression.toString() + ") IF AT MOST " + maxKeys + " KEYS");
+        }
         
         return new ExplainPlan(planSteps);
     }
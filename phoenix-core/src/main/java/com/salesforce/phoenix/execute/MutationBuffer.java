@@ -0,0 +1,413 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.execute;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.salesforce.phoenix.schema.PColumn;
+import com.salesforce.phoenix.schema.PRow;
+import com.salesforce.phoenix.util.ByteUtil;
+
+/**
+ * 
+ * Compact buffer of the uncommitted rows of a table. Row keys and column values
+ * are appended to growable byte arrays, and an open addressing hash table over
+ * the row keys allows a row that is upserted more than once to be merged in place.
+ * The column values of a row are kept in a single record of the form
+ * <code>[column count][column id, value length, value]*</code>, where the column id
+ * indexes the columns of the buffer. A newer record of a row that doesn't cover all
+ * the columns of the older record is merged with it into a new record, and space of
+ * records no longer referenced is reclaimed once it exceeds the space in use.
+ *
+ * @since 3.0.0
+ */
+public class MutationBuffer {
+    private static final int DELETE_ROW = -1;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MIN_COMPACT_BYTES = 64 * 1024;
+    
+    private final List<PColumn> columns = Lists.newArrayList();
+    private final Map<PColumn,Integer> columnIds = Maps.newHashMap();
+    private final BitSet newColumnIds = new BitSet();
+    
+    private byte[] keys;
+    private int keysLength;
+    private int[] keyOffsets; // key of row i is from keyOffsets[i] to keyOffsets[i+1]
+    private byte[] values;
+    private int valuesLength;
+    private int unusedValuesLength;
+    private int[] valueOffsets; // offset of the record of row i in values or DELETE_ROW
+    private int[] slots; // row + 1 or 0 if empty
+    private int size;
+    
+    public MutationBuffer(int expectedRows) {
+        int capacity = Math.max(MIN_CAPACITY, expectedRows);
+        keys = new byte[capacity * 8];
+        keyOffsets = new int[capacity + 1];
+        values = new byte[capacity * 16];
+        valueOffsets = new int[capacity];
+        slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+    
+    /**
+     * @return the number of distinct rows in the buffer
+     */
+    public int size() {
+        return size;
+    }
+    
+    public void clear() {
+        columns.clear();
+        columnIds.clear();
+        keysLength = 0;
+        valuesLength = 0;
+        unusedValuesLength = 0;
+        size = 0;
+        Arrays.fill(slots, 0);
+    }
+    
+    /**
+     * @return all the columns for which a row of the buffer has or has had a value
+     */
+    public List<PColumn> getColumns() {
+        return columns;
+    }
+    
+    public void getRowKey(int row, ImmutableBytesWritable ptr) {
+        ptr.set(keys, keyOffsets[row], keyOffsets[row+1] - keyOffsets[row]);
+    }
+    
+    public boolean isDelete(int row) {
+        return valueOffsets[row] == DELETE_ROW;
+    }
+    
+    /**
+     * Set the column values of a row of the buffer on the given row
+     * @param row the row of the buffer
+     * @param pRow the row on which to set the values
+     */
+    public void setValues(int row, PRow pRow) {
+        int offset = valueOffsets[row];
+        int nColumns = ByteUtil.vintFromBytes(values, offset);
+        offset += WritableUtils.decodeVIntSize(values[offset]);
+        for (int i = 0; i < nColumns; i++) {
+            int columnId = ByteUtil.vintFromBytes(values, offset);
+            offset += WritableUtils.decodeVIntSize(values[offset]);
+            int length = ByteUtil.vintFromBytes(values, offset);
+            offset += WritableUtils.decodeVIntSize(values[offset]);
+            byte[] value = new byte[length];
+            System.arraycopy(values, offset, value, 0, length);
+            offset += length;
+            pRow.setValue(columns.get(columnId), value);
+        }
+    }
+    
+    /**
+     * Upsert a row, merging the column values with the ones of an existing row
+     * with the same key, if any. The values of the new row take precedence.
+     * @param key the row key
+     * @param rowColumns the columns to set, which are not part of the row key
+     * @param rowValues the values of the columns, where null means null
+     * @param nColumns the number of columns to set
+     */
+    public void upsert(ImmutableBytesWritable key, PColumn[] rowColumns, byte[][] rowValues, int nColumns) {
+        compactIfNecessary();
+        int length = WritableUtils.getVIntSize(nColumns);
+        for (int i = 0; i < nColumns; i++) {
+            int valueLength = rowValues[i] == null ? 0 : rowValues[i].length;
+            length += WritableUtils.getVIntSize(getColumnId(rowColumns[i])) + WritableUtils.getVIntSize(valueLength) + valueLength;
+        }
+        int recordOffset = allocateValues(length);
+        int offset = recordOffset + ByteUtil.vintToBytes(values, recordOffset, nColumns);
+        for (int i = 0; i < nColumns; i++) {
+            int valueLength = rowValues[i] == null ? 0 : rowValues[i].length;
+            offset += ByteUtil.vintToBytes(values, offset, getColumnId(rowColumns[i]));
+            offset += ByteUtil.vintToBytes(values, offset, valueLength);
+            if (valueLength > 0) {
+                System.arraycopy(rowValues[i], 0, values, offset, valueLength);
+                offset += valueLength;
+            }
+        }
+        putRecord(key.get(), key.getOffset(), key.getLength(), recordOffset);
+    }
+    
+    /**
+     * Delete a row, replacing any column values of an existing row with the same key
+     * @param key the row key
+     */
+    public void delete(ImmutableBytesWritable key) {
+        putRecord(key.get(), key.getOffset(), key.getLength(), DELETE_ROW);
+    }
+    
+    /**
+     * Merge a newer buffer of the same table into this one, where the rows
+     * of the newer buffer take precedence in the event of overlaps.
+     * @param newBuffer the newer buffer
+     */
+    public void putAll(MutationBuffer newBuffer) {
+        if (newBuffer == this) {
+            return;
+        }
+        int[] columnIdMap = new int[newBuffer.columns.size()];
+        for (int i = 0; i < columnIdMap.length; i++) {
+            columnIdMap[i] = getColumnId(newBuffer.columns.get(i));
+        }
+        byte[] newKeys = newBuffer.keys;
+        byte[] newValues = newBuffer.values;
+        for (int row = 0; row < newBuffer.size; row++) {
+            int keyOffset = newBuffer.keyOffsets[row];
+            int keyLength = newBuffer.keyOffsets[row+1] - keyOffset;
+            int newRecordOffset = newBuffer.valueOffsets[row];
+            if (newRecordOffset == DELETE_ROW) {
+                putRecord(newKeys, keyOffset, keyLength, DELETE_ROW);
+                continue;
+            }
+            compactIfNecessary();
+            // Copy the record, mapping the column ids to the ones of this buffer
+            int nColumns = ByteUtil.vintFromBytes(newValues, newRecordOffset);
+            int length = getRecordLength(newValues, newRecordOffset);
+            int offset = newRecordOffset + WritableUtils.decodeVIntSize(newValues[newRecordOffset]);
+            for (int i = 0; i < nColumns; i++) {
+                int columnIdLength = WritableUtils.decodeVIntSize(newValues[offset]);
+                length += WritableUtils.getVIntSize(columnIdMap[ByteUtil.vintFromBytes(newValues, offset)]) - columnIdLength;
+                offset += columnIdLength;
+                int valueLength = ByteUtil.vintFromBytes(newValues, offset);
+                offset += WritableUtils.decodeVIntSize(newValues[offset]) + valueLength;
+            }
+            int recordOffset = allocateValues(length);
+            offset = newRecordOffset + WritableUtils.decodeVIntSize(newValues[newRecordOffset]);
+            int toOffset = recordOffset + ByteUtil.vintToBytes(values, recordOffset, nColumns);
+            for (int i = 0; i < nColumns; i++) {
+                int columnId = columnIdMap[ByteUtil.vintFromBytes(newValues, offset)];
+                offset += WritableUtils.decodeVIntSize(newValues[offset]);
+                toOffset += ByteUtil.vintToBytes(values, toOffset, columnId);
+                int valueLength = ByteUtil.vintFromBytes(newValues, offset);
+                int valueEnd = offset + WritableUtils.decodeVIntSize(newValues[offset]) + valueLength;
+                System.arraycopy(newValues, offset, values, toOffset, valueEnd - offset);
+                toOffset += valueEnd - offset;
+                offset = valueEnd;
+            }
+            putRecord(newKeys, keyOffset, keyLength, recordOffset);
+        }
+    }
+    
+    private int getColumnId(PColumn column) {
+        Integer columnId = columnIds.get(column);
+        if (columnId == null) {
+            columnId = columns.size();
+            columns.add(column);
+            columnIds.put(column, columnId);
+        }
+        return columnId;
+    }
+    
+    private static int getRecordLength(byte[] b, int recordOffset) {
+        int nColumns = ByteUtil.vintFromBytes(b, recordOffset);
+        int offset = recordOffset + WritableUtils.decodeVIntSize(b[recordOffset]);
+        for (int i = 0; i < nColumns; i++) {
+            offset += WritableUtils.decodeVIntSize(b[offset]);
+            int valueLength = ByteUtil.vintFromBytes(b, offset);
+            offset += WritableUtils.decodeVIntSize(b[offset]) + valueLength;
+        }
+        return offset - recordOffset;
+    }
+    
+    private static int hash(byte[] b, int offset, int length) {
+        int h = Bytes.hashCode(b, offset, length);
+        return h ^ (h >>> 16);
+    }
+    
+    private int findSlot(byte[] b, int offset, int length) {
+        int mask = slots.length - 1;
+        int slot = hash(b, offset, length) & mask;
+        while (true) {
+            int row = slots[slot] - 1;
+            if (row < 0 || Bytes.equals(keys, keyOffsets[row], keyOffsets[row+1] - keyOffsets[row], b, offset, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+    
+    /**
+     * Point the row with the given key to the given record, adding the row if it doesn't
+     * exist yet, or otherwise merging the record with the existing record of the row.
+     */
+    private void putRecord(byte[] b, int keyOffset, int keyLength, int recordOffset) {
+        int slot = findSlot(b, keyOffset, keyLength);
+        int row = slots[slot] - 1;
+        if (row < 0) {
+            addRow(slot, b, keyOffset, keyLength, recordOffset);
+            return;
+        }
+        int oldRecordOffset = valueOffsets[row];
+        if (oldRecordOffset == DELETE_ROW || recordOffset == DELETE_ROW) {
+            // A delete replaces all values and an upsert replaces a delete
+            if (oldRecordOffset != DELETE_ROW) {
+                unusedValuesLength += getRecordLength(values, oldRecordOffset);
+            }
+            valueOffsets[row] = recordOffset;
+        } else {
+            valueOffsets[row] = mergeRecords(oldRecordOffset, recordOffset);
+        }
+    }
+    
+    private void addRow(int slot, byte[] b, int keyOffset, int keyLength, int recordOffset) {
+        if (size == valueOffsets.length) {
+            int capacity = size + (size >> 1);
+            valueOffsets = Arrays.copyOf(valueOffsets, capacity);
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity + 1);
+        }
+        if (keysLength + keyLength > keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keysLength + keyLength, keys.length + (keys.length >> 1)));
+        }
+        System.arraycopy(b, keyOffset, keys, keysLength, keyLength);
+        keyOffsets[size] = keysLength;
+        keysLength += keyLength;
+        keyOffsets[size+1] = keysLength;
+        valueOffsets[size] = recordOffset;
+        slots[slot] = ++size;
+        // Keep the hash table at most half full
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+    
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int row = 0; row < size; row++) {
+            int keyOffset = keyOffsets[row];
+            int slot = hash(keys, keyOffset, keyOffsets[row+1] - keyOffset) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = row + 1;
+        }
+    }
+    
+    /**
+     * Merge the old record of a row with the new one, keeping the columns of the old
+     * one that are not in the new one.
+     * @return the offset of the merged record
+     */
+    private int mergeRecords(int oldRecordOffset, int newRecordOffset) {
+        newColumnIds.clear();
+        int nNewColumns = ByteUtil.vintFromBytes(values, newRecordOffset);
+        int offset = newRecordOffset + WritableUtils.decodeVIntSize(values[newRecordOffset]);
+        for (int i = 0; i < nNewColumns; i++) {
+            newColumnIds.set(ByteUtil.vintFromBytes(values, offset));
+            offset += WritableUtils.decodeVIntSize(values[offset]);
+            int valueLength = ByteUtil.vintFromBytes(values, offset);
+            offset += WritableUtils.decodeVIntSize(values[offset]) + valueLength;
+        }
+        int newRecordLength = offset - newRecordOffset;
+        int nOldColumns = ByteUtil.vintFromBytes(values, oldRecordOffset);
+        int keptLength = 0;
+        int nKeptColumns = 0;
+        offset = oldRecordOffset + WritableUtils.decodeVIntSize(values[oldRecordOffset]);
+        for (int i = 0; i < nOldColumns; i++) {
+            int columnStart = offset;
+            boolean isKept = !newColumnIds.get(ByteUtil.vintFromBytes(values, offset));
+            offset += WritableUtils.decodeVIntSize(values[offset]);
+            int valueLength = ByteUtil.vintFromBytes(values, offset);
+            offset += WritableUtils.decodeVIntSize(values[offset]) + valueLength;
+            if (isKept) {
+                keptLength += offset - columnStart;
+                nKeptColumns++;
+            }
+        }
+        int oldRecordLength = offset - oldRecordOffset;
+        if (nKeptColumns == 0) { // New record covers all columns of the old one
+            unusedValuesLength += oldRecordLength;
+            return newRecordOffset;
+        }
+        int nColumns = nNewColumns + nKeptColumns;
+        int newColumnsLength = newRecordLength - WritableUtils.decodeVIntSize(values[newRecordOffset]);
+        int recordOffset = allocateValues(WritableUtils.getVIntSize(nColumns) + newColumnsLength + keptLength);
+        int toOffset = recordOffset + ByteUtil.vintToBytes(values, recordOffset, nColumns);
+        System.arraycopy(values, newRecordOffset + newRecordLength - newColumnsLength, values, toOffset, newColumnsLength);
+        toOffset += newColumnsLength;
+        offset = oldRecordOffset + WritableUtils.decodeVIntSize(values[oldRecordOffset]);
+        for (int i = 0; i < nOldColumns; i++) {
+            int columnStart = offset;
+            boolean isKept = !newColumnIds.get(ByteUtil.vintFromBytes(values, offset));
+            offset += WritableUtils.decodeVIntSize(values[offset]);
+            int valueLength = ByteUtil.vintFromBytes(values, offset);
+            offset += WritableUtils.decodeVIntSize(values[offset]) + valueLength;
+            if (isKept) {
+                System.arraycopy(values, columnStart, values, toOffset, offset - columnStart);
+                toOffset += offset - columnStart;
+            }
+        }
+        unusedValuesLength += oldRecordLength + newRecordLength;
+        return recordOffset;
+    }
+    
+    private int allocateValues(int length) {
+        if (valuesLength + length > values.length) {
+            values = Arrays.copyOf(values, Math.max(valuesLength + length, values.length + (values.length >> 1)));
+        }
+        int offset = valuesLength;
+        valuesLength += length;
+        return offset;
+    }
+    
+    /**
+     * Reclaim the space of records no longer referenced by any row once it
+     * exceeds the space used by the referenced ones.
+     */
+    private void compactIfNecessary() {
+        if (unusedValuesLength < MIN_COMPACT_BYTES || unusedValuesLength * 2 < valuesLength) {
+            return;
+        }
+        byte[] compactedValues = new byte[Math.max(values.length / 2, valuesLength - unusedValuesLength)];
+        int offset = 0;
+        for (int row = 0; row < size; row++) {
+            int recordOffset = valueOffsets[row];
+            if (recordOffset != DELETE_ROW) {
+                int length = getRecordLength(values, recordOffset);
+                System.arraycopy(values, recordOffset, compactedValues, offset, length);
+                valueOffsets[row] = offset;
+                offset += length;
+            }
+        }
+        values = compactedValues;
+        valuesLength = offset;
+        unusedValuesLength = 0;
+    }
+}
@@ -33,8 +33,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Mutation;
@@ -46,6 +52,7 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.cache.ServerCacheClient;
 import com.salesforce.phoenix.cache.ServerCacheClient.ServerCache;
@@ -54,6 +61,10 @@ import com.salesforce.phoenix.index.IndexMaintainer;
 import com.salesforce.phoenix.index.IndexMetaDataCacheClient;
 import com.salesforce.phoenix.index.PhoenixIndexCodec;
 import com.salesforce.phoenix.jdbc.PhoenixConnection;
+import com.salesforce.phoenix.job.JobManager.JobCallable;
+import com.salesforce.phoenix.query.ConnectionQueryServices;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.IllegalDataException;
 import com.salesforce.phoenix.schema.MetaDataClient;
 import com.salesforce.phoenix.schema.PColumn;
@@ -79,7 +90,7 @@ public class MutationState implements SQLCloseable {
     private PhoenixConnection connection;
     private final long maxSize;
     private final ImmutableBytesPtr tempPtr = new ImmutableBytesPtr();
-    private final Map<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> mutations = Maps.newHashMapWithExpectedSize(3); // TODO: Sizing?
+    private final Map<TableRef, MutationBuffer> mutations = Maps.newHashMapWithExpectedSize(3); // TODO: Sizing?
     private final long sizeOffset;
     private int numEntries = 0;
 
@@ -93,7 +104,7 @@ public class MutationState implements SQLCloseable {
         this.sizeOffset = sizeOffset;
     }
     
-    public MutationState(TableRef table, Map<ImmutableBytesPtr,Map<PColumn,byte[]>> mutations, long sizeOffset, long maxSize, PhoenixConnection connection) {
+    public MutationState(TableRef table, MutationBuffer mutations, long sizeOffset, long maxSize, PhoenixConnection connection) {
         this.maxSize = maxSize;
         this.connection = connection;
         this.mutations.put(table, mutations);
@@ -102,11 +113,11 @@ public class MutationState implements SQLCloseable {
         throwIfTooBig();
     }
     
-    private MutationState(List<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> entries, long sizeOffset, long maxSize, PhoenixConnection connection) {
+    private MutationState(List<Map.Entry<TableRef, MutationBuffer>> entries, long sizeOffset, long maxSize, PhoenixConnection connection) {
         this.maxSize = maxSize;
         this.connection = connection;
         this.sizeOffset = sizeOffset;
-        for (Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry : entries) {
+        for (Map.Entry<TableRef, MutationBuffer> entry : entries) {
             numEntries += entry.getValue().size();
             this.mutations.put(entry.getKey(), entry.getValue());
         }
@@ -133,52 +144,30 @@ public class MutationState implements SQLCloseable {
             return;
         }
         // Merge newMutation with this one, keeping state from newMutation for any overlaps
-        for (Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry : newMutation.mutations.entrySet()) {
-            // Replace existing entries for the table with new entries
-            Map<ImmutableBytesPtr,Map<PColumn,byte[]>> existingRows = this.mutations.put(entry.getKey(), entry.getValue());
+        for (Map.Entry<TableRef, MutationBuffer> entry : newMutation.mutations.entrySet()) {
+            MutationBuffer existingRows = this.mutations.get(entry.getKey());
             if (existingRows != null) { // Rows for that table already exist
-                // Loop through new rows and replace existing with new
-                for (Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry : entry.getValue().entrySet()) {
-                    // Replace existing row with new row
-                    Map<PColumn,byte[]> existingValues = existingRows.put(rowEntry.getKey(), rowEntry.getValue());
-                    if (existingValues != null) {
-                        Map<PColumn,byte[]> newRow = rowEntry.getValue();
-                        // if new row is null, it means delete, and we don't need to merge it with existing row. 
-                        if (newRow != null) {
-                            // Replace existing column values with new column values
-                            for (Map.Entry<PColumn,byte[]> valueEntry : newRow.entrySet()) {
-                                existingValues.put(valueEntry.getKey(), valueEntry.getValue());
-                            }
-                            // Now that the existing row has been merged with the new row, replace it back
-                            // again (since it was replaced with the new one above).
-                            existingRows.put(rowEntry.getKey(), existingValues);
-                        }
-                    } else {
-                        numEntries++;
-                    }
-                }
-                // Put the existing one back now that it's merged
-                this.mutations.put(entry.getKey(), existingRows);
+                int nExistingRows = existingRows.size();
+                existingRows.putAll(entry.getValue());
+                numEntries += existingRows.size() - nExistingRows;
             } else {
+                this.mutations.put(entry.getKey(), entry.getValue());
                 numEntries += entry.getValue().size();
             }
         }
         throwIfTooBig();
     }
     
-    private Iterator<Pair<byte[],List<Mutation>>> addRowMutations(final TableRef tableRef, final Map<ImmutableBytesPtr, Map<PColumn, byte[]>> values, long timestamp, boolean includeMutableIndexes) {
+    private Iterator<Pair<byte[],List<Mutation>>> addRowMutations(final TableRef tableRef, final MutationBuffer values, long timestamp, boolean includeMutableIndexes) {
         final List<Mutation> mutations = Lists.newArrayListWithExpectedSize(values.size());
-        Iterator<Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>>> iterator = values.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry = iterator.next();
-            ImmutableBytesPtr key = rowEntry.getKey();
+        for (int i = 0; i < values.size(); i++) {
+            ImmutableBytesPtr key = new ImmutableBytesPtr();
+            values.getRowKey(i, key);
             PRow row = tableRef.getTable().newRow(connection.getKeyValueBuilder(), timestamp, key);
-            if (rowEntry.getValue() == null) { // means delete
+            if (values.isDelete(i)) {
                 row.delete();
             } else {
-                for (Map.Entry<PColumn,byte[]> valueEntry : rowEntry.getValue().entrySet()) {
-                    row.setValue(valueEntry.getKey(), valueEntry.getValue());
-                }
+                values.setValues(i, row);
             }
             mutations.addAll(row.toRowMutations());
         }
@@ -229,14 +218,14 @@ public class MutationState implements SQLCloseable {
     }
     
     public Iterator<Pair<byte[],List<Mutation>>> toMutations(final boolean includeMutableIndexes) {
-        final Iterator<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> iterator = this.mutations.entrySet().iterator();
+        final Iterator<Map.Entry<TableRef, MutationBuffer>> iterator = this.mutations.entrySet().iterator();
         if (!iterator.hasNext()) {
             return Iterators.emptyIterator();
         }
         Long scn = connection.getSCN();
         final long timestamp = scn == null ? HConstants.LATEST_TIMESTAMP : scn;
         return new Iterator<Pair<byte[],List<Mutation>>>() {
-            private Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> current = iterator.next();
+            private Map.Entry<TableRef, MutationBuffer> current = iterator.next();
             private Iterator<Pair<byte[],List<Mutation>>> innerIterator = init();
                     
             private Iterator<Pair<byte[],List<Mutation>>> init() {
@@ -276,7 +265,7 @@ public class MutationState implements SQLCloseable {
         Long scn = connection.getSCN();
         MetaDataClient client = new MetaDataClient(connection);
         long[] timeStamps = new long[this.mutations.size()];
-        for (Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry : mutations.entrySet()) {
+        for (Map.Entry<TableRef, MutationBuffer> entry : mutations.entrySet()) {
             TableRef tableRef = entry.getKey();
             long serverTimeStamp = tableRef.getTimeStamp();
             PTable table = tableRef.getTable();
@@ -287,13 +276,8 @@ public class MutationState implements SQLCloseable {
                     serverTimeStamp *= -1;
                     // TODO: use bitset?
                     PColumn[] columns = new PColumn[table.getColumns().size()];
-                    for (Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry : entry.getValue().entrySet()) {
-                        Map<PColumn,byte[]> valueEntry = rowEntry.getValue();
-                        if (valueEntry != null) {
-                            for (PColumn column : valueEntry.keySet()) {
-                                columns[column.getPosition()] = column;
-                            }
-                        }
+                    for (PColumn column : entry.getValue().getColumns()) {
+                        columns[column.getPosition()] = column;
                     }
                     table = connection.getPMetaData().getTable(tableRef.getTable().getName().getString());
                     for (PColumn column : columns) {
@@ -326,108 +310,217 @@ public class MutationState implements SQLCloseable {
         logger.debug("Sending " + mutations.size() + " mutations for " + Bytes.toString(htable.getTableName()) + " with " + keyValueCount + " key values of total size " + byteSize + " bytes");
     }
     
+    /**
+     * Groups the mutations of an HTable by the region server hosting their row and
+     * splits them into batches of at most maxBatchSizePerServer mutations each.
+     */
+    private List<List<Mutation>> getServerBatches(byte[] htableName, List<Mutation> mutations, int maxBatchSizePerServer) throws SQLException {
+        List<HRegionLocation> locations = connection.getQueryServices().getAllTableRegions(htableName);
+        Map<HRegionLocation,List<Mutation>> serverMutations = Maps.newHashMapWithExpectedSize(locations.size());
+        for (Mutation mutation : mutations) {
+            HRegionLocation location = locations.get(getRegionIndex(locations, mutation.getRow()));
+            List<Mutation> batch = serverMutations.get(location);
+            if (batch == null) {
+                batch = Lists.newArrayList();
+                serverMutations.put(location, batch);
+            }
+            batch.add(mutation);
+        }
+        List<List<Mutation>> batches = Lists.newArrayListWithExpectedSize(serverMutations.size());
+        for (List<Mutation> batch : serverMutations.values()) {
+            batches.addAll(Lists.partition(batch, maxBatchSizePerServer));
+        }
+        return batches;
+    }
+    
+    /**
+     * Finds the region containing the row by a binary search over the start keys of the regions,
+     * which are ordered by start key.
+     */
+    private static int getRegionIndex(List<HRegionLocation> locations, byte[] row) {
+        int low = 0;
+        int high = locations.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (Bytes.compareTo(locations.get(mid).getRegionInfo().getStartKey(), row) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+    
+    private static void batch(HTableInterface hTable, List<Mutation> mutations) throws IOException, InterruptedException {
+        try {
+            if (logger.isDebugEnabled()) logMutationSize(hTable, mutations);
+            hTable.batch(mutations);
+        } finally {
+            hTable.close();
+        }
+    }
+    
+    /**
+     * Sends the mutations for the data table and its client maintained indexes. If there's more
+     * than a single batch, the mutations are grouped by region server and the per server
+     * batches are all sent in parallel on the query services executor.
+     * @param tableMutations pairs of physical table name and the mutations for that table
+     * @param maxBatchSizePerServer maximum number of mutations to send to a region server in one batch
+     */
+    private void send(List<Pair<byte[],List<Mutation>>> tableMutations, int maxBatchSizePerServer) throws Exception {
+        final ConnectionQueryServices services = connection.getQueryServices();
+        if (tableMutations.size() == 1 && tableMutations.get(0).getSecond().size() <= maxBatchSizePerServer) {
+            Pair<byte[],List<Mutation>> pair = tableMutations.get(0);
+            batch(services.getTable(pair.getFirst()), pair.getSecond());
+            return;
+        }
+        List<Pair<byte[],List<Mutation>>> serverBatches = Lists.newArrayList();
+        for (Pair<byte[],List<Mutation>> pair : tableMutations) {
+            for (List<Mutation> serverBatch : getServerBatches(pair.getFirst(), pair.getSecond(), maxBatchSizePerServer)) {
+                serverBatches.add(new Pair<byte[],List<Mutation>>(pair.getFirst(), serverBatch));
+            }
+        }
+        if (serverBatches.size() == 1) {
+            Pair<byte[],List<Mutation>> pair = serverBatches.get(0);
+            batch(services.getTable(pair.getFirst()), pair.getSecond());
+            return;
+        }
+        // Each batch is bound for a single region server, so have the HTable send it on the
+        // thread running the batch instead of handing it off again to the executor.
+        final ExecutorService sameThreadExecutor = MoreExecutors.sameThreadExecutor();
+        ExecutorService executor = services.getExecutor();
+        List<Future<Void>> futures = Lists.newArrayListWithExpectedSize(serverBatches.size());
+        boolean success = false;
+        try {
+            for (final Pair<byte[],List<Mutation>> pair : serverBatches) {
+                try {
+                    futures.add(executor.submit(new JobCallable<Void>() {
+
+                        @Override
+                        public Void call() throws Exception {
+                            batch(services.getTable(pair.getFirst(), sameThreadExecutor), pair.getSecond());
+                            return null;
+                        }
+
+                        /**
+                         * Defines the grouping for round robin behavior. All batches of this
+                         * commit are grouped together.
+                         */
+                        @Override
+                        public Object getJobId() {
+                            return MutationState.this;
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    // The executor is saturated, so send the batch on the committing thread instead
+                    batch(services.getTable(pair.getFirst(), sameThreadExecutor), pair.getSecond());
+                }
+            }
+            int timeoutMs = services.getProps().getInt(QueryServices.THREAD_TIMEOUT_MS_ATTRIB, QueryServicesOptions.DEFAULT_THREAD_TIMEOUT_MS);
+            for (Future<Void> future : futures) {
+                future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            }
+            success = true;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+        } finally {
+            if (!success) {
+                // Don't interrupt batches in flight, as that would close the shared connection to the region server
+                for (Future<Void> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+    
     public void commit() throws SQLException {
         int i = 0;
         byte[] tenantId = connection.getTenantId() == null ? null : connection.getTenantId().getBytes();
         long[] serverTimeStamps = validate();
-        Iterator<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> iterator = this.mutations.entrySet().iterator();
-        List<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> committedList = Lists.newArrayListWithCapacity(this.mutations.size());
+        int maxBatchSizePerServer = connection.getQueryServices().getProps().getInt(
+                QueryServices.MUTATE_MAX_BATCH_SIZE_PER_SERVER_ATTRIB, QueryServicesOptions.DEFAULT_MUTATE_MAX_BATCH_SIZE_PER_SERVER);
+        Iterator<Map.Entry<TableRef, MutationBuffer>> iterator = this.mutations.entrySet().iterator();
+        List<Map.Entry<TableRef, MutationBuffer>> committedList = Lists.newArrayListWithCapacity(this.mutations.size());
         while (iterator.hasNext()) {
-            Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry = iterator.next();
-            Map<ImmutableBytesPtr,Map<PColumn,byte[]>> valuesMap = entry.getValue();
+            Map.Entry<TableRef, MutationBuffer> entry = iterator.next();
+            MutationBuffer valuesMap = entry.getValue();
             TableRef tableRef = entry.getKey();
             PTable table = tableRef.getTable();
             table.getIndexMaintainers(tempPtr);
             boolean hasIndexMaintainers = tempPtr.getLength() > 0;
-            boolean isDataTable = true;
             long serverTimestamp = serverTimeStamps[i++];
-            Iterator<Pair<byte[],List<Mutation>>> mutationsIterator = addRowMutations(tableRef, valuesMap, serverTimestamp, false);
-            while (mutationsIterator.hasNext()) {
-                Pair<byte[],List<Mutation>> pair = mutationsIterator.next();
-                byte[] htableName = pair.getFirst();
-                List<Mutation> mutations = pair.getSecond();
-                
-                int retryCount = 0;
-                boolean shouldRetry = false;
-                do {
-                    ServerCache cache = null;
-                    if (hasIndexMaintainers && isDataTable) {
-                        byte[] attribValue = null;
-                        byte[] uuidValue;
-                        if (IndexMetaDataCacheClient.useIndexMetadataCache(connection, mutations, tempPtr.getLength())) {
-                            IndexMetaDataCacheClient client = new IndexMetaDataCacheClient(connection, tableRef);
-                            cache = client.addIndexMetadataCache(mutations, tempPtr);
-                            uuidValue = cache.getId();
-                            // If we haven't retried yet, retry for this case only, as it's possible that
-                            // a split will occur after we send the index metadata cache to all known
-                            // region servers.
-                            shouldRetry = true;
-                        } else {
-                            attribValue = ByteUtil.copyKeyBytesIfNecessary(tempPtr);
-                            uuidValue = ServerCacheClient.generateId();
+            // Generate the mutations for the client maintained indexes up front, so that they
+            // are sent together with the data table mutations instead of after them.
+            List<Pair<byte[],List<Mutation>>> tableMutations = Lists.newArrayList(addRowMutations(tableRef, valuesMap, serverTimestamp, false));
+            List<Mutation> mutations = tableMutations.get(0).getSecond();
+            
+            int retryCount = 0;
+            boolean shouldRetry = false;
+            do {
+                ServerCache cache = null;
+                if (hasIndexMaintainers) {
+                    byte[] attribValue = null;
+                    byte[] uuidValue;
+                    if (IndexMetaDataCacheClient.useIndexMetadataCache(connection, mutations, tempPtr.getLength())) {
+                        IndexMetaDataCacheClient client = new IndexMetaDataCacheClient(connection, tableRef);
+                        cache = client.addIndexMetadataCache(mutations, tempPtr);
+                        uuidValue = cache.getId();
+                        // If we haven't retried yet, retry for this case only, as it's possible that
+                        // a split will occur after we send the index metadata cache to all known
+                        // region servers.
+                        shouldRetry = true;
+                    } else {
+                        attribValue = ByteUtil.copyKeyBytesIfNecessary(tempPtr);
+                        uuidValue = ServerCacheClient.generateId();
+                    }
+                    // Either set the UUID to be able to access the index metadata from the cache
+                    // or set the index metadata directly on the Mutation
+                    for (Mutation mutation : mutations) {
+                        if (tenantId != null) {
+                            mutation.setAttribute(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
                         }
-                        // Either set the UUID to be able to access the index metadata from the cache
-                        // or set the index metadata directly on the Mutation
-                        for (Mutation mutation : mutations) {
-                            if (tenantId != null) {
-                                mutation.setAttribute(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
-                            }
-                            mutation.setAttribute(PhoenixIndexCodec.INDEX_UUID, uuidValue);
-                            if (attribValue != null) {
-                                mutation.setAttribute(PhoenixIndexCodec.INDEX_MD, attribValue);
-                            }
+                        mutation.setAttribute(PhoenixIndexCodec.INDEX_UUID, uuidValue);
+                        if (attribValue != null) {
+                            mutation.setAttribute(PhoenixIndexCodec.INDEX_MD, attribValue);
                         }
                     }
-                    
-                    SQLException sqlE = null;
-                    HTableInterface hTable = connection.getQueryServices().getTable(htableName);
+                }
+                
+                SQLException sqlE = null;
+                try {
+                    long startTime = System.currentTimeMillis();
+                    send(tableMutations, maxBatchSizePerServer);
+                    shouldRetry = false;
+                    if (logger.isDebugEnabled()) logger.debug("Total time for batch call of  " + mutations.size() + " mutations into " + table.getName().getString() + ": " + (System.currentTimeMillis() - startTime) + " ms");
+                    committedList.add(entry);
+                } catch (Exception e) {
+                    SQLException inferredE = ServerUtil.parseServerExceptionOrNull(e);
+                    if (inferredE != null) {
+                        if (shouldRetry && retryCount == 0 && inferredE.getErrorCode() == SQLExceptionCode.INDEX_METADATA_NOT_FOUND.getErrorCode()) {
+                            // Swallow this exception once, as it's possible that we split after sending the index metadata
+                            // and one of the region servers doesn't have it. This will cause it to have it the next go around.
+                            // If it fails again, we don't retry.
+                            logger.warn("Swallowing exception and retrying after clearing meta cache on connection. " + inferredE);
+                            connection.getQueryServices().clearTableRegionCache(table.getPhysicalName().getBytes());
+                            continue;
+                        }
+                        e = inferredE;
+                    }
+                    // Throw to client with both what was committed so far and what is left to be committed.
+                    // That way, client can either undo what was done or try again with what was not done.
+                    sqlE = new CommitException(e, this, new MutationState(committedList, this.sizeOffset, this.maxSize, this.connection));
+                } finally {
                     try {
-                        if (logger.isDebugEnabled()) logMutationSize(hTable, mutations);
-                        long startTime = System.currentTimeMillis();
-                        hTable.batch(mutations);
-                        shouldRetry = false;
-                        if (logger.isDebugEnabled()) logger.debug("Total time for batch call of  " + mutations.size() + " mutations into " + table.getName().getString() + ": " + (System.currentTimeMillis() - startTime) + " ms");
-                        committedList.add(entry);
-                    } catch (Exception e) {
-                        SQLException inferredE = ServerUtil.parseServerExceptionOrNull(e);
-                        if (inferredE != null) {
-                            if (shouldRetry && retryCount == 0 && inferredE.getErrorCode() == SQLExceptionCode.INDEX_METADATA_NOT_FOUND.getErrorCode()) {
-                                // Swallow this exception once, as it's possible that we split after sending the index metadata
-                                // and one of the region servers doesn't have it. This will cause it to have it the next go around.
-                                // If it fails again, we don't retry.
-                                logger.warn("Swallowing exception and retrying after clearing meta cache on connection. " + inferredE);
-                                connection.getQueryServices().clearTableRegionCache(htableName);
-                                continue;
-                            }
-                            e = inferredE;
+                        if (cache != null) {
+                            cache.close();
                         }
-                        // Throw to client with both what was committed so far and what is left to be committed.
-                        // That way, client can either undo what was done or try again with what was not done.
-                        sqlE = new CommitException(e, this, new MutationState(committedList, this.sizeOffset, this.maxSize, this.connection));
                     } finally {
-                        try {
-                            hTable.close();
-                        } catch (IOException e) {
-                            if (sqlE != null) {
-                                sqlE.setNextException(ServerUtil.parseServerException(e));
-                            } else {
-                                sqlE = ServerUtil.parseServerException(e);
-                            }
-                        } finally {
-                            try {
-                                if (cache != null) {
-                                    cache.close();
-                                }
-                            } finally {
-                                if (sqlE != null) {
-                                    throw sqlE;
-                                }
-                            }
+                        if (sqlE != null) {
+                            throw sqlE;
                         }
                     }
-                } while (shouldRetry && retryCount++ < 1);
-                isDataTable = false;
-            }
+                }
+            } while (shouldRetry && retryCount++ < 1);
             numEntries -= entry.getValue().size();
             iterator.remove(); // Remove batches as we process them
         }
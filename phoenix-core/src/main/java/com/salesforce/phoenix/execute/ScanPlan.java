@@ -51,6 +51,7 @@ import com.salesforce.phoenix.query.QueryConstants;
 import com.salesforce.phoenix.query.QueryServices;
 import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.PTable.IndexType;
 import com.salesforce.phoenix.schema.SaltingUtil;
 import com.salesforce.phoenix.schema.TableRef;
 
@@ -65,9 +66,13 @@ import com.salesforce.phoenix.schema.TableRef;
  */
 public class ScanPlan extends BasicQueryPlan {
     private List<KeyRange> splits;
+    // Only stream when the default spooling factory is used, as it may be applied to any part of a scan
+    private final boolean isStreaming;
     
     public ScanPlan(StatementContext context, FilterableStatement statement, TableRef table, RowProjector projector, Integer limit, OrderBy orderBy, ParallelIteratorFactory parallelIteratorFactory) {
         super(context, statement, table, projector, context.getBindManager().getParameterMetaData(), limit, orderBy, null, parallelIteratorFactory == null ? new SpoolingResultIterator.SpoolingResultIteratorFactory(context.getConnection().getQueryServices()) : parallelIteratorFactory);
+        this.isStreaming = parallelIteratorFactory == null && context.getConnection().getQueryServices().getProps().getBoolean(
+                QueryServices.STREAMING_SCAN_ATTRIB, QueryServicesOptions.DEFAULT_STREAMING_SCAN);
         if (!orderBy.getOrderByExpressions().isEmpty()) { // TopN
             int thresholdBytes = context.getConnection().getQueryServices().getProps().getInt(
                     QueryServices.SPOOL_THRESHOLD_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_SPOOL_THRESHOLD_BYTES);
@@ -92,7 +97,7 @@ public class ScanPlan extends BasicQueryPlan {
          * limit is provided, run query serially.
          */
         boolean isOrdered = !orderBy.getOrderByExpressions().isEmpty();
-        ParallelIterators iterators = new ParallelIterators(context, tableRef, statement, projection, GroupBy.EMPTY_GROUP_BY, isOrdered ? null : limit, parallelIteratorFactory);
+        ParallelIterators iterators = new ParallelIterators(context, tableRef, statement, projection, GroupBy.EMPTY_GROUP_BY, isOrdered ? null : limit, parallelIteratorFactory, isStreaming);
         splits = iterators.getSplits();
         if (isOrdered) {
             scanner = new MergeSortTopNResultIterator(iterators, limit, orderBy.getOrderByExpressions());
@@ -103,6 +108,9 @@ public class ScanPlan extends BasicQueryPlan {
                             QueryServicesOptions.DEFAULT_ROW_KEY_ORDER_SALTED_TABLE) ||
                      orderBy == OrderBy.ROW_KEY_ORDER_BY)) { // ORDER BY was optimized out b/c query is in row key order
                 scanner = new MergeSortRowKeyResultIterator(iterators, SaltingUtil.NUM_SALTING_BYTES);
+            } else if (table.getIndexType() == IndexType.LOCAL && orderBy == OrderBy.ROW_KEY_ORDER_BY) {
+                // The rows of a local index are only in row key order within each region of the data table
+                scanner = new MergeSortRowKeyResultIterator(iterators);
             } else {
                 scanner = new ConcatResultIterator(iterators);
             }
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.execute;
+
+import java.io.IOException;
+import java.sql.ParameterMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.compile.ExplainPlan;
+import com.salesforce.phoenix.compile.GroupByCompiler.GroupBy;
+import com.salesforce.phoenix.compile.OrderByCompiler.OrderBy;
+import com.salesforce.phoenix.compile.QueryPlan;
+import com.salesforce.phoenix.compile.RowProjector;
+import com.salesforce.phoenix.compile.StatementContext;
+import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.iterate.LimitingResultIterator;
+import com.salesforce.phoenix.iterate.LookAheadResultIterator;
+import com.salesforce.phoenix.iterate.OrderedResultIterator;
+import com.salesforce.phoenix.iterate.ResultIterator;
+import com.salesforce.phoenix.iterate.SequenceResultIterator;
+import com.salesforce.phoenix.join.HashJoinInfo;
+import com.salesforce.phoenix.join.ScanProjector;
+import com.salesforce.phoenix.join.ScanProjector.ProjectedValueTuple;
+import com.salesforce.phoenix.parse.FilterableStatement;
+import com.salesforce.phoenix.parse.JoinTableNode.JoinType;
+import com.salesforce.phoenix.query.KeyRange;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.IllegalDataException;
+import com.salesforce.phoenix.schema.KeyValueSchema;
+import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.ValueBitSet;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.SQLCloseables;
+import com.salesforce.phoenix.util.ServerUtil;
+
+/**
+ * 
+ * Query plan for a join that doesn't fit into the server-side hash cache. Both sides
+ * of the join are scanned in parallel, ordered by their join keys, and the two
+ * sorted streams are merged on the client. Only the rows with the same join key
+ * from the right hand side are held in memory at any given time.
+ *
+ * @since 3.0.0
+ */
+public class SortMergeJoinPlan implements QueryPlan {
+    private final StatementContext context;
+    private final FilterableStatement statement;
+    private final TableRef table;
+    private final JoinType type;
+    private final QueryPlan lhsPlan;
+    private final QueryPlan rhsPlan;
+    private final List<Expression> lhsKeyExpressions;
+    private final List<Expression> rhsKeyExpressions;
+    private final KeyValueSchema joinedSchema;
+    private final KeyValueSchema lhsSchema;
+    private final KeyValueSchema rhsSchema;
+    private final int rhsFieldPosition;
+    private final Expression postFilter;
+    private final RowProjector projector;
+    private final Integer limit;
+    private final OrderBy orderBy;
+
+    public SortMergeJoinPlan(StatementContext context, FilterableStatement statement, TableRef table, JoinType type,
+            QueryPlan lhsPlan, QueryPlan rhsPlan, List<Expression> lhsKeyExpressions, List<Expression> rhsKeyExpressions,
+            PTable joinedTable, PTable lhsTable, PTable rhsTable, int rhsFieldPosition, Expression postFilter,
+            RowProjector projector, Integer limit, OrderBy orderBy) {
+        this.context = context;
+        this.statement = statement;
+        this.table = table;
+        this.type = type;
+        this.lhsPlan = lhsPlan;
+        this.rhsPlan = rhsPlan;
+        this.lhsKeyExpressions = lhsKeyExpressions;
+        this.rhsKeyExpressions = rhsKeyExpressions;
+        this.joinedSchema = HashJoinInfo.buildSchema(joinedTable);
+        this.lhsSchema = HashJoinInfo.buildSchema(lhsTable);
+        this.rhsSchema = rhsTable == null ? null : HashJoinInfo.buildSchema(rhsTable);
+        this.rhsFieldPosition = rhsFieldPosition;
+        this.postFilter = postFilter;
+        this.projector = projector;
+        this.limit = limit;
+        this.orderBy = orderBy;
+    }
+
+    @Override
+    public ResultIterator iterator() throws SQLException {
+        ResultIterator lhsIterator = lhsPlan.iterator();
+        ResultIterator iterator;
+        try {
+            iterator = new MergeJoinIterator(lhsIterator, rhsPlan.iterator());
+        } catch (SQLException e) {
+            SQLCloseables.closeAllQuietly(Collections.singletonList(lhsIterator));
+            throw e;
+        }
+        if (!orderBy.getOrderByExpressions().isEmpty()) {
+            int thresholdBytes = context.getConnection().getQueryServices().getProps().getInt(
+                    QueryServices.SPOOL_THRESHOLD_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_SPOOL_THRESHOLD_BYTES);
+            iterator = new OrderedResultIterator(iterator, orderBy.getOrderByExpressions(), thresholdBytes, limit, projector.getEstimatedRowByteSize());
+        } else if (limit != null) {
+            iterator = new LimitingResultIterator(iterator, limit);
+        }
+        if (context.getSequenceManager().getSequenceCount() > 0) {
+            iterator = new SequenceResultIterator(iterator, context.getSequenceManager());
+        }
+        return iterator;
+    }
+
+    @Override
+    public ExplainPlan getExplainPlan() throws SQLException {
+        List<String> planSteps = Lists.newArrayList();
+        planSteps.add("SORT-MERGE-JOIN (" + type.toString().toUpperCase() + ") TABLES");
+        for (String step : lhsPlan.getExplainPlan().getPlanSteps()) {
+            planSteps.add("    " + step);
+        }
+        planSteps.add("AND");
+        for (String step : rhsPlan.getExplainPlan().getPlanSteps()) {
+            planSteps.add("    " + step);
+        }
+        if (postFilter != null) {
+            planSteps.add("AFTER-JOIN CLIENT FILTER BY " + postFilter.toString());
+        }
+        if (!orderBy.getOrderByExpressions().isEmpty()) {
+            planSteps.add("CLIENT" + (limit == null ? "" : " TOP " + limit + " ROW"  + (limit == 1 ? "" : "S"))  + " SORTED BY " + orderBy.getOrderByExpressions().toString());
+        } else if (limit != null) {
+            planSteps.add("CLIENT " + limit + " ROW LIMIT");
+        }
+        return new ExplainPlan(planSteps);
+    }
+
+    @Override
+    public long getEstimatedSize() {
+        return lhsPlan.getEstimatedSize();
+    }
+
+    @Override
+    public List<KeyRange> getSplits() {
+        return lhsPlan.getSplits();
+    }
+
+    @Override
+    public TableRef getTableRef() {
+        return table;
+    }
+
+    @Override
+    public RowProjector getProjector() {
+        return projector;
+    }
+
+    @Override
+    public Integer getLimit() {
+        return limit;
+    }
+
+    @Override
+    public OrderBy getOrderBy() {
+        return orderBy;
+    }
+
+    @Override
+    public GroupBy getGroupBy() {
+        return GroupBy.EMPTY_GROUP_BY;
+    }
+
+    @Override
+    public StatementContext getContext() {
+        return context;
+    }
+
+    @Override
+    public FilterableStatement getStatement() {
+        return statement;
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() {
+        return context.getBindManager().getParameterMetaData();
+    }
+
+    private static int compareKeys(ImmutableBytesWritable[] key1, ImmutableBytesWritable[] key2) {
+        for (int i = 0; i < key1.length; i++) {
+            int cmp = Bytes.compareTo(key1[i].get(), key1[i].getOffset(), key1[i].getLength(),
+                    key2[i].get(), key2[i].getOffset(), key2[i].getLength());
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Evaluates the join key of a row, returning null if any part of it is null,
+     * since such a row can never match a row of the other side.
+     */
+    private static ImmutableBytesWritable[] evaluateKey(Tuple tuple, List<Expression> keyExpressions) {
+        ImmutableBytesWritable[] key = new ImmutableBytesWritable[keyExpressions.size()];
+        for (int i = 0; i < key.length; i++) {
+            ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+            if (!keyExpressions.get(i).evaluate(tuple, ptr) || ptr.getLength() == 0) {
+                return null;
+            }
+            key[i] = ptr;
+        }
+        return key;
+    }
+
+    /**
+     * Merges the lhs and rhs iterators, both of which return rows ordered by the join key
+     * with null keys first. The rhs rows that share the current join key are buffered so
+     * that they may be joined with every lhs row with that same key.
+     */
+    private class MergeJoinIterator extends LookAheadResultIterator {
+        private final ResultIterator lhsIterator;
+        private final ResultIterator rhsIterator;
+        private final ValueBitSet destBitSet = ValueBitSet.newInstance(joinedSchema);
+        private final ValueBitSet lhsBitSet = ValueBitSet.newInstance(lhsSchema);
+        private final ValueBitSet rhsBitSet = rhsSchema == null ? ValueBitSet.EMPTY_VALUE_BITSET : ValueBitSet.newInstance(rhsSchema);
+        private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        private final List<Tuple> rhsGroup = new ArrayList<Tuple>();
+        private final Queue<Tuple> resultQueue = new LinkedList<Tuple>();
+        private ImmutableBytesWritable[] rhsGroupKey;
+        private Tuple rhsNext;
+        private ImmutableBytesWritable[] rhsNextKey;
+        private boolean isInitialized = false;
+
+        private MergeJoinIterator(ResultIterator lhsIterator, ResultIterator rhsIterator) {
+            this.lhsIterator = lhsIterator;
+            this.rhsIterator = rhsIterator;
+        }
+
+        @Override
+        protected Tuple advance() throws SQLException {
+            if (!isInitialized) {
+                fetchRhs();
+                nextRhsGroup();
+                isInitialized = true;
+            }
+            while (resultQueue.isEmpty()) {
+                Tuple lhs = lhsIterator.next();
+                if (lhs == null) {
+                    return null;
+                }
+                boolean isMatched = false;
+                ImmutableBytesWritable[] key = evaluateKey(lhs, lhsKeyExpressions);
+                if (key != null) {
+                    while (rhsGroupKey != null && compareKeys(rhsGroupKey, key) < 0) {
+                        nextRhsGroup();
+                    }
+                    if (rhsGroupKey != null && compareKeys(rhsGroupKey, key) == 0) {
+                        isMatched = true;
+                        for (Tuple rhs : rhsGroup) {
+                            offer(join(lhs, rhs));
+                        }
+                    }
+                }
+                if (!isMatched && type == JoinType.Left) {
+                    offer(join(lhs, null));
+                }
+            }
+            return resultQueue.poll();
+        }
+
+        private void fetchRhs() throws SQLException {
+            do {
+                rhsNext = rhsIterator.next();
+                rhsNextKey = rhsNext == null ? null : evaluateKey(rhsNext, rhsKeyExpressions);
+            } while (rhsNext != null && rhsNextKey == null);
+        }
+
+        private void nextRhsGroup() throws SQLException {
+            rhsGroup.clear();
+            rhsGroupKey = rhsNextKey;
+            while (rhsNext != null && compareKeys(rhsNextKey, rhsGroupKey) == 0) {
+                rhsGroup.add(rhsNext);
+                fetchRhs();
+            }
+        }
+
+        private ProjectedValueTuple join(Tuple lhs, Tuple rhs) throws SQLException {
+            try {
+                ProjectedValueTuple joined = ScanProjector.toProjectedValueTuple(lhs, lhsSchema, lhsBitSet, destBitSet);
+                if (rhs != null && rhsBitSet != ValueBitSet.EMPTY_VALUE_BITSET) {
+                    joined = ScanProjector.mergeProjectedValue(joined, joinedSchema, destBitSet, rhs, rhsSchema, rhsBitSet, rhsFieldPosition);
+                }
+                return joined;
+            } catch (IOException e) {
+                throw ServerUtil.parseServerException(e);
+            }
+        }
+
+        private void offer(Tuple tuple) {
+            if (postFilter != null) {
+                try {
+                    if (!postFilter.evaluate(tuple, ptr)) {
+                        return;
+                    }
+                } catch (IllegalDataException e) {
+                    return;
+                }
+                if (!((Boolean)postFilter.getDataType().toObject(ptr)).booleanValue()) {
+                    return;
+                }
+            }
+            resultQueue.offer(tuple);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            SQLCloseables.closeAll(Arrays.asList(lhsIterator, rhsIterator));
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+        }
+    }
+}
@@ -27,9 +27,13 @@
  ******************************************************************************/
 package com.salesforce.phoenix.expression;
 
+import java.util.BitSet;
 import java.util.List;
 
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
 import com.salesforce.phoenix.expression.visitor.ExpressionVisitor;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 
 
 /**
@@ -64,6 +68,17 @@ public class AndExpression extends AndOrExpression {
         return Boolean.FALSE;
     }
 
+    /**
+     * Narrows the selection one child at a time, so that each child only
+     * evaluates the rows that every child before it let through.
+     */
+    @Override
+    public void filter(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr) {
+        for (int i = 0; i < children.size() && !selection.isEmpty(); i++) {
+            children.get(i).filter(tuples, selection, ptr);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder("(");
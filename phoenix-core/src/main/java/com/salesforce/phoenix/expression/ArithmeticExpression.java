@@ -29,6 +29,10 @@ package com.salesforce.phoenix.expression;
 
 import java.util.List;
 
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
 public abstract class ArithmeticExpression extends BaseCompoundExpression {
 
     public ArithmeticExpression() {
@@ -50,4 +54,30 @@ public abstract class ArithmeticExpression extends BaseCompoundExpression {
     }
     
     abstract protected String getOperatorString();
+    
+    /**
+     * Evaluate a child of a fixed width arithmetic expression, leaving the result of
+     * a {@link PrimitiveNumericExpression} child unencoded. Use {@link #getLongValue(Expression, ImmutableBytesWritable)}
+     * or {@link #getDoubleValue(Expression, ImmutableBytesWritable)} to get at the value.
+     */
+    protected static boolean evaluate(Expression child, Tuple tuple, ImmutableBytesWritable ptr) {
+        if (child instanceof PrimitiveNumericExpression) {
+            return ((PrimitiveNumericExpression)child).evaluatePrimitive(tuple, ptr);
+        }
+        return child.evaluate(tuple, ptr);
+    }
+    
+    protected static long getLongValue(Expression child, ImmutableBytesWritable ptr) {
+        if (child instanceof PrimitiveNumericExpression) {
+            return ((PrimitiveNumericExpression)child).getLongValue();
+        }
+        return child.getDataType().getCodec().decodeLong(ptr, child.getColumnModifier());
+    }
+    
+    protected static double getDoubleValue(Expression child, ImmutableBytesWritable ptr) {
+        if (child instanceof PrimitiveNumericExpression) {
+            return ((PrimitiveNumericExpression)child).getDoubleValue();
+        }
+        return child.getDataType().getCodec().decodeDouble(ptr, child.getColumnModifier());
+    }
 }
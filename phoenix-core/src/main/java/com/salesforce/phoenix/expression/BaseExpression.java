@@ -31,12 +31,18 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
 import com.salesforce.phoenix.expression.visitor.ExpressionVisitor;
 import com.salesforce.phoenix.schema.ColumnModifier;
+import com.salesforce.phoenix.schema.IllegalDataException;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 
 
 
@@ -86,6 +92,31 @@ public abstract class BaseExpression implements Expression {
     public void reset() {
     }
     
+    /**
+     * Filters the batch by evaluating the expression one row at a time. Expressions
+     * with a cheaper way of testing many rows override this.
+     */
+    @Override
+    public void filter(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr) {
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i+1)) {
+            if (!isTrue(tuples[i], ptr)) {
+                selection.clear(i);
+            }
+        }
+    }
+    
+    /**
+     * @return true if the expression evaluates to TRUE for the given row and false
+     * if it evaluates to FALSE or null, cannot be evaluated, or the row holds invalid data.
+     */
+    protected boolean isTrue(Tuple tuple, ImmutableBytesWritable ptr) {
+        try {
+            return evaluate(tuple, ptr) && Boolean.TRUE.equals(PDataType.BOOLEAN.toObject(ptr, getDataType()));
+        } catch (IllegalDataException e) {
+            return false;
+        }
+    }
+    
     protected final <T> List<T> acceptChildren(ExpressionVisitor<T> visitor, Iterator<Expression> iterator) {
         if (iterator == null) {
             iterator = visitor.defaultIterator(this);
@@ -30,6 +30,7 @@ package com.salesforce.phoenix.expression;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.List;
 
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
@@ -38,6 +39,7 @@ import org.apache.hadoop.io.WritableUtils;
 
 import com.salesforce.phoenix.expression.visitor.ExpressionVisitor;
 import com.salesforce.phoenix.schema.ColumnModifier;
+import com.salesforce.phoenix.schema.IllegalDataException;
 import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.ByteUtil;
@@ -98,19 +100,51 @@ public class ComparisonExpression extends BaseCompoundExpression {
 
     @Override
     public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
-        if (!children.get(0).evaluate(tuple, ptr)) {
+        Expression lhs = children.get(0);
+        boolean isPrimitive = isPrimitiveComparison();
+        if (isPrimitive) {
+            if (!((PrimitiveNumericExpression)lhs).evaluatePrimitive(tuple, ptr)) {
+                return false;
+            }
+        } else if (!lhs.evaluate(tuple, ptr)) {
             return false;
         }
         byte[] lhsBytes = ptr.get();
         int lhsOffset = ptr.getOffset();
         int lhsLength = ptr.getLength();
-        PDataType lhsDataType = children.get(0).getDataType();
-        ColumnModifier lhsColumnModifier = children.get(0).getColumnModifier();
+        PDataType lhsDataType = lhs.getDataType();
+        ColumnModifier lhsColumnModifier = lhs.getColumnModifier();
+        // Hold onto the primitive value of the lhs, as it is not serialized
+        long lhsLongValue = 0;
+        double lhsDoubleValue = 0;
+        if (isPrimitive && lhsLength != 0) {
+            lhsLongValue = ((PrimitiveNumericExpression)lhs).getLongValue();
+            lhsDoubleValue = ((PrimitiveNumericExpression)lhs).getDoubleValue();
+        }
         
         if (!children.get(1).evaluate(tuple, ptr)) {
             return false;
         }
         
+        if (isPrimitive && lhsLength != 0) {
+            if (ptr.getLength() != 0) {
+                int comparisonResult = lhsDataType == PDataType.LONG
+                        ? PDataType.compareTo(lhsLongValue, ptr.get(), ptr.getOffset(), children.get(1).getColumnModifier(), children.get(1).getDataType())
+                        : PDataType.compareTo(lhsDoubleValue, ptr.get(), ptr.getOffset(), children.get(1).getColumnModifier(), children.get(1).getDataType());
+                ptr.set(ByteUtil.compare(op, comparisonResult) ? PDataType.TRUE_BYTES : PDataType.FALSE_BYTES);
+                return true;
+            }
+            // Serialize the lhs to compare it the same way as a non primitive one
+            lhsBytes = new byte[lhsDataType.getByteSize()];
+            lhsOffset = 0;
+            lhsLength = lhsBytes.length;
+            if (lhsDataType == PDataType.LONG) {
+                lhsDataType.getCodec().encodeLong(lhsLongValue, lhsBytes, 0);
+            } else {
+                lhsDataType.getCodec().encodeDouble(lhsDoubleValue, lhsBytes, 0);
+            }
+        }
+        
         byte[] rhsBytes = ptr.get();
         int rhsOffset = ptr.getOffset();
         int rhsLength = ptr.getLength();
@@ -130,6 +164,104 @@ public class ComparisonExpression extends BaseCompoundExpression {
         return true;
     }
     
+    /**
+     * @return true if the left hand side can produce its value as a primitive
+     * that can be compared against the right hand side without serializing it.
+     */
+    private boolean isPrimitiveComparison() {
+        if (!(children.get(0) instanceof PrimitiveNumericExpression)) {
+            return false;
+        }
+        PDataType rhsDataType = children.get(1).getDataType();
+        return rhsDataType.getCodec() != null 
+                && (rhsDataType.isCoercibleTo(PDataType.LONG) || PDataType.isDoubleOrFloat(rhsDataType));
+    }
+    
+    /**
+     * When the right hand side is constant (the common case of comparing a column
+     * against a literal), it is evaluated once for the whole batch and only the
+     * left hand side is evaluated per row.
+     */
+    @Override
+    public void filter(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr) {
+        Expression rhs = children.get(1);
+        if (!rhs.isStateless()) {
+            super.filter(tuples, selection, ptr);
+            return;
+        }
+        try {
+            if (!rhs.evaluate(null, ptr)) {
+                selection.clear();
+                return;
+            }
+        } catch (IllegalDataException e) {
+            selection.clear();
+            return;
+        }
+        PDataType rhsDataType = rhs.getDataType();
+        ColumnModifier rhsColumnModifier = rhs.getColumnModifier();
+        byte[] rhsBytes = ptr.copyBytes();
+        int rhsLength = rhsBytes.length;
+        if (rhsDataType == PDataType.CHAR) {
+            rhsLength = StringUtil.getUnpaddedCharLength(rhsBytes, 0, rhsLength, rhsColumnModifier);
+        }
+        Expression lhs = children.get(0);
+        PDataType lhsDataType = lhs.getDataType();
+        ColumnModifier lhsColumnModifier = lhs.getColumnModifier();
+        if (rhsLength != 0 && isPrimitiveComparison()) {
+            filterPrimitive(tuples, selection, ptr, rhsBytes, rhsColumnModifier, rhsDataType);
+            return;
+        }
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i+1)) {
+            try {
+                if (!lhs.evaluate(tuples[i], ptr)) {
+                    selection.clear(i);
+                    continue;
+                }
+                int lhsLength = ptr.getLength();
+                if (lhsDataType == PDataType.CHAR) {
+                    lhsLength = StringUtil.getUnpaddedCharLength(ptr.get(), ptr.getOffset(), lhsLength, lhsColumnModifier);
+                }
+                int comparisonResult = lhsDataType.compareTo(ptr.get(), ptr.getOffset(), lhsLength, lhsColumnModifier, 
+                        rhsBytes, 0, rhsLength, rhsColumnModifier, rhsDataType);
+                if (!ByteUtil.compare(op, comparisonResult)) {
+                    selection.clear(i);
+                }
+            } catch (IllegalDataException e) {
+                selection.clear(i);
+            }
+        }
+    }
+    
+    private void filterPrimitive(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr, 
+            byte[] rhsBytes, ColumnModifier rhsColumnModifier, PDataType rhsDataType) {
+        PrimitiveNumericExpression lhs = (PrimitiveNumericExpression)children.get(0);
+        boolean isLong = lhs.getDataType() == PDataType.LONG;
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i+1)) {
+            try {
+                if (!lhs.evaluatePrimitive(tuples[i], ptr)) {
+                    selection.clear(i);
+                    continue;
+                }
+                if (ptr.getLength() == 0) {
+                    // Let the generic comparison decide what to do with a null lhs
+                    if (!isTrue(tuples[i], ptr)) {
+                        selection.clear(i);
+                    }
+                    continue;
+                }
+                int comparisonResult = isLong 
+                        ? PDataType.compareTo(lhs.getLongValue(), rhsBytes, 0, rhsColumnModifier, rhsDataType)
+                        : PDataType.compareTo(lhs.getDoubleValue(), rhsBytes, 0, rhsColumnModifier, rhsDataType);
+                if (!ByteUtil.compare(op, comparisonResult)) {
+                    selection.clear(i);
+                }
+            } catch (IllegalDataException e) {
+                selection.clear(i);
+            }
+        }
+    }
+    
     @Override
     public void readFields(DataInput input) throws IOException {
         op = CompareOp.values()[WritableUtils.readVInt(input)];
@@ -34,7 +34,8 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 
-public class DoubleMultiplyExpression extends MultiplyExpression {
+public class DoubleMultiplyExpression extends MultiplyExpression implements PrimitiveNumericExpression {
+    private double value;
 
     public DoubleMultiplyExpression() {
     }
@@ -44,18 +45,17 @@ public class DoubleMultiplyExpression extends MultiplyExpression {
     }
     
     @Override
-    public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+    public boolean evaluatePrimitive(Tuple tuple, ImmutableBytesWritable ptr) {
         double result = 1.0;
         for (int i = 0; i < children.size(); i++) {
             Expression child = children.get(i);
-            if (!child.evaluate(tuple, ptr)) {
+            if (!evaluate(child, tuple, ptr)) {
                 return false;
             }
             if (ptr.getLength() == 0) {
                 return true;
             }
-            double childvalue = child.getDataType().getCodec()
-                    .decodeDouble(ptr, child.getColumnModifier());
+            double childvalue = getDoubleValue(child, ptr);
             if (!Double.isNaN(childvalue)
                     && childvalue != Double.NEGATIVE_INFINITY
                     && childvalue != Double.POSITIVE_INFINITY) {
@@ -64,12 +64,34 @@ public class DoubleMultiplyExpression extends MultiplyExpression {
                 return false;
             }
         }
+        value = result;
+        return true;
+    }
+
+    @Override
+    public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+        if (!evaluatePrimitive(tuple, ptr)) {
+            return false;
+        }
+        if (ptr.getLength() == 0) {
+            return true;
+        }
         byte[] resultPtr = new byte[getDataType().getByteSize()];
         ptr.set(resultPtr);
-        getDataType().getCodec().encodeDouble(result, ptr);
+        getDataType().getCodec().encodeDouble(value, ptr);
         return true;
     }
 
+    @Override
+    public long getLongValue() {
+        return (long)value;
+    }
+
+    @Override
+    public double getDoubleValue() {
+        return value;
+    }
+
     @Override
     public PDataType getDataType() {
         return PDataType.DOUBLE;
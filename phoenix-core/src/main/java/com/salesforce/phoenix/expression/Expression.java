@@ -27,6 +27,7 @@
  ******************************************************************************/
 package com.salesforce.phoenix.expression;
 
+import java.util.BitSet;
 import java.util.List;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
@@ -55,6 +56,17 @@ public interface Expression extends PDatum, Writable {
      */
     boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr);
     
+    /**
+     * Evaluate a boolean expression over a batch of rows at once. Only the rows
+     * whose bit is set in selection are evaluated and, on return, the bit of
+     * every row for which the expression is not TRUE is cleared. A row that
+     * cannot be evaluated or whose data is invalid does not pass.
+     * @param tuples rows of the batch, indexed by their position in selection
+     * @param selection bitmap of the rows to evaluate, narrowed to the rows that pass
+     * @param ptr scratch pointer that may be used during evaluation
+     */
+    void filter(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr);
+    
     /**
      * Means of traversing expression tree through visitor.
      * @param visitor
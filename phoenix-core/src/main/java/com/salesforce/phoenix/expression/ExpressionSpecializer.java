@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+import com.salesforce.phoenix.schema.ColumnModifier;
+import com.salesforce.phoenix.schema.IllegalDataException;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PDataType.PDataCodec;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.ByteUtil;
+import com.salesforce.phoenix.util.StringUtil;
+
+
+/**
+ * 
+ * Rewrites a deserialized expression tree on the server into one that is cheaper
+ * to evaluate row after row. The boolean spine of the tree (AND, OR and NOT) is
+ * rebuilt and each comparison against a constant is replaced by a monomorphic
+ * implementation that has the constant already decoded and the comparison path
+ * through {@link PDataType} chosen up front. The rewritten tree evaluates to the
+ * same result as the original for every row, but must not be serialized back to
+ * the client.
+ *
+ * @since 3.0.0
+ */
+public class ExpressionSpecializer {
+    
+    private ExpressionSpecializer() {
+    }
+    
+    /**
+     * @return an expression equivalent to the given one with specialized comparisons,
+     * or the expression itself if nothing in it could be specialized.
+     */
+    public static Expression specialize(Expression expression) {
+        Class<? extends Expression> clazz = expression.getClass();
+        if (clazz == AndExpression.class) {
+            List<Expression> children = specializeChildren(expression);
+            return children == null ? expression : new AndExpression(children);
+        }
+        if (clazz == OrExpression.class) {
+            List<Expression> children = specializeChildren(expression);
+            return children == null ? expression : new OrExpression(children);
+        }
+        if (clazz == NotExpression.class) {
+            Expression child = expression.getChildren().get(0);
+            Expression specializedChild = specialize(child);
+            return specializedChild == child ? expression : new NotExpression(specializedChild);
+        }
+        if (clazz == ComparisonExpression.class) {
+            return specialize((ComparisonExpression)expression);
+        }
+        return expression;
+    }
+    
+    private static List<Expression> specializeChildren(Expression expression) {
+        List<Expression> children = expression.getChildren();
+        List<Expression> specializedChildren = Lists.newArrayListWithExpectedSize(children.size());
+        boolean isSpecialized = false;
+        for (Expression child : children) {
+            Expression specializedChild = specialize(child);
+            isSpecialized |= specializedChild != child;
+            specializedChildren.add(specializedChild);
+        }
+        return isSpecialized ? specializedChildren : null;
+    }
+    
+    private static Expression specialize(ComparisonExpression expression) {
+        Expression lhs = expression.getChildren().get(0);
+        Expression rhs = expression.getChildren().get(1);
+        if (!rhs.isStateless() || !rhs.isDeterministic()) {
+            return expression;
+        }
+        // Already compared without serializing the lhs
+        if (lhs instanceof PrimitiveNumericExpression) {
+            return expression;
+        }
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        try {
+            if (!rhs.evaluate(null, ptr) || ptr.getLength() == 0) {
+                return expression;
+            }
+        } catch (IllegalDataException e) {
+            return expression;
+        }
+        PDataType lhsType = lhs.getDataType();
+        PDataType rhsType = rhs.getDataType();
+        ColumnModifier rhsColumnModifier = rhs.getColumnModifier();
+        // Follows the same order of checks as PDataType.compareTo
+        if (lhsType.isBytesComparableWith(rhsType)) {
+            byte[] rhsBytes = ptr.copyBytes();
+            int rhsLength = rhsBytes.length;
+            if (rhsType == PDataType.CHAR) {
+                rhsLength = StringUtil.getUnpaddedCharLength(rhsBytes, 0, rhsLength, rhsColumnModifier);
+            }
+            return new BytesComparisonExpression(expression, rhsBytes, rhsLength, rhsColumnModifier);
+        }
+        PDataCodec rhsCodec = rhsType.getCodec();
+        if (lhsType.getCodec() == null || rhsCodec == null) {
+            return expression;
+        }
+        if (lhsType.isCoercibleTo(PDataType.LONG) && rhsType.isCoercibleTo(PDataType.LONG)) {
+            return new LongComparisonExpression(expression, rhsCodec.decodeLong(ptr, rhsColumnModifier));
+        }
+        if (PDataType.isDoubleOrFloat(lhsType) && PDataType.isDoubleOrFloat(rhsType)) {
+            return new DoubleComparisonExpression(expression, rhsCodec.decodeDouble(ptr.get(), ptr.getOffset(), rhsColumnModifier));
+        }
+        return expression;
+    }
+    
+    /**
+     * Comparison of an expression against a constant. Subclasses compare the non null
+     * value of the left hand side against the constant, while a null value falls back
+     * to the general comparison.
+     */
+    private static abstract class ConstantComparisonExpression extends ComparisonExpression {
+        protected final Expression lhs;
+        protected final PDataType lhsDataType;
+        protected final ColumnModifier lhsColumnModifier;
+        
+        private ConstantComparisonExpression(ComparisonExpression expression) {
+            super(expression.getFilterOp(), expression.getChildren());
+            this.lhs = children.get(0);
+            this.lhsDataType = lhs.getDataType();
+            this.lhsColumnModifier = lhs.getColumnModifier();
+        }
+        
+        protected abstract int compare(ImmutableBytesWritable lhsPtr);
+        
+        @Override
+        public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+            if (!lhs.evaluate(tuple, ptr)) {
+                return false;
+            }
+            if (ptr.getLength() == 0) {
+                return super.evaluate(tuple, ptr);
+            }
+            ptr.set(ByteUtil.compare(getFilterOp(), compare(ptr)) ? PDataType.TRUE_BYTES : PDataType.FALSE_BYTES);
+            return true;
+        }
+        
+        @Override
+        public void filter(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr) {
+            for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i+1)) {
+                if (!isTrue(tuples[i], ptr)) {
+                    selection.clear(i);
+                }
+            }
+        }
+    }
+    
+    private static final class BytesComparisonExpression extends ConstantComparisonExpression {
+        private final byte[] rhsBytes;
+        private final int rhsLength;
+        private final ColumnModifier rhsColumnModifier;
+        
+        private BytesComparisonExpression(ComparisonExpression expression, byte[] rhsBytes, int rhsLength, ColumnModifier rhsColumnModifier) {
+            super(expression);
+            this.rhsBytes = rhsBytes;
+            this.rhsLength = rhsLength;
+            this.rhsColumnModifier = rhsColumnModifier;
+        }
+
+        @Override
+        protected int compare(ImmutableBytesWritable lhsPtr) {
+            int lhsLength = lhsPtr.getLength();
+            if (lhsDataType == PDataType.CHAR) {
+                lhsLength = StringUtil.getUnpaddedCharLength(lhsPtr.get(), lhsPtr.getOffset(), lhsLength, lhsColumnModifier);
+            }
+            return lhsDataType.compareTo(lhsPtr.get(), lhsPtr.getOffset(), lhsLength, lhsColumnModifier, rhsBytes, 0, rhsLength, rhsColumnModifier);
+        }
+    }
+    
+    private static final class LongComparisonExpression extends ConstantComparisonExpression {
+        private final PDataCodec lhsCodec;
+        private final long rhsValue;
+        
+        private LongComparisonExpression(ComparisonExpression expression, long rhsValue) {
+            super(expression);
+            this.lhsCodec = lhsDataType.getCodec();
+            this.rhsValue = rhsValue;
+        }
+
+        @Override
+        protected int compare(ImmutableBytesWritable lhsPtr) {
+            return Longs.compare(lhsCodec.decodeLong(lhsPtr.get(), lhsPtr.getOffset(), lhsColumnModifier), rhsValue);
+        }
+    }
+    
+    private static final class DoubleComparisonExpression extends ConstantComparisonExpression {
+        private final PDataCodec lhsCodec;
+        private final double rhsValue;
+        
+        private DoubleComparisonExpression(ComparisonExpression expression, double rhsValue) {
+            super(expression);
+            this.lhsCodec = lhsDataType.getCodec();
+            this.rhsValue = rhsValue;
+        }
+
+        @Override
+        protected int compare(ImmutableBytesWritable lhsPtr) {
+            return Doubles.compare(lhsCodec.decodeDouble(lhsPtr.get(), lhsPtr.getOffset(), lhsColumnModifier), rhsValue);
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -46,6 +47,7 @@ import com.google.common.collect.Sets;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.expression.visitor.ExpressionVisitor;
 import com.salesforce.phoenix.schema.ConstraintViolationException;
+import com.salesforce.phoenix.schema.IllegalDataException;
 import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.ByteUtil;
@@ -172,6 +174,26 @@ public class InListExpression extends BaseSingleExpression {
         return true;
     }
 
+    @Override
+    public void filter(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr) {
+        Expression child = getChild();
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i+1)) {
+            try {
+                if (!child.evaluate(tuples[i], ptr)) {
+                    selection.clear(i);
+                    continue;
+                }
+            } catch (IllegalDataException e) {
+                selection.clear(i);
+                continue;
+            }
+            value.set(ptr);
+            if (!values.contains(value)) {
+                selection.clear(i);
+            }
+        }
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -28,11 +28,13 @@
 package com.salesforce.phoenix.expression;
 
 import java.io.*;
+import java.util.BitSet;
 import java.util.List;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import com.salesforce.phoenix.expression.visitor.ExpressionVisitor;
+import com.salesforce.phoenix.schema.IllegalDataException;
 import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 
@@ -70,6 +72,31 @@ public class IsNullExpression extends BaseSingleExpression {
         return false;
     }
 
+    @Override
+    public void filter(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr) {
+        Expression child = getChild();
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i+1)) {
+            Tuple tuple = tuples[i];
+            boolean isNull;
+            try {
+                if (child.evaluate(tuple, ptr)) {
+                    isNull = ptr.getLength() == 0;
+                } else if (tuple.isImmutable()) {
+                    isNull = true;
+                } else {
+                    selection.clear(i);
+                    continue;
+                }
+            } catch (IllegalDataException e) {
+                selection.clear(i);
+                continue;
+            }
+            if (isNull == isNegate) {
+                selection.clear(i);
+            }
+        }
+    }
+
     public boolean isNegate() {
         return isNegate;
     }
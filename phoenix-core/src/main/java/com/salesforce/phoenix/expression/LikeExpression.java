@@ -29,7 +29,9 @@ package com.salesforce.phoenix.expression;
 
 import java.io.DataInput;
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
@@ -37,6 +39,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.salesforce.phoenix.expression.visitor.ExpressionVisitor;
+import com.salesforce.phoenix.schema.ColumnModifier;
+import com.salesforce.phoenix.schema.IllegalDataException;
 import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.StringUtil;
@@ -262,6 +266,35 @@ public class LikeExpression extends BaseCompoundExpression {
         return true;
     }
 
+    /**
+     * With a constant pattern, a single matcher is reset against the value of each
+     * row instead of creating one per row.
+     */
+    @Override
+    public void filter(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr) {
+        if (pattern == null) {
+            super.filter(tuples, selection, ptr);
+            return;
+        }
+        Expression strExpression = getStrExpression();
+        ColumnModifier columnModifier = strExpression.getColumnModifier();
+        Matcher matcher = pattern.matcher("");
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i+1)) {
+            try {
+                if (!strExpression.evaluate(tuples[i], ptr) || ptr.getLength() == 0) {
+                    selection.clear(i);
+                    continue;
+                }
+                String value = (String)PDataType.VARCHAR.toObject(ptr, columnModifier);
+                if (!matcher.reset(value).matches()) {
+                    selection.clear(i);
+                }
+            } catch (IllegalDataException e) {
+                selection.clear(i);
+            }
+        }
+    }
+
     @Override
     public void readFields(DataInput input) throws IOException {
         super.readFields(input);
@@ -35,7 +35,8 @@ import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 
 
-public class LongDivideExpression extends DivideExpression {
+public class LongDivideExpression extends DivideExpression implements PrimitiveNumericExpression {
+    private long value;
 
     public LongDivideExpression() {
     }
@@ -45,27 +46,46 @@ public class LongDivideExpression extends DivideExpression {
     }
 
     @Override
-    public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+    public boolean evaluatePrimitive(Tuple tuple, ImmutableBytesWritable ptr) {
         long finalResult=0;
         
         for(int i=0;i<children.size();i++) {
             Expression child = children.get(i);
-            if (!child.evaluate(tuple, ptr) || ptr.getLength() == 0) {
+            if (!evaluate(child, tuple, ptr) || ptr.getLength() == 0) {
                 return false;
             }
-            long childvalue = child.getDataType().getCodec().decodeLong(ptr, child.getColumnModifier()); 
+            long childvalue = getLongValue(child, ptr);
             if (i == 0) {
                 finalResult = childvalue;
             } else {
                 finalResult /= childvalue;
             }
         }
+        value = finalResult;
+        return true;
+    }
+
+    @Override
+    public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+        if (!evaluatePrimitive(tuple, ptr)) {
+            return false;
+        }
         byte[] resultPtr=new byte[PDataType.LONG.getByteSize()];
         ptr.set(resultPtr);
-        getDataType().getCodec().encodeLong(finalResult, ptr);
+        getDataType().getCodec().encodeLong(value, ptr);
         return true;
     }
 
+    @Override
+    public long getLongValue() {
+        return value;
+    }
+
+    @Override
+    public double getDoubleValue() {
+        return value;
+    }
+
     @Override
     public final PDataType getDataType() {
         return PDataType.LONG;
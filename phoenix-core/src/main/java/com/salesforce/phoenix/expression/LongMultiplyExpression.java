@@ -35,7 +35,8 @@ import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 
 
-public class LongMultiplyExpression extends MultiplyExpression {
+public class LongMultiplyExpression extends MultiplyExpression implements PrimitiveNumericExpression {
+    private long value;
 
     public LongMultiplyExpression() {
     }
@@ -45,26 +46,45 @@ public class LongMultiplyExpression extends MultiplyExpression {
     }
 
     @Override
-    public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+    public boolean evaluatePrimitive(Tuple tuple, ImmutableBytesWritable ptr) {
         long finalResult=1;
         
         for(int i=0;i<children.size();i++) {
             Expression child = children.get(i);
-            if (!child.evaluate(tuple, ptr)) {
+            if (!evaluate(child, tuple, ptr)) {
                 return false;
             }
             if (ptr.getLength() == 0) {
                 return false;
             }
-            long childvalue = child.getDataType().getCodec().decodeLong(ptr, child.getColumnModifier());
+            long childvalue = getLongValue(child, ptr);
             finalResult *= childvalue;
         }
-        byte[] resultPtr=new byte[getDataType().getByteSize()];
+        value = finalResult;
+        return true;
+    }
+
+    @Override
+    public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+        if (!evaluatePrimitive(tuple, ptr)) {
+            return false;
+        }
+        byte[] resultPtr=new byte[PDataType.LONG.getByteSize()];
         ptr.set(resultPtr);
-        getDataType().getCodec().encodeLong(finalResult, ptr);
+        getDataType().getCodec().encodeLong(value, ptr);
         return true;
     }
 
+    @Override
+    public long getLongValue() {
+        return value;
+    }
+
+    @Override
+    public double getDoubleValue() {
+        return value;
+    }
+
     @Override
     public final PDataType getDataType() {
         return PDataType.LONG;
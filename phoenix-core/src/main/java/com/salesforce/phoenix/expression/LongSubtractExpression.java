@@ -44,7 +44,9 @@ import com.salesforce.phoenix.schema.tuple.Tuple;
  * @author kmahadik
  * @since 0.1
  */
-public class LongSubtractExpression extends SubtractExpression {
+public class LongSubtractExpression extends SubtractExpression implements PrimitiveNumericExpression {
+    private long value;
+
     public LongSubtractExpression() {
     }
 
@@ -53,17 +55,17 @@ public class LongSubtractExpression extends SubtractExpression {
     }
 
     @Override
-	public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
-		long finalResult=0;
-		
-		for(int i=0;i<children.size();i++) {
-		    Expression child = children.get(i);
-            if (!child.evaluate(tuple, ptr) || ptr.getLength() == 0) {
+    public boolean evaluatePrimitive(Tuple tuple, ImmutableBytesWritable ptr) {
+        long finalResult=0;
+        
+        for(int i=0;i<children.size();i++) {
+            Expression child = children.get(i);
+            if (!evaluate(child, tuple, ptr) || ptr.getLength() == 0) {
                 return false;
             }
             PDataType childType = child.getDataType();
             boolean isDate = childType.isCoercibleTo(PDataType.DATE);
-            long childvalue = childType.getCodec().decodeLong(ptr, child.getColumnModifier());
+            long childvalue = getLongValue(child, ptr);
             if (i == 0) {
                 finalResult = childvalue;
             } else {
@@ -76,12 +78,31 @@ public class LongSubtractExpression extends SubtractExpression {
                     finalResult /= QueryConstants.MILLIS_IN_DAY;
                 }
             }
-		}
-		byte[] resultPtr=new byte[getDataType().getByteSize()];
-		ptr.set(resultPtr);
-		getDataType().getCodec().encodeLong(finalResult, ptr);
-		return true;
-	}
+        }
+        value = finalResult;
+        return true;
+    }
+
+    @Override
+    public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+        if (!evaluatePrimitive(tuple, ptr)) {
+            return false;
+        }
+        byte[] resultPtr=new byte[PDataType.LONG.getByteSize()];
+        ptr.set(resultPtr);
+        getDataType().getCodec().encodeLong(value, ptr);
+        return true;
+    }
+
+    @Override
+    public long getLongValue() {
+        return value;
+    }
+
+    @Override
+    public double getDoubleValue() {
+        return value;
+    }
 
 	@Override
 	public final PDataType getDataType() {
@@ -27,9 +27,13 @@
  ******************************************************************************/
 package com.salesforce.phoenix.expression;
 
+import java.util.BitSet;
 import java.util.List;
 
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
 import com.salesforce.phoenix.expression.visitor.ExpressionVisitor;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 
 
 /**
@@ -52,6 +56,22 @@ public class OrExpression extends AndOrExpression {
         return Boolean.TRUE;
     }
 
+    /**
+     * Evaluates each child only against the rows that no child before it
+     * has already let through, and selects the union of what passes.
+     */
+    @Override
+    public void filter(Tuple[] tuples, BitSet selection, ImmutableBytesWritable ptr) {
+        BitSet remaining = (BitSet)selection.clone();
+        selection.clear();
+        for (int i = 0; i < children.size() && !remaining.isEmpty(); i++) {
+            BitSet passed = (BitSet)remaining.clone();
+            children.get(i).filter(tuples, passed, ptr);
+            selection.or(passed);
+            remaining.andNot(passed);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder("(");
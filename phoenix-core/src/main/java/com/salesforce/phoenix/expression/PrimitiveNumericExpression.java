@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+/**
+ * 
+ * Interface for fixed width numeric expressions that can hand their result to
+ * the enclosing expression as a primitive instead of encoding it into a newly
+ * allocated byte array. The value produced by the last successful call to
+ * {@link #evaluatePrimitive(Tuple, ImmutableBytesWritable)} is held by the
+ * expression until the next call, so it must be read right away.
+ *
+ * @since 3.0.0
+ */
+public interface PrimitiveNumericExpression extends Expression {
+    /**
+     * Evaluate the expression without encoding the result.
+     * @param tuple the current row
+     * @param ptr scratch pointer used while evaluating the children. Upon
+     *  return, a zero length ptr means the result is null and otherwise the
+     *  contents are undefined and the result must be obtained through
+     *  {@link #getLongValue()} or {@link #getDoubleValue()}.
+     * @return false if the expression could not be evaluated and true otherwise,
+     *  with the same semantics as {@link Expression#evaluate(Tuple, ImmutableBytesWritable)}
+     */
+    boolean evaluatePrimitive(Tuple tuple, ImmutableBytesWritable ptr);
+    
+    /**
+     * @return the result of the last evaluation as a long
+     */
+    long getLongValue();
+    
+    /**
+     * @return the result of the last evaluation as a double
+     */
+    double getDoubleValue();
+}
@@ -28,6 +28,7 @@
 package com.salesforce.phoenix.expression.aggregator;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
 
 import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
@@ -40,7 +41,7 @@ import com.salesforce.phoenix.util.SizedUtil;
  * @author jtaylor
  * @since 0.1
  */
-public class CountAggregator extends BaseAggregator {
+public class CountAggregator extends BaseAggregator implements FixedWidthAggregator {
 
     private long count = 0;
     private byte[] buffer = null;
@@ -59,6 +60,11 @@ public class CountAggregator extends BaseAggregator {
         count++;
     }
 
+    @Override
+    public void aggregate(byte[] state, int offset, ImmutableBytesWritable ptr) {
+        Bytes.putLong(state, offset, Bytes.toLong(state, offset) + 1);
+    }
+
     @Override
     public boolean isNullable() {
         return false;
@@ -74,6 +80,18 @@ public class CountAggregator extends BaseAggregator {
         return true;
     }
 
+    @Override
+    public boolean evaluate(byte[] state, int offset, byte[] buffer, ImmutableBytesWritable ptr) {
+        getDataType().getCodec().encodeLong(Bytes.toLong(state, offset), buffer, 0);
+        ptr.set(buffer);
+        return true;
+    }
+
+    @Override
+    public int getStateWidth() {
+        return Bytes.SIZEOF_LONG;
+    }
+
     @Override
     public final PDataType getDataType() {
         return PDataType.LONG;
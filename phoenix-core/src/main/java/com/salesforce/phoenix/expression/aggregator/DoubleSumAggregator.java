@@ -28,13 +28,14 @@
 package com.salesforce.phoenix.expression.aggregator;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
 
 import com.salesforce.phoenix.schema.ColumnModifier;
 import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.SizedUtil;
 
-public class DoubleSumAggregator extends BaseAggregator {
+public class DoubleSumAggregator extends BaseAggregator implements FixedWidthAggregator {
     
     private double sum = 0;
     private byte[] buffer;
@@ -64,6 +65,32 @@ public class DoubleSumAggregator extends BaseAggregator {
         }
     }
 
+    @Override
+    public void aggregate(byte[] state, int offset, ImmutableBytesWritable ptr) {
+        if (ptr.getLength() == 0) {
+            return;
+        }
+        // A leading byte tracks whether any value was aggregated, followed by the sum
+        double value = getInputDataType().getCodec().decodeDouble(ptr, columnModifier);
+        state[offset] = 1;
+        Bytes.putDouble(state, offset + 1, Bytes.toDouble(state, offset + 1) + value);
+    }
+
+    @Override
+    public boolean evaluate(byte[] state, int offset, byte[] buffer, ImmutableBytesWritable ptr) {
+        if (state[offset] == 0 && isNullable()) {
+            return false;
+        }
+        getDataType().getCodec().encodeDouble(Bytes.toDouble(state, offset + 1), buffer, 0);
+        ptr.set(buffer);
+        return true;
+    }
+
+    @Override
+    public int getStateWidth() {
+        return 1 + Bytes.SIZEOF_DOUBLE;
+    }
+
     @Override
     public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
         if (buffer == null) {
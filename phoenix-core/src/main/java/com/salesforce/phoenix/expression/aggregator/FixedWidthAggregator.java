@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression.aggregator;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
+
+/**
+ * 
+ * Aggregator whose state fits in a fixed number of bytes. This allows the state of
+ * many groups to be kept side by side in a flat byte array, indexed by group, instead
+ * of in separate Aggregator instances. The instance itself is then only used to
+ * interpret the state and does not hold the state of any group.
+ *
+ * @since 3.0.0
+ */
+public interface FixedWidthAggregator extends Aggregator {
+    
+    /**
+     * Get the number of bytes of state kept per group, or -1 if the state of this
+     * aggregator is not fixed width (for example, MIN of a variable length type).
+     */
+    public int getStateWidth();
+    
+    /**
+     * Incrementally aggregate the value into the state at the given offset. The state
+     * of a new group is all zero bytes.
+     * @param state the array holding the state
+     * @param offset the offset of the state for the group
+     * @param ptr the bytes pointer to the value being aggregated, which is empty for a null
+     * value that leaves the state as is, except for a count
+     */
+    public void aggregate(byte[] state, int offset, ImmutableBytesWritable ptr);
+    
+    /**
+     * Evaluate the aggregated value of the state at the given offset.
+     * @param state the array holding the state
+     * @param offset the offset of the state for the group
+     * @param buffer buffer of {@link #getDataType()} byte size into which the value may be encoded
+     * @param ptr the bytes pointer set to the aggregated value
+     * @return true if the value is not null and false otherwise.
+     */
+    public boolean evaluate(byte[] state, int offset, byte[] buffer, ImmutableBytesWritable ptr);
+}
@@ -42,9 +42,11 @@ import com.salesforce.phoenix.util.SizedUtil;
  * @author syyang
  * @since 0.1
  */
-abstract public class MinAggregator extends BaseAggregator {
+abstract public class MinAggregator extends BaseAggregator implements FixedWidthAggregator {
     /** Used to store the accumulate the results of the MIN function */
     protected final ImmutableBytesWritable value = new ImmutableBytesWritable(ByteUtil.EMPTY_BYTE_ARRAY);
+    /** Used to point to the current value within the state of a group */
+    private final ImmutableBytesWritable stateValue = new ImmutableBytesWritable(ByteUtil.EMPTY_BYTE_ARRAY);
     
     public MinAggregator(ColumnModifier columnModifier) {
         super(columnModifier);
@@ -90,6 +92,39 @@ abstract public class MinAggregator extends BaseAggregator {
         }
     }
     
+    @Override
+    public int getStateWidth() {
+        // A leading byte tracks whether any value was aggregated, followed by the value
+        Integer byteSize = getDataType().getByteSize();
+        return getDataType().isFixedWidth() && byteSize != null ? 1 + byteSize : -1;
+    }
+
+    @Override
+    public void aggregate(byte[] state, int offset, ImmutableBytesWritable ptr) {
+        // A null value leaves the state as is
+        if (ptr.getLength() == 0) {
+            return;
+        }
+        int length = getStateWidth() - 1;
+        if (state[offset] != 0) {
+            stateValue.set(state, offset + 1, length);
+            if (keepFirst(stateValue, ptr)) {
+                return;
+            }
+        }
+        state[offset] = 1;
+        System.arraycopy(ptr.get(), ptr.getOffset(), state, offset + 1, length);
+    }
+
+    @Override
+    public boolean evaluate(byte[] state, int offset, byte[] buffer, ImmutableBytesWritable ptr) {
+        if (state[offset] == 0) {
+            return false;
+        }
+        ptr.set(state, offset + 1, getStateWidth() - 1);
+        return true;
+    }
+
     @Override
     public String toString() {
         return "MIN [value=" + Bytes.toStringBinary(value.get(),value.getOffset(),value.getLength()) + "]";
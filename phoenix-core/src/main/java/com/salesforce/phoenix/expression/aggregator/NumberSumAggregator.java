@@ -28,6 +28,7 @@
 package com.salesforce.phoenix.expression.aggregator;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
 
 import com.salesforce.phoenix.schema.ColumnModifier;
 import com.salesforce.phoenix.schema.PDataType;
@@ -41,7 +42,7 @@ import com.salesforce.phoenix.util.SizedUtil;
  * @author jtaylor
  * @since 0.1
  */
-abstract public class NumberSumAggregator extends BaseAggregator {
+abstract public class NumberSumAggregator extends BaseAggregator implements FixedWidthAggregator {
     private long sum = 0;
     private byte[] buffer;
 
@@ -83,6 +84,32 @@ abstract public class NumberSumAggregator extends BaseAggregator {
         }
     }
 
+    @Override
+    public void aggregate(byte[] state, int offset, ImmutableBytesWritable ptr) {
+        if (ptr.getLength() == 0) {
+            return;
+        }
+        // A leading byte tracks whether any value was aggregated, followed by the sum
+        long value = getInputDataType().getCodec().decodeLong(ptr, columnModifier);
+        state[offset] = 1;
+        Bytes.putLong(state, offset + 1, Bytes.toLong(state, offset + 1) + value);
+    }
+
+    @Override
+    public boolean evaluate(byte[] state, int offset, byte[] buffer, ImmutableBytesWritable ptr) {
+        if (state[offset] == 0 && isNullable()) {
+            return false;
+        }
+        getDataType().getCodec().encodeLong(Bytes.toLong(state, offset + 1), buffer, 0);
+        ptr.set(buffer);
+        return true;
+    }
+
+    @Override
+    public int getStateWidth() {
+        return 1 + Bytes.SIZEOF_LONG;
+    }
+
     @Override
     public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
         if (buffer == null) {
@@ -36,11 +36,14 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.io.WritableUtils;
 
+import com.salesforce.phoenix.expression.BaseTerminalExpression;
 import com.salesforce.phoenix.expression.Expression;
 import com.salesforce.phoenix.expression.ExpressionType;
 import com.salesforce.phoenix.expression.function.SingleAggregateFunction;
+import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 
 
@@ -54,6 +57,10 @@ import com.salesforce.phoenix.schema.tuple.Tuple;
 public class ServerAggregators extends Aggregators {
     public static final ServerAggregators EMPTY_AGGREGATORS = new ServerAggregators(new SingleAggregateFunction[0], new Aggregator[0], new Expression[0], 0);
     private final Expression[] expressions;
+    // Layout of the fixed width state of a group, if all aggregators are fixed width
+    private final int stateWidth;
+    private final int[] stateOffsets;
+    private final StateExpression[] stateExpressions;
     
     private ServerAggregators(SingleAggregateFunction[] functions, Aggregator[] aggregators, Expression[] expressions, int minNullableIndex) {
         super(functions, aggregators, minNullableIndex);
@@ -62,6 +69,91 @@ public class ServerAggregators extends Aggregators {
                     + ") must match the number of expressions (" + Arrays.toString(expressions) + ")");
         }
         this.expressions = expressions;
+        int width = 0;
+        int[] offsets = new int[aggregators.length];
+        StateExpression[] stateExpressions = new StateExpression[aggregators.length];
+        for (int i = 0; i < aggregators.length && width >= 0; i++) {
+            int aggregatorWidth = aggregators[i] instanceof FixedWidthAggregator ? ((FixedWidthAggregator)aggregators[i]).getStateWidth() : -1;
+            if (aggregatorWidth < 0) {
+                width = -1;
+            } else {
+                offsets[i] = width;
+                stateExpressions[i] = new StateExpression((FixedWidthAggregator)aggregators[i], offsets[i]);
+                width += aggregatorWidth;
+            }
+        }
+        this.stateWidth = aggregators.length == 0 ? -1 : width;
+        this.stateOffsets = offsets;
+        this.stateExpressions = stateExpressions;
+    }
+    
+    /**
+     * Get the number of bytes needed to hold the state of all aggregators for a single group,
+     * or -1 if not all aggregators are {@link FixedWidthAggregator fixed width}. When fixed width,
+     * the state of a group may be kept at an offset in a byte array instead of in a new set of
+     * aggregators, using {@link #aggregate(byte[], int, Tuple)} and {@link #toBytes(byte[], int)}.
+     */
+    public int getStateWidth() {
+        return stateWidth;
+    }
+    
+    /**
+     * Aggregate the row into the fixed width state of a group. The state of a new group
+     * must be all zero bytes.
+     * @param state the array holding the state
+     * @param offset the offset of the state of the group
+     * @param result the single row Result from scan iteration
+     */
+    public void aggregate(byte[] state, int offset, Tuple result) {
+        for (int i = 0; i < expressions.length; i++) {
+            if (expressions[i].evaluate(result, ptr)) {
+                ((FixedWidthAggregator)aggregators[i]).aggregate(state, offset + stateOffsets[i], ptr);
+            }
+        }
+    }
+    
+    /**
+     * @return byte representation of the ValueSchema for the fixed width state of a group
+     */
+    public byte[] toBytes(byte[] state, int offset) {
+        for (StateExpression expression : stateExpressions) {
+            expression.setState(state, offset);
+        }
+        return schema.toBytes(stateExpressions, valueSet, ptr);
+    }
+    
+    /**
+     * Evaluates a {@link FixedWidthAggregator} against the state of a group, so that it
+     * may be serialized through the ValueSchema in the same way as an Aggregator.
+     */
+    private static class StateExpression extends BaseTerminalExpression {
+        private final FixedWidthAggregator aggregator;
+        private final int offset;
+        private final byte[] buffer;
+        private byte[] state;
+        private int stateOffset;
+        
+        private StateExpression(FixedWidthAggregator aggregator, int offset) {
+            this.aggregator = aggregator;
+            this.offset = offset;
+            Integer byteSize = aggregator.getDataType().getByteSize();
+            this.buffer = new byte[byteSize == null ? 0 : byteSize];
+        }
+        
+        private void setState(byte[] state, int offset) {
+            this.state = state;
+            this.stateOffset = offset;
+        }
+        
+        @Override
+        public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+            return aggregator.evaluate(state, stateOffset + offset, buffer, ptr);
+        }
+
+        @Override
+        public PDataType getDataType() {
+            return aggregator.getDataType();
+        }
     }
     
     @Override
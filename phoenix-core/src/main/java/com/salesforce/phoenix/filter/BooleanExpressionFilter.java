@@ -36,6 +36,7 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.io.WritableUtils;
 
 import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.expression.ExpressionSpecializer;
 import com.salesforce.phoenix.expression.ExpressionType;
 import com.salesforce.phoenix.schema.IllegalDataException;
 import com.salesforce.phoenix.schema.tuple.Tuple;
@@ -51,6 +52,9 @@ import com.salesforce.phoenix.schema.tuple.Tuple;
 abstract public class BooleanExpressionFilter extends FilterBase {
 
     protected Expression expression;
+    // Specialized form of the expression used for evaluation, while the original
+    // expression is kept so that the filter can still be serialized
+    private Expression evaluationExpression;
     protected boolean evaluateOnCompletion;
     private ImmutableBytesWritable tempPtr = new ImmutableBytesWritable();
     
@@ -59,6 +63,7 @@ abstract public class BooleanExpressionFilter extends FilterBase {
 
     public BooleanExpressionFilter(Expression expression) {
         this.expression = expression;
+        this.evaluationExpression = expression;
     }
 
     protected void setEvaluateOnCompletion(boolean evaluateOnCompletion) {
@@ -97,19 +102,25 @@ abstract public class BooleanExpressionFilter extends FilterBase {
             justification="Returns null by design.")
     protected Boolean evaluate(Tuple input) {
         try {
-            if (!expression.evaluate(input, tempPtr)) {
+            if (!evaluationExpression.evaluate(input, tempPtr)) {
                 return null;
             }
         } catch (IllegalDataException e) {
             return Boolean.FALSE;
         }
-        return (Boolean)expression.getDataType().toObject(tempPtr);
+        return (Boolean)evaluationExpression.getDataType().toObject(tempPtr);
     }
 
+    /**
+     * Filters are only deserialized on the region server, so the expression is
+     * specialized for evaluation there.
+     */
     @Override
     public void readFields(DataInput input) throws IOException {
-        expression = ExpressionType.values()[WritableUtils.readVInt(input)].newInstance();
+        Expression expression = ExpressionType.values()[WritableUtils.readVInt(input)].newInstance();
         expression.readFields(input);
+        this.expression = expression;
+        this.evaluationExpression = ExpressionSpecializer.specialize(expression);
     }
 
     @Override
@@ -120,6 +131,6 @@ abstract public class BooleanExpressionFilter extends FilterBase {
     
     @Override
     public void reset() {
-        expression.reset();
+        evaluationExpression.reset();
     }
 }
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.filter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.io.HbaseObjectWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.util.ByteUtil;
+
+
+/**
+ * 
+ * Filter that presents the rows of a local index to another filter without the
+ * prefix under which they're stored in a region of the data table. This lets the
+ * filters that Phoenix compiles against the row key of the index, such as the
+ * {@link SkipScanFilter}, be used unchanged for a local index. Seek hints from
+ * the wrapped filter, and key values it adds to a row, are prefixed again before
+ * they're returned to HBase.
+ *
+ * @since 3.0.0
+ */
+public class LocalIndexFilter extends FilterBase {
+    private byte[] prefix;
+    private Filter delegate;
+
+    public LocalIndexFilter() {
+    }
+
+    public LocalIndexFilter(byte[] prefix, Filter delegate) {
+        this.prefix = prefix;
+        this.delegate = delegate;
+    }
+
+    public Filter getDelegate() {
+        return delegate;
+    }
+    
+    private KeyValue stripPrefix(KeyValue kv) {
+        return new KeyValue(kv.getBuffer(), kv.getRowOffset() + prefix.length, kv.getRowLength() - prefix.length,
+                kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength(),
+                kv.getBuffer(), kv.getQualifierOffset(), kv.getQualifierLength(),
+                kv.getTimestamp(), KeyValue.Type.codeToType(kv.getType()),
+                kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+    }
+    
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+
+    @Override
+    public boolean filterRowKey(byte[] buffer, int offset, int length) {
+        // A row outside of the local index cannot match
+        if (length < prefix.length || Bytes.compareTo(buffer, offset, prefix.length, prefix, 0, prefix.length) != 0) {
+            return true;
+        }
+        return delegate.filterRowKey(buffer, offset + prefix.length, length - prefix.length);
+    }
+
+    @Override
+    public boolean filterAllRemaining() {
+        return delegate.filterAllRemaining();
+    }
+
+    @Override
+    public ReturnCode filterKeyValue(KeyValue kv) {
+        return delegate.filterKeyValue(stripPrefix(kv));
+    }
+
+    private KeyValue addPrefix(KeyValue kv) {
+        byte[] row = ByteUtil.concat(prefix, kv.getRow());
+        return new KeyValue(row, 0, row.length,
+                kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength(),
+                kv.getBuffer(), kv.getQualifierOffset(), kv.getQualifierLength(),
+                kv.getTimestamp(), KeyValue.Type.codeToType(kv.getType()),
+                kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+    }
+    
+    @Override
+    public void filterRow(List<KeyValue> kvs) {
+        // The wrapped filter may remove or add key values, so only the ones it kept are
+        // mapped back to the originals and any others are prefixed again
+        Map<KeyValue,KeyValue> originals = new IdentityHashMap<KeyValue,KeyValue>(kvs.size());
+        List<KeyValue> strippedKvs = Lists.newArrayListWithExpectedSize(kvs.size());
+        for (KeyValue kv : kvs) {
+            KeyValue strippedKv = stripPrefix(kv);
+            originals.put(strippedKv, kv);
+            strippedKvs.add(strippedKv);
+        }
+        delegate.filterRow(strippedKvs);
+        kvs.clear();
+        for (KeyValue strippedKv : strippedKvs) {
+            KeyValue kv = originals.get(strippedKv);
+            kvs.add(kv == null ? addPrefix(strippedKv) : kv);
+        }
+    }
+
+    @Override
+    public boolean hasFilterRow() {
+        return delegate.hasFilterRow();
+    }
+
+    @Override
+    public boolean filterRow() {
+        return delegate.filterRow();
+    }
+
+    @Override
+    public KeyValue getNextKeyHint(KeyValue kv) {
+        KeyValue hint = delegate.getNextKeyHint(stripPrefix(kv));
+        if (hint == null) {
+            return null;
+        }
+        byte[] row = ByteUtil.concat(prefix, hint.getRow());
+        return KeyValue.createFirstOnRow(row, 0, row.length,
+                hint.getBuffer(), hint.getFamilyOffset(), hint.getFamilyLength(),
+                hint.getBuffer(), hint.getQualifierOffset(), hint.getQualifierLength());
+    }
+
+    @Override
+    public boolean isFamilyEssential(byte[] name) {
+        return !(delegate instanceof FilterBase) || ((FilterBase)delegate).isFamilyEssential(name);
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+        prefix = Bytes.readByteArray(input);
+        delegate = (Filter)HbaseObjectWritable.readObject(input, null);
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+        Bytes.writeByteArray(output, prefix);
+        HbaseObjectWritable.writeObject(output, delegate, Filter.class, null);
+    }
+    
+    @Override
+    public String toString() {
+        return "LocalIndexFilter " + Bytes.toStringBinary(prefix) + " " + delegate;
+    }
+}
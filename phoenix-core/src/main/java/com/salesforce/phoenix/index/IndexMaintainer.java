@@ -54,6 +54,7 @@ import com.salesforce.phoenix.schema.PColumnFamily;
 import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.PIndexState;
 import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.PTable.IndexType;
 import com.salesforce.phoenix.schema.PTableType;
 import com.salesforce.phoenix.schema.RowKeySchema;
 import com.salesforce.phoenix.schema.SaltingUtil;
@@ -87,15 +88,18 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
         int indexPosOffset = index.getBucketNum() == null ? 0 : 1;
         int nIndexColumns = index.getColumns().size() - indexPosOffset;
         int nIndexPKColumns = index.getPKColumns().size() - indexPosOffset;
+        boolean isLocalIndex = index.getIndexType() == IndexType.LOCAL;
         IndexMaintainer maintainer = new IndexMaintainer(
                 dataTable.getRowKeySchema(),
                 dataTable.getBucketNum() != null,
-                index.getPhysicalName().getBytes(), 
+                // The rows of a local index are identified by the index name within the data table
+                isLocalIndex ? index.getName().getBytes() : index.getPhysicalName().getBytes(), 
                 nIndexColumns,
                 nIndexPKColumns,
                 index.getBucketNum(),
                 dataTable.getColumnFamilies(),
-                index.isWALDisabled());
+                index.isWALDisabled(),
+                isLocalIndex);
         RowKeyMetaData rowKeyMetaData = maintainer.getRowKeyMetaData();
         for (int i = indexPosOffset; i < index.getPKColumns().size(); i++) {
             PColumn indexColumn = index.getPKColumns().get(i);
@@ -145,23 +149,29 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
             ptr.set(ByteUtil.EMPTY_BYTE_ARRAY);
             return;
         }
-        int nIndexes = 0;
+        serialize(dataTable, ptr, Lists.newArrayList(indexes));
+    }
+    
+    /**
+     * For client-side to serialize the IndexMaintainers of the given indexes of a table
+     * @param dataTable data table
+     * @param ptr bytes pointer to hold returned serialized value
+     * @param indexes indexes of the data table to serialize
+     */
+    public static void serialize(PTable dataTable, ImmutableBytesWritable ptr, List<PTable> indexes) {
         int estimatedSize = dataTable.getRowKeySchema().getEstimatedByteSize() + 2;
-        while (indexes.hasNext()) {
-            nIndexes++;
-            PTable index = indexes.next();
+        for (PTable index : indexes) {
             estimatedSize += index.getIndexMaintainer(dataTable).getEstimatedByteSize();
         }
         TrustedByteArrayOutputStream stream = new TrustedByteArrayOutputStream(estimatedSize + 1);
         DataOutput output = new DataOutputStream(stream);
         try {
             // Encode data table salting in sign of number of indexes
-            WritableUtils.writeVInt(output, nIndexes * (dataTable.getBucketNum() == null ? 1 : -1));
+            WritableUtils.writeVInt(output, indexes.size() * (dataTable.getBucketNum() == null ? 1 : -1));
             // Write out data row key schema once, since it's the same for all index maintainers
             dataTable.getRowKeySchema().write(output);
-            indexes = nonDisabledIndexIterator(dataTable.getIndexes().iterator());
-            while (indexes.hasNext()) {
-                    indexes.next().getIndexMaintainer(dataTable).write(output);
+            for (PTable index : indexes) {
+                index.getIndexMaintainer(dataTable).write(output);
             }
         } catch (IOException e) {
             throw new RuntimeException(e); // Impossible
@@ -203,6 +213,8 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
         return maintainers;
     }
 
+    private static final ImmutableBytesPtr LOCAL_INDEX_COLUMN_FAMILY_PTR = new ImmutableBytesPtr(QueryConstants.LOCAL_INDEX_COLUMN_FAMILY_BYTES);
+    
     private Set<ColumnReference> indexedColumns;
     private Set<ColumnReference> coveredColumns;
     private Set<ColumnReference> allColumns;
@@ -214,6 +226,7 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
     private byte[] dataEmptyKeyValueCF;
     private int nDataCFs;
     private boolean indexWALDisabled;
+    private boolean isLocalIndex;
 
     // Transient state
     private final boolean isDataTableSalted;
@@ -233,7 +246,7 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
     }
 
     private IndexMaintainer(RowKeySchema dataRowKeySchema, boolean isDataTableSalted, byte[] indexTableName,
-            int nIndexColumns, int nIndexPKColumns, Integer nIndexSaltBuckets, List<PColumnFamily> cfs, boolean indexWALDisabled) {
+            int nIndexColumns, int nIndexPKColumns, Integer nIndexSaltBuckets, List<PColumnFamily> cfs, boolean indexWALDisabled, boolean isLocalIndex) {
         this(dataRowKeySchema, isDataTableSalted);
         int nDataPKColumns = dataRowKeySchema.getFieldCount() - (isDataTableSalted ? 1 : 0);
         this.indexTableName = indexTableName;
@@ -249,13 +262,27 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
         this.dataEmptyKeyValueCF = SchemaUtil.getEmptyColumnFamily(cfs);
         this.nDataCFs = cfs.size();
         this.indexWALDisabled = indexWALDisabled;
+        this.isLocalIndex = isLocalIndex;
     }
 
     public byte[] buildRowKey(ValueGetter valueGetter, ImmutableBytesWritable rowKeyPtr)  {
+        return buildRowKey(valueGetter, rowKeyPtr, null, null);
+    }
+
+    /**
+     * Builds the index row key for the data row. For a local index, the row key is prefixed by
+     * {@link IndexUtil#getLocalIndexRowKeyPrefix(byte[], byte[], byte[])} so that it falls within
+     * the region of the data table bounded by regionStartKey and regionEndKey.
+     */
+    public byte[] buildRowKey(ValueGetter valueGetter, ImmutableBytesWritable rowKeyPtr, byte[] regionStartKey, byte[] regionEndKey)  {
         ImmutableBytesWritable ptr = new ImmutableBytesWritable();
-        TrustedByteArrayOutputStream stream = new TrustedByteArrayOutputStream(estimatedIndexRowKeyBytes);
+        byte[] localIndexPrefix = isLocalIndex ? IndexUtil.getLocalIndexRowKeyPrefix(regionStartKey, regionEndKey, indexTableName) : null;
+        TrustedByteArrayOutputStream stream = new TrustedByteArrayOutputStream(estimatedIndexRowKeyBytes + (isLocalIndex ? localIndexPrefix.length : 0));
         DataOutput output = new DataOutputStream(stream);
         try {
+            if (isLocalIndex) {
+                output.write(localIndexPrefix);
+            }
             if (nIndexSaltBuckets > 0) {
                 output.write(0); // will be set at end to index salt byte
             }
@@ -347,12 +374,20 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
         }
     }
 
-    @SuppressWarnings("deprecation")
     public Put buildUpdateMutation(ValueGetter valueGetter, ImmutableBytesWritable dataRowKeyPtr, long ts) throws IOException {
+        return buildUpdateMutation(valueGetter, dataRowKeyPtr, ts, null, null);
+    }
+
+    /**
+     * @param regionStartKey start key of the data region being updated, only used for a local index
+     * @param regionEndKey end key of the data region being updated, only used for a local index
+     */
+    @SuppressWarnings("deprecation")
+    public Put buildUpdateMutation(ValueGetter valueGetter, ImmutableBytesWritable dataRowKeyPtr, long ts, byte[] regionStartKey, byte[] regionEndKey) throws IOException {
         Put put = null;
         // New row being inserted: add the empty key value
         if (valueGetter.getLatestValue(dataEmptyKeyValueRef) == null) {
-            byte[] indexRowKey = this.buildRowKey(valueGetter, dataRowKeyPtr);
+            byte[] indexRowKey = this.buildRowKey(valueGetter, dataRowKeyPtr, regionStartKey, regionEndKey);
             put = new Put(indexRowKey);
             // add the keyvalue for the empty row
             put.add(this.kvBuilder.buildPut(new ImmutableBytesPtr(indexRowKey),
@@ -364,7 +399,7 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
         for (ColumnReference ref : this.getCoverededColumns()) {
             ImmutableBytesPtr cq = this.indexQualifiers.get(i++);
             ImmutableBytesPtr value = valueGetter.getLatestValue(ref);
-            byte[] indexRowKey = this.buildRowKey(valueGetter, dataRowKeyPtr);
+            byte[] indexRowKey = this.buildRowKey(valueGetter, dataRowKeyPtr, regionStartKey, regionEndKey);
             ImmutableBytesPtr rowKey = new ImmutableBytesPtr(indexRowKey);
             if (value != null) {
                 if (put == null) {
@@ -372,7 +407,7 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
                     put.setWriteToWAL(!indexWALDisabled);
                 }
                 //this is a little bit of extra work for installations that are running <0.94.14, but that should be rare and is a short-term set of wrappers - it shouldn't kill GC
-                put.add(this.kvBuilder.buildPut(rowKey, ref.getFamilyWritable(), cq, ts, value));
+                put.add(this.kvBuilder.buildPut(rowKey, getIndexColumnFamily(ref), cq, ts, value));
             }
         }
         return put;
@@ -389,7 +424,9 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
     public boolean isRowDeleted(Collection<KeyValue> pendingUpdates) {
         int nDeleteCF = 0;
         for (KeyValue kv : pendingUpdates) {
-            if (kv.getType() == KeyValue.Type.DeleteFamily.getCode()) {
+            // A row delete is expanded to every family of the data table, including the one
+            // holding the rows of local indexes, which must not be counted as a data family.
+            if (kv.getType() == KeyValue.Type.DeleteFamily.getCode() && !isLocalIndexFamily(kv)) {
                 nDeleteCF++;
                 boolean isEmptyCF = Bytes.compareTo(kv.getFamily(), dataEmptyKeyValueCF) == 0;
                 // This is what a delete looks like on the client side for immutable indexing...
@@ -433,14 +470,20 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
         return buildDeleteMutation(null, dataRowKeyPtr, Collections.<KeyValue>emptyList(), ts);
     }
     
-    @SuppressWarnings("deprecation")
     public Delete buildDeleteMutation(ValueGetter oldState, ImmutableBytesWritable dataRowKeyPtr, Collection<KeyValue> pendingUpdates, long ts) throws IOException {
-        byte[] indexRowKey = this.buildRowKey(oldState, dataRowKeyPtr);
+        return buildDeleteMutation(oldState, dataRowKeyPtr, pendingUpdates, ts, null, null);
+    }
+
+    /**
+     * @param regionStartKey start key of the data region being updated, only used for a local index
+     * @param regionEndKey end key of the data region being updated, only used for a local index
+     */
+    @SuppressWarnings("deprecation")
+    public Delete buildDeleteMutation(ValueGetter oldState, ImmutableBytesWritable dataRowKeyPtr, Collection<KeyValue> pendingUpdates, long ts, byte[] regionStartKey, byte[] regionEndKey) throws IOException {
+        byte[] indexRowKey = this.buildRowKey(oldState, dataRowKeyPtr, regionStartKey, regionEndKey);
         // Delete the entire row if any of the indexed columns changed
         if (oldState == null || isRowDeleted(pendingUpdates) || hasIndexedColumnChanged(oldState, pendingUpdates)) { // Deleting the entire row
-            Delete delete = new Delete(indexRowKey, ts, null);
-            delete.setWriteToWAL(!indexWALDisabled);
-            return delete;
+            return buildRowDeleteMutation(indexRowKey, ts);
         }
         Delete delete = null;
         // Delete columns for missing key values
@@ -452,17 +495,54 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
                         delete = new Delete(indexRowKey);                    
                         delete.setWriteToWAL(!indexWALDisabled);
                     }
-                    delete.deleteColumns(ref.getFamily(), IndexUtil.getIndexColumnName(ref.getFamily(), ref.getQualifier()), ts);
+                    delete.deleteColumns(isLocalIndex ? QueryConstants.LOCAL_INDEX_COLUMN_FAMILY_BYTES : ref.getFamily(), IndexUtil.getIndexColumnName(ref.getFamily(), ref.getQualifier()), ts);
                 }
             }
         }
         return delete;
   }
 
+    /**
+     * Build the delete of an entire index row, as is done when a data row is deleted or has
+     * its indexed columns changed.
+     * @param indexRowKey the row key of the index row, as returned by {@link #buildRowKey}
+     * @param ts the time stamp of the delete
+     */
+    @SuppressWarnings("deprecation")
+    public Delete buildRowDeleteMutation(byte[] indexRowKey, long ts) {
+        Delete delete = new Delete(indexRowKey, ts, null);
+        if (isLocalIndex) {
+            // Leave any data row that happens to share the same key alone
+            delete.deleteFamily(QueryConstants.LOCAL_INDEX_COLUMN_FAMILY_BYTES, ts);
+        }
+        delete.setWriteToWAL(!indexWALDisabled);
+        return delete;
+    }
+
+    /**
+     * @return the name of the physical table to which the index rows are written or, for a local
+     * index, the name of the index which identifies its rows within the data table.
+     */
     public byte[] getIndexTableName() {
         return indexTableName;
     }
     
+    /**
+     * @return true if the index rows are stored in the regions of the data table.
+     */
+    public boolean isLocalIndex() {
+        return isLocalIndex;
+    }
+    
+    private ImmutableBytesWritable getIndexColumnFamily(ColumnReference ref) {
+        return isLocalIndex ? LOCAL_INDEX_COLUMN_FAMILY_PTR : ref.getFamilyWritable();
+    }
+    
+    private static boolean isLocalIndexFamily(KeyValue kv) {
+        return Bytes.compareTo(kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength(), 
+                QueryConstants.LOCAL_INDEX_COLUMN_FAMILY_BYTES, 0, QueryConstants.LOCAL_INDEX_COLUMN_FAMILY_BYTES.length) == 0;
+    }
+    
     public Set<ColumnReference> getCoverededColumns() {
         return coveredColumns;
     }
@@ -497,6 +577,9 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
     @Override
     public void readFields(DataInput input) throws IOException {
         nIndexSaltBuckets = WritableUtils.readVInt(input);
+        // Encode local index in nIndexSaltBuckets, since a local index is never salted
+        isLocalIndex = nIndexSaltBuckets < 0;
+        nIndexSaltBuckets = Math.max(0, nIndexSaltBuckets);
         int nIndexedColumns = WritableUtils.readVInt(input);
         indexedColumns = Sets.newLinkedHashSetWithExpectedSize(nIndexedColumns);
         for (int i = 0; i < nIndexedColumns; i++) {
@@ -535,7 +618,8 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
     
     @Override
     public void write(DataOutput output) throws IOException {
-        WritableUtils.writeVInt(output, nIndexSaltBuckets);
+        // Encode local index in nIndexSaltBuckets, since a local index is never salted
+        WritableUtils.writeVInt(output, isLocalIndex ? -1 : nIndexSaltBuckets);
         WritableUtils.writeVInt(output, indexedColumns.size());
         for (ColumnReference ref : indexedColumns) {
             Bytes.writeByteArray(output, ref.getFamily());
@@ -573,7 +657,9 @@ public class IndexMaintainer implements Writable, Iterable<ColumnReference> {
      * Init calculated state reading/creating
      */
     private void initCachedState() {
-        if (coveredColumns.isEmpty()) {
+        if (isLocalIndex) {
+            emptyKeyValueCF = LOCAL_INDEX_COLUMN_FAMILY_PTR;
+        } else if (coveredColumns.isEmpty()) {
             emptyKeyValueCF = QueryConstants.EMPTY_COLUMN_BYTES_PTR;
         } else {
             emptyKeyValueCF = new ImmutableBytesPtr(coveredColumns.iterator().next().getFamily());
@@ -27,6 +27,7 @@ import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import com.salesforce.phoenix.cache.IndexMetaDataCache;
 import com.salesforce.phoenix.client.GenericKeyValueBuilder;
 import com.salesforce.phoenix.coprocessor.ServerCachingProtocol.ServerCacheFactory;
+import com.salesforce.phoenix.memory.MemoryManager;
 import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
 
 public class IndexMetaDataCacheFactory implements ServerCacheFactory {
@@ -42,7 +43,7 @@ public class IndexMetaDataCacheFactory implements ServerCacheFactory {
     }
 
     @Override
-    public Closeable newCache (ImmutableBytesWritable cachePtr, final MemoryChunk chunk) throws SQLException {
+    public Closeable newCache (ImmutableBytesWritable cachePtr, final MemoryChunk chunk, MemoryManager offHeapMemoryManager) throws SQLException {
         // just use the standard keyvalue builder - this doesn't really need to be fast
         final List<IndexMaintainer> maintainers =
                 IndexMaintainer.deserialize(cachePtr, GenericKeyValueBuilder.INSTANCE);
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.index;
+
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DATA_TABLE_NAME_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_DISABLE_TIMESTAMP_BYTES;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TABLE_FAMILY_BYTES;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.util.SchemaUtil;
+
+/**
+ * 
+ * Region server wide record of the data tables with an index disabled by a failed index write
+ * (see {@link PhoenixIndexFailurePolicy}) that hasn't been rebuilt yet. Flushes and compactions
+ * consult it without blocking: the record is refreshed from SYSTEM.TABLE in the background every
+ * index rebuild interval, and is considered unknown, and so every table pending, if it couldn't be
+ * refreshed for two intervals.
+ * 
+ * The index is disabled by the region server hosting the region whose index write failed, which
+ * marks the data table as pending right away. Other region servers hosting regions of the same
+ * table only learn of it on their next refresh, so a flush or compaction of theirs in between may
+ * still prune versions the rebuild needs.
+ *
+ * @since 3.0.0
+ */
+public class PendingIndexRebuildTracker {
+    private static final Log LOG = LogFactory.getLog(PendingIndexRebuildTracker.class);
+    private static PendingIndexRebuildTracker INSTANCE;
+    
+    private final long refreshIntervalMs;
+    private final ExecutorService executor;
+    private final AtomicBoolean isRefreshing = new AtomicBoolean();
+    // Physical names of the data tables found pending by the last refresh, and when it started
+    private volatile Set<String> pendingTables = Collections.emptySet();
+    private volatile long refreshTime;
+    // Data tables marked as pending since, by the time at which they were marked
+    private final ConcurrentMap<String,Long> markedTables = new ConcurrentHashMap<String,Long>();
+    
+    public static synchronized PendingIndexRebuildTracker getInstance(Configuration config) {
+        if (INSTANCE == null) {
+            INSTANCE = new PendingIndexRebuildTracker(config);
+        }
+        return INSTANCE;
+    }
+    
+    private PendingIndexRebuildTracker(Configuration config) {
+        this.refreshIntervalMs = config.getLong(QueryServices.INDEX_FAILURE_HANDLING_REBUILD_INTERVAL_ATTRIB, QueryServicesOptions.DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_INTERVAL);
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("phoenix-pending-index-rebuild-tracker-%s").setDaemon(true).build());
+    }
+    
+    /**
+     * Marks a data table as having an index about to be or just disabled by a failed index write.
+     * @param tableName physical name of the data table
+     */
+    public void markPending(String tableName) {
+        markedTables.put(tableName, EnvironmentEdgeManager.currentTimeMillis());
+    }
+    
+    /**
+     * Determines whether a data table may have an index disabled by a failed index write that hasn't
+     * been rebuilt yet, refreshing the record in the background if it's due.
+     * @param env environment of a region from which to reach SYSTEM.TABLE
+     * @param tableName physical name of the data table
+     */
+    public boolean isPending(RegionCoprocessorEnvironment env, String tableName) {
+        long now = EnvironmentEdgeManager.currentTimeMillis();
+        long lastRefreshTime = refreshTime;
+        if (now - lastRefreshTime >= refreshIntervalMs) {
+            refresh(env);
+        }
+        if (now - lastRefreshTime >= 2 * refreshIntervalMs || pendingTables.contains(tableName)) {
+            return true;
+        }
+        Long markTime = markedTables.get(tableName);
+        if (markTime == null) {
+            return false;
+        }
+        // A table marked before the last refresh started was seen by it if still pending
+        if (markTime >= lastRefreshTime) {
+            return true;
+        }
+        markedTables.remove(tableName, markTime);
+        return false;
+    }
+    
+    private void refresh(final RegionCoprocessorEnvironment env) {
+        if (!isRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long startTime = EnvironmentEdgeManager.currentTimeMillis();
+                    pendingTables = getPendingTables(env);
+                    refreshTime = startTime;
+                } catch (Throwable t) {
+                    LOG.warn("Unable to look for indexes disabled by a failed index write", t);
+                } finally {
+                    isRefreshing.set(false);
+                }
+            }
+        });
+    }
+    
+    private static Set<String> getPendingTables(RegionCoprocessorEnvironment env) throws Exception {
+        Set<String> tables = Sets.newHashSet();
+        // Only the header rows of indexes disabled by a failed write have a disable time stamp
+        Scan scan = new Scan();
+        scan.addColumn(TABLE_FAMILY_BYTES, INDEX_DISABLE_TIMESTAMP_BYTES);
+        scan.addColumn(TABLE_FAMILY_BYTES, DATA_TABLE_NAME_BYTES);
+        HTableInterface systemTable = env.getTable(PhoenixDatabaseMetaData.TYPE_TABLE_NAME_BYTES);
+        try {
+            ResultScanner scanner = systemTable.getScanner(scan);
+            try {
+                for (Result result : scanner) {
+                    KeyValue dataTableNameKV = result.getColumnLatest(TABLE_FAMILY_BYTES, DATA_TABLE_NAME_BYTES);
+                    if (dataTableNameKV == null || result.getColumnLatest(TABLE_FAMILY_BYTES, INDEX_DISABLE_TIMESTAMP_BYTES) == null) {
+                        continue;
+                    }
+                    byte[][] rowKeyMetaData = new byte[3][];
+                    SchemaUtil.getVarChars(result.getRow(), rowKeyMetaData);
+                    tables.add(SchemaUtil.getTableName(rowKeyMetaData[PhoenixDatabaseMetaData.SCHEMA_NAME_INDEX], dataTableNameKV.getValue()));
+                }
+            } finally {
+                scanner.close();
+            }
+        } finally {
+            systemTable.close();
+        }
+        return tables;
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.hadoop.hbase.util.Pair;
 
 import com.google.common.collect.Lists;
 import com.salesforce.hbase.index.covered.CoveredColumnsIndexBuilder;
+import com.salesforce.hbase.index.covered.data.LocalTable;
 import com.salesforce.hbase.index.util.IndexManagementUtil;
 import com.salesforce.phoenix.compile.ScanRanges;
 import com.salesforce.phoenix.query.KeyRange;
@@ -44,14 +45,16 @@ public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
 
     @Override
     public void batchStarted(MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp) throws IOException {
-        // The entire purpose of this method impl is to get the existing rows for the
-        // table rows being indexed into the block cache, as the index maintenance code
-        // does a point scan per row
+        // Read the existing state of all the rows being indexed in a single skip scan and keep it
+        // around while the index updates are built, as otherwise the index maintenance code does
+        // a point scan per row
         List<KeyRange> keys = Lists.newArrayListWithExpectedSize(miniBatchOp.size());
+        List<byte[]> rows = Lists.newArrayListWithExpectedSize(miniBatchOp.size());
         List<IndexMaintainer> maintainers = new ArrayList<IndexMaintainer>();
         for (int i = 0; i < miniBatchOp.size(); i++) {
             Mutation m = miniBatchOp.getOperation(i).getFirst();
             keys.add(PDataType.VARBINARY.getKeyRange(m.getRow()));
+            rows.add(m.getRow());
             maintainers.addAll(getCodec().getIndexMaintainers(m.getAttributesMap()));
         }
         Scan scan = IndexManagementUtil.newLocalStateScan(maintainers);
@@ -63,10 +66,10 @@ public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
         // Run through the scanner using internal nextRaw method
         MultiVersionConsistencyControl.setThreadReadPoint(scanner.getMvccReadPoint());
         region.startRegionOperation();
+        List<KeyValue> results = Lists.newArrayList();
         try {
             boolean hasMore;
             do {
-                List<KeyValue> results = Lists.newArrayList();
                 // Results are potentially returned even when the return value of s.next is false
                 // since this is an indication of whether or not there are more values after the
                 // ones returned
@@ -79,6 +82,20 @@ public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
                 region.closeRegionOperation();
             }
         }
+        getLocalTable().cacheBatchRowStates(rows, scan.getFamilyMap().keySet(), results);
+    }
+
+    @Override
+    public void batchIndexUpdatesBuilt(MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp) {
+        List<byte[]> rows = Lists.newArrayListWithExpectedSize(miniBatchOp.size());
+        for (int i = 0; i < miniBatchOp.size(); i++) {
+            rows.add(miniBatchOp.getOperation(i).getFirst().getRow());
+        }
+        getLocalTable().clearBatchRowStates(rows);
+    }
+
+    private LocalTable getLocalTable() {
+        return (LocalTable)this.localTable;
     }
 
     private PhoenixIndexCodec getCodec() {
@@ -27,6 +27,7 @@ import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.util.Pair;
 
 import com.google.common.collect.Lists;
@@ -37,6 +38,7 @@ import com.salesforce.hbase.index.covered.TableState;
 import com.salesforce.hbase.index.scanner.Scanner;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.hbase.index.util.IndexManagementUtil;
+import com.salesforce.hbase.index.write.AsyncIndexWriter;
 import com.salesforce.hbase.index.write.IndexWriter;
 import com.salesforce.phoenix.cache.GlobalCache;
 import com.salesforce.phoenix.cache.IndexMetaDataCache;
@@ -68,6 +70,9 @@ public class PhoenixIndexCodec extends BaseIndexCodec {
         // server
         conf.setIfUnset(IndexWriter.INDEX_FAILURE_POLICY_CONF_KEY,
             PhoenixIndexFailurePolicy.class.getName());
+        // Install handler that will deactivate the index while asynchronous index updates lag behind
+        conf.setIfUnset(AsyncIndexWriter.INDEX_LAG_POLICY_CONF_KEY,
+            PhoenixIndexLagPolicy.class.getName());
         this.builder = KeyValueBuilder.get(env.getHBaseVersion());
     }
 
@@ -127,8 +132,9 @@ public class PhoenixIndexCodec extends BaseIndexCodec {
             // get the values from the scanner so we can actually use them
             ValueGetter valueGetter = IndexManagementUtil.createGetterFromScanner(scanner, dataRowKey);
             ptr.set(dataRowKey);
-            Put put = maintainer.buildUpdateMutation(valueGetter, ptr, state.getCurrentTimestamp());
-            indexUpdate.setTable(maintainer.getIndexTableName());
+            HRegion region = env.getRegion();
+            Put put = maintainer.buildUpdateMutation(valueGetter, ptr, state.getCurrentTimestamp(), region.getStartKey(), region.getEndKey());
+            indexUpdate.setTable(getIndexTableName(maintainer));
             indexUpdate.setUpdate(put);
             //make sure we close the scanner when we are done
             scanner.close();
@@ -152,12 +158,13 @@ public class PhoenixIndexCodec extends BaseIndexCodec {
             Pair<Scanner,IndexUpdate> statePair = state.getIndexedColumnsTableState(maintainer.getAllColumns());
             Scanner scanner = statePair.getFirst();
             IndexUpdate indexUpdate = statePair.getSecond();
-            indexUpdate.setTable(maintainer.getIndexTableName());
+            indexUpdate.setTable(getIndexTableName(maintainer));
             ValueGetter valueGetter = IndexManagementUtil.createGetterFromScanner(scanner, dataRowKey);
             ptr.set(dataRowKey);
+            HRegion region = env.getRegion();
             Delete delete =
                 maintainer.buildDeleteMutation(valueGetter, ptr, state.getPendingUpdate(),
-                  state.getCurrentTimestamp());
+                  state.getCurrentTimestamp(), region.getStartKey(), region.getEndKey());
             scanner.close();
             indexUpdate.setUpdate(delete);
             indexUpdates.add(indexUpdate);
@@ -165,6 +172,13 @@ public class PhoenixIndexCodec extends BaseIndexCodec {
         return indexUpdates;
     }
     
+    /**
+     * The updates of a local index go to the data table itself, into the region being updated.
+     */
+    private byte[] getIndexTableName(IndexMaintainer maintainer) {
+        return maintainer.isLocalIndex() ? env.getRegion().getTableDesc().getName() : maintainer.getIndexTableName();
+    }
+    
   @Override
   public boolean isEnabled(Mutation m) throws IOException {
       return !getIndexMaintainers(m.getAttributesMap()).isEmpty();
@@ -16,13 +16,17 @@
 package com.salesforce.phoenix.index;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.CoprocessorEnvironment;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.Stoppable;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Mutation;
@@ -36,6 +40,7 @@ import com.salesforce.phoenix.coprocessor.MetaDataProtocol;
 import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
 import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MutationCode;
 import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
+import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.PIndexState;
 import com.salesforce.phoenix.util.SchemaUtil;
 
@@ -65,20 +70,19 @@ public class PhoenixIndexFailurePolicy extends  KillServerOnFailurePolicy {
 
     @Override
     public void handleFailure(Multimap<HTableInterfaceReference, Mutation> attempted, Exception cause) throws IOException {
-        Set<HTableInterfaceReference> refs = attempted.asMap().keySet();
+        Map<HTableInterfaceReference, Collection<Mutation>> refs = attempted.asMap();
         StringBuilder buf = new StringBuilder("Disabled index" + (refs.size() > 1 ? "es " : " "));
+        // Keep every version of the data table until the index is rebuilt, both while it's being
+        // disabled and after, as the tracker may be refreshed in between
+        String dataTableName = env.getRegion().getTableDesc().getNameAsString();
+        PendingIndexRebuildTracker tracker = PendingIndexRebuildTracker.getInstance(env.getConfiguration());
+        tracker.markPending(dataTableName);
         try {
-            for (HTableInterfaceReference ref : refs) {
-                // Disable the index by using the updateIndexState method of MetaDataProtocol end point coprocessor.
-                String indexTableName = ref.getTableName();
-                byte[] indexTableKey = SchemaUtil.getTableKeyFromFullName(indexTableName);
-                HTableInterface systemTable = env.getTable(PhoenixDatabaseMetaData.TYPE_TABLE_NAME_BYTES);
-                MetaDataProtocol mdProxy = systemTable.coprocessorProxy(MetaDataProtocol.class, indexTableKey);
-                // Mimic the Put that gets generated by the client on an update of the index state
-                Put put = new Put(indexTableKey);
-                put.add(PhoenixDatabaseMetaData.TABLE_FAMILY_BYTES, PhoenixDatabaseMetaData.INDEX_STATE_BYTES, PIndexState.DISABLE.getSerializedBytes());
-                List<Mutation> tableMetadata = Collections.<Mutation>singletonList(put);
-                MetaDataMutationResult result = mdProxy.updateIndexState(tableMetadata);
+            for (Map.Entry<HTableInterfaceReference, Collection<Mutation>> entry : refs.entrySet()) {
+                // Disable the index by using the updateIndexState method of MetaDataProtocol end point coprocessor,
+                // recording the time of the earliest lost update from which the index may be rebuilt.
+                String indexTableName = entry.getKey().getTableName();
+                MetaDataMutationResult result = updateIndexState(env, indexTableName, PIndexState.DISABLE, getMinTimeStamp(entry.getValue()));
                 if (result.getMutationCode() != MutationCode.TABLE_ALREADY_EXISTS) {
                     LOG.warn("Attempt to disable index " + indexTableName + " failed with code = " + result.getMutationCode() + ". Will use default failure policy instead.");
                     super.handleFailure(attempted, cause);
@@ -87,6 +91,7 @@ public class PhoenixIndexFailurePolicy extends  KillServerOnFailurePolicy {
                 buf.append(indexTableName);
                 buf.append(',');
             }
+            tracker.markPending(dataTableName);
             buf.setLength(buf.length()-1);
             buf.append(" due to an exception while writing updates");
         } catch (Throwable t) {
@@ -95,4 +100,65 @@ public class PhoenixIndexFailurePolicy extends  KillServerOnFailurePolicy {
         throw new DoNotRetryIOException(buf.toString(), cause);
     }
 
+    /**
+     * @return the earliest time stamp of the given mutations or null if none of them has one yet
+     */
+    private static Long getMinTimeStamp(Collection<Mutation> mutations) {
+        long minTimeStamp = HConstants.LATEST_TIMESTAMP;
+        for (Mutation m : mutations) {
+            if (m.getFamilyMap().isEmpty()) {
+                minTimeStamp = Math.min(minTimeStamp, m.getTimeStamp());
+            }
+            for (List<KeyValue> kvs : m.getFamilyMap().values()) {
+                for (KeyValue kv : kvs) {
+                    minTimeStamp = Math.min(minTimeStamp, kv.getTimestamp());
+                }
+            }
+        }
+        return minTimeStamp == HConstants.LATEST_TIMESTAMP ? null : minTimeStamp;
+    }
+
+    /**
+     * Update the state of an index through the updateIndexState method of the MetaDataProtocol end
+     * point coprocessor.
+     * @param env environment of the region from which to reach the system table
+     * @param indexTableName full name of the index table
+     * @param newState new state of the index
+     * @param disableTimeStamp time stamp of the earliest update missing from the index, from which it
+     * is to be rebuilt, or null if the index is not missing any updates
+     * @return the result of the update, which has a mutation code of TABLE_ALREADY_EXISTS if successful
+     * @throws IOException if the end point coprocessor could not be reached
+     */
+    public static MetaDataMutationResult updateIndexState(CoprocessorEnvironment env, String indexTableName, PIndexState newState, Long disableTimeStamp) throws IOException {
+        Put put = newIndexStatePut(indexTableName, newState);
+        if (disableTimeStamp != null) {
+            put.add(PhoenixDatabaseMetaData.TABLE_FAMILY_BYTES, PhoenixDatabaseMetaData.INDEX_DISABLE_TIMESTAMP_BYTES, PDataType.LONG.toBytes(disableTimeStamp));
+        }
+        return updateIndexState(env, put);
+    }
+
+    /**
+     * @return a Put that mimics the one generated by the client on an update of the index state
+     */
+    static Put newIndexStatePut(String indexTableName, PIndexState newState) {
+        Put put = new Put(SchemaUtil.getTableKeyFromFullName(indexTableName));
+        put.add(PhoenixDatabaseMetaData.TABLE_FAMILY_BYTES, PhoenixDatabaseMetaData.INDEX_STATE_BYTES, newState.getSerializedBytes());
+        return put;
+    }
+
+    /**
+     * Send the update of the index state through the MetaDataProtocol end point coprocessor.
+     * @param put created by {@link #newIndexStatePut(String, PIndexState)}
+     */
+    static MetaDataMutationResult updateIndexState(CoprocessorEnvironment env, Put put) throws IOException {
+        HTableInterface systemTable = env.getTable(PhoenixDatabaseMetaData.TYPE_TABLE_NAME_BYTES);
+        try {
+            MetaDataProtocol mdProxy = systemTable.coprocessorProxy(MetaDataProtocol.class, put.getRow());
+            List<Mutation> tableMetadata = Collections.<Mutation>singletonList(put);
+            return mdProxy.updateIndexState(tableMetadata);
+        } finally {
+            systemTable.close();
+        }
+    }
+
 }
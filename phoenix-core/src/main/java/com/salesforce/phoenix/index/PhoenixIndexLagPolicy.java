@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.index;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+import com.salesforce.hbase.index.Indexer;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+import com.salesforce.hbase.index.write.IndexLagPolicy;
+import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
+import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MutationCode;
+import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PIndexState;
+
+/**
+ * 
+ * Handler called when asynchronously written index updates fall behind by more than
+ * the maximum lag of their data table. Reports the region as lagging for the index, which
+ * the server marks as INACTIVE so that the optimizer no longer uses it for queries while it
+ * is still being maintained. Once the region has caught up it's reported as such, and the
+ * server marks the index as ACTIVE again when no other region is lagging for it.
+ *
+ * @since 3.0.0
+ */
+public class PhoenixIndexLagPolicy implements IndexLagPolicy {
+    private static final Log LOG = LogFactory.getLog(PhoenixIndexLagPolicy.class);
+    // The lag is reported again every maximum lag for as long as it lasts, so the report of a
+    // region that went away expires after a few of those
+    private static final int LAG_REPORT_EXPIRY_MULTIPLIER = 3;
+    private RegionCoprocessorEnvironment env;
+    private Stoppable parent;
+    private byte[] laggingRegionQualifier;
+    private long expiryMs;
+
+    public PhoenixIndexLagPolicy() {
+    }
+
+    @Override
+    public void setup(Stoppable parent, RegionCoprocessorEnvironment env) {
+        this.parent = parent;
+        this.env = env;
+        this.laggingRegionQualifier = Bytes.add(PhoenixDatabaseMetaData.INDEX_LAGGING_REGION_BYTES, Bytes.toBytes(env.getRegion().getRegionInfo().getEncodedName()));
+        this.expiryMs = LAG_REPORT_EXPIRY_MULTIPLIER * Indexer.getMaxIndexLag(env);
+    }
+
+    @Override
+    public void onLagExceeded(Collection<HTableInterfaceReference> tables, long lagMs) throws IOException {
+        long expireTime = EnvironmentEdgeManager.currentTimeMillis() + expiryMs;
+        for (HTableInterfaceReference ref : tables) {
+            // An ACTIVE index transitions to INACTIVE on UNUSABLE
+            if (updateIndexLag(ref.getTableName(), PIndexState.UNUSABLE, expireTime)) {
+                LOG.info("Reported index " + ref.getTableName() + " as lagging, as its updates are " + lagMs + "ms behind");
+            }
+        }
+    }
+
+    @Override
+    public void onLagRecovered(Collection<HTableInterfaceReference> tables) throws IOException {
+        for (HTableInterfaceReference ref : tables) {
+            // An INACTIVE index transitions to ACTIVE on USABLE, once no other region is lagging
+            if (updateIndexLag(ref.getTableName(), PIndexState.USABLE, 0)) {
+                LOG.info("Reported index " + ref.getTableName() + " as caught up");
+            }
+        }
+    }
+
+    private boolean updateIndexLag(String indexTableName, PIndexState newState, long expireTime) throws IOException {
+        Put put = PhoenixIndexFailurePolicy.newIndexStatePut(indexTableName, newState);
+        put.add(PhoenixDatabaseMetaData.TABLE_FAMILY_BYTES, laggingRegionQualifier, PDataType.LONG.toBytes(expireTime));
+        MetaDataMutationResult result = PhoenixIndexFailurePolicy.updateIndexState(env, put);
+        if (result.getMutationCode() != MutationCode.TABLE_ALREADY_EXISTS) {
+            LOG.warn("Attempt to report the lag of index " + indexTableName + " as " + newState + " failed with code = " + result.getMutationCode());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void stop(String why) {
+    }
+
+    @Override
+    public boolean isStopped() {
+        return parent.isStopped();
+    }
+}
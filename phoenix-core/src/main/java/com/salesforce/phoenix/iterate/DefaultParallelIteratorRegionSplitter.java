@@ -52,6 +52,7 @@ import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.query.StatsManager;
 import com.salesforce.phoenix.schema.PTable;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 
 
@@ -63,6 +64,7 @@ import com.salesforce.phoenix.util.ReadOnlyProps;
  * @author zhuang
  */
 public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRegionSplitter {
+    private static final byte[][] NO_GUIDE_POSTS = new byte[0][];
 
     protected final int targetConcurrency;
     protected final int maxConcurrency;
@@ -162,7 +164,23 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
         } else {
             // Maintain bucket for each server and then returns KeyRanges in round-robin
             // order to ensure all servers are utilized.
+            PTableStats tableStats = statsManager.getTableStats(tableRef);
             for (HRegionLocation region : regions) {
+                byte[][] guidePosts = getGuidePosts(region, tableStats, splitsPerRegion - 1);
+                if (guidePosts.length > 0) {
+                    /*
+                     * Split on the guide posts collected on the server, as these are based
+                     * on the actual distribution of the data in the region.
+                     */
+                    byte[] startKey = region.getRegionInfo().getStartKey();
+                    byte[] stopKey = region.getRegionInfo().getEndKey();
+                    keyRangesPerRegion.put(region,KeyRange.getKeyRange(startKey.length == 0 ? KeyRange.UNBOUND : startKey, true, guidePosts[0], false));
+                    for (int i = 0; i < guidePosts.length-1; i++) {
+                        keyRangesPerRegion.put(region,KeyRange.getKeyRange(guidePosts[i], true, guidePosts[i+1], false));
+                    }
+                    keyRangesPerRegion.put(region,KeyRange.getKeyRange(guidePosts[guidePosts.length-1], true, stopKey.length == 0 ? KeyRange.UNBOUND : stopKey, false));
+                    continue;
+                }
                 byte[] startKey = region.getRegionInfo().getStartKey();
                 byte[] stopKey = region.getRegionInfo().getEndKey();
                 boolean lowerUnbound = Bytes.compareTo(startKey, HConstants.EMPTY_START_ROW) == 0;
@@ -230,6 +248,38 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
         return splits;
     }
 
+    /**
+     * Get at most maxGuidePosts guide posts that fall strictly inside of both the region
+     * and the scan range, evenly picked from the ones collected for the region.
+     */
+    private byte[][] getGuidePosts(HRegionLocation region, PTableStats tableStats, int maxGuidePosts) {
+        byte[][] regionGuidePosts = tableStats.getRegionGuidePosts(region.getRegionInfo());
+        if (regionGuidePosts == null || regionGuidePosts.length == 0) {
+            return NO_GUIDE_POSTS;
+        }
+        Scan scan = context.getScan();
+        KeyRange regionRange = KeyRange.getKeyRange(region.getRegionInfo().getStartKey(), true, region.getRegionInfo().getEndKey(), false);
+        KeyRange scanRange = KeyRange.getKeyRange(scan.getStartRow(), true, scan.getStopRow(), false);
+        KeyRange range = regionRange.intersect(scanRange);
+        if (range == KeyRange.EMPTY_RANGE) {
+            return NO_GUIDE_POSTS;
+        }
+        List<byte[]> guidePosts = Lists.newArrayListWithExpectedSize(regionGuidePosts.length);
+        for (byte[] guidePost : regionGuidePosts) {
+            if ((range.lowerUnbound() || Bytes.compareTo(guidePost, range.getLowerRange()) > 0)
+                    && (range.upperUnbound() || Bytes.compareTo(guidePost, range.getUpperRange()) < 0)) {
+                guidePosts.add(guidePost);
+            }
+        }
+        int nGuidePosts = guidePosts.size();
+        int nSplitPoints = Math.min(maxGuidePosts, nGuidePosts);
+        byte[][] splitPoints = new byte[nSplitPoints][];
+        for (int i = 0; i < nSplitPoints; i++) {
+            splitPoints[i] = guidePosts.get((i + 1) * (nGuidePosts + 1) / (nSplitPoints + 1) - 1);
+        }
+        return splitPoints;
+    }
+
     @Override
     public List<KeyRange> getSplits() throws SQLException {
         return genKeyRanges(getAllRegions());
@@ -45,6 +45,8 @@ import com.google.common.collect.Iterators;
 import com.salesforce.phoenix.compile.GroupByCompiler.GroupBy;
 import com.salesforce.phoenix.compile.ScanRanges;
 import com.salesforce.phoenix.compile.StatementContext;
+import com.salesforce.phoenix.coprocessor.BatchFilterRegionScanner;
+import com.salesforce.phoenix.expression.Expression;
 import com.salesforce.phoenix.query.KeyRange;
 import com.salesforce.phoenix.query.KeyRange.Bound;
 import com.salesforce.phoenix.schema.ColumnModifier;
@@ -155,6 +157,14 @@ public abstract class ExplainTable {
                 planSteps.add("    SERVER " + pageFilter.getPageSize() + " ROW LIMIT");
             }
         }
+        Expression batchFilter = BatchFilterRegionScanner.deserializeFromScan(scan);
+        if (batchFilter != null) {
+            planSteps.add("    SERVER BATCH FILTER BY " + batchFilter.toString());
+            byte[] limitBytes = scan.getAttribute(BatchFilterRegionScanner.BATCH_FILTER_LIMIT);
+            if (limitBytes != null) {
+                planSteps.add("    SERVER " + Bytes.toInt(limitBytes) + " ROW LIMIT");
+            }
+        }
         groupBy.explain(planSteps);
     }
 
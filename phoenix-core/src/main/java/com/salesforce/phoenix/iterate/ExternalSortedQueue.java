@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.salesforce.phoenix.iterate.OrderedResultIterator.ResultEntry;
+import com.salesforce.phoenix.iterate.OrderedResultIterator.ResultEntryQueue;
+import com.salesforce.phoenix.schema.tuple.ResultTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.SizedUtil;
+import com.salesforce.phoenix.util.TupleUtil;
+
+/**
+ * Queue that sorts an unbounded number of {@link ResultEntry} using an external merge sort.
+ * Entries are buffered in memory until thresholdBytes is reached, at which point the buffer
+ * is sorted and written sequentially to a temp file as a sorted run. Once all entries have been
+ * offered, the runs (plus whatever is still buffered) are merged k-way with the same comparator.
+ * If there are more runs than can be merged at once, groups of runs are first merged into
+ * larger runs. If the threshold is never reached, the sort is done entirely in memory.
+ * <p>
+ * All entries must be offered before the first call to {@link #poll()} or {@link #peek()}.
+ *
+ * @since 3.0.0
+ */
+public class ExternalSortedQueue extends AbstractQueue<ResultEntry> implements ResultEntryQueue {
+    static final int MAX_MERGE_FAN_IN = 64;
+    
+    private final Comparator<ResultEntry> comparator;
+    private final long thresholdBytes;
+    private final int maxMergeFanIn;
+    private final List<SortedRun> runs = new ArrayList<SortedRun>();
+    private List<ResultEntry> buffer = new ArrayList<ResultEntry>();
+    private long bufferByteSize;
+    private long maxByteSize;
+    private int size;
+    private PriorityQueue<RunCursor> mergedQueue;
+
+    public ExternalSortedQueue(Comparator<ResultEntry> comparator, long thresholdBytes) {
+        this(comparator, thresholdBytes, MAX_MERGE_FAN_IN);
+    }
+
+    ExternalSortedQueue(Comparator<ResultEntry> comparator, long thresholdBytes, int maxMergeFanIn) {
+        this.comparator = comparator;
+        this.thresholdBytes = thresholdBytes;
+        this.maxMergeFanIn = Math.max(2, maxMergeFanIn);
+    }
+
+    /**
+     * @return the estimated number of bytes the entry takes up on the heap while buffered
+     */
+    private static long sizeOf(ResultEntry entry) {
+        long size = SizedUtil.OBJECT_SIZE + SizedUtil.ARRAY_SIZE + SizedUtil.POINTER_SIZE;
+        for (ImmutableBytesWritable sortKey : entry.sortKeys) {
+            size += SizedUtil.POINTER_SIZE;
+            if (sortKey != null) {
+                size += SizedUtil.IMMUTABLE_BYTES_WRITABLE_SIZE;
+            }
+        }
+        Tuple tuple = entry.getResult();
+        size += SizedUtil.RESULT_SIZE;
+        for (int i = 0; i < tuple.size(); i++) {
+            size += SizedUtil.KEY_VALUE_SIZE + tuple.getValue(i).getLength();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean offer(ResultEntry e) {
+        if (mergedQueue != null) {
+            throw new IllegalStateException("Entries may not be added once polling has started");
+        }
+        buffer.add(e);
+        size++;
+        bufferByteSize += sizeOf(e);
+        maxByteSize = Math.max(maxByteSize, bufferByteSize);
+        if (bufferByteSize >= thresholdBytes) {
+            try {
+                runs.add(writeRun(sortedBuffer()));
+            } catch (IOException ioe) {
+                throw new RuntimeException(ioe);
+            }
+        }
+        return true;
+    }
+
+    private List<ResultEntry> sortedBuffer() {
+        List<ResultEntry> sorted = buffer;
+        Collections.sort(sorted, comparator);
+        buffer = new ArrayList<ResultEntry>();
+        bufferByteSize = 0;
+        return sorted;
+    }
+
+    private static SortedRun writeRun(Iterable<ResultEntry> entries) throws IOException {
+        File file = File.createTempFile("ResultSortRun", ".bin");
+        boolean success = false;
+        int count = 0;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                for (ResultEntry entry : entries) {
+                    count++;
+                    TupleUtil.write(entry.getResult(), out);
+                    WritableUtils.writeVInt(out, entry.sortKeys.length);
+                    for (ImmutableBytesWritable sortKey : entry.sortKeys) {
+                        if (sortKey == null) {
+                            WritableUtils.writeVInt(out, 0);
+                        } else {
+                            WritableUtils.writeVInt(out, sortKey.getLength());
+                            out.write(sortKey.get(), sortKey.getOffset(), sortKey.getLength());
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            success = true;
+            return new SortedRun(file, count);
+        } finally {
+            if (!success) {
+                file.delete();
+            }
+        }
+    }
+
+    private PriorityQueue<RunCursor> getMergedQueue() {
+        if (mergedQueue != null) {
+            return mergedQueue;
+        }
+        try {
+            // Reduce the number of runs until they can all be merged at once
+            while (runs.size() > maxMergeFanIn) {
+                List<SortedRun> group = runs.subList(0, maxMergeFanIn);
+                PriorityQueue<RunCursor> queue = newMergedQueue(group, null);
+                SortedRun merged = writeRun(new MergedEntries(queue));
+                group.clear();
+                runs.add(merged);
+            }
+            mergedQueue = newMergedQueue(runs, buffer.isEmpty() ? null : sortedBuffer());
+            runs.clear();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return mergedQueue;
+    }
+
+    private PriorityQueue<RunCursor> newMergedQueue(List<SortedRun> runs, List<ResultEntry> inMemoryRun) throws IOException {
+        PriorityQueue<RunCursor> queue = new PriorityQueue<RunCursor>(runs.size() + 1, new Comparator<RunCursor>() {
+            @Override
+            public int compare(RunCursor o1, RunCursor o2) {
+                return comparator.compare(o1.current, o2.current);
+            }
+        });
+        for (SortedRun run : runs) {
+            RunCursor cursor = new RunCursor(run);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        if (inMemoryRun != null) {
+            RunCursor cursor = new RunCursor(inMemoryRun.iterator());
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        return queue;
+    }
+
+    @Override
+    public ResultEntry poll() {
+        PriorityQueue<RunCursor> queue = getMergedQueue();
+        RunCursor cursor = queue.poll();
+        if (cursor == null) {
+            return null;
+        }
+        ResultEntry entry = cursor.current;
+        try {
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        size--;
+        return entry;
+    }
+
+    @Override
+    public ResultEntry peek() {
+        RunCursor cursor = getMergedQueue().peek();
+        return cursor == null ? null : cursor.current;
+    }
+
+    @Override
+    public Iterator<ResultEntry> iterator() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum estimated number of bytes held in memory at once
+     */
+    @Override
+    public long getByteSize() {
+        return maxByteSize;
+    }
+
+    @Override
+    public void close() {
+        buffer = Collections.emptyList();
+        for (SortedRun run : runs) {
+            run.close();
+        }
+        runs.clear();
+        if (mergedQueue != null) {
+            for (RunCursor cursor : mergedQueue) {
+                cursor.close();
+            }
+            mergedQueue.clear();
+        }
+    }
+
+    /**
+     * Sorted run of entries written to a temp file.
+     */
+    private static class SortedRun {
+        private final File file;
+        private int remaining;
+        private DataInputStream in;
+
+        private SortedRun(File file, int count) {
+            this.file = file;
+            this.remaining = count;
+        }
+
+        private ResultEntry read() throws IOException {
+            if (remaining == 0) {
+                close();
+                return null;
+            }
+            if (in == null) {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            }
+            remaining--;
+            int length = WritableUtils.readVInt(in);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            Tuple tuple = new ResultTuple(new Result(new ImmutableBytesWritable(bytes)));
+            int numSortKeys = WritableUtils.readVInt(in);
+            ImmutableBytesWritable[] sortKeys = new ImmutableBytesWritable[numSortKeys];
+            for (int i = 0; i < numSortKeys; i++) {
+                int sortKeyLength = WritableUtils.readVInt(in);
+                if (sortKeyLength > 0) {
+                    byte[] sortKey = new byte[sortKeyLength];
+                    in.readFully(sortKey);
+                    sortKeys[i] = new ImmutableBytesWritable(sortKey);
+                }
+            }
+            return new ResultEntry(sortKeys, tuple);
+        }
+
+        private void close() {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException ignored) {
+            } finally {
+                in = null;
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Position in either a sorted run on disk or the sorted in memory run.
+     */
+    private static class RunCursor {
+        private final SortedRun run;
+        private final Iterator<ResultEntry> inMemoryRun;
+        private ResultEntry current;
+
+        private RunCursor(SortedRun run) {
+            this.run = run;
+            this.inMemoryRun = null;
+        }
+
+        private RunCursor(Iterator<ResultEntry> inMemoryRun) {
+            this.run = null;
+            this.inMemoryRun = inMemoryRun;
+        }
+
+        private boolean advance() throws IOException {
+            if (run != null) {
+                current = run.read();
+            } else {
+                current = inMemoryRun.hasNext() ? inMemoryRun.next() : null;
+            }
+            return current != null;
+        }
+
+        private void close() {
+            current = null;
+            if (run != null) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * Drains a merged queue of runs in sort order, to write them out as a single run.
+     */
+    private class MergedEntries implements Iterable<ResultEntry> {
+        private final PriorityQueue<RunCursor> queue;
+
+        private MergedEntries(PriorityQueue<RunCursor> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public Iterator<ResultEntry> iterator() {
+            return new Iterator<ResultEntry>() {
+                @Override
+                public boolean hasNext() {
+                    return !queue.isEmpty();
+                }
+
+                @Override
+                public ResultEntry next() {
+                    RunCursor cursor = queue.poll();
+                    ResultEntry entry = cursor.current;
+                    try {
+                        if (cursor.advance()) {
+                            queue.add(cursor);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return entry;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
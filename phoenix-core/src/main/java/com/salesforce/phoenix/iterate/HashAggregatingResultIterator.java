@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import static com.salesforce.phoenix.query.QueryConstants.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Hash;
+import org.apache.hadoop.hbase.util.MurmurHash;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.coprocessor.GroupedAggregateRegionObserver;
+import com.salesforce.phoenix.expression.aggregator.Aggregator;
+import com.salesforce.phoenix.expression.aggregator.Aggregators;
+import com.salesforce.phoenix.memory.InsufficientMemoryException;
+import com.salesforce.phoenix.memory.MemoryManager;
+import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.tuple.ResultTuple;
+import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.KeyValueUtil;
+import com.salesforce.phoenix.util.ServerUtil;
+import com.salesforce.phoenix.util.TupleUtil;
+
+
+/**
+ * 
+ * Result iterator that merges the partial aggregates of each region into a single hash table
+ * as they arrive, instead of requiring them to be sorted by group key and merge sorted first.
+ * Groups are output in no particular order, so this may only be used when nothing depends
+ * on the rows being ordered by the group key.
+ * 
+ * Like the server-side SpillableGroupByCache, the hash table grows by 1.5x through the
+ * {@link MemoryManager} until either the allocation fails or maxCacheBytes is reached. From
+ * then on, partial aggregates for groups already in memory continue to be aggregated in memory,
+ * while those for any other group are written as is to one of a number of spill files,
+ * partitioned by a hash of the group key. Once the input is exhausted and the in memory groups
+ * have been output, each spill file is aggregated in turn by a new instance of this iterator,
+ * which will partition again using a different hash seed if it also runs out of memory.
+ *
+ * @since 3.0.0
+ */
+public class HashAggregatingResultIterator implements AggregatingResultIterator {
+    private static final int MIN_CACHE_SIZE = 1000;
+    private static final Hash HASH = MurmurHash.getInstance();
+    
+    private final ImmutableBytesWritable tempPtr = new ImmutableBytesWritable();
+    private final ResultIterator resultIterator;
+    private final Aggregators aggregators;
+    private final MemoryManager memoryManager;
+    private final long maxCacheBytes;
+    private final int numSpillFiles;
+    private final int depth;
+    
+    private boolean isAggregated;
+    private Map<ImmutableBytesPtr, Aggregator[]> groups;
+    private Iterator<Map.Entry<ImmutableBytesPtr, Aggregator[]>> groupIterator;
+    private MemoryChunk chunk;
+    private SpillFile[] spillFiles;
+    private int spillFileIndex;
+    private HashAggregatingResultIterator spillIterator;
+    
+    public HashAggregatingResultIterator(ResultIterator resultIterator, Aggregators aggregators, QueryServices services) {
+        this(resultIterator, aggregators, services.getMemoryManager(),
+                services.getProps().getLong(QueryServices.GROUPBY_MAX_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_GROUPBY_MAX_CACHE_MAX),
+                services.getProps().getInt(QueryServices.GROUPBY_SPILL_FILES_ATTRIB, QueryServicesOptions.DEFAULT_GROUPBY_SPILL_FILES));
+    }
+    
+    public HashAggregatingResultIterator(ResultIterator resultIterator, Aggregators aggregators, MemoryManager memoryManager, long maxCacheBytes, int numSpillFiles) {
+        this(resultIterator, aggregators, memoryManager, maxCacheBytes, numSpillFiles, 0);
+    }
+    
+    private HashAggregatingResultIterator(ResultIterator resultIterator, Aggregators aggregators, MemoryManager memoryManager, long maxCacheBytes, int numSpillFiles, int depth) {
+        if (resultIterator == null) throw new NullPointerException();
+        if (aggregators == null) throw new NullPointerException();
+        this.resultIterator = resultIterator;
+        this.aggregators = aggregators;
+        this.memoryManager = memoryManager;
+        this.maxCacheBytes = maxCacheBytes;
+        this.numSpillFiles = Math.max(2, numSpillFiles);
+        this.depth = depth;
+    }
+    
+    private int sizeOf(int nGroups) {
+        return GroupedAggregateRegionObserver.sizeOfUnorderedGroupByMap(nGroups, aggregators.getEstimatedByteSize());
+    }
+    
+    private void aggregateAll() throws SQLException, IOException {
+        int cacheSize = MIN_CACHE_SIZE;
+        chunk = memoryManager.allocate(sizeOf(cacheSize));
+        groups = new HashMap<ImmutableBytesPtr, Aggregator[]>(cacheSize);
+        boolean spill = false;
+        Tuple result;
+        while ((result = resultIterator.next()) != null) {
+            result.getKey(tempPtr);
+            Aggregator[] rowAggregators = groups.get(new ImmutableBytesPtr(tempPtr));
+            if (rowAggregators == null) {
+                if (!spill && groups.size() >= cacheSize) { // increase allocation
+                    int newCacheSize = (int)(cacheSize * 1.5f);
+                    int estSize = sizeOf(newCacheSize);
+                    if (estSize > maxCacheBytes) {
+                        spill = true;
+                    } else {
+                        try {
+                            chunk.resize(estSize);
+                            cacheSize = newCacheSize;
+                        } catch (InsufficientMemoryException e) {
+                            // Cannot grow the map anymore, start spilling
+                            spill = true;
+                        }
+                    }
+                }
+                if (spill) {
+                    getSpillFile(tempPtr).write(result);
+                    continue;
+                }
+                rowAggregators = aggregators.newAggregators();
+                groups.put(new ImmutableBytesPtr(tempPtr.copyBytes()), rowAggregators);
+            }
+            aggregators.aggregate(rowAggregators, result);
+        }
+        groupIterator = groups.entrySet().iterator();
+        if (spillFiles != null) {
+            for (SpillFile spillFile : spillFiles) {
+                if (spillFile != null) {
+                    spillFile.finishWriting();
+                }
+            }
+        }
+    }
+    
+    private SpillFile getSpillFile(ImmutableBytesWritable key) throws IOException {
+        if (spillFiles == null) {
+            spillFiles = new SpillFile[numSpillFiles];
+        }
+        // Use a different seed at each level so that groups that spilled together get split up
+        int index = (HASH.hash(key.get(), key.getOffset(), key.getLength(), depth) & Integer.MAX_VALUE) % numSpillFiles;
+        SpillFile spillFile = spillFiles[index];
+        if (spillFile == null) {
+            spillFile = spillFiles[index] = new SpillFile();
+        }
+        return spillFile;
+    }
+    
+    private void freeGroups() {
+        groups = null;
+        groupIterator = null;
+        if (chunk != null) {
+            chunk.close();
+            chunk = null;
+        }
+    }
+    
+    @Override
+    public Tuple next() throws SQLException {
+        try {
+            if (!isAggregated) {
+                isAggregated = true;
+                aggregateAll();
+            }
+            if (groupIterator != null) {
+                if (groupIterator.hasNext()) {
+                    Map.Entry<ImmutableBytesPtr, Aggregator[]> entry = groupIterator.next();
+                    byte[] value = aggregators.toBytes(entry.getValue());
+                    return new SingleKeyValueTuple(KeyValueUtil.newKeyValue(entry.getKey(), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, AGG_TIMESTAMP, value, 0, value.length));
+                }
+                freeGroups();
+            }
+            while (spillFiles != null && spillFileIndex < spillFiles.length) {
+                if (spillIterator == null) {
+                    SpillFile spillFile = spillFiles[spillFileIndex];
+                    if (spillFile == null) {
+                        spillFileIndex++;
+                        continue;
+                    }
+                    spillIterator = new HashAggregatingResultIterator(spillFile, aggregators, memoryManager, maxCacheBytes, numSpillFiles, depth + 1);
+                }
+                Tuple result = spillIterator.next();
+                if (result != null) {
+                    return result;
+                }
+                spillIterator.close();
+                spillIterator = null;
+                spillFiles[spillFileIndex++] = null;
+            }
+            return null;
+        } catch (IOException e) {
+            throw ServerUtil.parseServerException(e);
+        }
+    }
+    
+    @Override
+    public void close() throws SQLException {
+        freeGroups();
+        try {
+            if (spillIterator != null) {
+                spillIterator.close();
+                spillIterator = null;
+            }
+            if (spillFiles != null) {
+                for (SpillFile spillFile : spillFiles) {
+                    if (spillFile != null) {
+                        spillFile.close();
+                    }
+                }
+            }
+        } finally {
+            resultIterator.close();
+        }
+    }
+    
+    @Override
+    public void aggregate(Tuple result) {
+        Aggregator[] rowAggregators = aggregators.getAggregators();
+        aggregators.reset(rowAggregators);
+        aggregators.aggregate(rowAggregators, result);
+    }
+
+    @Override
+    public void explain(List<String> planSteps) {
+        resultIterator.explain(planSteps);
+        planSteps.add("CLIENT HASH AGGREGATE");
+    }
+    
+    /**
+     * Temp file holding the partial aggregates of the groups hashed to it, in the
+     * format written by {@link TupleUtil#write(Tuple, java.io.DataOutput)}. Once
+     * writing has finished, it is read back as a {@link ResultIterator}.
+     */
+    private static class SpillFile implements ResultIterator {
+        private final File file;
+        private DataOutputStream out;
+        private DataInputStream in;
+        
+        private SpillFile() throws IOException {
+            file = File.createTempFile("HashAggregationSpill", ".bin");
+            boolean success = false;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                success = true;
+            } finally {
+                if (!success) {
+                    file.delete();
+                }
+            }
+        }
+        
+        private void write(Tuple result) throws IOException {
+            TupleUtil.write(result, out);
+        }
+        
+        private void finishWriting() throws IOException {
+            out.close();
+            out = null;
+        }
+        
+        @Override
+        public Tuple next() throws SQLException {
+            try {
+                if (in == null) {
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                }
+                int length;
+                try {
+                    length = WritableUtils.readVInt(in);
+                } catch (EOFException e) {
+                    return null;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return new ResultTuple(new Result(new ImmutableBytesWritable(bytes)));
+            } catch (IOException e) {
+                throw ServerUtil.parseServerException(e);
+            }
+        }
+        
+        @Override
+        public void close() throws SQLException {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+                if (in != null) {
+                    in.close();
+                    in = null;
+                }
+            } catch (IOException e) {
+                throw ServerUtil.parseServerException(e);
+            } finally {
+                file.delete();
+            }
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+        }
+    }
+}
@@ -42,6 +42,7 @@ import com.salesforce.phoenix.schema.tuple.Tuple;
 public class LimitingResultIterator extends DelegateResultIterator {
     private int rowCount;
     private final int limit;
+    private boolean isDelegateClosed;
     
     public LimitingResultIterator(ResultIterator delegate, int limit) {
         super(delegate);
@@ -51,11 +52,22 @@ public class LimitingResultIterator extends DelegateResultIterator {
     @Override
     public Tuple next() throws SQLException {
         if (rowCount++ >= limit) {
+            // Stop the scans feeding us as soon as the limit is reached instead
+            // of leaving them running until the result set is closed.
+            close();
             return null;
         }
         return super.next();
     }
 
+    @Override
+    public void close() throws SQLException {
+        if (!isDelegateClosed) {
+            isDelegateClosed = true;
+            super.close();
+        }
+    }
+
     @Override
     public void explain(List<String> planSteps) {
         super.explain(planSteps);
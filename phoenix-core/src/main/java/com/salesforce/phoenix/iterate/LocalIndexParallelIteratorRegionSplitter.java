@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.client.Scan;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.compile.ScanRanges;
+import com.salesforce.phoenix.compile.StatementContext;
+import com.salesforce.phoenix.query.KeyRange;
+import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.util.IndexUtil;
+
+
+/**
+ * Splitter for a local index, whose rows are spread over every region of the data table.
+ * Each split is the key range of the rows scanned within one region, under the prefix of
+ * the local index in that region. The regions of a table with local indexes are not split
+ * further, as the rows of different regions must be merged to be returned in row key order.
+ *
+ * @since 3.0.0
+ */
+public class LocalIndexParallelIteratorRegionSplitter implements ParallelIteratorRegionSplitter {
+    private final StatementContext context;
+    private final TableRef tableRef;
+
+    public static LocalIndexParallelIteratorRegionSplitter getInstance(StatementContext context, TableRef table) {
+        return new LocalIndexParallelIteratorRegionSplitter(context, table);
+    }
+
+    private LocalIndexParallelIteratorRegionSplitter(StatementContext context, TableRef table) {
+        this.context = context;
+        this.tableRef = table;
+    }
+
+    @Override
+    public List<KeyRange> getSplits() throws SQLException {
+        if (context.getScanRanges() == ScanRanges.NOTHING) {
+            return Collections.emptyList();
+        }
+        Scan scan = context.getScan();
+        PTable table = tableRef.getTable();
+        byte[] indexName = table.getName().getBytes();
+        List<HRegionLocation> regions = context.getConnection().getQueryServices().getAllTableRegions(table.getPhysicalName().getBytes());
+        List<KeyRange> splits = Lists.newArrayListWithExpectedSize(regions.size());
+        for (HRegionLocation region : regions) {
+            HRegionInfo regionInfo = region.getRegionInfo();
+            KeyRange split = IndexUtil.getLocalIndexKeyRange(regionInfo.getStartKey(), regionInfo.getEndKey(), indexName, scan.getStartRow(), scan.getStopRow());
+            if (split != KeyRange.EMPTY_RANGE) {
+                splits.add(split);
+            }
+        }
+        return splits;
+    }
+}
@@ -47,10 +47,11 @@ import org.apache.hadoop.hbase.util.Bytes;
 
 import com.google.common.collect.MinMaxPriorityQueue;
 import com.salesforce.phoenix.iterate.OrderedResultIterator.ResultEntry;
+import com.salesforce.phoenix.iterate.OrderedResultIterator.ResultEntryQueue;
 import com.salesforce.phoenix.schema.tuple.ResultTuple;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 
-public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
+public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> implements ResultEntryQueue {
     private Comparator<ResultEntry> comparator;
     private final int limit;
     private final int thresholdBytes;
@@ -159,10 +160,12 @@ public class MappedByteBufferSortedQueue extends AbstractQueue<ResultEntry> {
         return size;
     }
     
+    @Override
     public long getByteSize() {
         return currentQueue.getInMemByteSize();
     }
 
+    @Override
     public void close() {
         if (queues != null) {
             for (MappedByteBufferPriorityQueue queue : queues) {
@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Queue;
 
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
@@ -50,7 +51,9 @@ import com.salesforce.phoenix.util.SizedUtil;
 /**
  * Result scanner that sorts aggregated rows by columns specified in the ORDER BY clause.
  * <p>
- * Note that currently the sort is entirely done in memory. 
+ * Without a limit, an external merge sort is done through {@link ExternalSortedQueue}: sorted
+ * runs are spilled to temp files once thresholdBytes is reached and then merged. With a limit,
+ * only the top N rows are kept through {@link MappedByteBufferSortedQueue}.
  *  
  * @author syyang, jtaylor
  * @since 0.1
@@ -77,6 +80,14 @@ public class OrderedResultIterator implements PeekingResultIterator {
         }
     }
     
+    /** A queue that returns {@link ResultEntry} in sort order once they've all been added. */
+    protected static interface ResultEntryQueue extends Queue<ResultEntry> {
+        /** @return the number of bytes held in memory by the queue */
+        public long getByteSize();
+        /** Releases any resources held, including temp files. */
+        public void close();
+    }
+    
     /** A function that returns Nth key for a given {@link ResultEntry}. */
     private static class NthKey implements Function<ResultEntry, ImmutableBytesWritable> {
         private final int index;
@@ -105,6 +116,7 @@ public class OrderedResultIterator implements PeekingResultIterator {
     private final long estimatedByteSize;
     
     private PeekingResultIterator resultIterator;
+    private ResultEntryQueue queueEntries;
     private long byteSize;
 
     protected ResultIterator getDelegate() {
@@ -187,14 +199,19 @@ public class OrderedResultIterator implements PeekingResultIterator {
         final int numSortKeys = orderByExpressions.size();
         List<Expression> expressions = Lists.newArrayList(Collections2.transform(orderByExpressions, TO_EXPRESSION));
         final Comparator<ResultEntry> comparator = buildComparator(orderByExpressions);
+        boolean success = false;
         try{
-            final MappedByteBufferSortedQueue queueEntries = new MappedByteBufferSortedQueue(comparator, limit, thresholdBytes);
-            resultIterator = new PeekingResultIterator() {
+            final ResultEntryQueue queueEntries = this.queueEntries = limit == null
+                    ? new ExternalSortedQueue(comparator, thresholdBytes)
+                    : new MappedByteBufferSortedQueue(comparator, limit, thresholdBytes);
+            PeekingResultIterator iterator = new PeekingResultIterator() {
                 int count = 0;
                 @Override
                 public Tuple next() throws SQLException {
                     ResultEntry entry = queueEntries.poll();
                     if (entry == null || (limit != null && ++count > limit)) {
+                        // Release the spill files as soon as the results are exhausted
+                        closeQueue();
                         resultIterator = PeekingResultIterator.EMPTY_ITERATOR;
                         return null;
                     }
@@ -219,7 +236,7 @@ public class OrderedResultIterator implements PeekingResultIterator {
                 
                 @Override
                 public void close() throws SQLException {
-                    queueEntries.close();
+                    closeQueue();
                 }
             };
             for (Tuple result = delegate.next(); result != null; result = delegate.next()) {
@@ -234,10 +251,19 @@ public class OrderedResultIterator implements PeekingResultIterator {
                 queueEntries.add(new ResultEntry(sortKeys, result));
             }
             this.byteSize = queueEntries.getByteSize();
+            resultIterator = iterator;
+            success = true;
         } catch (IOException e) {
             throw new SQLException("", e);
         } finally {
-            delegate.close();
+            try {
+                delegate.close();
+            } finally {
+                // Don't leave spill files behind if filling the queue failed
+                if (!success) {
+                    closeQueue();
+                }
+            }
         }
         
         return resultIterator;
@@ -250,8 +276,16 @@ public class OrderedResultIterator implements PeekingResultIterator {
 
     @Override
     public void close()  {
+        closeQueue();
         resultIterator = PeekingResultIterator.EMPTY_ITERATOR;
     }
+    
+    private void closeQueue() {
+        if (queueEntries != null) {
+            queueEntries.close();
+            queueEntries = null;
+        }
+    }
 
 
     @Override
@@ -31,6 +31,7 @@ import java.sql.SQLException;
 
 import com.salesforce.phoenix.compile.StatementContext;
 import com.salesforce.phoenix.parse.HintNode;
+import com.salesforce.phoenix.schema.PTable.IndexType;
 import com.salesforce.phoenix.schema.TableRef;
 
 
@@ -40,6 +41,9 @@ import com.salesforce.phoenix.schema.TableRef;
 public class ParallelIteratorRegionSplitterFactory {
 
     public static ParallelIteratorRegionSplitter getSplitter(StatementContext context, TableRef table, HintNode hintNode) throws SQLException {
+        if (table.getTable().getIndexType() == IndexType.LOCAL) {
+            return LocalIndexParallelIteratorRegionSplitter.getInstance(context, table);
+        }
         if (context.getScanRanges().useSkipScanFilter()) {
             return SkipRangeParallelIteratorRegionSplitter.getInstance(context, table, hintNode);
         }
@@ -27,16 +27,20 @@
  ******************************************************************************/
 package com.salesforce.phoenix.iterate;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.hbase.HRegionLocation;
@@ -52,16 +56,27 @@ import com.google.common.base.Function;
 import com.salesforce.phoenix.compile.GroupByCompiler.GroupBy;
 import com.salesforce.phoenix.compile.RowProjector;
 import com.salesforce.phoenix.compile.StatementContext;
+import com.salesforce.phoenix.coprocessor.BatchFilterRegionScanner;
+import com.salesforce.phoenix.coprocessor.LocalIndexRegionScanner;
+import com.salesforce.phoenix.coprocessor.ScanRegionObserver;
+import com.salesforce.phoenix.exception.SQLExceptionCode;
+import com.salesforce.phoenix.exception.SQLExceptionInfo;
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
+import com.salesforce.phoenix.job.JobGroup;
 import com.salesforce.phoenix.job.JobManager.JobCallable;
 import com.salesforce.phoenix.parse.FilterableStatement;
 import com.salesforce.phoenix.parse.HintNode;
+import com.salesforce.phoenix.parse.HintNode.Hint;
 import com.salesforce.phoenix.query.ConnectionQueryServices;
 import com.salesforce.phoenix.query.KeyRange;
 import com.salesforce.phoenix.query.QueryConstants;
 import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.PTable.IndexType;
 import com.salesforce.phoenix.schema.SaltingUtil;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 import com.salesforce.phoenix.util.SQLCloseables;
 import com.salesforce.phoenix.util.ScanUtil;
@@ -81,6 +96,8 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
 	private static final Logger logger = LoggerFactory.getLogger(ParallelIterators.class);
     private final List<KeyRange> splits;
     private final ParallelIteratorFactory iteratorFactory;
+    private final boolean isStreaming;
+    private final JobGroup jobGroup;
     
     public static interface ParallelIteratorFactory {
         PeekingResultIterator newIterator(ResultIterator scanner) throws SQLException;
@@ -96,11 +113,26 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
     };
 
     public ParallelIterators(StatementContext context, TableRef tableRef, FilterableStatement statement, RowProjector projector, GroupBy groupBy, Integer limit, ParallelIteratorFactory iteratorFactory) throws SQLException {
+        this(context, tableRef, statement, projector, groupBy, limit, iteratorFactory, false);
+    }
+    
+    /**
+     * @param isStreaming if true, the results of each region are returned as they arrive through a
+     *  {@link StreamingResultIterator}, with the iteratorFactory only used to spool the remainder of
+     *  a scan when the consumer falls behind. Only valid if the iteratorFactory may be applied to any
+     *  tail end of a region scan. If false, the iteratorFactory is applied to each region scan as a whole.
+     */
+    public ParallelIterators(StatementContext context, TableRef tableRef, FilterableStatement statement, RowProjector projector, GroupBy groupBy, Integer limit, ParallelIteratorFactory iteratorFactory, boolean isStreaming) throws SQLException {
         super(context, tableRef, groupBy);
         this.splits = getSplits(context, tableRef, statement.getHint());
         this.iteratorFactory = iteratorFactory;
+        this.isStreaming = isStreaming;
+        this.jobGroup = newJobGroup(context, statement.getHint());
         Scan scan = context.getScan();
         PTable table = tableRef.getTable();
+        if (table.getIndexType() == IndexType.LOCAL) {
+            scan.setAttribute(LocalIndexRegionScanner.LOCAL_INDEX, table.getName().getBytes());
+        }
         if (projector.isProjectEmptyKeyValue()) {
             Map<byte [], NavigableSet<byte []>> familyMap = scan.getFamilyMap();
             // If nothing projected into scan and we only have one column family, just allow everything
@@ -112,7 +144,7 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
                 scan.addFamily(table.getColumnFamilies().get(0).getName().getBytes());
                 ScanUtil.andFilterAtBeginning(scan, new FirstKeyOnlyFilter());
             } else {
-                byte[] ecf = SchemaUtil.getEmptyColumnFamily(table.getColumnFamilies());
+                byte[] ecf = SchemaUtil.getEmptyColumnFamily(table);
                 // Project empty key value unless the column family containing it has
                 // been projected in its entirety.
                 if (!familyMap.containsKey(ecf) || familyMap.get(ecf) != null) {
@@ -121,8 +153,41 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
             }
         }
         if (limit != null) {
-            ScanUtil.andFilterAtEnd(scan, new PageFilter(limit));
+            // A PageFilter counts rows before the region observers apply a batch filter, so it
+            // would stop the scan early. The batch filter stops returning rows at the limit instead.
+            if (scan.getAttribute(BatchFilterRegionScanner.BATCH_FILTER) == null) {
+                ScanUtil.andFilterAtEnd(scan, new PageFilter(limit));
+            } else {
+                BatchFilterRegionScanner.setLimit(scan, limit);
+            }
+        }
+    }
+
+    /**
+     * Determines how the parallel scans of the query are scheduled relative to those of other queries
+     * from the priority hints and the connection properties. The threads are shared fairly between
+     * tenants, or between connections without a tenant.
+     */
+    private static JobGroup newJobGroup(StatementContext context, HintNode hintNode) throws SQLException {
+        PhoenixConnection connection = context.getConnection();
+        ReadOnlyProps props = connection.getQueryServices().getProps();
+        JobGroup.Priority priority;
+        if (hintNode.hasHint(Hint.HIGH_PRIORITY)) {
+            priority = JobGroup.Priority.HIGH;
+        } else if (hintNode.hasHint(Hint.LOW_PRIORITY)) {
+            priority = JobGroup.Priority.LOW;
+        } else {
+            String priorityName = props.get(QueryServices.QUERY_PRIORITY_ATTRIB, QueryServicesOptions.DEFAULT_QUERY_PRIORITY);
+            try {
+                priority = JobGroup.Priority.fromName(priorityName);
+            } catch (IllegalArgumentException e) {
+                throw new SQLExceptionInfo.Builder(SQLExceptionCode.ILLEGAL_DATA).setMessage(QueryServices.QUERY_PRIORITY_ATTRIB + "=" + priorityName).build().buildException();
+            }
         }
+        Object shareKey = connection.getTenantId() == null ? connection : connection.getTenantId().getString();
+        int weight = props.getInt(QueryServices.QUERY_SHARE_WEIGHT_ATTRIB, QueryServicesOptions.DEFAULT_QUERY_SHARE_WEIGHT);
+        int maxConcurrency = props.getInt(QueryServices.MAX_CONCURRENT_SCANS_PER_QUERY_ATTRIB, QueryServicesOptions.DEFAULT_MAX_CONCURRENT_SCANS_PER_QUERY);
+        return new JobGroup(shareKey, priority, weight, maxConcurrency);
     }
 
     /**
@@ -141,11 +206,15 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
     }
 
     /**
-     * Executes the scan in parallel across all regions, blocking until all scans are complete.
+     * Executes the scan in parallel across all regions, blocking until all scans are complete
+     * unless streaming, in which case the iterators are returned as soon as the scans are submitted.
      * @return the result iterators for the scan of each region
      */
     @Override
     public List<PeekingResultIterator> getIterators() throws SQLException {
+        if (isStreaming) {
+            return getStreamingIterators();
+        }
         boolean success = false;
         final ConnectionQueryServices services = context.getConnection().getQueryServices();
         ReadOnlyProps props = services.getProps();
@@ -169,13 +238,15 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
                         split = split.intersect(minMaxRange);
                     }
                 }
-                if (ScanUtil.intersectScanRange(splitScan, split.getLowerRange(), split.getUpperRange(), this.context.getScanRanges().useSkipScanFilter())) {
+                if (setScanRange(splitScan, split)) {
                     Future<PeekingResultIterator> future =
                         executor.submit(new JobCallable<PeekingResultIterator>() {
 
                         @Override
                         public PeekingResultIterator call() throws Exception {
                             // TODO: different HTableInterfaces for each thread or the same is better?
+                            // Don't bother opening a scanner if the query was stopped while we were queued
+                            context.checkCancelled();
                         	long startTime = System.currentTimeMillis();
                             ResultIterator scanner = new TableResultIterator(context, tableRef, splitScan);
                             if (logger.isDebugEnabled()) {
@@ -185,13 +256,13 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
                         }
 
                         /**
-                         * Defines the grouping for round robin behavior.  All threads spawned to process
+                         * Defines the grouping for fair share scheduling.  All threads spawned to process
                          * this scan will be grouped together and time sliced with other simultaneously
-                         * executing parallel scans.
+                         * executing parallel scans according to the priority and share of the query.
                          */
                         @Override
                         public Object getJobId() {
-                            return ParallelIterators.this;
+                            return jobGroup;
                         }
                     });
                     futures.add(new Pair<byte[],Future<PeekingResultIterator>>(split.getLowerRange(),future));
@@ -226,6 +297,242 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
         }
     }
 
+    /**
+     * Limits the scan to the key range of a split.
+     * @return false if the scan cannot return any rows within the split.
+     */
+    private boolean setScanRange(Scan splitScan, KeyRange split) {
+        // The splits of a local index already cover only the rows of the scan, within
+        // the key range of the index rows in each region of the data table.
+        if (tableRef.getTable().getIndexType() == IndexType.LOCAL) {
+            splitScan.setStartRow(split.getLowerRange());
+            splitScan.setStopRow(split.getUpperRange());
+            return true;
+        }
+        return ScanUtil.intersectScanRange(splitScan, split.getLowerRange(), split.getUpperRange(), this.context.getScanRanges().useSkipScanFilter());
+    }
+
+    private List<PeekingResultIterator> getStreamingIterators() throws SQLException {
+        boolean success = false;
+        final ConnectionQueryServices services = context.getConnection().getQueryServices();
+        ReadOnlyProps props = services.getProps();
+        int prefetchSize = props.getInt(QueryServices.STREAMING_PREFETCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_STREAMING_PREFETCH_SIZE);
+        int spoolWaitMs = props.getInt(QueryServices.STREAMING_SPOOL_WAIT_MS_ATTRIB, QueryServicesOptions.DEFAULT_STREAMING_SPOOL_WAIT_MS);
+        int timeoutMs = props.getInt(QueryServices.THREAD_TIMEOUT_MS_ATTRIB, DEFAULT_THREAD_TIMEOUT_MS);
+        int splitThresholdMs = props.getInt(QueryServices.SCAN_SPLIT_THRESHOLD_MS_ATTRIB, QueryServicesOptions.DEFAULT_SCAN_SPLIT_THRESHOLD_MS);
+        // The rows of a top N scan are not returned in row key order, so its key range cannot be split
+        if (context.getScan().getAttribute(ScanRegionObserver.TOPN) != null) {
+            splitThresholdMs = 0;
+        }
+        // Nor can that of a local index, as the rows come back without the prefix of their region
+        if (tableRef.getTable().getIndexType() == IndexType.LOCAL) {
+            splitThresholdMs = 0;
+        }
+        List<Pair<byte[],PeekingResultIterator>> iterators = new ArrayList<Pair<byte[],PeekingResultIterator>>(splits.size());
+        final UUID scanId = UUID.randomUUID();
+        try {
+            ExecutorService executor = services.getExecutor();
+            for (KeyRange split : splits) {
+                final Scan splitScan = new Scan(this.context.getScan());
+                // See getIterators() for why this is only done now for salted tables
+                if (tableRef.getTable().getBucketNum() != null) {
+                    KeyRange minMaxRange = context.getMinMaxRange();
+                    if (minMaxRange != null) {
+                        minMaxRange = SaltingUtil.addSaltByte(split.getLowerRange(), minMaxRange);
+                        split = split.intersect(minMaxRange);
+                    }
+                }
+                if (setScanRange(splitScan, split)) {
+                    StreamingScan iterator = new StreamingScan(splitScan, scanId, executor, prefetchSize, spoolWaitMs, timeoutMs, splitThresholdMs);
+                    // Add before submitting, so that we close it if a subsequent submit fails
+                    iterators.add(new Pair<byte[],PeekingResultIterator>(split.getLowerRange(),iterator));
+                    iterator.submit();
+                }
+            }
+            // Sort by row key so that we have a predictable order we're getting rows back for scans.
+            Collections.sort(iterators, new Comparator<Pair<byte[],PeekingResultIterator>>() {
+                @Override
+                public int compare(Pair<byte[], PeekingResultIterator> o1, Pair<byte[], PeekingResultIterator> o2) {
+                    return Bytes.compareTo(o1.getFirst(), o2.getFirst());
+                }
+            });
+            List<PeekingResultIterator> sortedIterators = new ArrayList<PeekingResultIterator>(iterators.size());
+            for (Pair<byte[],PeekingResultIterator> iterator : iterators) {
+                sortedIterators.add(iterator.getSecond());
+            }
+            success = true;
+            return sortedIterators;
+        } catch (Exception e) {
+            throw ServerUtil.parseServerException(e);
+        } finally {
+            if (!success) {
+                List<PeekingResultIterator> toClose = new ArrayList<PeekingResultIterator>(iterators.size());
+                for (Pair<byte[],PeekingResultIterator> iterator : iterators) {
+                    toClose.add(iterator.getSecond());
+                }
+                SQLCloseables.closeAllQuietly(toClose);
+            }
+        }
+    }
+
+    /**
+     * 
+     * Streams the results of the scan over one key range. While the scan runs for longer than the
+     * split threshold and the query executor has idle threads, the rest of its key range is split
+     * off into a new streaming scan whose results are returned after those of this one.
+     *
+     * @since 3.0.0
+     */
+    private class StreamingScan implements PeekingResultIterator, SplittingResultIterator.TailScanner {
+        private final Scan scan;
+        private final UUID scanId;
+        private final ExecutorService executor;
+        private final int prefetchSize;
+        private final int spoolWaitMs;
+        private final int timeoutMs;
+        private final int splitThresholdMs;
+        private final StreamingResultIterator head;
+        // Scans of the key ranges split off of this one, in row key order
+        private final LinkedList<StreamingScan> tails = new LinkedList<StreamingScan>();
+        private boolean isClosed;
+        private PeekingResultIterator current;
+        
+        private StreamingScan(Scan scan, UUID scanId, ExecutorService executor, int prefetchSize, int spoolWaitMs, int timeoutMs, int splitThresholdMs) {
+            this.scan = scan;
+            this.scanId = scanId;
+            this.executor = executor;
+            this.prefetchSize = prefetchSize;
+            this.spoolWaitMs = spoolWaitMs;
+            this.timeoutMs = timeoutMs;
+            this.splitThresholdMs = splitThresholdMs;
+            this.head = new StreamingResultIterator(iteratorFactory, context.getConnection().getQueryServices().getMemoryManager(), prefetchSize, spoolWaitMs, timeoutMs);
+            this.current = head;
+        }
+        
+        private void submit() {
+            executor.submit(new JobCallable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    long startTime = System.currentTimeMillis();
+                    ResultIterator scanner;
+                    try {
+                        context.checkCancelled();
+                        scanner = new TableResultIterator(context, tableRef, scan);
+                    } catch (Throwable t) {
+                        head.abort(t);
+                        return null;
+                    }
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Id: " + scanId + ", Time: " + (System.currentTimeMillis() - startTime) + "ms, Scan: " + scan);
+                    }
+                    if (splitThresholdMs > 0) {
+                        byte[] stopKey = scan.getStopRow();
+                        // Use the stats to pick a split key for the last region
+                        byte[] maxKey = stopKey.length == 0 ? context.getConnection().getQueryServices().getStatsManager().getMaxKey(tableRef) : null;
+                        scanner = new SplittingResultIterator(scanner, stopKey, maxKey, splitThresholdMs, StreamingScan.this);
+                    }
+                    head.stream(scanner);
+                    return null;
+                }
+
+                @Override
+                public Object getJobId() {
+                    return jobGroup;
+                }
+            });
+        }
+        
+        @Override
+        public boolean canScanTail() {
+            if (!(executor instanceof ThreadPoolExecutor)) {
+                return false;
+            }
+            ThreadPoolExecutor pool = (ThreadPoolExecutor)executor;
+            return pool.getActiveCount() < pool.getMaximumPoolSize() && pool.getQueue().isEmpty();
+        }
+
+        @Override
+        public boolean scanTail(byte[] splitKey, byte[] stopKey) throws SQLException {
+            Scan tailScan;
+            try {
+                tailScan = new Scan(scan);
+            } catch (IOException e) {
+                throw ServerUtil.parseServerException(e);
+            }
+            if (!ScanUtil.intersectScanRange(tailScan, splitKey, stopKey, context.getScanRanges().useSkipScanFilter())) {
+                return false;
+            }
+            StreamingScan tail = new StreamingScan(tailScan, scanId, executor, prefetchSize, spoolWaitMs, timeoutMs, splitThresholdMs);
+            try {
+                tail.submit();
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+            synchronized (this) {
+                if (!isClosed) {
+                    tails.addFirst(tail);
+                    tail = null;
+                }
+            }
+            if (tail != null) {
+                tail.close();
+                return false;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Id: " + scanId + ", Split scan at " + Bytes.toStringBinary(splitKey) + ", Scan: " + tailScan);
+            }
+            return true;
+        }
+        
+        private PeekingResultIterator currentIterator() throws SQLException {
+            while (current.peek() == null) {
+                StreamingScan tail;
+                synchronized (this) {
+                    tail = tails.poll();
+                }
+                if (tail == null) {
+                    break;
+                }
+                current.close();
+                current = tail;
+            }
+            return current;
+        }
+
+        @Override
+        public Tuple peek() throws SQLException {
+            return currentIterator().peek();
+        }
+
+        @Override
+        public Tuple next() throws SQLException {
+            return currentIterator().next();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            List<StreamingScan> toClose;
+            synchronized (this) {
+                if (isClosed) {
+                    return;
+                }
+                isClosed = true;
+                toClose = new ArrayList<StreamingScan>(tails);
+                tails.clear();
+            }
+            try {
+                current.close();
+            } finally {
+                SQLCloseables.closeAll(toClose);
+            }
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+        }
+    }
+
     @Override
     public int size() {
         return this.splits.size();
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+
+/**
+ * 
+ * Result iterator over a scan returning rows in row key order that, while it
+ * runs for longer than the split threshold, hands off the tail end of its key
+ * range to another scan. The split key is the midpoint between the current row
+ * and the end of the key range, and once the tail has been handed off this
+ * iterator stops at the split key.
+ *
+ * @since 3.0.0
+ */
+public class SplittingResultIterator implements ResultIterator {
+    
+    /**
+     * Scans the tail end of a key range split off by a {@link SplittingResultIterator}
+     */
+    public static interface TailScanner {
+        /**
+         * @return true if there is capacity to scan a tail and false otherwise
+         */
+        boolean canScanTail();
+        
+        /**
+         * Start a scan of the tail end of the key range
+         * @param splitKey the inclusive start of the tail
+         * @param stopKey the exclusive end of the tail, or an empty byte array if unbound
+         * @return true if the tail will be scanned and false if the split was declined
+         */
+        boolean scanTail(byte[] splitKey, byte[] stopKey) throws SQLException;
+    }
+    
+    private final ResultIterator delegate;
+    private final long splitThresholdMs;
+    private final byte[] maxKey;
+    private final TailScanner tailScanner;
+    private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+    private byte[] stopKey;
+    private long lastSplitTime;
+    private boolean isDone;
+    
+    /**
+     * @param delegate the scan of the key range
+     * @param stopKey the exclusive end of the key range, or an empty byte array if unbound
+     * @param maxKey the key used in place of an unbound stopKey to calculate the split key,
+     *  or null if unknown, in which case an unbound key range is not split
+     * @param splitThresholdMs the amount of time to scan before splitting
+     * @param tailScanner the scanner of split off tails
+     */
+    public SplittingResultIterator(ResultIterator delegate, byte[] stopKey, byte[] maxKey, long splitThresholdMs, TailScanner tailScanner) {
+        this.delegate = delegate;
+        this.stopKey = stopKey;
+        this.maxKey = maxKey;
+        this.splitThresholdMs = splitThresholdMs;
+        this.tailScanner = tailScanner;
+        this.lastSplitTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public Tuple next() throws SQLException {
+        if (isDone) {
+            return null;
+        }
+        Tuple tuple = delegate.next();
+        if (tuple == null) {
+            isDone = true;
+            return null;
+        }
+        tuple.getKey(ptr);
+        if (stopKey.length > 0 && Bytes.compareTo(ptr.get(), ptr.getOffset(), ptr.getLength(), stopKey, 0, stopKey.length) >= 0) {
+            // The rest belongs to a tail that was split off
+            isDone = true;
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastSplitTime >= splitThresholdMs) {
+            lastSplitTime = now;
+            split(ptr.copyBytes());
+        }
+        return tuple;
+    }
+    
+    private void split(byte[] currentKey) throws SQLException {
+        byte[] upperKey = stopKey.length == 0 ? maxKey : stopKey;
+        if (upperKey == null || Bytes.compareTo(currentKey, upperKey) >= 0 || !tailScanner.canScanTail()) {
+            return;
+        }
+        byte[][] boundaries;
+        try {
+            boundaries = Bytes.split(currentKey, upperKey, 1);
+        } catch (IllegalArgumentException e) {
+            // Keys only differ by trailing zero bytes
+            return;
+        }
+        // Bytes.split may return null if the key space between the keys is too small
+        if (boundaries == null) {
+            return;
+        }
+        byte[] splitKey = boundaries[1];
+        if (Bytes.compareTo(splitKey, currentKey) <= 0 || Bytes.compareTo(splitKey, upperKey) >= 0) {
+            return;
+        }
+        if (tailScanner.scanTail(splitKey, stopKey)) {
+            stopKey = splitKey;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        delegate.close();
+    }
+
+    @Override
+    public void explain(List<String> planSteps) {
+        delegate.explain(planSteps);
+    }
+}
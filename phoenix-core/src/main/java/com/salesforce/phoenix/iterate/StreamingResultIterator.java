@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.salesforce.phoenix.iterate.ParallelIterators.ParallelIteratorFactory;
+import com.salesforce.phoenix.memory.InsufficientMemoryException;
+import com.salesforce.phoenix.memory.MemoryManager;
+import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
+import com.salesforce.phoenix.schema.tuple.ResultTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.ServerUtil;
+
+
+/**
+ * 
+ * Result iterator that makes the results of a scan available as they arrive rather than
+ * after the entire scan has completed. A producer, running on the query executor through
+ * {@link #stream(ResultIterator)}, fills a bounded prefetch buffer which the consumer
+ * drains. If the consumer does not keep up and the buffer stays full for longer than the
+ * spool wait time, the remainder of the scan is handed off to the spooling factory so that
+ * the region scan is not held open on behalf of a slow client. The rows in the buffer are
+ * charged to the memory manager, and the scan is spooled as well if the memory for the
+ * next row cannot be allocated.
+ *
+ * @since 3.0.0
+ */
+public class StreamingResultIterator implements PeekingResultIterator {
+    // Marker placed in the buffer by the producer once it has finished
+    private static final Tuple END_OF_SCAN = new ResultTuple();
+    
+    private final BlockingQueue<Tuple> buffer;
+    private final MemoryChunk chunk;
+    // Size in bytes of the rows currently in the buffer
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final ParallelIteratorFactory spoolingFactory;
+    private final long spoolWaitMs;
+    private final long timeoutMs;
+    private volatile boolean isClosed;
+    private volatile boolean isDone;
+    private volatile SQLException exception;
+    private PeekingResultIterator spooled;
+    private boolean isBufferDrained;
+    private boolean isInitialized;
+    private Tuple next;
+    
+    /**
+     * @param spoolingFactory factory used to spool the remainder of the scan if the consumer falls behind
+     * @param mm memory manager against which the buffered rows are charged
+     * @param prefetchSize the maximum number of rows buffered ahead of the consumer
+     * @param spoolWaitMs the amount of time the producer waits on a full buffer before spooling
+     * @param timeoutMs the amount of time the consumer waits for the next row before timing out
+     */
+    public StreamingResultIterator(ParallelIteratorFactory spoolingFactory, MemoryManager mm, int prefetchSize, long spoolWaitMs, long timeoutMs) {
+        this.buffer = new ArrayBlockingQueue<Tuple>(prefetchSize);
+        this.chunk = mm.allocate(0);
+        this.spoolingFactory = spoolingFactory;
+        this.spoolWaitMs = spoolWaitMs;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Pumps the results of the scanner into the prefetch buffer until the scanner is exhausted,
+     * this iterator is closed, or the consumer is too slow, in which case the rest of the scan
+     * is spooled. The scanner passed in is always closed prior to returning.
+     * @param scanner the results of a table scan
+     */
+    public void stream(ResultIterator scanner) {
+        try {
+            for (Tuple tuple = scanner.next(); tuple != null && !isClosed; tuple = scanner.next()) {
+                long size = sizeOf(tuple);
+                if (!reserve(bufferedBytes.addAndGet(size)) || !buffer.offer(tuple, spoolWaitMs, TimeUnit.MILLISECONDS)) {
+                    bufferedBytes.addAndGet(-size);
+                    PeekingResultIterator tail = spoolingFactory.newIterator(new PushbackResultIterator(tuple, scanner));
+                    scanner = null; // Closed by the spooling iterator
+                    setSpooled(tail);
+                    break;
+                }
+            }
+        } catch (Throwable t) {
+            exception = toSQLException(t);
+        } finally {
+            try {
+                if (scanner != null) {
+                    scanner.close();
+                }
+            } catch (SQLException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            } finally {
+                endOfScan();
+            }
+        }
+    }
+    
+    /**
+     * Fail the stream without having produced any results, for example if
+     * the scanner could not be opened.
+     * @param t the cause of the failure
+     */
+    public void abort(Throwable t) {
+        exception = toSQLException(t);
+        endOfScan();
+    }
+
+    private static long sizeOf(Tuple tuple) {
+        long size = 0;
+        for (int i = 0; i < tuple.size(); i++) {
+            size += tuple.getValue(i).getLength();
+        }
+        return size;
+    }
+    
+    /**
+     * Grow the memory chunk, if necessary, to cover the given number of buffered bytes. The
+     * chunk is doubled in size at a time, so that it's only resized a few times per scan.
+     * @return true if the memory is allocated and false otherwise
+     */
+    private synchronized boolean reserve(long nBytes) {
+        long size = chunk.getSize();
+        if (nBytes <= size || isClosed) {
+            return true;
+        }
+        try {
+            chunk.resize(Math.max(nBytes, size * 2));
+        } catch (InsufficientMemoryException e) {
+            try {
+                chunk.resize(nBytes);
+            } catch (InsufficientMemoryException e2) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private synchronized void release() {
+        chunk.close();
+    }
+    
+    private static SQLException toSQLException(Throwable t) {
+        return t instanceof SQLException ? (SQLException)t : ServerUtil.parseServerException(t);
+    }
+
+    private void endOfScan() {
+        isDone = true;
+        // Wake up the consumer if it's waiting. If the buffer is full, the consumer
+        // will notice that we're done once it has drained the buffer.
+        buffer.offer(END_OF_SCAN);
+    }
+    
+    private synchronized void setSpooled(PeekingResultIterator tail) throws SQLException {
+        if (isClosed) {
+            tail.close();
+        } else {
+            spooled = tail;
+        }
+    }
+    
+    private synchronized PeekingResultIterator getSpooled() {
+        return spooled;
+    }
+    
+    private Tuple advance() throws SQLException {
+        if (isBufferDrained) {
+            PeekingResultIterator tail = getSpooled();
+            return next = tail == null ? null : tail.next();
+        }
+        Tuple tuple = buffer.poll();
+        if (tuple == null) {
+            if (isDone) {
+                // Poll again, as rows may have been added between our poll and the check
+                tuple = buffer.poll();
+                if (tuple == null) {
+                    tuple = END_OF_SCAN;
+                }
+            } else {
+                try {
+                    tuple = buffer.poll(timeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw ServerUtil.parseServerException(e);
+                }
+                if (tuple == null) {
+                    throw ServerUtil.parseServerException(new TimeoutException("Timed out after " + timeoutMs + "ms waiting for scan results"));
+                }
+            }
+        }
+        if (tuple == END_OF_SCAN) {
+            isBufferDrained = true;
+            release();
+            if (exception != null) {
+                throw exception;
+            }
+            return advance();
+        }
+        bufferedBytes.addAndGet(-sizeOf(tuple));
+        return next = tuple;
+    }
+    
+    private void init() throws SQLException {
+        if (!isInitialized) {
+            isInitialized = true;
+            advance();
+        }
+    }
+    
+    @Override
+    public Tuple peek() throws SQLException {
+        init();
+        return next;
+    }
+
+    @Override
+    public Tuple next() throws SQLException {
+        init();
+        Tuple current = next;
+        if (current != null) {
+            advance();
+        }
+        return current;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        PeekingResultIterator tail;
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            tail = spooled;
+            spooled = null;
+            chunk.close();
+        }
+        // Unblock the producer if it's waiting on a full buffer
+        buffer.clear();
+        if (tail != null) {
+            tail.close();
+        }
+    }
+
+    @Override
+    public void explain(List<String> planSteps) {
+    }
+    
+    /**
+     * 
+     * Result iterator that returns a tuple already read from the scanner before
+     * continuing with the scanner. Stops early if the enclosing iterator is closed
+     * while the remainder of the scan is being spooled.
+     *
+     * @since 3.0.0
+     */
+    private class PushbackResultIterator implements ResultIterator {
+        private final ResultIterator delegate;
+        private Tuple pushedBack;
+        
+        private PushbackResultIterator(Tuple pushedBack, ResultIterator delegate) {
+            this.pushedBack = pushedBack;
+            this.delegate = delegate;
+        }
+        
+        @Override
+        public Tuple next() throws SQLException {
+            if (isClosed) {
+                return null;
+            }
+            if (pushedBack != null) {
+                Tuple tuple = pushedBack;
+                pushedBack = null;
+                return tuple;
+            }
+            return delegate.next();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            delegate.close();
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+        }
+    }
+}
@@ -83,6 +83,7 @@ public class TableResultIterator extends ExplainTable implements ResultIterator
 
     @Override
     public Tuple next() throws SQLException {
+        context.checkCancelled();
         return delegate.next();
     }
 
@@ -181,6 +181,23 @@ public class PhoenixDatabaseMetaData implements DatabaseMetaData, com.salesforce
     public static final byte[] BASE_SCHEMA_NAME_BYTES = Bytes.toBytes(BASE_SCHEMA_NAME);
     public static final String BASE_TABLE_NAME = "BASE_TABLE_NAME";
     public static final byte[] BASE_TABLE_NAME_BYTES = Bytes.toBytes(BASE_TABLE_NAME);
+    public static final String INDEX_TYPE = "INDEX_TYPE";
+    public static final byte[] INDEX_TYPE_BYTES = Bytes.toBytes(INDEX_TYPE);
+    // Time stamp of the earliest index write that failed, kept by the server in the header row of a disabled index
+    public static final String INDEX_DISABLE_TIMESTAMP = "INDEX_DISABLE_TIMESTAMP";
+    public static final byte[] INDEX_DISABLE_TIMESTAMP_BYTES = Bytes.toBytes(INDEX_DISABLE_TIMESTAMP);
+    // Prefix of the columns, one per region of the data table whose asynchronous index updates are behind, kept by
+    // the server in the header row of the index. The encoded region name follows the prefix and the value is the
+    // time at which the entry expires, unless the region reports it again.
+    public static final String INDEX_LAGGING_REGION = "INDEX_LAGGING_REGION:";
+    public static final byte[] INDEX_LAGGING_REGION_BYTES = Bytes.toBytes(INDEX_LAGGING_REGION);
+    // Set by the server in the header row of an index it made INACTIVE because of lagging regions
+    public static final String INDEX_LAG_INACTIVE = "INDEX_LAG_INACTIVE";
+    public static final byte[] INDEX_LAG_INACTIVE_BYTES = Bytes.toBytes(INDEX_LAG_INACTIVE);
+    // Prefix of the columns, one per key range of the data table, in which the client keeps the progress of a server-side
+    // build in the header row of the index until the build completes. The start key of the range follows the prefix.
+    public static final String INDEX_BUILD_RANGE = "INDEX_BUILD_RANGE:";
+    public static final byte[] INDEX_BUILD_RANGE_BYTES = Bytes.toBytes(INDEX_BUILD_RANGE);
 
     public static final String TABLE_FAMILY = QueryConstants.DEFAULT_COLUMN_FAMILY;
     public static final byte[] TABLE_FAMILY_BYTES = QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES;
@@ -200,6 +217,20 @@ public class PhoenixDatabaseMetaData implements DatabaseMetaData, com.salesforce
     public static final String CACHE_SIZE = "CACHE_SIZE";
     public static final byte[] CACHE_SIZE_BYTES = Bytes.toBytes(CACHE_SIZE);
     
+    public static final String TYPE_STATS = "STATS";
+    public static final byte[] STATS_FAMILY_BYTES = QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES;
+    public static final String STATS_TABLE_NAME = TYPE_SCHEMA + ".\"" + TYPE_STATS + "\"";
+    public static final byte[] STATS_TABLE_NAME_BYTES = SchemaUtil.getTableNameAsBytes(TYPE_SCHEMA, TYPE_STATS);
+    public static final String PHYSICAL_NAME = "PHYSICAL_NAME";
+    public static final String REGION_NAME = "REGION_NAME";
+    public static final String FAMILY_NAME = "FAMILY_NAME";
+    public static final String GUIDE_POSTS = "GUIDE_POSTS";
+    public static final byte[] GUIDE_POSTS_BYTES = Bytes.toBytes(GUIDE_POSTS);
+    public static final String ROW_COUNT = "ROW_COUNT";
+    public static final byte[] ROW_COUNT_BYTES = Bytes.toBytes(ROW_COUNT);
+    public static final String BYTE_COUNT = "BYTE_COUNT";
+    public static final byte[] BYTE_COUNT_BYTES = Bytes.toBytes(BYTE_COUNT);
+    
     private final PhoenixConnection connection;
     private final ResultSet emptyResultSet;
 
@@ -22,6 +22,7 @@ import java.io.Reader;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Date;
@@ -37,6 +38,7 @@ import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Calendar;
@@ -60,7 +62,8 @@ import com.salesforce.phoenix.util.SQLCloseable;
  * {@link #setDate(int, Date)} - {@link #setDate(int, Date, Calendar)} - {@link #setTime(int, Time)} -
  * {@link #setTime(int, Time, Calendar)} - {@link #setTimestamp(int, Timestamp)} -
  * {@link #setTimestamp(int, Timestamp, Calendar)} - {@link #setNull(int, int)} - {@link #setNull(int, int, String)} -
- * {@link #setBytes(int, byte[])} - {@link #clearParameters()} - {@link #getMetaData()}
+ * {@link #setBytes(int, byte[])} - {@link #clearParameters()} - {@link #getMetaData()} - {@link #addBatch()} -
+ * {@link #executeBatch()}
  * 
  * @author jtaylor
  * @since 0.1
@@ -70,6 +73,7 @@ public class PhoenixPreparedStatement extends PhoenixStatement implements Prepar
     private final ExecutableStatement statement;
 
     private final String query;
+    private final List<List<Object>> batch = new ArrayList<List<Object>>();
 
     public PhoenixPreparedStatement(PhoenixConnection connection, PhoenixStatementParser parser) throws SQLException,
             IOException {
@@ -91,9 +95,64 @@ public class PhoenixPreparedStatement extends PhoenixStatement implements Prepar
 
     @Override
     public void addBatch() throws SQLException {
+        throwIfUnboundParameters();
+        batch.add(new ArrayList<Object>(parameters));
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
         throw new SQLFeatureNotSupportedException();
     }
 
+    @Override
+    public void clearBatch() throws SQLException {
+        batch.clear();
+    }
+
+    /**
+     * Execute the statement for each set of parameters added through {@link #addBatch()}.
+     * An UPSERT VALUES statement is compiled once for the entire batch and all of its rows
+     * are encoded into the connection's mutation state together, in which case either all
+     * or none of the rows are applied. Other statements are executed once per parameter set.
+     * On failure, a {@link BatchUpdateException} is thrown with the update counts of the
+     * executions that succeeded and the batch is cleared.
+     */
+    @Override
+    public int[] executeBatch() throws SQLException {
+        if (batch.isEmpty()) {
+            return new int[0];
+        }
+        int[] updateCounts = new int[batch.size()];
+        int i = 0;
+        try {
+            if (statement instanceof BatchableStatement && ((BatchableStatement)statement).isBatchable()) {
+                updateCounts = ((BatchableStatement)statement).executeBatch(batch);
+                i = updateCounts.length;
+            } else {
+                for (List<Object> params : batch) {
+                    for (int j = 0; j < params.size(); j++) {
+                        parameters.set(j, params.get(j));
+                    }
+                    updateCounts[i] = statement.executeUpdate();
+                    i++;
+                }
+            }
+            return updateCounts;
+        } catch (RuntimeException e) {
+            // FIXME: Expression.evaluate does not throw SQLException
+            // so this will unwrap throws from that.
+            if (e.getCause() instanceof SQLException) {
+                SQLException sqlE = (SQLException) e.getCause();
+                throw new BatchUpdateException(sqlE.getMessage(), sqlE.getSQLState(), sqlE.getErrorCode(), Arrays.copyOf(updateCounts, i), sqlE);
+            }
+            throw e;
+        } catch (SQLException e) {
+            throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(updateCounts, i), e);
+        } finally {
+            batch.clear();
+        }
+    }
+
     @Override
     public void clearParameters() throws SQLException {
         Collections.fill(parameters, BindManager.UNBOUND_PARAMETER);
@@ -51,6 +51,7 @@ import java.sql.Timestamp;
 import java.text.Format;
 import java.util.Calendar;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
@@ -102,6 +103,7 @@ public class PhoenixResultSet implements ResultSet, SQLCloseable, com.salesforce
     private final ResultIterator scanner;
     private final RowProjector rowProjector;
     private final PhoenixStatement statement;
+    private final AtomicBoolean isCancelled;
     private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
     
     private Tuple currentRow = BEFORE_FIRST;
@@ -112,6 +114,7 @@ public class PhoenixResultSet implements ResultSet, SQLCloseable, com.salesforce
         this.rowProjector = rowProjector;
         this.scanner = resultIterator;
         this.statement = statement;
+        this.isCancelled = statement.getCancelledFlag();
     }
     
     @Override
@@ -738,6 +741,10 @@ public class PhoenixResultSet implements ResultSet, SQLCloseable, com.salesforce
     @Override
     public boolean next() throws SQLException {
         checkOpen();
+        // Rows already returned by the scans are not handed out once the query is cancelled
+        if (isCancelled.get()) {
+            throw new SQLExceptionInfo.Builder(SQLExceptionCode.QUERY_CANCELLED).build().buildException();
+        }
         try {
             currentRow = scanner.next();
         } catch (RuntimeException e) {
@@ -29,6 +29,7 @@ package com.salesforce.phoenix.jdbc;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.sql.BatchUpdateException;
 import java.sql.ParameterMetaData;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -42,9 +43,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.hbase.util.Pair;
 
+import com.google.common.cache.Cache;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.salesforce.phoenix.compile.ColumnProjector;
@@ -59,6 +62,7 @@ import com.salesforce.phoenix.compile.MutationPlan;
 import com.salesforce.phoenix.compile.QueryCompiler;
 import com.salesforce.phoenix.compile.QueryPlan;
 import com.salesforce.phoenix.compile.RowProjector;
+import com.salesforce.phoenix.compile.StatementContext;
 import com.salesforce.phoenix.compile.StatementPlan;
 import com.salesforce.phoenix.compile.UpsertCompiler;
 import com.salesforce.phoenix.coprocessor.MetaDataProtocol;
@@ -66,6 +70,7 @@ import com.salesforce.phoenix.exception.SQLExceptionCode;
 import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.execute.MutationState;
 import com.salesforce.phoenix.expression.RowKeyColumnExpression;
+import com.salesforce.phoenix.iterate.DelegateResultIterator;
 import com.salesforce.phoenix.iterate.MaterializedResultIterator;
 import com.salesforce.phoenix.iterate.ResultIterator;
 import com.salesforce.phoenix.parse.AddColumnStatement;
@@ -161,6 +166,9 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
     private boolean isClosed = false;
     private ResultSetMetaData resultSetMetaData;
     private int maxRows;
+    private int queryTimeout;
+    private volatile AtomicBoolean isCancelled = new AtomicBoolean();
+    private final List<String> batch = Lists.newArrayList();
     
     
     public PhoenixStatement(PhoenixConnection connection) {
@@ -171,6 +179,21 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
         return resultSets;
     }
     
+    /**
+     * @return the flag through which {@link #cancel()} stops the queries of the current
+     * execution of the statement. Each query captures it in its {@link StatementContext}.
+     */
+    public AtomicBoolean getCancelledFlag() {
+        return isCancelled;
+    }
+    
+    /**
+     * @return the amount of time the scans of a query are allowed to run, or 0 if unlimited
+     */
+    public long getQueryTimeoutMs() {
+        return queryTimeout * 1000L;
+    }
+    
     protected PhoenixResultSet newResultSet(ResultIterator iterator, RowProjector projector) throws SQLException {
         return new PhoenixResultSet(iterator, projector, PhoenixStatement.this);
     }
@@ -189,6 +212,20 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
         public MutationPlan optimizePlan() throws SQLException;
     }
     
+    protected static interface BatchableStatement extends MutatableStatement {
+        /**
+         * Execute the statement once for each set of bind values, compiling it only once.
+         * @param batch the bind values for each execution
+         * @return the update count for each execution
+         * @throws SQLException
+         */
+        public int[] executeBatch(List<List<Object>> batch) throws SQLException;
+        /**
+         * @return true if {@link #executeBatch(List)} may be used for this statement
+         */
+        public boolean isBatchable();
+    }
+    
     private class ExecutableSelectStatement extends SelectStatement implements ExecutableStatement {
         private ExecutableSelectStatement(List<? extends TableNode> from, HintNode hint, boolean isDistinct, List<AliasedNode> select, ParseNode where,
                 List<ParseNode> groupBy, ParseNode having, List<OrderByNode> orderBy, LimitNode limit, int bindCount, boolean isAggregate) {
@@ -198,7 +235,31 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
         @Override
         public PhoenixResultSet executeQuery() throws SQLException {
             QueryPlan plan = optimizePlan();
-            PhoenixResultSet rs = newResultSet(plan.iterator(), plan.getProjector());
+            final StatementContext context = plan.getContext();
+            // Stop the query once it's cancelled or timed out even if its rows were all read ahead
+            ResultIterator iterator = new DelegateResultIterator(plan.iterator()) {
+                private boolean isClosed;
+                
+                @Override
+                public void close() throws SQLException {
+                    if (!isClosed) {
+                        isClosed = true;
+                        super.close();
+                    }
+                }
+                
+                @Override
+                public Tuple next() throws SQLException {
+                    try {
+                        context.checkCancelled();
+                    } catch (SQLException e) {
+                        close();
+                        throw e;
+                    }
+                    return super.next();
+                }
+            };
+            PhoenixResultSet rs = newResultSet(iterator, plan.getProjector());
             resultSets.add(rs);
             lastResultSet = rs;
             lastUpdateCount = NO_UPDATE;
@@ -256,7 +317,7 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
         return lastUpdateCount;
     }
     
-    private class ExecutableUpsertStatement extends UpsertStatement implements MutatableStatement {
+    private class ExecutableUpsertStatement extends UpsertStatement implements BatchableStatement {
         private ExecutableUpsertStatement(NamedTableNode table, HintNode hintNode, List<ColumnName> columns, List<ParseNode> values, SelectStatement select, int bindCount) {
             super(table, hintNode, columns, values, select, bindCount);
         }
@@ -283,6 +344,23 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
             return null;
         }
 
+        @Override
+        public int[] executeBatch(List<List<Object>> batch) throws SQLException {
+            lastUpdateOperation = UpdateOperation.UPSERTED;
+            UpsertCompiler compiler = new UpsertCompiler(PhoenixStatement.this);
+            executeMutation(compiler.compile(this, batch));
+            // Each bound row upserts exactly one row
+            int[] updateCounts = new int[batch.size()];
+            Arrays.fill(updateCounts, 1);
+            return updateCounts;
+        }
+
+        @Override
+        public boolean isBatchable() {
+            // Rows of an UPSERT SELECT are produced by a query, so they can't be encoded up front
+            return getSelect() == null;
+        }
+
         @Override
         public MutationPlan compilePlan() throws SQLException {
             UpsertCompiler compiler = new UpsertCompiler(PhoenixStatement.this);
@@ -383,8 +461,8 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
     private class ExecutableCreateIndexStatement extends CreateIndexStatement implements ExecutableStatement {
 
         public ExecutableCreateIndexStatement(NamedNode indexName, NamedTableNode dataTable, PrimaryKeyConstraint pkConstraint, List<ColumnName> includeColumns, List<ParseNode> splits,
-                ListMultimap<String,Pair<String,Object>> props, boolean ifNotExists, int bindCount) {
-            super(indexName, dataTable, pkConstraint, includeColumns, splits, props, ifNotExists, bindCount);
+                ListMultimap<String,Pair<String,Object>> props, boolean ifNotExists, boolean isLocal, int bindCount) {
+            super(indexName, dataTable, pkConstraint, includeColumns, splits, props, ifNotExists, isLocal, bindCount);
         }
 
         @Override
@@ -921,8 +999,8 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
         }
         
         @Override
-        public CreateIndexStatement createIndex(NamedNode indexName, NamedTableNode dataTable, PrimaryKeyConstraint pkConstraint, List<ColumnName> includeColumns, List<ParseNode> splits, ListMultimap<String,Pair<String,Object>> props, boolean ifNotExists, int bindCount) {
-            return new ExecutableCreateIndexStatement(indexName, dataTable, pkConstraint, includeColumns, splits, props, ifNotExists, bindCount);
+        public CreateIndexStatement createIndex(NamedNode indexName, NamedTableNode dataTable, PrimaryKeyConstraint pkConstraint, List<ColumnName> includeColumns, List<ParseNode> splits, ListMultimap<String,Pair<String,Object>> props, boolean ifNotExists, boolean isLocal, int bindCount) {
+            return new ExecutableCreateIndexStatement(indexName, dataTable, pkConstraint, includeColumns, splits, props, ifNotExists, isLocal, bindCount);
         }
         
         @Override
@@ -982,17 +1060,21 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
     
     @Override
     public void addBatch(String sql) throws SQLException {
-        throw new SQLFeatureNotSupportedException();
+        batch.add(sql);
     }
 
     @Override
     public void cancel() throws SQLException {
-        throw new SQLFeatureNotSupportedException();
+        // Subsequent executions of the statement get a new flag, as only the queries
+        // currently running (or whose results are still being read) are cancelled.
+        AtomicBoolean isCancelled = this.isCancelled;
+        this.isCancelled = new AtomicBoolean();
+        isCancelled.set(true);
     }
 
     @Override
     public void clearBatch() throws SQLException {
-        throw new SQLFeatureNotSupportedException();
+        batch.clear();
     }
 
     @Override
@@ -1022,14 +1104,62 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
     }
     
     protected ExecutableStatement parseStatement(String sql) throws SQLException {
-        PhoenixStatementParser parser = null;
-        try {
-            parser = new PhoenixStatementParser(sql, new ExecutableNodeFactory());
-        } catch (IOException e) {
-            throw ServerUtil.parseServerException(e);
+        // The parse of SELECT, UPSERT and DELETE statements is cached across connections,
+        // since they're executed frequently and parse nodes are not mutated by compilation.
+        // The cached statements are created by a plain ParseNodeFactory so that they don't
+        // reference this statement.
+        Cache<String,BindableStatement> cache = connection.getQueryServices().getParsedStatementCache();
+        BindableStatement statement = cache.getIfPresent(sql);
+        if (statement == null) {
+            if (!isCacheable(sql)) {
+                PhoenixStatementParser parser = null;
+                try {
+                    parser = new PhoenixStatementParser(sql, new ExecutableNodeFactory());
+                } catch (IOException e) {
+                    throw ServerUtil.parseServerException(e);
+                }
+                return parser.parseStatement();
+            }
+            statement = new SQLParser(sql).parseStatement();
+            cache.put(sql, statement);
+        }
+        return newExecutableStatement(statement);
+    }
+    
+    private static final String[] CACHEABLE_KEYWORDS = {"SELECT", "UPSERT", "DELETE"};
+    
+    /**
+     * Determine from its leading keyword whether the statement is a SELECT, UPSERT or DELETE
+     * statement, so that it's only parsed once, either for the cache or into an executable
+     * statement. A statement with a leading comment is simply not cached.
+     */
+    private static boolean isCacheable(String sql) {
+        int offset = 0;
+        while (offset < sql.length() && Character.isWhitespace(sql.charAt(offset))) {
+            offset++;
+        }
+        for (String keyword : CACHEABLE_KEYWORDS) {
+            if (sql.regionMatches(true, offset, keyword, 0, keyword.length())
+                    && (offset + keyword.length() == sql.length() || !Character.isJavaIdentifierPart(sql.charAt(offset + keyword.length())))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private ExecutableStatement newExecutableStatement(BindableStatement statement) {
+        ExecutableNodeFactory factory = new ExecutableNodeFactory();
+        if (statement instanceof SelectStatement) {
+            SelectStatement select = (SelectStatement)statement;
+            return factory.select(select.getFrom(), select.getHint(), select.isDistinct(), select.getSelect(), select.getWhere(), 
+                    select.getGroupBy(), select.getHaving(), select.getOrderBy(), select.getLimit(), select.getBindCount(), select.isAggregate());
         }
-        ExecutableStatement statement = parser.parseStatement();
-        return statement;
+        if (statement instanceof UpsertStatement) {
+            UpsertStatement upsert = (UpsertStatement)statement;
+            return factory.upsert(upsert.getTable(), upsert.getHint(), upsert.getColumns(), upsert.getValues(), upsert.getSelect(), upsert.getBindCount());
+        }
+        DeleteStatement delete = (DeleteStatement)statement;
+        return factory.delete(delete.getTable(), delete.getHint(), delete.getWhere(), delete.getOrderBy(), delete.getLimit(), delete.getBindCount());
     }
     
     @Override
@@ -1070,9 +1200,27 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
         throw new SQLFeatureNotSupportedException();
     }
 
+    /**
+     * Execute each SQL statement added through {@link #addBatch(String)} in turn. Since each
+     * statement may target a different table, every one is compiled separately. If a statement
+     * fails, a {@link BatchUpdateException} is thrown with the update counts of the statements
+     * that succeeded and the batch is cleared.
+     */
     @Override
     public int[] executeBatch() throws SQLException {
-        throw new SQLFeatureNotSupportedException();
+        int[] updateCounts = new int[batch.size()];
+        int i = 0;
+        try {
+            for (String sql : batch) {
+                updateCounts[i] = executeUpdate(sql);
+                i++;
+            }
+            return updateCounts;
+        } catch (SQLException e) {
+            throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(updateCounts, i), e);
+        } finally {
+            batch.clear();
+        }
     }
 
     @Override
@@ -1132,7 +1280,7 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
 
     @Override
     public int getQueryTimeout() throws SQLException {
-        return connection.getQueryServices().getProps().getInt(QueryServices.KEEP_ALIVE_MS_ATTRIB, 0) / 1000;
+        return queryTimeout;
     }
 
     // For testing
@@ -1232,10 +1380,17 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
         }
     }
 
+    /**
+     * Limits the amount of time the scans of the queries subsequently executed by this statement may run,
+     * including while their results are being read, after which they are stopped and an
+     * {@link java.sql.SQLTimeoutException} is thrown.
+     */
     @Override
     public void setQueryTimeout(int seconds) throws SQLException {
-        // The Phoenix setting for this is shared across all connections currently
-        throw new SQLFeatureNotSupportedException();
+        if (seconds < 0) {
+            throw new SQLExceptionInfo.Builder(SQLExceptionCode.ILLEGAL_DATA).setMessage("Query timeout may not be negative: " + seconds).build().buildException();
+        }
+        this.queryTimeout = seconds;
     }
 
     @Override
@@ -0,0 +1,452 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.job;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * A bounded blocking queue of jobs that schedules them by the {@link JobGroup} of the query they belong to.
+ * Queued jobs of a higher {@link JobGroup.Priority} are dequeued before those of a lower one. Within a
+ * priority class, the threads are shared between the share keys (typically tenants or connections) in
+ * proportion to their weight using stride scheduling, and between the queries of a share key in round
+ * robin fashion. A query that has as many jobs running as its maximum concurrency is skipped while the
+ * jobs of other queries can run instead, which requires the executor to call {@link #beforeExecute(Object)} and
+ * {@link #afterExecute(Object)} around each job. The time jobs spend in the queue is tracked per
+ * priority class, and logged at debug level at most once per stats log interval.
+ *
+ * @since 3.0.0
+ */
+public abstract class AbstractFairShareQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractFairShareQueue.class);
+    private static final long STRIDE = 1L << 20;
+    private static final JobGroup.Priority[] PRIORITIES = JobGroup.Priority.values();
+    
+    private final Object lock = new Object();
+    private final int maxSize;
+    private final List<PriorityClass<E>> priorityClasses;
+    // Queries with jobs that are queued or running, by job id
+    private final Map<Object,Group<E>> groups = new HashMap<Object,Group<E>>();
+    // Jobs that have been dequeued to run, but haven't started yet
+    private final Set<E> dispatched = Collections.newSetFromMap(new IdentityHashMap<E,Boolean>());
+    private int size;
+    private final long statsLogIntervalMs;
+    private long lastStatsLogTime;
+
+    /**
+     * Construct an AbstractFairShareQueue that limits the size of the queued elements
+     * to at most maxSize. Attempts to insert new elements after that point will fail.
+     * @param maxSize
+     */
+    public AbstractFairShareQueue(int maxSize) {
+        this(maxSize, 0);
+    }
+    
+    /**
+     * @param maxSize
+     * @param statsLogIntervalMs minimum time between debug logs of the time jobs spent in the queue, or 0 for none
+     */
+    public AbstractFairShareQueue(int maxSize, long statsLogIntervalMs) {
+        this.maxSize = maxSize;
+        this.statsLogIntervalMs = statsLogIntervalMs;
+        this.priorityClasses = new ArrayList<PriorityClass<E>>(PRIORITIES.length);
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            this.priorityClasses.add(new PriorityClass<E>());
+        }
+    }
+    
+    /**
+     * Implementations must extract the id of the query the job belongs to. If the id is a {@link JobGroup},
+     * it determines how the job is scheduled, otherwise the job is run with normal priority with the
+     * id as its share key.
+     */
+    protected abstract Object extractJobId(E o);
+
+    private Group<E> getGroup(Object jobId) {
+        Group<E> group = groups.get(jobId);
+        if (group == null) {
+            JobGroup jobGroup = jobId instanceof JobGroup ? (JobGroup)jobId : new JobGroup(jobId, JobGroup.Priority.NORMAL, 1, 0);
+            group = new Group<E>(jobId, jobGroup);
+            groups.put(jobId, group);
+        }
+        return group;
+    }
+    
+    private void releaseGroup(Group<E> group) {
+        if (group.running == 0 && group.queue.isEmpty()) {
+            groups.remove(group.jobId);
+        }
+    }
+    
+    @Override
+    public boolean offer(E o) {
+        if (o == null)
+            throw new NullPointerException();
+
+        final Object jobId = extractJobId(o);
+        synchronized(lock) {
+            if (this.size == this.maxSize) {
+                return false;
+            }
+            Group<E> group = getGroup(jobId);
+            boolean wasIdle = group.queue.isEmpty();
+            group.queue.add(new Entry<E>(o, System.currentTimeMillis()));
+            if (wasIdle) {
+                JobGroup jobGroup = group.jobGroup;
+                PriorityClass<E> priorityClass = priorityClasses.get(jobGroup.getPriority().ordinal());
+                Share<E> share = priorityClass.shares.get(jobGroup.getShareKey());
+                if (share == null) {
+                    // Start at the current virtual time so that a share doesn't build up credit while idle
+                    share = new Share<E>(jobGroup.getShareKey(), jobGroup.getWeight(), priorityClass.virtualTime);
+                    priorityClass.shares.put(share.key, share);
+                }
+                // New queries go to the front of the round-robin list of their share, as this reduces latency.
+                share.groups.addFirst(group);
+            }
+            this.size++;
+            lock.notifyAll();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean offer(E o, long timeout, TimeUnit unit) throws InterruptedException {
+        boolean taken = false;
+        long endAt = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized(lock) {
+            long waitTime = endAt - System.currentTimeMillis();
+            while (!(taken = offer(o)) && waitTime > 0) {
+                this.lock.wait(waitTime);
+                waitTime = endAt - System.currentTimeMillis();
+            }
+        }
+        return taken;
+    }
+
+    @Override
+    public void put(E o) {
+        offer(o);
+    }
+
+    /**
+     * Removes the next job to run.
+     * @param isDrain if true, the job is removed without being run, so the
+     *  maximum concurrency of its query doesn't apply
+     * @return the job or null if no job is queued
+     */
+    private E dequeue(boolean isDrain) {
+        E element = dequeue(isDrain, !isDrain);
+        if (element == null && !isDrain) {
+            // Only queries at their maximum concurrency have jobs queued. Run them anyway
+            // rather than leave the thread idle, as no other job is waiting for it.
+            element = dequeue(false, false);
+        }
+        return element;
+    }
+    
+    private E dequeue(boolean isDrain, boolean enforceMaxConcurrency) {
+        if (this.size == 0) {
+            return null;
+        }
+        for (PriorityClass<E> priorityClass : priorityClasses) {
+            Share<E> share = null;
+            Group<E> group = null;
+            for (Share<E> candidate : priorityClass.shares.values()) {
+                if (share == null || candidate.pass < share.pass) {
+                    Group<E> candidateGroup = candidate.nextGroup(enforceMaxConcurrency);
+                    if (candidateGroup != null) {
+                        share = candidate;
+                        group = candidateGroup;
+                    }
+                }
+            }
+            if (share == null) {
+                continue;
+            }
+            // This is the round robin part. Once we take an element from a query, it
+            // goes to the back of the list of its share.
+            share.groups.remove(group);
+            Entry<E> entry = group.queue.removeFirst();
+            if (!group.queue.isEmpty()) {
+                share.groups.addLast(group);
+            } else if (share.groups.isEmpty()) {
+                priorityClass.shares.remove(share.key);
+            }
+            priorityClass.virtualTime = Math.max(priorityClass.virtualTime, share.pass);
+            share.pass += STRIDE / share.weight;
+            this.size--;
+            if (isDrain) {
+                releaseGroup(group);
+            } else {
+                group.running++;
+                dispatched.add(entry.element);
+                long now = System.currentTimeMillis();
+                long waitMs = now - entry.enqueueTime;
+                priorityClass.dequeuedCount++;
+                priorityClass.totalWaitMs += waitMs;
+                priorityClass.maxWaitMs = Math.max(priorityClass.maxWaitMs, waitMs);
+                logStats(now);
+            }
+            lock.notifyAll();
+            return entry.element;
+        }
+        return null;
+    }
+    
+    /**
+     * Must be called before a job is run, whether or not it went through the queue.
+     */
+    public void beforeExecute(E o) {
+        synchronized(lock) {
+            if (!dispatched.remove(o)) {
+                getGroup(extractJobId(o)).running++;
+            }
+        }
+    }
+    
+    /**
+     * Must be called after a job has been run, so that the other jobs of its query may run.
+     */
+    public void afterExecute(E o) {
+        synchronized(lock) {
+            Group<E> group = groups.get(extractJobId(o));
+            if (group != null) {
+                group.running--;
+                releaseGroup(group);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        synchronized(lock) {
+            E element;
+            while ((element = dequeue(false)) == null) {
+                this.lock.wait();
+            }
+            return element;
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long endAt = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized(lock) {
+            E element;
+            long waitTime = endAt - System.currentTimeMillis();
+            while ((element = dequeue(false)) == null && waitTime > 0) {
+                this.lock.wait(waitTime);
+                waitTime = endAt - System.currentTimeMillis();
+            }
+            return element;
+        }
+    }
+
+    @Override
+    public E poll() {
+        synchronized(lock) {
+            return dequeue(false);
+        }
+    }
+
+    @Override
+    public E peek() {
+        synchronized(lock) {
+            for (PriorityClass<E> priorityClass : priorityClasses) {
+                for (Share<E> share : priorityClass.shares.values()) {
+                    return share.groups.getFirst().queue.getFirst().element;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        synchronized(lock) {
+            ArrayList<E> allElements = new ArrayList<E>(this.size);
+            for (PriorityClass<E> priorityClass : priorityClasses) {
+                for (Share<E> share : priorityClass.shares.values()) {
+                    for (Group<E> group : share.groups) {
+                        for (Entry<E> entry : group.queue) {
+                            allElements.add(entry.element);
+                        }
+                    }
+                }
+            }
+            return allElements.iterator();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+
+        synchronized(this.lock) {
+            int i = 0;
+            while(i < maxElements) {
+                E element = dequeue(true);
+                if (element != null) {
+                    c.add(element);
+                    i++;
+                } else {
+                    break;
+                }
+            }
+            return i;
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        synchronized(this.lock) {
+            return this.maxSize - this.size;
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized(this.lock) {
+            return this.size;
+        }
+    }
+    
+    /**
+     * @return the number of jobs of the priority class that have been dequeued to run
+     */
+    public long getDequeuedCount(JobGroup.Priority priority) {
+        synchronized(this.lock) {
+            return priorityClasses.get(priority.ordinal()).dequeuedCount;
+        }
+    }
+    
+    /**
+     * @return the total time the jobs of the priority class that have been dequeued
+     * to run spent waiting in the queue
+     */
+    public long getTotalWaitMs(JobGroup.Priority priority) {
+        synchronized(this.lock) {
+            return priorityClasses.get(priority.ordinal()).totalWaitMs;
+        }
+    }
+    
+    /**
+     * @return the longest time a job of the priority class spent waiting in the queue
+     */
+    public long getMaxWaitMs(JobGroup.Priority priority) {
+        synchronized(this.lock) {
+            return priorityClasses.get(priority.ordinal()).maxWaitMs;
+        }
+    }
+    
+    private void logStats(long now) {
+        if (statsLogIntervalMs <= 0 || now - lastStatsLogTime < statsLogIntervalMs || !logger.isDebugEnabled()) {
+            return;
+        }
+        lastStatsLogTime = now;
+        StringBuilder buf = new StringBuilder("Jobs dequeued to run by priority since start:");
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            PriorityClass<E> priorityClass = priorityClasses.get(i);
+            buf.append(' ').append(PRIORITIES[i]).append("(count=").append(priorityClass.dequeuedCount)
+                .append(", avgWaitMs=").append(priorityClass.dequeuedCount == 0 ? 0 : priorityClass.totalWaitMs / priorityClass.dequeuedCount)
+                .append(", maxWaitMs=").append(priorityClass.maxWaitMs).append(')');
+        }
+        logger.debug(buf.toString());
+    }
+    
+    private static class Entry<E> {
+        private final E element;
+        private final long enqueueTime;
+        
+        private Entry(E element, long enqueueTime) {
+            this.element = element;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+    
+    private static class Group<E> {
+        private final Object jobId;
+        private final JobGroup jobGroup;
+        private final LinkedList<Entry<E>> queue = new LinkedList<Entry<E>>();
+        private int running;
+        
+        private Group(Object jobId, JobGroup jobGroup) {
+            this.jobId = jobId;
+            this.jobGroup = jobGroup;
+        }
+        
+        private boolean canRun() {
+            return jobGroup.getMaxConcurrency() <= 0 || running < jobGroup.getMaxConcurrency();
+        }
+    }
+    
+    private static class Share<E> {
+        private final Object key;
+        private final int weight;
+        private long pass;
+        // Queries of the share with queued jobs in round-robin order
+        private final LinkedList<Group<E>> groups = new LinkedList<Group<E>>();
+        
+        private Share(Object key, int weight, long pass) {
+            this.key = key;
+            this.weight = weight;
+            this.pass = pass;
+        }
+        
+        private Group<E> nextGroup(boolean enforceMaxConcurrency) {
+            for (Group<E> group : groups) {
+                if (!enforceMaxConcurrency || group.canRun()) {
+                    return group;
+                }
+            }
+            return null;
+        }
+    }
+    
+    private static class PriorityClass<E> {
+        private final Map<Object,Share<E>> shares = new HashMap<Object,Share<E>>();
+        private long virtualTime;
+        private long dequeuedCount;
+        private long totalWaitMs;
+        private long maxWaitMs;
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.job;
+
+/**
+ * 
+ * Identifies the jobs submitted on behalf of one query and determines how they are scheduled
+ * relative to the jobs of other queries. Returned by {@link JobManager.JobCallable#getJobId()}
+ * for jobs that aren't scheduled with the default settings.
+ *
+ * @since 3.0.0
+ */
+public class JobGroup {
+    /**
+     * Priority classes of queries. Jobs of a higher priority class are always run before
+     * the queued jobs of a lower priority class.
+     */
+    public enum Priority {
+        /**
+         * Interactive queries, such as point lookups, that should not wait behind scans.
+         */
+        HIGH,
+        NORMAL,
+        /**
+         * Analytical or batch queries that only use threads not needed by other queries.
+         */
+        LOW;
+        
+        /**
+         * @return the priority class with the given name, ignoring case
+         * @throws IllegalArgumentException if there's no priority class with the name
+         */
+        public static Priority fromName(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    };
+    
+    private final Object shareKey;
+    private final Priority priority;
+    private final int weight;
+    private final int maxConcurrency;
+
+    /**
+     * @param shareKey the key, for example a tenant or a connection, through which the threads
+     *  of a priority class are shared fairly, with the jobs of all queries with the same key
+     *  getting a single share
+     * @param priority the priority class of the query
+     * @param weight the relative size of the share of the key
+     * @param maxConcurrency the maximum number of jobs of the query that may run at the same
+     *  time while other jobs are waiting, or 0 if unlimited
+     */
+    public JobGroup(Object shareKey, Priority priority, int weight, int maxConcurrency) {
+        this.shareKey = shareKey;
+        this.priority = priority;
+        this.weight = Math.max(1, weight);
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public Object getShareKey() {
+        return shareKey;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public String toString() {
+        return "JobGroup [shareKey=" + shareKey + ", priority=" + priority + ", weight=" + weight + ", maxConcurrency=" + maxConcurrency + "]";
+    }
+}
@@ -40,17 +40,21 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * @since 0.1
  */
 @SuppressWarnings("rawtypes")
-public class JobManager<T> extends AbstractRoundRobinQueue<T> {
+public class JobManager<T> extends AbstractFairShareQueue<T> {
 	
     private static final AtomicLong PHOENIX_POOL_INDEX = new AtomicLong(1);
 	
     public JobManager(int maxSize) {
-        super(maxSize, true); // true -> new producers move to front of queue; this reduces latency.
+        super(maxSize);
+    }
+
+    public JobManager(int maxSize, long statsLogIntervalMs) {
+        super(maxSize, statsLogIntervalMs);
     }
 
 	@Override
-    protected Object extractProducer(T o) {
-        return ((JobFutureTask)o).getJobId();
+    protected Object extractJobId(T o) {
+        return o instanceof JobFutureTask ? ((JobFutureTask)o).getJobId() : o;
     }        
 
     public static interface JobRunnable<T> extends Runnable {
@@ -58,11 +62,20 @@ public class JobManager<T> extends AbstractRoundRobinQueue<T> {
     }
 
     public static ThreadPoolExecutor createThreadPoolExec(int keepAliveMs, int size, int queueSize) {
+        return createThreadPoolExec(keepAliveMs, size, queueSize, 0);
+    }
+
+    /**
+     * @param statsLogIntervalMs minimum time between debug logs of the time jobs spent in the queue, or 0 for none
+     */
+    public static ThreadPoolExecutor createThreadPoolExec(int keepAliveMs, int size, int queueSize, long statsLogIntervalMs) {
         BlockingQueue<Runnable> queue;
+        final JobManager<Runnable> jobManager;
         if (queueSize == 0) {
             queue = new SynchronousQueue<Runnable>(); // Specialized for 0 length.
+            jobManager = null;
         } else {
-            queue = new JobManager<Runnable>(queueSize);
+            queue = jobManager = new JobManager<Runnable>(queueSize, statsLogIntervalMs);
         }
         ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(
 				"phoenix-" + PHOENIX_POOL_INDEX.getAndIncrement()
@@ -80,6 +93,21 @@ public class JobManager<T> extends AbstractRoundRobinQueue<T> {
                 return new JobFutureTask<T>((JobRunnable)runnable, value);
             }
             
+            // Track the running jobs of each query, so that the queue may enforce their maximum concurrency
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                if (jobManager != null) {
+                    jobManager.beforeExecute(r);
+                }
+            }
+
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                if (jobManager != null) {
+                    jobManager.afterExecute(r);
+                }
+            }
+            
         };
         
         exec.allowCoreThreadTimeOut(true); // ... and allow core threads to time out.  This just keeps things clean when idle, and is nice for ftests modes, etc., where we'd especially like these not to linger.
@@ -87,7 +115,7 @@ public class JobManager<T> extends AbstractRoundRobinQueue<T> {
     }
 
     /**
-     * Subclasses FutureTask for the sole purpose of providing {@link #getCallable()}, which is used to extract the producer in the {@link JobBasedRoundRobinQueue}
+     * Subclasses FutureTask for the sole purpose of providing {@link #getCallable()}, which is used to extract the job id in the {@link AbstractFairShareQueue}
      */
     static class JobFutureTask<T> extends FutureTask<T> {
         private final Object jobId;
@@ -31,12 +31,14 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.WritableUtils;
 import org.xerial.snappy.Snappy;
 
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.cache.ServerCacheClient;
 import com.salesforce.phoenix.cache.ServerCacheClient.ServerCache;
 import com.salesforce.phoenix.compile.ScanRanges;
@@ -81,15 +83,27 @@ public class HashCacheClient  {
      * size
      */
     public ServerCache addHashCache(ScanRanges keyRanges, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions, TableRef cacheUsingTableRef) throws SQLException {
+        return addHashCache(keyRanges, iterator, estimatedSize, onExpressions, cacheUsingTableRef, null, null);
+    }
+    
+    /**
+     * Same as {@link #addHashCache(ScanRanges, ResultIterator, long, List, TableRef)}, but
+     * also collects the distinct values of the given key expression over the cached rows.
+     * Values stop being collected once there are more than the maximum number of skip scan keys
+     * of a hash join, since the scan is then not narrowed down to them anyway.
+     * @param keyRangeRhsExpression expression evaluated against each cached row, or null
+     * @param keyRangeRhsValues set into which the non null values of keyRangeRhsExpression are added
+     */
+    public ServerCache addHashCache(ScanRanges keyRanges, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions, TableRef cacheUsingTableRef, Expression keyRangeRhsExpression, Set<ImmutableBytesPtr> keyRangeRhsValues) throws SQLException {
         /**
          * Serialize and compress hashCacheTable
          */
         ImmutableBytesWritable ptr = new ImmutableBytesWritable();
-        serialize(ptr, iterator, estimatedSize, onExpressions);
+        serialize(ptr, iterator, estimatedSize, onExpressions, keyRangeRhsExpression, keyRangeRhsValues);
         return serverCache.addServerCache(keyRanges, ptr, new HashCacheFactory(), cacheUsingTableRef);
     }
     
-    private void serialize(ImmutableBytesWritable ptr, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions) throws SQLException {
+    private void serialize(ImmutableBytesWritable ptr, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions, Expression keyRangeRhsExpression, Set<ImmutableBytesPtr> keyRangeRhsValues) throws SQLException {
         long maxSize = serverCache.getConnection().getQueryServices().getProps().getLong(QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_SIZE);
         estimatedSize = Math.min(estimatedSize, maxSize);
         if (estimatedSize > Integer.MAX_VALUE) {
@@ -108,13 +122,21 @@ public class HashCacheClient  {
             out.writeInt(exprSize);
             int nRows = 0;
             out.writeInt(nRows); // In the end will be replaced with total number of rows            
+            ImmutableBytesWritable tempPtr = new ImmutableBytesWritable();
+            int maxKeys = serverCache.getConnection().getQueryServices().getProps().getInt(QueryServices.MAX_HASH_JOIN_SKIP_SCAN_KEYS_ATTRIB, QueryServicesOptions.DEFAULT_MAX_HASH_JOIN_SKIP_SCAN_KEYS);
             for (Tuple result = iterator.next(); result != null; result = iterator.next()) {
                 TupleUtil.write(result, out);
+                if (keyRangeRhsExpression != null && keyRangeRhsValues.size() <= maxKeys
+                        && keyRangeRhsExpression.evaluate(result, tempPtr) && tempPtr.getLength() > 0) {
+                    keyRangeRhsValues.add(new ImmutableBytesPtr(tempPtr.copyBytes()));
+                }
                 if (baOut.size() > maxSize) {
                     throw new MaxServerCacheSizeExceededException("Size of hash cache (" + baOut.size() + " bytes) exceeds the maximum allowed size (" + maxSize + " bytes)");
                 }
                 nRows++;
             }
+            boolean isOffHeap = serverCache.getConnection().getQueryServices().getProps().getBoolean(QueryServices.HASH_CACHE_OFF_HEAP_ATTRIB, QueryServicesOptions.DEFAULT_HASH_CACHE_OFF_HEAP);
+            HashCacheFactory.writeTrailer(out, isOffHeap);
             TrustedByteArrayOutputStream sizeOut = new TrustedByteArrayOutputStream(Bytes.SIZEOF_INT);
             DataOutputStream dataOut = new DataOutputStream(sizeOut);
             try {
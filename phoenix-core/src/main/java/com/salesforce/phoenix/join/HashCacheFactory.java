@@ -28,11 +28,13 @@
 package com.salesforce.phoenix.join;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.sql.SQLException;
 import java.util.*;
 
 import net.jcip.annotations.Immutable;
 
+import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -44,12 +46,20 @@ import com.salesforce.phoenix.cache.HashCache;
 import com.salesforce.phoenix.coprocessor.ServerCachingProtocol.ServerCacheFactory;
 import com.salesforce.phoenix.expression.Expression;
 import com.salesforce.phoenix.expression.ExpressionType;
+import com.salesforce.phoenix.memory.MemoryManager;
 import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
 import com.salesforce.phoenix.schema.tuple.ResultTuple;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.*;
 
 public class HashCacheFactory implements ServerCacheFactory {
+    /*
+     * The rows of a serialized hash cache may be followed by a trailer with the version of
+     * the format and its flags. A region server predating the trailer stops reading after
+     * the rows, while a cache without a trailer was sent by a client predating it.
+     */
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte OFF_HEAP_FLAG = 0x01;
 
     public HashCacheFactory() {
     }
@@ -62,74 +72,259 @@ public class HashCacheFactory implements ServerCacheFactory {
     public void write(DataOutput output) throws IOException {
     }
 
+    /**
+     * Write the trailer that follows the rows of a serialized hash cache.
+     * @param output the serialized hash cache
+     * @param isOffHeap whether the hash cache is to be kept outside of the Java heap of the region server
+     */
+    static void writeTrailer(DataOutput output, boolean isOffHeap) throws IOException {
+        output.writeByte(FORMAT_VERSION);
+        output.writeByte(isOffHeap ? OFF_HEAP_FLAG : 0);
+    }
+
     @Override
-    public Closeable newCache(ImmutableBytesWritable cachePtr, MemoryChunk chunk) throws SQLException {
+    public Closeable newCache(ImmutableBytesWritable cachePtr, MemoryChunk chunk, MemoryManager offHeapMemoryManager) throws SQLException {
         try {
             int size = Snappy.uncompressedLength(cachePtr.get());
             byte[] uncompressed = new byte[size];
             Snappy.uncompress(cachePtr.get(), 0, cachePtr.getLength(), uncompressed, 0);
-            return new HashCacheImpl(uncompressed, chunk);
+            return new HashCacheImpl(uncompressed, chunk, offHeapMemoryManager);
         } catch (IOException e) {
             throw ServerUtil.parseServerException(e);
         }
     }
 
+    /**
+     * 
+     * Hash cache that keeps the serialized rows in a single buffer, optionally allocated
+     * off of the Java heap, along with an open addressing hash index over the join keys.
+     * The buffer is laid out as follows:
+     * 1) the hash slots, each holding the key number plus one of the key hashing to it, or zero if empty.
+     * 2) an entry per distinct key with the key hash, offset, length, first row number, and total length of its rows.
+     * 3) an entry per row with the row offset, length, and next row number with the same key, or -1.
+     * 4) the bytes of the distinct keys followed by the bytes of the rows, grouped by key.
+     * Rows are only materialized into a {@link Tuple} for a matching key. The size of the buffer
+     * is reported to the {@link MemoryChunk} of the cache if the buffer is on the heap and to a
+     * chunk of the off heap memory manager otherwise.
+     */
     @Immutable
-    private class HashCacheImpl implements HashCache {
-        private final Map<ImmutableBytesPtr,List<Tuple>> hashCache;
+    private static class HashCacheImpl implements HashCache {
+        private static final int KEY_ENTRY_SIZE = 5 * Bytes.SIZEOF_INT;
+        private static final int ROW_ENTRY_SIZE = 3 * Bytes.SIZEOF_INT;
+        private final ByteBuffer buffer;
+        private final int slotMask;
+        private final int keyEntriesOffset;
+        private final int rowEntriesOffset;
         private final MemoryChunk memoryChunk;
+        private final MemoryChunk offHeapMemoryChunk;
         
-        private HashCacheImpl(byte[] hashCacheBytes, MemoryChunk memoryChunk) {
-            try {
-                this.memoryChunk = memoryChunk;
-                byte[] hashCacheByteArray = hashCacheBytes;
-                int offset = 0;
-                ByteArrayInputStream input = new ByteArrayInputStream(hashCacheByteArray, offset, hashCacheBytes.length);
-                DataInputStream dataInput = new DataInputStream(input);
-                int nExprs = dataInput.readInt();
-                List<Expression> onExpressions = new ArrayList<Expression>(nExprs);
-                for (int i = 0; i < nExprs; i++) {
-                    int expressionOrdinal = WritableUtils.readVInt(dataInput);
-                    Expression expression = ExpressionType.values()[expressionOrdinal].newInstance();
-                    expression.readFields(dataInput);
-                    onExpressions.add(expression);                        
+        private HashCacheImpl(byte[] hashCacheBytes, MemoryChunk memoryChunk, MemoryManager offHeapMemoryManager) throws IOException {
+            this.memoryChunk = memoryChunk;
+            byte[] hashCacheByteArray = hashCacheBytes;
+            int offset = 0;
+            ByteArrayInputStream input = new ByteArrayInputStream(hashCacheByteArray, offset, hashCacheBytes.length);
+            DataInputStream dataInput = new DataInputStream(input);
+            int nExprs = dataInput.readInt();
+            List<Expression> onExpressions = new ArrayList<Expression>(nExprs);
+            for (int i = 0; i < nExprs; i++) {
+                int expressionOrdinal = WritableUtils.readVInt(dataInput);
+                Expression expression = ExpressionType.values()[expressionOrdinal].newInstance();
+                expression.readFields(dataInput);
+                onExpressions.add(expression);                        
+            }
+            int exprSize = dataInput.readInt();
+            offset += exprSize;
+            int nRows = dataInput.readInt();
+            offset += Bytes.SIZEOF_INT;
+            // Evaluate the hash key of each row and group the rows by distinct key
+            int[] rowOffsets = new int[nRows];
+            int[] rowLengths = new int[nRows];
+            int[] nextRows = new int[nRows];
+            int[] keyFirstRows = new int[nRows];
+            int[] keyLastRows = new int[nRows];
+            int[] keyRowBytes = new int[nRows];
+            ImmutableBytesPtr[] keys = new ImmutableBytesPtr[nRows];
+            int[] slots = new int[getSlotCount(nRows)];
+            int nKeys = 0;
+            int keyBytes = 0;
+            int rowBytes = 0;
+            for (int i = 0; i < nRows; i++) {
+                int resultSize = (int)Bytes.readVLong(hashCacheByteArray, offset);
+                offset += WritableUtils.decodeVIntSize(hashCacheByteArray[offset]);
+                ImmutableBytesWritable value = new ImmutableBytesWritable(hashCacheByteArray,offset,resultSize);
+                Tuple result = new ResultTuple(new Result(value));
+                ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(result, onExpressions);
+                rowOffsets[i] = offset;
+                rowLengths[i] = resultSize;
+                nextRows[i] = -1;
+                rowBytes += resultSize;
+                int slot = findSlot(slots, keys, key);
+                int keyIndex;
+                if (slots[slot] == 0) {
+                    keyIndex = nKeys;
+                    keys[nKeys] = key;
+                    keyFirstRows[nKeys] = i;
+                    keyBytes += key.getLength();
+                    slots[slot] = ++nKeys;
+                } else {
+                    keyIndex = slots[slot] - 1;
+                    nextRows[keyLastRows[keyIndex]] = i;
+                }
+                keyLastRows[keyIndex] = i;
+                keyRowBytes[keyIndex] += resultSize;
+                offset += resultSize;
+            }
+            boolean isOffHeap = false;
+            if (offset < hashCacheBytes.length) {
+                byte version = hashCacheByteArray[offset];
+                if (version > FORMAT_VERSION) {
+                    throw new DoNotRetryIOException("Hash cache format version " + version + " is not supported by this region server, which supports up to version " + FORMAT_VERSION);
+                }
+                isOffHeap = (hashCacheByteArray[offset + 1] & OFF_HEAP_FLAG) != 0;
+            }
+            int nSlots = getSlotCount(nKeys);
+            this.slotMask = nSlots - 1;
+            this.keyEntriesOffset = nSlots * Bytes.SIZEOF_INT;
+            this.rowEntriesOffset = keyEntriesOffset + nKeys * KEY_ENTRY_SIZE;
+            int keyBytesOffset = rowEntriesOffset + nRows * ROW_ENTRY_SIZE;
+            int rowBytesOffset = keyBytesOffset + keyBytes;
+            int size = rowBytesOffset + rowBytes;
+            if (isOffHeap) {
+                this.offHeapMemoryChunk = offHeapMemoryManager.allocate(size);
+                this.buffer = ByteBuffer.allocateDirect(size);
+            } else {
+                this.offHeapMemoryChunk = null;
+                this.memoryChunk.resize(size);
+                this.buffer = ByteBuffer.allocate(size);
+            }
+            // Copy the distinct keys and build the hash index over them
+            for (int i = 0; i < nKeys; i++) {
+                ImmutableBytesPtr key = keys[i];
+                int hash = key.hashCode();
+                int slot = hash(hash) & slotMask;
+                while (buffer.getInt(slot * Bytes.SIZEOF_INT) != 0) {
+                    slot = (slot + 1) & slotMask;
                 }
-                int exprSize = dataInput.readInt();
-                offset += exprSize;
-                int nRows = dataInput.readInt();
-                int estimatedSize = SizedUtil.sizeOfMap(nRows, SizedUtil.IMMUTABLE_BYTES_WRITABLE_SIZE, SizedUtil.RESULT_SIZE) + hashCacheBytes.length;
-                this.memoryChunk.resize(estimatedSize);
-                HashMap<ImmutableBytesPtr,List<Tuple>> hashCacheMap = new HashMap<ImmutableBytesPtr,List<Tuple>>(nRows * 5 / 4);
-                offset += Bytes.SIZEOF_INT;
-                // Build Map with evaluated hash key as key and row as value
-                for (int i = 0; i < nRows; i++) {
-                    int resultSize = (int)Bytes.readVLong(hashCacheByteArray, offset);
-                    offset += WritableUtils.decodeVIntSize(hashCacheByteArray[offset]);
-                    ImmutableBytesWritable value = new ImmutableBytesWritable(hashCacheByteArray,offset,resultSize);
-                    Tuple result = new ResultTuple(new Result(value));
-                    ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(result, onExpressions);
-                    List<Tuple> tuples = hashCacheMap.get(key);
-                    if (tuples == null) {
-                        tuples = new ArrayList<Tuple>(1);
-                        hashCacheMap.put(key, tuples);
-                    }
-                    tuples.add(result);
-                    offset += resultSize;
+                buffer.putInt(slot * Bytes.SIZEOF_INT, i + 1);
+                int keyEntryOffset = keyEntriesOffset + i * KEY_ENTRY_SIZE;
+                buffer.putInt(keyEntryOffset, hash);
+                buffer.putInt(keyEntryOffset + Bytes.SIZEOF_INT, keyBytesOffset);
+                buffer.putInt(keyEntryOffset + 2 * Bytes.SIZEOF_INT, key.getLength());
+                buffer.putInt(keyEntryOffset + 3 * Bytes.SIZEOF_INT, keyFirstRows[i]);
+                buffer.putInt(keyEntryOffset + 4 * Bytes.SIZEOF_INT, keyRowBytes[i]);
+                buffer.position(keyBytesOffset);
+                buffer.put(key.get(), key.getOffset(), key.getLength());
+                keyBytesOffset += key.getLength();
+                // Copy the rows of the key next to each other, so that they may be read at once
+                for (int row = keyFirstRows[i]; row >= 0; row = nextRows[row]) {
+                    int rowEntryOffset = rowEntriesOffset + row * ROW_ENTRY_SIZE;
+                    buffer.putInt(rowEntryOffset, rowBytesOffset);
+                    buffer.putInt(rowEntryOffset + Bytes.SIZEOF_INT, rowLengths[row]);
+                    buffer.putInt(rowEntryOffset + 2 * Bytes.SIZEOF_INT, nextRows[row]);
+                    buffer.position(rowBytesOffset);
+                    buffer.put(hashCacheByteArray, rowOffsets[row], rowLengths[row]);
+                    rowBytesOffset += rowLengths[row];
                 }
-                this.hashCache = Collections.unmodifiableMap(hashCacheMap);
-            } catch (IOException e) { // Not possible with ByteArrayInputStream
-                throw new RuntimeException(e);
             }
+            buffer.clear();
+            if (isOffHeap) {
+                // Nothing but the buffer is kept once the cache is built
+                this.memoryChunk.resize(0);
+            }
+        }
+        
+        /**
+         * Get a power of two number of slots that keeps the load factor of the hash index below 0.75
+         */
+        private static int getSlotCount(int nKeys) {
+            return Integer.highestOneBit(Math.max(1, nKeys * 4 / 3) * 2);
+        }
+        
+        /**
+         * Spread the higher bits of the hash code, since we only use the lower ones to pick a slot
+         */
+        private static int hash(int hashCode) {
+            return hashCode ^ (hashCode >>> 16);
+        }
+        
+        private static int findSlot(int[] slots, ImmutableBytesPtr[] keys, ImmutableBytesPtr key) {
+            int mask = slots.length - 1;
+            int slot = hash(key.hashCode()) & mask;
+            while (slots[slot] != 0 && !keys[slots[slot] - 1].equals(key)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
         }
 
+        private boolean keyEquals(int keyEntryOffset, ImmutableBytesPtr key) {
+            int length = buffer.getInt(keyEntryOffset + 2 * Bytes.SIZEOF_INT);
+            if (length != key.getLength()) {
+                return false;
+            }
+            int keyOffset = buffer.getInt(keyEntryOffset + Bytes.SIZEOF_INT);
+            byte[] b = key.get();
+            int o = key.getOffset();
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(keyOffset + i) != b[o + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
         @Override
         public void close() {
-            memoryChunk.close();
+            try {
+                memoryChunk.close();
+            } finally {
+                if (offHeapMemoryChunk != null) {
+                    offHeapMemoryChunk.close();
+                }
+            }
         }
         
         @Override
         public List<Tuple> get(ImmutableBytesPtr hashKey) {
-            return hashCache.get(hashKey);
+            int hash = hashKey.hashCode();
+            int slot = hash(hash) & slotMask;
+            int keyNumber;
+            while ((keyNumber = buffer.getInt(slot * Bytes.SIZEOF_INT)) != 0) {
+                int keyEntryOffset = keyEntriesOffset + (keyNumber - 1) * KEY_ENTRY_SIZE;
+                if (buffer.getInt(keyEntryOffset) == hash && keyEquals(keyEntryOffset, hashKey)) {
+                    return getRows(keyEntryOffset);
+                }
+                slot = (slot + 1) & slotMask;
+            }
+            return null;
+        }
+        
+        private List<Tuple> getRows(int keyEntryOffset) {
+            int rowNumber = buffer.getInt(keyEntryOffset + 3 * Bytes.SIZEOF_INT);
+            byte[] rows;
+            int rowsOffset;
+            if (buffer.hasArray()) {
+                // Materialize the rows directly over the buffer of the cache
+                rows = buffer.array();
+                rowsOffset = buffer.arrayOffset();
+            } else {
+                // Copy the rows of the key, which are next to each other, in a single read.
+                // A duplicate is used, since the buffer position may not be shared across threads.
+                int firstRowOffset = buffer.getInt(rowEntriesOffset + rowNumber * ROW_ENTRY_SIZE);
+                rows = new byte[buffer.getInt(keyEntryOffset + 4 * Bytes.SIZEOF_INT)];
+                ByteBuffer rowBuffer = buffer.duplicate();
+                rowBuffer.position(firstRowOffset);
+                rowBuffer.get(rows);
+                rowsOffset = -firstRowOffset;
+            }
+            List<Tuple> tuples = new ArrayList<Tuple>(1);
+            while (rowNumber >= 0) {
+                int rowEntryOffset = rowEntriesOffset + rowNumber * ROW_ENTRY_SIZE;
+                int rowOffset = rowsOffset + buffer.getInt(rowEntryOffset);
+                int rowLength = buffer.getInt(rowEntryOffset + Bytes.SIZEOF_INT);
+                tuples.add(new ResultTuple(new Result(new ImmutableBytesWritable(rows, rowOffset, rowLength))));
+                rowNumber = buffer.getInt(rowEntryOffset + 2 * Bytes.SIZEOF_INT);
+            }
+            return tuples;
         }
     }
 }
@@ -68,7 +68,7 @@ public class HashJoinInfo {
     	return schemas;
     }
     
-    private static KeyValueSchema buildSchema(PTable table) {
+    public static KeyValueSchema buildSchema(PTable table) {
     	KeyValueSchemaBuilder builder = new KeyValueSchemaBuilder(0);
     	if (table != null) {
     	    for (PColumn column : table.getColumns()) {
@@ -223,6 +223,34 @@ public class ScanProjector {
             throw new IOException("Trying to decode a non-projected value.");
     }
     
+    /**
+     * Re-encode a projected value, whose value bit set was built against its own schema,
+     * using the value bit set of a wider schema that starts with the same fields, so that
+     * the values of other tables can subsequently be merged into it.
+     */
+    public static ProjectedValueTuple toProjectedValueTuple(Tuple tuple, KeyValueSchema srcSchema, ValueBitSet srcBitSet, ValueBitSet destBitSet) throws IOException {
+        ImmutableBytesWritable srcValue = new ImmutableBytesWritable();
+        decodeProjectedValue(tuple, srcValue);
+        srcBitSet.clear();
+        srcBitSet.or(srcValue);
+        int origSrcBitSetLen = srcBitSet.getEstimatedLength();
+        destBitSet.clear();
+        if (srcBitSet != ValueBitSet.EMPTY_VALUE_BITSET) {
+            int nBits = srcSchema.getFieldCount() - srcSchema.getMinNullable();
+            for (int i = 0; i < nBits; i++) {
+                if (srcBitSet.get(i)) {
+                    destBitSet.set(i);
+                }
+            }
+        }
+        int destBitSetLen = destBitSet.getEstimatedLength();
+        byte[] value = new byte[srcValue.getLength() - origSrcBitSetLen + destBitSetLen];
+        int o = Bytes.putBytes(value, 0, srcValue.get(), srcValue.getOffset(), srcValue.getLength() - origSrcBitSetLen);
+        destBitSet.toBytes(value, o);
+        KeyValue kv = tuple.getValue(0);
+        return new ProjectedValueTuple(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp(), value, destBitSetLen);
+    }
+    
     public static ProjectedValueTuple mergeProjectedValue(ProjectedValueTuple dest, KeyValueSchema destSchema, ValueBitSet destBitSet,
     		Tuple src, KeyValueSchema srcSchema, ValueBitSet srcBitSet, int offset) throws IOException {
     	ImmutableBytesWritable destValue = new ImmutableBytesWritable(dest.getProjectedValue());
@@ -27,7 +27,12 @@
  ******************************************************************************/
 package com.salesforce.phoenix.memory;
 
-import org.apache.http.annotation.GuardedBy;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,6 +40,10 @@ import org.slf4j.LoggerFactory;
 /**
  * 
  * Global memory manager to track course grained memory usage across all requests.
+ * Memory is allocated by compare-and-set on the number of used bytes, so that allocations
+ * don't contend on a lock. Allocations that have to wait for memory to be freed are queued
+ * and served in order, with only the waiter at the head of the queue being woken up when
+ * memory is freed.
  *
  * @author jtaylor
  * @since 0.1
@@ -42,11 +51,10 @@ import org.slf4j.LoggerFactory;
 public class GlobalMemoryManager implements MemoryManager {
     private static final Logger logger = LoggerFactory.getLogger(GlobalMemoryManager.class);
     
-    private final Object sync = new Object();
     private final long maxMemoryBytes;
     private final int maxWaitMs;
-    @GuardedBy("sync")
-    private volatile long usedMemoryBytes;
+    private final AtomicLong usedMemoryBytes;
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
     
     public GlobalMemoryManager(long maxBytes, int maxWaitMs) {
         if (maxBytes <= 0) {
@@ -57,14 +65,12 @@ public class GlobalMemoryManager implements MemoryManager {
         }
         this.maxMemoryBytes = maxBytes;
         this.maxWaitMs = maxWaitMs;
-        this.usedMemoryBytes = 0;
+        this.usedMemoryBytes = new AtomicLong();
     }
     
     @Override
     public long getAvailableMemory() {
-        synchronized(sync) {
-            return maxMemoryBytes - usedMemoryBytes;
-        }
+        return maxMemoryBytes - usedMemoryBytes.get();
     }
 
     @Override
@@ -72,8 +78,36 @@ public class GlobalMemoryManager implements MemoryManager {
         return maxMemoryBytes;
     }
 
-
-    // TODO: Work on fairness: One big memory request can cause all others to block here.
+    /**
+     * Allocate at most reqBytes, but at least minBytes, without waiting.
+     * @return the number of bytes allocated or -1 if minBytes are not available
+     */
+    private long tryAllocateBytes(long minBytes, long reqBytes) {
+        while (true) {
+            long usedBytes = usedMemoryBytes.get();
+            long availBytes = maxMemoryBytes - usedBytes;
+            if (availBytes < minBytes) {
+                return -1;
+            }
+            long nBytes = Math.min(reqBytes, availBytes);
+            if (usedMemoryBytes.compareAndSet(usedBytes, usedBytes + nBytes)) {
+                return nBytes;
+            }
+        }
+    }
+    
+    private void freeBytes(long nBytes) {
+        usedMemoryBytes.addAndGet(-nBytes);
+        wakeUpNextWaiter();
+    }
+    
+    private void wakeUpNextWaiter() {
+        Thread waiter = waiters.peek();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+    
     private long allocateBytes(long minBytes, long reqBytes) {
         if (minBytes < 0 || reqBytes < 0) {
             throw new IllegalStateException("Minimum requested bytes (" + minBytes + ") and requested bytes (" + reqBytes + ") must be greater than zero");
@@ -81,28 +115,42 @@ public class GlobalMemoryManager implements MemoryManager {
         if (minBytes > maxMemoryBytes) { // No need to wait, since we'll never have this much available
             throw new InsufficientMemoryException("Requested memory of " + minBytes + " bytes is larger than global pool of " + maxMemoryBytes + " bytes.");
         }
-        long startTimeMs = System.currentTimeMillis(); // Get time outside of sync block to account for waiting for lock
-        long nBytes;
-        synchronized(sync) {
-            while (usedMemoryBytes + minBytes > maxMemoryBytes) { // Only wait if minBytes not available
-                try {
-                    long remainingWaitTimeMs = maxWaitMs - (System.currentTimeMillis() - startTimeMs);
-                    if (remainingWaitTimeMs <= 0) { // Ran out of time waiting for some memory to get freed up
-                        throw new InsufficientMemoryException("Requested memory of " + minBytes + " bytes could not be allocated from remaining memory of " + usedMemoryBytes + " bytes from global pool of " + maxMemoryBytes + " bytes after waiting for " + maxWaitMs + "ms.");
+        // Don't jump ahead of threads already waiting, so that a big request isn't starved by smaller ones
+        if (waiters.isEmpty()) {
+            long nBytes = tryAllocateBytes(minBytes, reqBytes);
+            if (nBytes >= 0) {
+                return nBytes;
+            }
+        }
+        return waitForBytes(minBytes, reqBytes);
+    }
+    
+    private long waitForBytes(long minBytes, long reqBytes) {
+        long startTimeMs = System.currentTimeMillis();
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+        try {
+            while (true) {
+                if (waiters.peek() == current) {
+                    long nBytes = tryAllocateBytes(minBytes, reqBytes);
+                    if (nBytes >= 0) {
+                        return nBytes;
                     }
-                    sync.wait(remainingWaitTimeMs);
-                } catch (InterruptedException ie) {
-                    throw new RuntimeException("Interrupted allocation of " + minBytes + " bytes", ie);
+                }
+                long remainingWaitTimeMs = maxWaitMs - (System.currentTimeMillis() - startTimeMs);
+                if (remainingWaitTimeMs <= 0) { // Ran out of time waiting for some memory to get freed up
+                    throw new InsufficientMemoryException("Requested memory of " + minBytes + " bytes could not be allocated from remaining memory of " + usedMemoryBytes.get() + " bytes from global pool of " + maxMemoryBytes + " bytes after waiting for " + maxWaitMs + "ms.");
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remainingWaitTimeMs));
+                if (Thread.interrupted()) {
+                    throw new RuntimeException("Interrupted allocation of " + minBytes + " bytes", new InterruptedException());
                 }
             }
-            // Allocate at most reqBytes, but at least minBytes
-            nBytes = Math.min(reqBytes, maxMemoryBytes - usedMemoryBytes);
-            if (nBytes < minBytes) {
-                throw new IllegalStateException("Allocated bytes (" + nBytes + ") should be at least the minimum requested bytes (" + minBytes + ")");
-            }
-            usedMemoryBytes += nBytes;
+        } finally {
+            waiters.remove(current);
+            // Let the next waiter try, as there may be enough memory left for it as well
+            wakeUpNextWaiter();
         }
-        return nBytes;
     }
 
     @Override
@@ -132,26 +180,21 @@ public class GlobalMemoryManager implements MemoryManager {
 
         @Override
         public long getSize() {
-            synchronized(sync) {
-                return size; // TODO: does this need to be synchronized?
-            }
+            return size;
         }
         
         @Override
-        public void resize(long nBytes) {
+        public synchronized void resize(long nBytes) {
             if (nBytes < 0) {
                 throw new IllegalStateException("Number of bytes to resize to must be greater than zero, but instead is " + nBytes);
             }
-            synchronized(sync) {
-                long nAdditionalBytes = (nBytes - size);
-                if (nAdditionalBytes < 0) {
-                    usedMemoryBytes += nAdditionalBytes;
-                    size = nBytes;
-                    sync.notifyAll();
-                } else {
-                    allocateBytes(nAdditionalBytes, nAdditionalBytes);
-                    size = nBytes;
-                }
+            long nAdditionalBytes = (nBytes - size);
+            if (nAdditionalBytes < 0) {
+                size = nBytes;
+                freeBytes(-nAdditionalBytes);
+            } else {
+                allocateBytes(nAdditionalBytes, nAdditionalBytes);
+                size = nBytes;
             }
         }
         
@@ -174,13 +217,12 @@ public class GlobalMemoryManager implements MemoryManager {
         }
         
         @Override
-        public void close() {
-            synchronized(sync) {
-                usedMemoryBytes -= size;
-                size = 0;
-                sync.notifyAll();
+        public synchronized void close() {
+            long nBytes = size;
+            size = 0;
+            if (nBytes > 0) {
+                freeBytes(nBytes);
             }
         }
     }
 }
- 
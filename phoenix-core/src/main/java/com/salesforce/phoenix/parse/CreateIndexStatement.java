@@ -42,10 +42,11 @@ public class CreateIndexStatement extends SingleTableSQLStatement {
     private final List<ParseNode> splitNodes;
     private final ListMultimap<String,Pair<String,Object>> props;
     private final boolean ifNotExists;
+    private final boolean isLocal;
 
     public CreateIndexStatement(NamedNode indexTableName, NamedTableNode dataTable, 
             PrimaryKeyConstraint indexConstraint, List<ColumnName> includeColumns, List<ParseNode> splits,
-            ListMultimap<String,Pair<String,Object>> props, boolean ifNotExists, int bindCount) {
+            ListMultimap<String,Pair<String,Object>> props, boolean ifNotExists, boolean isLocal, int bindCount) {
         super(dataTable, bindCount);
         this.indexTableName =TableName.createNormalized(dataTable.getName().getSchemaName(),indexTableName.getName());
         this.indexConstraint = indexConstraint == null ? PrimaryKeyConstraint.EMPTY : indexConstraint;
@@ -53,6 +54,7 @@ public class CreateIndexStatement extends SingleTableSQLStatement {
         this.splitNodes = splits == null ? Collections.<ParseNode>emptyList() : splits;
         this.props = props;
         this.ifNotExists = ifNotExists;
+        this.isLocal = isLocal;
     }
 
     public PrimaryKeyConstraint getIndexConstraint() {
@@ -79,4 +81,12 @@ public class CreateIndexStatement extends SingleTableSQLStatement {
         return ifNotExists;
     }
 
+    /**
+     * @return true if CREATE LOCAL INDEX was used, in which case the index rows
+     * are stored in the regions of the data table instead of in a separate table.
+     */
+    public boolean isLocal() {
+        return isLocal;
+    }
+
 }
@@ -83,6 +83,32 @@ public class HintNode {
         * the data table when optimizing.
         */
        USE_INDEX_OVER_DATA_TABLE,
+       /**
+        * Forces a sort-merge join to be used instead of a hash join,
+        * for example when the size of the joined table is unknown.
+        */
+       USE_SORT_MERGE_JOIN,
+       /**
+        * Merges the partial aggregates of a GROUP BY that is not in row key
+        * order in a client-side hash table instead of sorting them, returning
+        * groups in no particular order unless an ORDER BY is present.
+        */
+       HASH_AGGREGATE,
+       /**
+        * Evaluates a WHERE clause on key value columns over batches of rows
+        * in the region observers instead of row by row in an HBase filter.
+        */
+       BATCH_FILTER,
+       /**
+        * Runs the parallel scans of the query with high priority, ahead of
+        * the queued scans of other queries.
+        */
+       HIGH_PRIORITY,
+       /**
+        * Runs the parallel scans of the query with low priority, only using
+        * threads not needed by the scans of other queries.
+        */
+       LOW_PRIORITY,
     };
 
     private final Map<Hint,String> hints;
@@ -28,11 +28,15 @@
 package com.salesforce.phoenix.query;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.salesforce.phoenix.job.JobManager;
 import com.salesforce.phoenix.memory.GlobalMemoryManager;
 import com.salesforce.phoenix.memory.MemoryManager;
 import com.salesforce.phoenix.optimize.QueryOptimizer;
+import com.salesforce.phoenix.parse.BindableStatement;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 
 
@@ -46,20 +50,29 @@ import com.salesforce.phoenix.util.ReadOnlyProps;
  */
 public abstract class BaseQueryServicesImpl implements QueryServices {
     private final ExecutorService executor;
+    private final JobManager<Runnable> jobManager;
     private final MemoryManager memoryManager;
     private final ReadOnlyProps props;
     private final QueryOptimizer queryOptimizer;
+    private final Cache<String,BindableStatement> parsedStatementCache;
     
+    @SuppressWarnings("unchecked")
     public BaseQueryServicesImpl(QueryServicesOptions options) {
-        this.executor =  JobManager.createThreadPoolExec(
+        ThreadPoolExecutor executor =  JobManager.createThreadPoolExec(
                 options.getKeepAliveMs(), 
                 options.getThreadPoolSize(), 
-                options.getQueueSize());
+                options.getQueueSize(),
+                options.getQueueStatsLogIntervalMs());
+        this.executor = executor;
+        this.jobManager = executor.getQueue() instanceof JobManager ? (JobManager<Runnable>)executor.getQueue() : null;
         this.memoryManager = new GlobalMemoryManager(
                 Runtime.getRuntime().totalMemory() * options.getMaxMemoryPerc() / 100,
                 options.getMaxMemoryWaitMs());
         this.props = options.getProps();
         this.queryOptimizer = new QueryOptimizer(this);
+        this.parsedStatementCache = CacheBuilder.newBuilder()
+                .maximumSize(options.getParsedStatementCacheSize())
+                .build();
     }
     
     @Override
@@ -67,6 +80,11 @@ public abstract class BaseQueryServicesImpl implements QueryServices {
         return executor;
     }
 
+    @Override
+    public JobManager<Runnable> getJobManager() {
+        return jobManager;
+    }
+
     @Override
     public MemoryManager getMemoryManager() {
         return memoryManager;
@@ -81,6 +99,11 @@ public abstract class BaseQueryServicesImpl implements QueryServices {
     public void close() {
     }
 
+    @Override
+    public Cache<String,BindableStatement> getParsedStatementCache() {
+        return parsedStatementCache;
+    }
+
     @Override
     public QueryOptimizer getOptimizer() {
         return queryOptimizer;
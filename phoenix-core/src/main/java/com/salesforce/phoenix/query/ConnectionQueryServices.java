@@ -31,6 +31,7 @@ import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HTableDescriptor;
@@ -67,8 +68,26 @@ public interface ConnectionQueryServices extends QueryServices, MetaDataMutated
      */
     public HTableInterface getTable(byte[] tableName) throws SQLException;
 
+    /**
+     * Get an HTableInterface by the given name that uses the given pool
+     * for its batch calls instead of the shared executor. It is the callers
+     * responsibility to close the returned HTableInterface.
+     * @param tableName the name of the HTable
+     * @param pool the pool used by the HTableInterface to send batched mutations
+     * @return the HTableInterface
+     * @throws SQLException 
+     */
+    public HTableInterface getTable(byte[] tableName, ExecutorService pool) throws SQLException;
+
     public HTableDescriptor getTableDescriptor(byte[] tableName) throws SQLException;
 
+    /**
+     * Restores the split policy an HTable had before it first got a local index, if any was saved.
+     * @param tableName the name of the HTable
+     * @throws SQLException
+     */
+    public void restoreSplitPolicy(byte[] tableName) throws SQLException;
+
     public StatsManager getStatsManager();
 
     public List<HRegionLocation> getAllTableRegions(byte[] tableName) throws SQLException;
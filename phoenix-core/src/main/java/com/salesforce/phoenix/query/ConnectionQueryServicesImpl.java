@@ -41,6 +41,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -80,6 +81,7 @@ import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MutationCode;
 import com.salesforce.phoenix.coprocessor.MetaDataRegionObserver;
 import com.salesforce.phoenix.coprocessor.ScanRegionObserver;
 import com.salesforce.phoenix.coprocessor.SequenceRegionObserver;
+import com.salesforce.phoenix.coprocessor.StatisticsCollector;
 import com.salesforce.phoenix.coprocessor.ServerCachingEndpointImpl;
 import com.salesforce.phoenix.coprocessor.UngroupedAggregateRegionObserver;
 import com.salesforce.phoenix.exception.PhoenixIOException;
@@ -110,6 +112,7 @@ import com.salesforce.phoenix.util.PhoenixRuntime;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 import com.salesforce.phoenix.util.SchemaUtil;
 import com.salesforce.phoenix.util.ServerUtil;
+import com.salesforce.phoenix.util.StatisticsUtil;
 
 public class ConnectionQueryServicesImpl extends DelegateQueryServices implements ConnectionQueryServices {
     private static final Logger logger = LoggerFactory.getLogger(ConnectionQueryServicesImpl.class);
@@ -181,8 +184,13 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     
     @Override
     public HTableInterface getTable(byte[] tableName) throws SQLException {
+        return getTable(tableName, getExecutor());
+    }
+    
+    @Override
+    public HTableInterface getTable(byte[] tableName, ExecutorService pool) throws SQLException {
         try {
-            return HBaseFactoryProvider.getHTableFactory().getTable(tableName, connection, getExecutor());
+            return HBaseFactoryProvider.getHTableFactory().getTable(tableName, connection, pool);
         } catch (org.apache.hadoop.hbase.TableNotFoundException e) {
             byte[][] schemaAndTableName = new byte[2][];
             SchemaUtil.getVarChars(tableName, schemaAndTableName);
@@ -201,6 +209,47 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         }
     }
 
+    @Override
+    public void restoreSplitPolicy(byte[] tableName) throws SQLException {
+        HBaseAdmin admin = null;
+        SQLException sqlE = null;
+        try {
+            admin = new HBaseAdmin(config);
+            HTableDescriptor desc = admin.getTableDescriptor(tableName);
+            String splitPolicy = desc.getValue(SchemaUtil.SAVED_SPLIT_POLICY);
+            if (splitPolicy == null) {
+                return;
+            }
+            desc.remove(SchemaUtil.SAVED_SPLIT_POLICY);
+            if (splitPolicy.isEmpty()) {
+                desc.remove(HTableDescriptor.SPLIT_POLICY);
+            } else {
+                desc.setValue(HTableDescriptor.SPLIT_POLICY, splitPolicy);
+            }
+            admin.disableTable(tableName);
+            admin.modifyTable(tableName, desc);
+            admin.enableTable(tableName);
+        } catch (IOException e) {
+            sqlE = ServerUtil.parseServerException(e);
+        } finally {
+            try {
+                if (admin != null) {
+                    admin.close();
+                }
+            } catch (IOException e) {
+                if (sqlE == null) {
+                    sqlE = ServerUtil.parseServerException(e);
+                } else {
+                    sqlE.setNextException(ServerUtil.parseServerException(e));
+                }
+            } finally {
+                if (sqlE != null) {
+                    throw sqlE;
+                }
+            }
+        }
+    }
+
     @Override
     public ReadOnlyProps getProps() {
         return props;
@@ -497,12 +546,18 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
             // Since indexes can't have indexes, don't install our indexing coprocessor for indexes. Also,
             // don't install on the metadata table until we fix the TODO there.
             if (tableType != PTableType.INDEX && !descriptor.hasCoprocessor(Indexer.class.getName())
-                  && !SchemaUtil.isMetaTable(tableName) && !SchemaUtil.isSequenceTable(tableName)) {
+                  && !SchemaUtil.isMetaTable(tableName) && !SchemaUtil.isSequenceTable(tableName) && !SchemaUtil.isStatsTable(tableName)) {
                 Map<String, String> opts = Maps.newHashMapWithExpectedSize(1);
                 opts.put(CoveredColumnsIndexBuilder.CODEC_CLASS_NAME_KEY, PhoenixIndexCodec.class.getName());
                 Indexer.enableIndexing(descriptor, PhoenixIndexBuilder.class, opts);
             }
             
+            // Collect guide posts on user tables and indexes during major compaction
+            if (!descriptor.hasCoprocessor(StatisticsCollector.class.getName()) && !SchemaUtil.isMetaTable(tableName)
+                    && !SchemaUtil.isSequenceTable(tableName) && !SchemaUtil.isStatsTable(tableName)) {
+                descriptor.addCoprocessor(StatisticsCollector.class.getName(), null, 1, null);
+            }
+            
             // Setup split policy on Phoenix metadata table to ensure that the key values of a Phoenix table
             // stay on the same region.
             if (SchemaUtil.isMetaTable(tableName)) {
@@ -898,6 +953,15 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                         admin.deleteTable(tableName);
                     }
                 }
+                // The regions of a table created again under the same name have new region names
+                HTableInterface statsTable = getTable(PhoenixDatabaseMetaData.STATS_TABLE_NAME_BYTES);
+                try {
+                    for ( byte[] tableName : tableNamesToDelete ) {
+                        StatisticsUtil.deleteStats(statsTable, StatisticsUtil.getRowKeyPrefix(tableName));
+                    }
+                } finally {
+                    statsTable.close();
+                }
             }
             
         } catch (IOException e) {
@@ -1033,6 +1097,12 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                 // Ignore, as this will happen if the SYSTEM.SEQUENCE already exists at this fixed timestamp.
                 // A TableAlreadyExistsException is not thrown, since the table only exists *after* this fixed timestamp.
             }
+            try {
+                metaConnection.createStatement().executeUpdate(QueryConstants.CREATE_STATS_METADATA);
+            } catch (NewerTableAlreadyExistsException ignore) {
+                // Ignore, as this will happen if the SYSTEM.STATS already exists at this fixed timestamp.
+                // A TableAlreadyExistsException is not thrown, since the table only exists *after* this fixed timestamp.
+            }
         } catch (SQLException e) {
             sqlE = e;
         } finally {
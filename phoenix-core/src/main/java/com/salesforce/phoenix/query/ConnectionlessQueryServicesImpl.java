@@ -34,6 +34,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
@@ -72,6 +73,8 @@ import com.salesforce.phoenix.schema.SequenceKey;
 import com.salesforce.phoenix.schema.SequenceNotFoundException;
 import com.salesforce.phoenix.schema.TableAlreadyExistsException;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
+import com.salesforce.phoenix.schema.stat.PTableStatsImpl;
 import com.salesforce.phoenix.util.PhoenixRuntime;
 import com.salesforce.phoenix.util.SchemaUtil;
 
@@ -107,6 +110,11 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public HTableInterface getTable(byte[] tableName, ExecutorService pool) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public StatsManager getStatsManager() {
         return new StatsManager() {
@@ -121,6 +129,11 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
                 return HConstants.EMPTY_END_ROW;
             }
 
+            @Override
+            public PTableStats getTableStats(TableRef table) {
+                return PTableStatsImpl.NO_STATS;
+            }
+
             @Override
             public void updateStats(TableRef table) throws SQLException {
             }
@@ -207,6 +220,12 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
                 // Ignore, as this will happen if the SYSTEM.SEQUENCE already exists at this fixed timestamp.
                 // A TableAlreadyExistsException is not thrown, since the table only exists *after* this fixed timestamp.
             }
+            try {
+                metaConnection.createStatement().executeUpdate(QueryConstants.CREATE_STATS_METADATA);
+            } catch (NewerTableAlreadyExistsException ignore) {
+                // Ignore, as this will happen if the SYSTEM.STATS already exists at this fixed timestamp.
+                // A TableAlreadyExistsException is not thrown, since the table only exists *after* this fixed timestamp.
+            }
         } catch (SQLException e) {
             sqlE = e;
         } finally {
@@ -259,6 +278,10 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
         return null;
     }
 
+    @Override
+    public void restoreSplitPolicy(byte[] tableName) throws SQLException {
+    }
+
     @Override
     public void clearTableRegionCache(byte[] tableName) throws SQLException {
     }
@@ -31,6 +31,7 @@ import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HTableDescriptor;
@@ -73,6 +74,11 @@ public class DelegateConnectionQueryServices extends DelegateQueryServices imple
         return getDelegate().getTable(tableName);
     }
 
+    @Override
+    public HTableInterface getTable(byte[] tableName, ExecutorService pool) throws SQLException {
+        return getDelegate().getTable(tableName, pool);
+    }
+
     @Override
     public StatsManager getStatsManager() {
         return getDelegate().getStatsManager();
@@ -169,6 +175,11 @@ public class DelegateConnectionQueryServices extends DelegateQueryServices imple
         return getDelegate().getTableDescriptor(tableName);
     }
 
+    @Override
+    public void restoreSplitPolicy(byte[] tableName) throws SQLException {
+        getDelegate().restoreSplitPolicy(tableName);
+    }
+
     @Override
     public void clearTableRegionCache(byte[] tableName) throws SQLException {
         getDelegate().clearTableRegionCache(tableName);
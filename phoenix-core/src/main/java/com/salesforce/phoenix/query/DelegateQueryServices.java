@@ -30,8 +30,11 @@ package com.salesforce.phoenix.query;
 import java.sql.SQLException;
 import java.util.concurrent.ExecutorService;
 
+import com.google.common.cache.Cache;
+import com.salesforce.phoenix.job.JobManager;
 import com.salesforce.phoenix.memory.MemoryManager;
 import com.salesforce.phoenix.optimize.QueryOptimizer;
+import com.salesforce.phoenix.parse.BindableStatement;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 
 
@@ -60,6 +63,11 @@ public class DelegateQueryServices implements QueryServices {
         return parent.getExecutor();
     }
 
+    @Override
+    public JobManager<Runnable> getJobManager() {
+        return parent.getJobManager();
+    }
+
     @Override
     public MemoryManager getMemoryManager() {
         return parent.getMemoryManager();
@@ -75,6 +83,11 @@ public class DelegateQueryServices implements QueryServices {
         return parent.getProps();
     }
 
+    @Override
+    public Cache<String,BindableStatement> getParsedStatementCache() {
+        return parent.getParsedStatementCache();
+    }
+
     @Override
     public QueryOptimizer getOptimizer() {
         return parent.getOptimizer();
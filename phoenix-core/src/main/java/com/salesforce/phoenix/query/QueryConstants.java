@@ -30,7 +30,9 @@ package com.salesforce.phoenix.query;
 
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.BASE_SCHEMA_NAME;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.BASE_TABLE_NAME;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_TYPE;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.BUFFER_LENGTH;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.BYTE_COUNT;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.CACHE_SIZE;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.CHAR_OCTET_LENGTH;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.COLUMN_COUNT;
@@ -44,6 +46,8 @@ import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DATA_TYPE;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DECIMAL_DIGITS;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DEFAULT_COLUMN_FAMILY_NAME;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DISABLE_WAL;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.FAMILY_NAME;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.GUIDE_POSTS;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.IMMUTABLE_ROWS;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INCREMENT_BY;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_STATE;
@@ -53,9 +57,12 @@ import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.MULTI_TENANT;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.NULLABLE;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.NUM_PREC_RADIX;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.ORDINAL_POSITION;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.PHYSICAL_NAME;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.PK_NAME;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.REF_GENERATION_NAME;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.REGION_NAME;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.REMARKS_NAME;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.ROW_COUNT;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.SALT_BUCKETS;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.SCOPE_CATALOG;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.SCOPE_SCHEMA;
@@ -76,6 +83,7 @@ import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TENANT_ID;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_NAME;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_SCHEMA;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_SEQUENCE;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_STATS;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_TABLE;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.VIEW_EXPRESSION;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.VIEW_TYPE;
@@ -143,6 +151,12 @@ public interface QueryConstants {
             EMPTY_COLUMN_BYTES);
     public static final String DEFAULT_COLUMN_FAMILY = EMPTY_COLUMN_NAME;
     public static final byte[] DEFAULT_COLUMN_FAMILY_BYTES = EMPTY_COLUMN_BYTES;
+    /**
+     * Column family of the data table in which the rows of its local indexes are stored. The name
+     * is not a valid unquoted identifier so that it cannot clash with a user declared family.
+     */
+    public static final String LOCAL_INDEX_COLUMN_FAMILY = "L#0";
+    public static final byte[] LOCAL_INDEX_COLUMN_FAMILY_BYTES = Bytes.toBytes(LOCAL_INDEX_COLUMN_FAMILY);
     public static final String ALL_FAMILY_PROPERTIES_KEY = "";
     public static final String SYSTEM_TABLE_PK_NAME = "pk";
     
@@ -203,6 +217,7 @@ public interface QueryConstants {
             VIEW_TYPE + " UNSIGNED_TINYINT,\n" +
             BASE_SCHEMA_NAME + " VARCHAR,\n" +
             BASE_TABLE_NAME + " VARCHAR,\n" +
+            INDEX_TYPE + " UNSIGNED_TINYINT,\n" +
             "CONSTRAINT " + SYSTEM_TABLE_PK_NAME + " PRIMARY KEY (" + TENANT_ID + ","
             + TABLE_SCHEM_NAME + "," + TABLE_NAME_NAME + "," + COLUMN_NAME + "," + TABLE_CAT_NAME + "))\n" +
             HConstants.VERSIONS + "=" + MetaDataProtocol.DEFAULT_MAX_META_DATA_VERSIONS + ",\n" +
@@ -221,4 +236,15 @@ public interface QueryConstants {
     		" CONSTRAINT " + SYSTEM_TABLE_PK_NAME + " PRIMARY KEY (" + TENANT_ID + "," + SEQUENCE_SCHEMA + "," + SEQUENCE_NAME + "))\n" + 
     		HConstants.VERSIONS + "=" + MetaDataProtocol.DEFAULT_MAX_META_DATA_VERSIONS + "\n";
 	
+    public static final String CREATE_STATS_METADATA =
+            "CREATE TABLE IF NOT EXISTS " + TYPE_SCHEMA + ".\"" + TYPE_STATS + "\"(\n" +
+            PHYSICAL_NAME + " VARCHAR NOT NULL, \n" +
+            REGION_NAME + " VARCHAR NOT NULL, \n" +
+            FAMILY_NAME + " VARCHAR NOT NULL, \n" +
+            GUIDE_POSTS + " VARBINARY, \n" +
+            ROW_COUNT + " BIGINT, \n" +
+            BYTE_COUNT + " BIGINT \n" +
+            " CONSTRAINT " + SYSTEM_TABLE_PK_NAME + " PRIMARY KEY (" + PHYSICAL_NAME + "," + REGION_NAME + "," + FAMILY_NAME + "))\n" +
+            HConstants.VERSIONS + "=" + MetaDataProtocol.DEFAULT_MAX_META_DATA_VERSIONS + "\n";
+	
 }
@@ -31,9 +31,12 @@ import java.util.concurrent.ExecutorService;
 
 import org.apache.http.annotation.Immutable;
 
+import com.google.common.cache.Cache;
 import com.salesforce.phoenix.iterate.SpoolTooBigToDiskException;
+import com.salesforce.phoenix.job.JobManager;
 import com.salesforce.phoenix.memory.MemoryManager;
 import com.salesforce.phoenix.optimize.QueryOptimizer;
+import com.salesforce.phoenix.parse.BindableStatement;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 import com.salesforce.phoenix.util.SQLCloseable;
 
@@ -53,6 +56,8 @@ public interface QueryServices extends SQLCloseable {
     public static final String KEEP_ALIVE_MS_ATTRIB = "phoenix.query.keepAliveMs";
     public static final String THREAD_POOL_SIZE_ATTRIB = "phoenix.query.threadPoolSize";
     public static final String QUEUE_SIZE_ATTRIB = "phoenix.query.queueSize";
+    // Minimum time between debug logs of the time jobs spent in the queue of the executor, or 0 for none
+    public static final String QUEUE_STATS_LOG_INTERVAL_MS_ATTRIB = "phoenix.query.queueStatsLogIntervalMs";
     public static final String THREAD_TIMEOUT_MS_ATTRIB = "phoenix.query.timeoutMs";
     public static final String SPOOL_THRESHOLD_BYTES_ATTRIB = "phoenix.query.spoolThresholdBytes";
     
@@ -67,20 +72,85 @@ public interface QueryServices extends SQLCloseable {
 	 */
 	public static final String MAX_SPOOL_TO_DISK_BYTES_ATTRIB = "phoenix.query.maxSpoolToDiskBytes";
     
+    /**
+     * Enables streaming the results of parallel scans back to the client as they arrive
+     * instead of first spooling each region's results in their entirety. Only applies to
+     * non aggregate queries.
+     */
+    public static final String STREAMING_SCAN_ATTRIB = "phoenix.query.streamingScan";
+    /**
+     * Maximum number of rows buffered ahead of the client per region scan when streaming
+     */
+    public static final String STREAMING_PREFETCH_SIZE_ATTRIB = "phoenix.query.streamingPrefetchSize";
+    /**
+     * Amount of time a streaming scan waits for the client to make room in the prefetch
+     * buffer before spooling the rest of the region scan
+     */
+    public static final String STREAMING_SPOOL_WAIT_MS_ATTRIB = "phoenix.query.streamingSpoolWaitMs";
+    /**
+     * Amount of time a streaming scan runs before the rest of its key range is split off
+     * into a new parallel scan, provided the query executor has idle threads. Zero or less
+     * disables splitting.
+     */
+    public static final String SCAN_SPLIT_THRESHOLD_MS_ATTRIB = "phoenix.query.scanSplitThresholdMs";
+    /**
+     * Priority class (HIGH, NORMAL or LOW) of the parallel scans of queries. The jobs of a higher
+     * priority class are run before the queued jobs of a lower one. May be set per connection and
+     * overridden per query through the HIGH_PRIORITY and LOW_PRIORITY hints.
+     */
+    public static final String QUERY_PRIORITY_ATTRIB = "phoenix.query.priority";
+    /**
+     * Relative share of the query threads of a priority class given to a tenant, or to a
+     * connection without a tenant, while other tenants or connections are waiting for threads.
+     * May be set per connection.
+     */
+    public static final String QUERY_SHARE_WEIGHT_ATTRIB = "phoenix.query.shareWeight";
+    /**
+     * Maximum number of parallel scans of a query that run at the same time while other
+     * scans are waiting for a thread. Zero or less means unlimited. May be set per connection.
+     */
+    public static final String MAX_CONCURRENT_SCANS_PER_QUERY_ATTRIB = "phoenix.query.maxConcurrentScansPerQuery";
+    
     public static final String MAX_MEMORY_PERC_ATTRIB = "phoenix.query.maxGlobalMemoryPercentage";
     public static final String MAX_MEMORY_WAIT_MS_ATTRIB = "phoenix.query.maxGlobalMemoryWaitMs";
     public static final String MAX_TENANT_MEMORY_PERC_ATTRIB = "phoenix.query.maxTenantMemoryPercentage";
     public static final String MAX_SERVER_CACHE_SIZE_ATTRIB = "phoenix.query.maxServerCacheBytes";
+    /**
+     * Whether or not the hash join cache is kept in a direct buffer outside
+     * of the Java heap of the region server
+     */
+    public static final String HASH_CACHE_OFF_HEAP_ATTRIB = "phoenix.query.hashCacheOffHeap";
+    /**
+     * Percentage of the maximum heap size of the region server that may be allocated outside
+     * of the heap for hash join caches. The JVM limits direct memory to the maximum heap size
+     * by default.
+     */
+    public static final String MAX_OFF_HEAP_MEMORY_PERC_ATTRIB = "phoenix.query.maxOffHeapMemoryPercentage";
+    /**
+     * Maximum number of distinct join key values of a hash join table for which
+     * the scan over the main table is narrowed down to those keys through a skip scan
+     */
+    public static final String MAX_HASH_JOIN_SKIP_SCAN_KEYS_ATTRIB = "phoenix.query.maxHashJoinSkipScanKeys";
     public static final String TARGET_QUERY_CONCURRENCY_ATTRIB = "phoenix.query.targetConcurrency";
     public static final String MAX_QUERY_CONCURRENCY_ATTRIB = "phoenix.query.maxConcurrency";
     public static final String DATE_FORMAT_ATTRIB = "phoenix.query.dateFormat";
     public static final String NUMBER_FORMAT_ATTRIB = "phoenix.query.numberFormat";
     public static final String STATS_UPDATE_FREQ_MS_ATTRIB = "phoenix.query.statsUpdateFrequency";
     public static final String MAX_STATS_AGE_MS_ATTRIB = "phoenix.query.maxStatsAge";
+    /**
+     * Number of bytes between guide posts collected by the server during major compaction.
+     * Smaller values allow for more evenly sized parallel scans at the expense of bigger stats.
+     */
+    public static final String STATS_GUIDEPOST_WIDTH_BYTES_ATTRIB = "phoenix.stats.guidepost.width";
     public static final String CALL_QUEUE_ROUND_ROBIN_ATTRIB = "ipc.server.callqueue.roundrobin";
     public static final String SCAN_CACHE_SIZE_ATTRIB = "hbase.client.scanner.caching";
     public static final String MAX_MUTATION_SIZE_ATTRIB = "phoenix.mutate.maxSize";
     public static final String MUTATE_BATCH_SIZE_ATTRIB = "phoenix.mutate.batchSize";
+    /**
+     * Maximum number of mutations sent in a single batch to a region server on commit.
+     * Larger batches for the same region server are split and sent in parallel.
+     */
+    public static final String MUTATE_MAX_BATCH_SIZE_PER_SERVER_ATTRIB = "phoenix.mutate.maxBatchSizePerServer";
     public static final String MAX_SERVER_CACHE_TIME_TO_LIVE_MS = "phoenix.coprocessor.maxServerCacheTimeToLiveMs";
     public static final String MAX_INTRA_REGION_PARALLELIZATION_ATTRIB  = "phoenix.query.maxIntraRegionParallelization";
     public static final String ROW_KEY_ORDER_SALTED_TABLE_ATTRIB  = "phoenix.query.rowKeyOrderSaltedTable";
@@ -91,6 +161,21 @@ public interface QueryServices extends SQLCloseable {
     public static final String GROUPBY_SPILLABLE_ATTRIB  = "phoenix.groupby.spillable";
     public static final String GROUPBY_SPILL_FILES_ATTRIB = "phoenix.groupby.spillFiles";
     public static final String GROUPBY_MAX_CACHE_SIZE_ATTRIB = "phoenix.groupby.maxCacheSize";
+    /**
+     * Whether the partial aggregates of a GROUP BY that is not in row key order are merged
+     * on the client in a spillable hash table instead of being sorted and merge sorted.
+     * Groups are then returned in no particular order unless an ORDER BY is present.
+     */
+    public static final String GROUPBY_CLIENT_HASH_AGGREGATE_ATTRIB = "phoenix.groupby.clientHashAggregate";
+    /**
+     * Whether a WHERE clause that references key value columns is evaluated by the region observers
+     * over batches of rows instead of row by row through an HBase filter.
+     */
+    public static final String BATCH_FILTER_ATTRIB = "phoenix.query.batchFilter";
+    /**
+     * Number of rows the region observers read ahead and evaluate together when batch filtering.
+     */
+    public static final String FILTER_BATCH_SIZE_ATTRIB = "phoenix.query.filterBatchSize";
 
     public static final String CALL_QUEUE_PRODUCER_ATTRIB_NAME = "CALL_QUEUE_PRODUCER";
     
@@ -103,12 +188,59 @@ public interface QueryServices extends SQLCloseable {
     public static final String ZOOKEEPER_ROOT_NODE_ATTRIB = "zookeeper.znode.parent";
     public static final String DISTINCT_VALUE_COMPRESS_THRESHOLD_ATTRIB = "phoenix.distinct.value.compress.threshold";
     public static final String SEQUENCE_CACHE_SIZE_ATTRIB = "phoenix.sequence.cacheSize";
+    /**
+     * Maximum number of parsed SELECT, UPSERT and DELETE statements cached by SQL text,
+     * with the least recently used ones evicted first. Zero disables the cache.
+     */
+    public static final String PARSED_STATEMENT_CACHE_SIZE_ATTRIB = "phoenix.query.parsedStatementCacheSize";
+    /**
+     * Time in milliseconds that a region spends building the rows of a new index in a single
+     * scan before it returns the key at which to resume, keeping each call below the RPC timeout.
+     */
+    public static final String INDEX_BUILD_CHUNK_TIME_MS_ATTRIB = "phoenix.index.build.chunkTimeMs";
+    /**
+     * Number of times the build of a new index is resumed for a region after a failure before
+     * the CREATE INDEX statement fails.
+     */
+    public static final String INDEX_BUILD_RETRIES_ATTRIB = "phoenix.index.build.retries";
+    /**
+     * Maximum number of regions of the data table whose index build runs at the same time for a
+     * single CREATE INDEX statement, so that the build doesn't take over the client thread pool
+     * or the region servers. Zero for no limit.
+     */
+    public static final String INDEX_BUILD_MAX_CONCURRENT_REGIONS_ATTRIB = "phoenix.index.build.maxConcurrentRegions";
+    /**
+     * Whether the region server hosting SYSTEM.TABLE rebuilds indexes disabled by a failed index write
+     * from the time of the failure and then makes them active again.
+     */
+    public static final String INDEX_FAILURE_HANDLING_REBUILD_ATTRIB = "phoenix.index.failure.handling.rebuild";
+    /**
+     * Time in milliseconds between checks for indexes disabled by a failed index write.
+     */
+    public static final String INDEX_FAILURE_HANDLING_REBUILD_INTERVAL_ATTRIB = "phoenix.index.failure.handling.rebuild.interval";
+    /**
+     * Maximum time in milliseconds to wait before retrying the rebuild of an index disabled by a failed
+     * index write, as the wait doubles with each failed rebuild from the interval between checks.
+     */
+    public static final String INDEX_FAILURE_HANDLING_REBUILD_MAX_BACKOFF_ATTRIB = "phoenix.index.failure.handling.rebuild.maxBackoff";
+    /**
+     * Time in milliseconds after a rebuilt index is made to be maintained again up to which the changes
+     * made in the meantime are rebuilt before it's made active. Must be at least as long as a client write
+     * can take after the client looked up the state of the index, as a client that still found it disabled
+     * doesn't maintain it.
+     */
+    public static final String INDEX_FAILURE_HANDLING_REBUILD_OVERLAP_TIME_ATTRIB = "phoenix.index.failure.handling.rebuild.overlapTime";
 
     
     /**
      * Get executor service used for parallel scans
      */
     public ExecutorService getExecutor();
+    /**
+     * Get the queue of the executor service used for parallel scans, which tracks the time jobs
+     * spend in it by priority, or null if jobs are handed directly to the threads of the executor
+     */
+    public JobManager<Runnable> getJobManager();
     /**
      * Get the memory manager used to track memory usage
      */
@@ -120,6 +252,11 @@ public interface QueryServices extends SQLCloseable {
      */
     public ReadOnlyProps getProps();
     
+    /**
+     * Get the cache of parsed statements keyed by SQL text
+     */
+    public Cache<String,BindableStatement> getParsedStatementCache();
+    
     /**
      * Get query optimizer used to choose the best query plan
      */
@@ -27,14 +27,24 @@
  ******************************************************************************/
 package com.salesforce.phoenix.query;
 
+import static com.salesforce.phoenix.query.QueryServices.BATCH_FILTER_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.CALL_QUEUE_PRODUCER_ATTRIB_NAME;
 import static com.salesforce.phoenix.query.QueryServices.CALL_QUEUE_ROUND_ROBIN_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.DATE_FORMAT_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.DROP_METADATA_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.FILTER_BATCH_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.GROUPBY_CLIENT_HASH_AGGREGATE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.GROUPBY_MAX_CACHE_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.GROUPBY_SPILL_FILES_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.GROUPBY_SPILLABLE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.IMMUTABLE_ROWS_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.INDEX_BUILD_CHUNK_TIME_MS_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.INDEX_BUILD_MAX_CONCURRENT_REGIONS_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.INDEX_BUILD_RETRIES_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.INDEX_FAILURE_HANDLING_REBUILD_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.INDEX_FAILURE_HANDLING_REBUILD_INTERVAL_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.INDEX_FAILURE_HANDLING_REBUILD_MAX_BACKOFF_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.INDEX_FAILURE_HANDLING_REBUILD_OVERLAP_TIME_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.INDEX_MUTATE_BATCH_SIZE_THRESHOLD_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.KEEP_ALIVE_MS_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MASTER_INFO_PORT_ATTRIB;
@@ -43,20 +53,34 @@ import static com.salesforce.phoenix.query.QueryServices.MAX_MEMORY_PERC_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_MEMORY_WAIT_MS_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_MUTATION_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_QUERY_CONCURRENCY_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.HASH_CACHE_OFF_HEAP_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.MAX_OFF_HEAP_MEMORY_PERC_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.MAX_HASH_JOIN_SKIP_SCAN_KEYS_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_SERVER_CACHE_TIME_TO_LIVE_MS;
 import static com.salesforce.phoenix.query.QueryServices.MAX_SPOOL_TO_DISK_BYTES_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_TENANT_MEMORY_PERC_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MUTATE_BATCH_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.MUTATE_MAX_BATCH_SIZE_PER_SERVER_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.QUEUE_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.QUEUE_STATS_LOG_INTERVAL_MS_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.REGIONSERVER_INFO_PORT_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.REGIONSERVER_LEASE_PERIOD_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.ROW_KEY_ORDER_SALTED_TABLE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.RPC_TIMEOUT_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.SCAN_CACHE_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.SCAN_SPLIT_THRESHOLD_MS_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.QUERY_PRIORITY_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.QUERY_SHARE_WEIGHT_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.MAX_CONCURRENT_SCANS_PER_QUERY_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.PARSED_STATEMENT_CACHE_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.SEQUENCE_CACHE_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.SPOOL_THRESHOLD_BYTES_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.STATS_GUIDEPOST_WIDTH_BYTES_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.STATS_UPDATE_FREQ_MS_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.STREAMING_PREFETCH_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.STREAMING_SCAN_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.STREAMING_SPOOL_WAIT_MS_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.TARGET_QUERY_CONCURRENCY_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.THREAD_POOL_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.THREAD_TIMEOUT_MS_ATTRIB;
@@ -68,6 +92,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.regionserver.wal.WALEditCodec;
 
+import com.salesforce.phoenix.job.JobGroup;
 import com.salesforce.phoenix.util.DateUtil;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 
@@ -82,17 +107,22 @@ public class QueryServicesOptions {
 	public static final int DEFAULT_KEEP_ALIVE_MS = 60000;
 	public static final int DEFAULT_THREAD_POOL_SIZE = 128;
 	public static final int DEFAULT_QUEUE_SIZE = 500;
+	public static final int DEFAULT_QUEUE_STATS_LOG_INTERVAL_MS = 60000; // 1min
 	public static final int DEFAULT_THREAD_TIMEOUT_MS = 600000; // 10min
 	public static final int DEFAULT_SPOOL_THRESHOLD_BYTES = 1024 * 1024 * 20; // 20m
 	public static final int DEFAULT_MAX_MEMORY_PERC = 50; // 50% of heap
 	public static final int DEFAULT_MAX_MEMORY_WAIT_MS = 10000;
 	public static final int DEFAULT_MAX_TENANT_MEMORY_PERC = 100;
 	public static final long DEFAULT_MAX_SERVER_CACHE_SIZE = 1024*1024*100;  // 100 Mb
+    public static final boolean DEFAULT_HASH_CACHE_OFF_HEAP = false;
+    public static final int DEFAULT_MAX_OFF_HEAP_MEMORY_PERC = 25; // 25% of max heap
+    public static final int DEFAULT_MAX_HASH_JOIN_SKIP_SCAN_KEYS = 10000;
     public static final int DEFAULT_TARGET_QUERY_CONCURRENCY = 32;
     public static final int DEFAULT_MAX_QUERY_CONCURRENCY = 64;
     public static final String DEFAULT_DATE_FORMAT = DateUtil.DEFAULT_DATE_FORMAT;
     public static final int DEFAULT_STATS_UPDATE_FREQ_MS = 15 * 60000; // 15min
     public static final int DEFAULT_MAX_STATS_AGE_MS = 24 * 60 * 60000; // 1 day
+    public static final long DEFAULT_STATS_GUIDEPOST_WIDTH_BYTES = 1024L * 1024L * 100L; // 100 Mb
     public static final boolean DEFAULT_CALL_QUEUE_ROUND_ROBIN = true; 
     public static final int DEFAULT_MAX_MUTATION_SIZE = 500000;
     public static final boolean DEFAULT_ROW_KEY_ORDER_SALTED_TABLE = true; // Merge sort on client to ensure salted tables are row key ordered
@@ -101,6 +131,7 @@ public class QueryServicesOptions {
     public static final boolean DEFAULT_DROP_METADATA = true; // Drop meta data also.
     
     public final static int DEFAULT_MUTATE_BATCH_SIZE = 1000; // Batch size for UPSERT SELECT and DELETE
+    public final static int DEFAULT_MUTATE_MAX_BATCH_SIZE_PER_SERVER = 10000; // Batch size per region server on commit
 	// The only downside of it being out-of-sync is that the parallelization of the scan won't be as balanced as it could be.
     public static final int DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS = 30000; // 30 sec (with no activity)
     public static final int DEFAULT_SCAN_CACHE_SIZE = 1000;
@@ -108,6 +139,13 @@ public class QueryServicesOptions {
     public static final int DEFAULT_DISTINCT_VALUE_COMPRESS_THRESHOLD = 1024 * 1024 * 1; // 1 Mb
     public static final int DEFAULT_INDEX_MUTATE_BATCH_SIZE_THRESHOLD = 5;
     public static final long DEFAULT_MAX_SPOOL_TO_DISK_BYTES = 1024000000;
+    public static final boolean DEFAULT_STREAMING_SCAN = true;
+    public static final int DEFAULT_STREAMING_PREFETCH_SIZE = 1000; // rows buffered per region scan
+    public static final int DEFAULT_STREAMING_SPOOL_WAIT_MS = 1000;
+    public static final int DEFAULT_SCAN_SPLIT_THRESHOLD_MS = 5000;
+    public static final String DEFAULT_QUERY_PRIORITY = JobGroup.Priority.NORMAL.name();
+    public static final int DEFAULT_QUERY_SHARE_WEIGHT = 1;
+    public static final int DEFAULT_MAX_CONCURRENT_SCANS_PER_QUERY = 0; // unlimited
     
     // 
     // Spillable GroupBy - SPGBY prefix
@@ -119,8 +157,21 @@ public class QueryServicesOptions {
     public static final int DEFAULT_GROUPBY_SPILL_FILES = 2;
     // Max size of 1st level main memory cache in bytes --> upper bound
     public static final long DEFAULT_GROUPBY_MAX_CACHE_MAX = 1024L*1024L*100L;  // 100 Mb
+    // Merge partial aggregates in a client-side hash table (also enabled per query by the HASH_AGGREGATE hint)
+    public static final boolean DEFAULT_GROUPBY_CLIENT_HASH_AGGREGATE = false;
+    // Evaluate WHERE clauses over batches of rows in the region observers (also enabled per query by the BATCH_FILTER hint)
+    public static final boolean DEFAULT_BATCH_FILTER = false;
+    public static final int DEFAULT_FILTER_BATCH_SIZE = 128;
     
     public static final int DEFAULT_SEQUENCE_CACHE_SIZE = 100;  // reserve 100 sequences at a time
+    public static final int DEFAULT_PARSED_STATEMENT_CACHE_SIZE = 1000;
+    public static final int DEFAULT_INDEX_BUILD_CHUNK_TIME_MS = 30000; // 30 sec, half the default RPC timeout
+    public static final int DEFAULT_INDEX_BUILD_RETRIES = 3;
+    public static final int DEFAULT_INDEX_BUILD_MAX_CONCURRENT_REGIONS = 10;
+    public static final boolean DEFAULT_INDEX_FAILURE_HANDLING_REBUILD = true;
+    public static final long DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_INTERVAL = 10000; // 10 secs
+    public static final long DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_MAX_BACKOFF = 600000; // 10 mins
+    public static final long DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_OVERLAP_TIME = 120000; // 2 mins
     
     
     private final Configuration config;
@@ -152,30 +203,54 @@ public class QueryServicesOptions {
             .setIfUnset(KEEP_ALIVE_MS_ATTRIB, DEFAULT_KEEP_ALIVE_MS)
             .setIfUnset(THREAD_POOL_SIZE_ATTRIB, DEFAULT_THREAD_POOL_SIZE)
             .setIfUnset(QUEUE_SIZE_ATTRIB, DEFAULT_QUEUE_SIZE)
+            .setIfUnset(QUEUE_STATS_LOG_INTERVAL_MS_ATTRIB, DEFAULT_QUEUE_STATS_LOG_INTERVAL_MS)
             .setIfUnset(THREAD_TIMEOUT_MS_ATTRIB, DEFAULT_THREAD_TIMEOUT_MS)
             .setIfUnset(SPOOL_THRESHOLD_BYTES_ATTRIB, DEFAULT_SPOOL_THRESHOLD_BYTES)
             .setIfUnset(MAX_MEMORY_PERC_ATTRIB, DEFAULT_MAX_MEMORY_PERC)
             .setIfUnset(MAX_MEMORY_WAIT_MS_ATTRIB, DEFAULT_MAX_MEMORY_WAIT_MS)
             .setIfUnset(MAX_TENANT_MEMORY_PERC_ATTRIB, DEFAULT_MAX_TENANT_MEMORY_PERC)
             .setIfUnset(MAX_SERVER_CACHE_SIZE_ATTRIB, DEFAULT_MAX_SERVER_CACHE_SIZE)
+            .setIfUnset(HASH_CACHE_OFF_HEAP_ATTRIB, DEFAULT_HASH_CACHE_OFF_HEAP)
+            .setIfUnset(MAX_OFF_HEAP_MEMORY_PERC_ATTRIB, DEFAULT_MAX_OFF_HEAP_MEMORY_PERC)
+            .setIfUnset(MAX_HASH_JOIN_SKIP_SCAN_KEYS_ATTRIB, DEFAULT_MAX_HASH_JOIN_SKIP_SCAN_KEYS)
             .setIfUnset(SCAN_CACHE_SIZE_ATTRIB, DEFAULT_SCAN_CACHE_SIZE)
             .setIfUnset(TARGET_QUERY_CONCURRENCY_ATTRIB, DEFAULT_TARGET_QUERY_CONCURRENCY)
             .setIfUnset(MAX_QUERY_CONCURRENCY_ATTRIB, DEFAULT_MAX_QUERY_CONCURRENCY)
             .setIfUnset(DATE_FORMAT_ATTRIB, DEFAULT_DATE_FORMAT)
             .setIfUnset(STATS_UPDATE_FREQ_MS_ATTRIB, DEFAULT_STATS_UPDATE_FREQ_MS)
+            .setIfUnset(STATS_GUIDEPOST_WIDTH_BYTES_ATTRIB, DEFAULT_STATS_GUIDEPOST_WIDTH_BYTES)
             .setIfUnset(CALL_QUEUE_ROUND_ROBIN_ATTRIB, DEFAULT_CALL_QUEUE_ROUND_ROBIN)
             .setIfUnset(MAX_MUTATION_SIZE_ATTRIB, DEFAULT_MAX_MUTATION_SIZE)
+            .setIfUnset(MUTATE_MAX_BATCH_SIZE_PER_SERVER_ATTRIB, DEFAULT_MUTATE_MAX_BATCH_SIZE_PER_SERVER)
             .setIfUnset(MAX_INTRA_REGION_PARALLELIZATION_ATTRIB, DEFAULT_MAX_INTRA_REGION_PARALLELIZATION)
             .setIfUnset(ROW_KEY_ORDER_SALTED_TABLE_ATTRIB, DEFAULT_ROW_KEY_ORDER_SALTED_TABLE)
             .setIfUnset(USE_INDEXES_ATTRIB, DEFAULT_USE_INDEXES)
             .setIfUnset(IMMUTABLE_ROWS_ATTRIB, DEFAULT_IMMUTABLE_ROWS)
             .setIfUnset(INDEX_MUTATE_BATCH_SIZE_THRESHOLD_ATTRIB, DEFAULT_INDEX_MUTATE_BATCH_SIZE_THRESHOLD)
             .setIfUnset(MAX_SPOOL_TO_DISK_BYTES_ATTRIB, DEFAULT_MAX_SPOOL_TO_DISK_BYTES)
+            .setIfUnset(STREAMING_SCAN_ATTRIB, DEFAULT_STREAMING_SCAN)
+            .setIfUnset(STREAMING_PREFETCH_SIZE_ATTRIB, DEFAULT_STREAMING_PREFETCH_SIZE)
+            .setIfUnset(STREAMING_SPOOL_WAIT_MS_ATTRIB, DEFAULT_STREAMING_SPOOL_WAIT_MS)
+            .setIfUnset(SCAN_SPLIT_THRESHOLD_MS_ATTRIB, DEFAULT_SCAN_SPLIT_THRESHOLD_MS)
+            .setIfUnset(QUERY_PRIORITY_ATTRIB, DEFAULT_QUERY_PRIORITY)
+            .setIfUnset(QUERY_SHARE_WEIGHT_ATTRIB, DEFAULT_QUERY_SHARE_WEIGHT)
+            .setIfUnset(MAX_CONCURRENT_SCANS_PER_QUERY_ATTRIB, DEFAULT_MAX_CONCURRENT_SCANS_PER_QUERY)
             .setIfUnset(DROP_METADATA_ATTRIB, DEFAULT_DROP_METADATA)
             .setIfUnset(GROUPBY_SPILLABLE_ATTRIB, DEFAULT_GROUPBY_SPILLABLE)
             .setIfUnset(GROUPBY_MAX_CACHE_SIZE_ATTRIB, DEFAULT_GROUPBY_MAX_CACHE_MAX)
             .setIfUnset(GROUPBY_SPILL_FILES_ATTRIB, DEFAULT_GROUPBY_SPILL_FILES)
+            .setIfUnset(GROUPBY_CLIENT_HASH_AGGREGATE_ATTRIB, DEFAULT_GROUPBY_CLIENT_HASH_AGGREGATE)
+            .setIfUnset(BATCH_FILTER_ATTRIB, DEFAULT_BATCH_FILTER)
+            .setIfUnset(FILTER_BATCH_SIZE_ATTRIB, DEFAULT_FILTER_BATCH_SIZE)
             .setIfUnset(SEQUENCE_CACHE_SIZE_ATTRIB, DEFAULT_SEQUENCE_CACHE_SIZE)
+            .setIfUnset(PARSED_STATEMENT_CACHE_SIZE_ATTRIB, DEFAULT_PARSED_STATEMENT_CACHE_SIZE)
+            .setIfUnset(INDEX_BUILD_CHUNK_TIME_MS_ATTRIB, DEFAULT_INDEX_BUILD_CHUNK_TIME_MS)
+            .setIfUnset(INDEX_BUILD_RETRIES_ATTRIB, DEFAULT_INDEX_BUILD_RETRIES)
+            .setIfUnset(INDEX_BUILD_MAX_CONCURRENT_REGIONS_ATTRIB, DEFAULT_INDEX_BUILD_MAX_CONCURRENT_REGIONS)
+            .setIfUnset(INDEX_FAILURE_HANDLING_REBUILD_ATTRIB, DEFAULT_INDEX_FAILURE_HANDLING_REBUILD)
+            .setIfUnset(INDEX_FAILURE_HANDLING_REBUILD_INTERVAL_ATTRIB, DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_INTERVAL)
+            .setIfUnset(INDEX_FAILURE_HANDLING_REBUILD_MAX_BACKOFF_ATTRIB, DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_MAX_BACKOFF)
+            .setIfUnset(INDEX_FAILURE_HANDLING_REBUILD_OVERLAP_TIME_ATTRIB, DEFAULT_INDEX_FAILURE_HANDLING_REBUILD_OVERLAP_TIME)
             ;
         // HBase sets this to 1, so we reset it to something more appropriate.
         // Hopefully HBase will change this, because we can't know if a user set
@@ -234,6 +309,34 @@ public class QueryServicesOptions {
         return set(SPOOL_THRESHOLD_BYTES_ATTRIB, spoolThresholdBytes);
     }
     
+    public QueryServicesOptions setStreamingScan(boolean isStreaming) {
+        return set(STREAMING_SCAN_ATTRIB, isStreaming);
+    }
+    
+    public QueryServicesOptions setStreamingPrefetchSize(int prefetchSize) {
+        return set(STREAMING_PREFETCH_SIZE_ATTRIB, prefetchSize);
+    }
+    
+    public QueryServicesOptions setStreamingSpoolWaitMs(int spoolWaitMs) {
+        return set(STREAMING_SPOOL_WAIT_MS_ATTRIB, spoolWaitMs);
+    }
+    
+    public QueryServicesOptions setScanSplitThresholdMs(int splitThresholdMs) {
+        return set(SCAN_SPLIT_THRESHOLD_MS_ATTRIB, splitThresholdMs);
+    }
+    
+    public QueryServicesOptions setQueryPriority(JobGroup.Priority priority) {
+        return set(QUERY_PRIORITY_ATTRIB, priority.name());
+    }
+    
+    public QueryServicesOptions setQueryShareWeight(int weight) {
+        return set(QUERY_SHARE_WEIGHT_ATTRIB, weight);
+    }
+    
+    public QueryServicesOptions setMaxConcurrentScansPerQuery(int maxConcurrentScans) {
+        return set(MAX_CONCURRENT_SCANS_PER_QUERY_ATTRIB, maxConcurrentScans);
+    }
+    
     public QueryServicesOptions setMaxMemoryPerc(int maxMemoryPerc) {
         return set(MAX_MEMORY_PERC_ATTRIB, maxMemoryPerc);
     }
@@ -250,6 +353,18 @@ public class QueryServicesOptions {
         return set(MAX_SERVER_CACHE_SIZE_ATTRIB, maxServerCacheSize);
     }
 
+    public QueryServicesOptions setHashCacheOffHeap(boolean isOffHeap) {
+        return set(HASH_CACHE_OFF_HEAP_ATTRIB, isOffHeap);
+    }
+
+    public QueryServicesOptions setMaxOffHeapMemoryPerc(int maxOffHeapMemoryPerc) {
+        return set(MAX_OFF_HEAP_MEMORY_PERC_ATTRIB, maxOffHeapMemoryPerc);
+    }
+
+    public QueryServicesOptions setMaxHashJoinSkipScanKeys(int maxKeys) {
+        return set(MAX_HASH_JOIN_SKIP_SCAN_KEYS_ATTRIB, maxKeys);
+    }
+
     public QueryServicesOptions setScanFetchSize(int scanFetchSize) {
         return set(SCAN_CACHE_SIZE_ATTRIB, scanFetchSize);
     }
@@ -270,6 +385,10 @@ public class QueryServicesOptions {
         return set(STATS_UPDATE_FREQ_MS_ATTRIB, frequencyMs);
     }
     
+    public QueryServicesOptions setStatsGuidePostWidth(long guidePostWidth) {
+        return set(STATS_GUIDEPOST_WIDTH_BYTES_ATTRIB, guidePostWidth);
+    }
+    
     public QueryServicesOptions setCallQueueRoundRobin(boolean isRoundRobin) {
         return set(CALL_QUEUE_PRODUCER_ATTRIB_NAME, isRoundRobin);
     }
@@ -278,10 +397,18 @@ public class QueryServicesOptions {
         return set(MAX_MUTATION_SIZE_ATTRIB, maxMutateSize);
     }
     
+    public QueryServicesOptions setParsedStatementCacheSize(int cacheSize) {
+        return set(PARSED_STATEMENT_CACHE_SIZE_ATTRIB, cacheSize);
+    }
+    
     public QueryServicesOptions setMutateBatchSize(int mutateBatchSize) {
         return set(MUTATE_BATCH_SIZE_ATTRIB, mutateBatchSize);
     }
     
+    public QueryServicesOptions setMutateMaxBatchSizePerServer(int maxBatchSizePerServer) {
+        return set(MUTATE_MAX_BATCH_SIZE_PER_SERVER_ATTRIB, maxBatchSizePerServer);
+    }
+    
     public QueryServicesOptions setMaxIntraRegionParallelization(int maxIntraRegionParallelization) {
         return set(MAX_INTRA_REGION_PARALLELIZATION_ATTRIB, maxIntraRegionParallelization);
     }
@@ -305,6 +432,46 @@ public class QueryServicesOptions {
     public QueryServicesOptions setSPGBYNumSpillFiles(long num) {
         return set(GROUPBY_SPILL_FILES_ATTRIB, num);
     }
+    
+    public QueryServicesOptions setClientHashAggregate(boolean enabled) {
+        return set(GROUPBY_CLIENT_HASH_AGGREGATE_ATTRIB, enabled);
+    }
+    
+    public QueryServicesOptions setBatchFilter(boolean enabled) {
+        return set(BATCH_FILTER_ATTRIB, enabled);
+    }
+    
+    public QueryServicesOptions setFilterBatchSize(int batchSize) {
+        return set(FILTER_BATCH_SIZE_ATTRIB, batchSize);
+    }
+    
+    public QueryServicesOptions setIndexBuildChunkTimeMs(int chunkTimeMs) {
+        return set(INDEX_BUILD_CHUNK_TIME_MS_ATTRIB, chunkTimeMs);
+    }
+    
+    public QueryServicesOptions setIndexBuildRetries(int retries) {
+        return set(INDEX_BUILD_RETRIES_ATTRIB, retries);
+    }
+    
+    public QueryServicesOptions setIndexBuildMaxConcurrentRegions(int maxConcurrentRegions) {
+        return set(INDEX_BUILD_MAX_CONCURRENT_REGIONS_ATTRIB, maxConcurrentRegions);
+    }
+    
+    public QueryServicesOptions setIndexFailureHandlingRebuild(boolean enabled) {
+        return set(INDEX_FAILURE_HANDLING_REBUILD_ATTRIB, enabled);
+    }
+    
+    public QueryServicesOptions setIndexFailureHandlingRebuildInterval(long intervalMs) {
+        return set(INDEX_FAILURE_HANDLING_REBUILD_INTERVAL_ATTRIB, intervalMs);
+    }
+    
+    public QueryServicesOptions setIndexFailureHandlingRebuildMaxBackoff(long maxBackoffMs) {
+        return set(INDEX_FAILURE_HANDLING_REBUILD_MAX_BACKOFF_ATTRIB, maxBackoffMs);
+    }
+    
+    public QueryServicesOptions setIndexFailureHandlingRebuildOverlapTime(long overlapTimeMs) {
+        return set(INDEX_FAILURE_HANDLING_REBUILD_OVERLAP_TIME_ATTRIB, overlapTimeMs);
+    }
 
     
     private QueryServicesOptions set(String name, boolean value) {
@@ -339,6 +506,14 @@ public class QueryServicesOptions {
         return config.getInt(QUEUE_SIZE_ATTRIB, DEFAULT_QUEUE_SIZE);
     }
     
+    public int getQueueStatsLogIntervalMs() {
+        return config.getInt(QUEUE_STATS_LOG_INTERVAL_MS_ATTRIB, DEFAULT_QUEUE_STATS_LOG_INTERVAL_MS);
+    }
+    
+    public int getParsedStatementCacheSize() {
+        return config.getInt(PARSED_STATEMENT_CACHE_SIZE_ATTRIB, DEFAULT_PARSED_STATEMENT_CACHE_SIZE);
+    }
+    
     public int getMaxMemoryPerc() {
         return config.getInt(MAX_MEMORY_PERC_ATTRIB, DEFAULT_MAX_MEMORY_PERC);
     }
@@ -347,6 +522,26 @@ public class QueryServicesOptions {
         return config.getInt(MAX_MEMORY_WAIT_MS_ATTRIB, DEFAULT_MAX_MEMORY_WAIT_MS);
     }
 
+    public boolean isStreamingScan() {
+        return config.getBoolean(STREAMING_SCAN_ATTRIB, DEFAULT_STREAMING_SCAN);
+    }
+    
+    public int getScanSplitThresholdMs() {
+        return config.getInt(SCAN_SPLIT_THRESHOLD_MS_ATTRIB, DEFAULT_SCAN_SPLIT_THRESHOLD_MS);
+    }
+    
+    public JobGroup.Priority getQueryPriority() {
+        return JobGroup.Priority.fromName(config.get(QUERY_PRIORITY_ATTRIB, DEFAULT_QUERY_PRIORITY));
+    }
+    
+    public int getQueryShareWeight() {
+        return config.getInt(QUERY_SHARE_WEIGHT_ATTRIB, DEFAULT_QUERY_SHARE_WEIGHT);
+    }
+    
+    public int getMaxConcurrentScansPerQuery() {
+        return config.getInt(MAX_CONCURRENT_SCANS_PER_QUERY_ATTRIB, DEFAULT_MAX_CONCURRENT_SCANS_PER_QUERY);
+    }
+    
     public int getMaxMutateSize() {
         return config.getInt(MAX_MUTATION_SIZE_ATTRIB, DEFAULT_MAX_MUTATION_SIZE);
     }
@@ -382,6 +577,18 @@ public class QueryServicesOptions {
     public int getSpillableGroupByNumSpillFiles() {
         return config.getInt(GROUPBY_SPILL_FILES_ATTRIB, DEFAULT_GROUPBY_SPILL_FILES);
     }
+    
+    public boolean isClientHashAggregateEnabled() {
+        return config.getBoolean(GROUPBY_CLIENT_HASH_AGGREGATE_ATTRIB, DEFAULT_GROUPBY_CLIENT_HASH_AGGREGATE);
+    }
+    
+    public boolean isBatchFilterEnabled() {
+        return config.getBoolean(BATCH_FILTER_ATTRIB, DEFAULT_BATCH_FILTER);
+    }
+    
+    public int getFilterBatchSize() {
+        return config.getInt(FILTER_BATCH_SIZE_ATTRIB, DEFAULT_FILTER_BATCH_SIZE);
+    }
 
     public QueryServicesOptions setMaxServerCacheTTLMs(int ttl) {
         return set(MAX_SERVER_CACHE_TIME_TO_LIVE_MS, ttl);
@@ -30,6 +30,7 @@ package com.salesforce.phoenix.query;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -41,9 +42,16 @@ import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 
+import com.google.common.collect.Maps;
+import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
+import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
+import com.salesforce.phoenix.schema.stat.PTableStatsImpl;
+import com.salesforce.phoenix.util.ByteUtil;
 import com.salesforce.phoenix.util.SchemaUtil;
 import com.salesforce.phoenix.util.ServerUtil;
+import com.salesforce.phoenix.util.StatisticsUtil;
 
 
 /**
@@ -59,6 +67,10 @@ import com.salesforce.phoenix.util.ServerUtil;
  * 2) the query to get the stats pulls a single row so it's very cheap
  * 3) it's async and if it takes too long it won't lead to anything except less optimal
  *  parallelization.
+ * 
+ * The guide posts of each region are read from the SYSTEM.STATS table, where they're
+ * written by the {@link com.salesforce.phoenix.coprocessor.StatisticsCollector} during
+ * major compaction.
  *
  * @author jtaylor
  * @since 0.1
@@ -68,7 +80,7 @@ public class StatsManagerImpl implements StatsManager {
     private final int statsUpdateFrequencyMs;
     private final int maxStatsAgeMs;
     private final TimeKeeper timeKeeper;
-    private final ConcurrentMap<String,PTableStats> tableStatsMap = new ConcurrentHashMap<String,PTableStats>();
+    private final ConcurrentMap<String,TableStats> tableStatsMap = new ConcurrentHashMap<String,TableStats>();
 
     public StatsManagerImpl(ConnectionQueryServices services, int statsUpdateFrequencyMs, int maxStatsAgeMs) {
         this(services, statsUpdateFrequencyMs, maxStatsAgeMs, TimeKeeper.SYSTEM);
@@ -123,7 +135,8 @@ public class StatsManagerImpl implements StatsManager {
             if (r != null) {
                 maxKey = r.getRow();
             }
-            tableStatsMap.put(tableRef.getTable().getName().getString(), new PTableStats(timeKeeper.currentTimeMillis(),minKey,maxKey));
+            PTableStats guidePosts = getGuidePosts(tableRef.getTable().getPhysicalName().getBytes());
+            tableStatsMap.put(tableRef.getTable().getName().getString(), new TableStats(timeKeeper.currentTimeMillis(),minKey,maxKey,guidePosts));
         } catch (IOException e) {
             sqlE = ServerUtil.parseServerException(e);
         } finally {
@@ -143,10 +156,57 @@ public class StatsManagerImpl implements StatsManager {
         }
     }
     
-    private PTableStats getStats(final TableRef table) {
-        PTableStats stats = tableStatsMap.get(table);
+    /**
+     * Read the guide posts of each region of a physical table from the SYSTEM.STATS table.
+     * If guide posts were collected for more than one column family of a region, use the
+     * ones from the family with the most rows, as that one best reflects the row distribution.
+     * The byte count of a region is the sum of the byte counts of its column families.
+     */
+    private PTableStats getGuidePosts(byte[] physicalName) throws IOException, SQLException {
+        Map<String,byte[][]> regionGuidePosts = Maps.newHashMap();
+        Map<String,Long> regionRowCounts = Maps.newHashMap();
+        Map<String,Long> regionByteCounts = Maps.newHashMap();
+        byte[] startRow = StatisticsUtil.getRowKeyPrefix(physicalName);
+        Scan scan = new Scan(startRow, ByteUtil.nextKey(startRow));
+        scan.addColumn(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.GUIDE_POSTS_BYTES);
+        scan.addColumn(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.ROW_COUNT_BYTES);
+        scan.addColumn(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.BYTE_COUNT_BYTES);
+        HTableInterface statsTable = services.getTable(PhoenixDatabaseMetaData.STATS_TABLE_NAME_BYTES);
+        try {
+            ResultScanner scanner = statsTable.getScanner(scan);
+            try {
+                for (Result result = scanner.next(); result != null; result = scanner.next()) {
+                    byte[] guidePosts = result.getValue(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.GUIDE_POSTS_BYTES);
+                    byte[] rowCountBytes = result.getValue(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.ROW_COUNT_BYTES);
+                    if (guidePosts == null || rowCountBytes == null) {
+                        continue;
+                    }
+                    String regionName = StatisticsUtil.getRegionName(result.getRow(), physicalName);
+                    byte[] byteCountBytes = result.getValue(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.BYTE_COUNT_BYTES);
+                    if (byteCountBytes != null) {
+                        Long byteCount = regionByteCounts.get(regionName);
+                        regionByteCounts.put(regionName, (byteCount == null ? 0 : byteCount) + (Long)PDataType.LONG.toObject(byteCountBytes));
+                    }
+                    long rowCount = (Long)PDataType.LONG.toObject(rowCountBytes);
+                    Long maxRowCount = regionRowCounts.get(regionName);
+                    if (maxRowCount == null || rowCount > maxRowCount) {
+                        regionRowCounts.put(regionName, rowCount);
+                        regionGuidePosts.put(regionName, StatisticsUtil.fromGuidePostsBytes(guidePosts));
+                    }
+                }
+            } finally {
+                scanner.close();
+            }
+        } finally {
+            statsTable.close();
+        }
+        return new PTableStatsImpl(regionGuidePosts, regionByteCounts);
+    }
+    
+    private TableStats getStats(final TableRef table) {
+        TableStats stats = tableStatsMap.get(table.getTable().getName().getString());
         if (stats == null) {
-            PTableStats newStats = new PTableStats();
+            TableStats newStats = new TableStats();
             stats = tableStatsMap.putIfAbsent(table.getTable().getName().getString(), newStats);
             stats = stats == null ? newStats : stats;
         }
@@ -172,7 +232,7 @@ public class StatsManagerImpl implements StatsManager {
             }
             // If the stats are older than the max age, use an empty stats
             if (currentTime - stats.getCompletedTime() >= maxStatsAgeMs) {
-                return PTableStats.NO_STATS;
+                return TableStats.NO_STATS;
             }
         }
         return stats;
@@ -180,32 +240,44 @@ public class StatsManagerImpl implements StatsManager {
     
     @Override
     public byte[] getMinKey(TableRef table) {
-        PTableStats stats = getStats(table);
+        TableStats stats = getStats(table);
         return stats.getMinKey();
     }
 
     @Override
     public byte[] getMaxKey(TableRef table) {
-        PTableStats stats = getStats(table);
+        TableStats stats = getStats(table);
         return stats.getMaxKey();
     }
 
-    private static class PTableStats {
-        private static final PTableStats NO_STATS = new PTableStats();
+    @Override
+    public PTableStats getTableStats(TableRef table) {
+        TableStats stats = getStats(table);
+        return stats.getGuidePosts();
+    }
+
+    private static class TableStats {
+        private static final TableStats NO_STATS = new TableStats();
         private long initiatedTime;
         private final long completedTime;
         private final byte[] minKey;
         private final byte[] maxKey;
+        private final PTableStats guidePosts;
         
-        public PTableStats() {
-            this(-1,null,null);
+        public TableStats() {
+            this(-1,null,null,PTableStatsImpl.NO_STATS);
         }
-        public PTableStats(long completedTime, byte[] minKey, byte[] maxKey) {
+        public TableStats(long completedTime, byte[] minKey, byte[] maxKey, PTableStats guidePosts) {
             this.minKey = minKey;
             this.maxKey = maxKey;
+            this.guidePosts = guidePosts;
             this.completedTime = this.initiatedTime = completedTime;
         }
 
+        private PTableStats getGuidePosts() {
+            return guidePosts;
+        }
+
         private byte[] getMinKey() {
             return minKey;
         }
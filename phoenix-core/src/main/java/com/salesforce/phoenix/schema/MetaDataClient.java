@@ -44,6 +44,7 @@ import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DEFAULT_COLUMN
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.DISABLE_WAL;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.IMMUTABLE_ROWS;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_STATE;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.INDEX_TYPE;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.MULTI_TENANT;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.NULLABLE;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.ORDINAL_POSITION;
@@ -84,6 +85,7 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.DisabledRegionSplitPolicy;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.slf4j.Logger;
@@ -127,6 +129,7 @@ import com.salesforce.phoenix.parse.TableName;
 import com.salesforce.phoenix.query.QueryConstants;
 import com.salesforce.phoenix.query.QueryServices;
 import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.PTable.IndexType;
 import com.salesforce.phoenix.schema.PTable.ViewType;
 import com.salesforce.phoenix.util.ByteUtil;
 import com.salesforce.phoenix.util.IndexUtil;
@@ -157,8 +160,9 @@ public class MetaDataClient {
             MULTI_TENANT + "," +
             VIEW_TYPE + "," +
             BASE_SCHEMA_NAME + "," +
-            BASE_TABLE_NAME +
-            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+            BASE_TABLE_NAME + "," +
+            INDEX_TYPE +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
     private static final String CREATE_INDEX_LINK =
             "UPSERT INTO " + TYPE_SCHEMA + ".\"" + TYPE_TABLE + "\"( " +
             TENANT_ID + "," +
@@ -348,7 +352,7 @@ public class MetaDataClient {
     }
 
     public MutationState createTable(CreateTableStatement statement, byte[][] splits, PTable parent, Expression viewExpression, ViewType viewType) throws SQLException {
-        PTable table = createTableInternal(statement, splits, parent, viewExpression, viewType);
+        PTable table = createTableInternal(statement, splits, parent, viewExpression, viewType, null);
         if (table == null || table.getType() == PTableType.VIEW) {
             return new MutationState(0,connection);
         }
@@ -454,6 +458,9 @@ public class MetaDataClient {
                 ColumnResolver resolver = FromCompiler.getResolver(statement, connection);
                 tableRef = resolver.getTables().get(0);
                 PTable dataTable = tableRef.getTable();
+                if (statement.isLocal() && dataTable.isImmutableRows()) {
+                    throw new SQLExceptionInfo.Builder(SQLExceptionCode.NO_LOCAL_INDEX_ON_IMMUTABLE_ROWS).setTableName(indexTableName.getTableName()).build().buildException();
+                }
                 int hbaseVersion = connection.getQueryServices().getLowestClusterHBaseVersion();
                 if (!dataTable.isImmutableRows()) {
                     if (hbaseVersion < PhoenixDatabaseMetaData.MUTABLE_SI_VERSION_THRESHOLD) {
@@ -508,15 +515,17 @@ public class MetaDataClient {
                             throw new SQLExceptionInfo.Builder(SQLExceptionCode.COLUMN_EXIST_IN_DEF).build().buildException();
                         }
                         if (!SchemaUtil.isPKColumn(col)) {
-                            // Need to re-create ColumnName, since the above one won't have the column family name
-                            colName = ColumnName.caseSensitiveColumnName(col.getFamilyName().getString(), IndexUtil.getIndexColumnName(col));
+                            // Need to re-create ColumnName, since the above one won't have the column family name.
+                            // The covered columns of a local index all go into the shadow column family.
+                            String familyName = statement.isLocal() ? QueryConstants.LOCAL_INDEX_COLUMN_FAMILY : col.getFamilyName().getString();
+                            colName = ColumnName.caseSensitiveColumnName(familyName, IndexUtil.getIndexColumnName(col));
                             columnDefs.add(FACTORY.columnDef(colName, col.getDataType().getSqlTypeName(), col.isNullable(), col.getMaxLength(), col.getScale(), false, col.getColumnModifier()));
                         }
                     }
                 }
                 
                 CreateTableStatement tableStatement = FACTORY.createTable(indexTableName, statement.getProps(), columnDefs, pk, statement.getSplitNodes(), PTableType.INDEX, statement.ifNotExists(), null, null, statement.getBindCount());
-                table = createTableInternal(tableStatement, splits, tableRef.getTable(), null, null); // TODO: tenant-specific index
+                table = createTableInternal(tableStatement, splits, tableRef.getTable(), null, null, statement.isLocal() ? IndexType.LOCAL : IndexType.GLOBAL); // TODO: tenant-specific index
                 break;
             } catch (ConcurrentTableMutationException e) { // Can happen if parent data table changes while above is in progress
                 if (retry) {
@@ -581,7 +590,7 @@ public class MetaDataClient {
         return null;
     }
     
-    private PTable createTableInternal(CreateTableStatement statement, byte[][] splits, final PTable parent, Expression viewExpression, ViewType viewType) throws SQLException {
+    private PTable createTableInternal(CreateTableStatement statement, byte[][] splits, final PTable parent, Expression viewExpression, ViewType viewType, IndexType indexType) throws SQLException {
         final PTableType tableType = statement.getTableType();
         boolean wasAutoCommit = connection.getAutoCommit();
         connection.rollback();
@@ -668,8 +677,14 @@ public class MetaDataClient {
                 if (saltBucketNum != null && (saltBucketNum < 0 || saltBucketNum > SaltingUtil.MAX_BUCKET_NUM)) {
                     throw new SQLExceptionInfo.Builder(SQLExceptionCode.INVALID_BUCKET_NUM).build().buildException();
                 }
-                // Salt the index table if the data table is salted
-                if (saltBucketNum == null) {
+                if (indexType == IndexType.LOCAL) {
+                    // The rows of a local index are partitioned by the regions of the data table
+                    if (saltBucketNum != null && saltBucketNum.intValue() != 0) {
+                        throw new SQLExceptionInfo.Builder(SQLExceptionCode.CANNOT_SALT_LOCAL_INDEX).setTableName(tableName).build().buildException();
+                    }
+                    saltBucketNum = null;
+                } else if (saltBucketNum == null) {
+                    // Salt the index table if the data table is salted
                     if (parent != null) {
                         saltBucketNum = parent.getBucketNum();
                     }
@@ -850,6 +865,22 @@ public class MetaDataClient {
             }
             throwIfInsufficientColumns(schemaName, tableName, pkColumns, isSalted, multiTenant);
             
+            if (indexType == IndexType.LOCAL) {
+                // Make sure the shadow column family exists, even if nothing is covered by the index
+                familyNames.put(QueryConstants.LOCAL_INDEX_COLUMN_FAMILY, PNameFactory.newName(QueryConstants.LOCAL_INDEX_COLUMN_FAMILY));
+                /*
+                 * The row key prefix of a local index depends on the region boundaries of the data table,
+                 * so the data table may not be split while it has local indexes. The split policy it had
+                 * before its first local index is saved to be restored once its last local index is dropped.
+                 */
+                HTableDescriptor descriptor = connection.getQueryServices().getTableDescriptor(parent.getPhysicalName().getBytes());
+                if (descriptor == null || descriptor.getValue(SchemaUtil.SAVED_SPLIT_POLICY) == null) { // Is null for connectionless
+                    String splitPolicy = descriptor == null ? null : descriptor.getValue(HTableDescriptor.SPLIT_POLICY);
+                    tableProps.put(SchemaUtil.SAVED_SPLIT_POLICY, splitPolicy == null ? "" : splitPolicy);
+                }
+                tableProps.put(HTableDescriptor.SPLIT_POLICY, DisabledRegionSplitPolicy.class.getName());
+            }
+            
             for (PName familyName : familyNames.values()) {
                 Collection<Pair<String,Object>> props = statement.getProps().get(familyName.getString());
                 if (props.isEmpty()) {
@@ -871,9 +902,9 @@ public class MetaDataClient {
                         MetaDataProtocol.MIN_TABLE_TIMESTAMP, PTable.INITIAL_SEQ_NUM, PNameFactory.newName(QueryConstants.SYSTEM_TABLE_PK_NAME),
                         null, columns, null, Collections.<PTable>emptyList(), isImmutableRows, 
                         null, null, defaultFamilyName == null ? null : PNameFactory.newName(defaultFamilyName),
-                        null, Boolean.TRUE.equals(disableWAL), false, null);
+                        null, Boolean.TRUE.equals(disableWAL), false, null, null);
                 connection.addTable(table);
-            } else if (tableType == PTableType.INDEX) {
+            } else if (tableType == PTableType.INDEX && indexType != IndexType.LOCAL) {
                 if (tableProps.get(HTableDescriptor.MAX_FILESIZE) == null) {
                     int nIndexRowKeyColumns = isPK ? 1 : pkColumnsNames.size();
                     int nIndexKeyValueColumns = columns.size() - nIndexRowKeyColumns;
@@ -933,6 +964,11 @@ public class MetaDataClient {
             }
             tableUpsert.setString(17, baseSchemaName);
             tableUpsert.setString(18, baseTableName);
+            if (indexType == null) {
+                tableUpsert.setNull(19, Types.TINYINT);
+            } else {
+                tableUpsert.setByte(19, indexType.getSerializedValue());
+            }
             tableUpsert.execute();
             
             tableMetaData.addAll(connection.getMutationState().toMutations().next().getSecond());
@@ -948,9 +984,15 @@ public class MetaDataClient {
             
             splits = SchemaUtil.processSplits(splits, pkColumns, saltBucketNum, connection.getQueryServices().getProps().getBoolean(
                     QueryServices.ROW_KEY_ORDER_SALTED_TABLE_ATTRIB, QueryServicesOptions.DEFAULT_ROW_KEY_ORDER_SALTED_TABLE));
+            byte[] physicalTableName = null;
+            if (viewType == ViewType.MAPPED) {
+                physicalTableName = SchemaUtil.getTableNameAsBytes(baseSchemaName, baseTableName);
+            } else if (indexType == IndexType.LOCAL) {
+                physicalTableName = parent.getPhysicalName().getBytes();
+            }
             MetaDataMutationResult result = connection.getQueryServices().createTable(
                     tableMetaData, 
-                    viewType == ViewType.MAPPED ? SchemaUtil.getTableNameAsBytes(baseSchemaName, baseTableName) : null,
+                    physicalTableName,
                     tableType, tableProps, familyPropList, splits);
             MutationCode code = result.getMutationCode();
             switch(code) {
@@ -976,7 +1018,7 @@ public class MetaDataClient {
                         pkName == null ? null : PNameFactory.newName(pkName), saltBucketNum, columns, dataTableName == null ? null : PNameFactory.newName(dataTableName), 
                         Collections.<PTable>emptyList(), isImmutableRows, baseSchemaName == null ? null : PNameFactory.newName(baseSchemaName),
                         baseTableName == null ? null : PNameFactory.newName(baseTableName), defaultFamilyName == null ? null : PNameFactory.newName(defaultFamilyName),
-                        viewExpressionStr, Boolean.TRUE.equals(disableWAL), multiTenant, viewType);
+                        viewExpressionStr, Boolean.TRUE.equals(disableWAL), multiTenant, viewType, indexType);
                 connection.addTable(table);
                 return table;
             }
@@ -1077,13 +1119,23 @@ public class MetaDataClient {
                     throw new SQLExceptionInfo.Builder(SQLExceptionCode.CANNOT_MUTATE_TABLE)
                         .setSchemaName(schemaName).setTableName(tableName).build().buildException();
                 default:
+                    if (parentTableName != null) {
+                        try {
+                            // The cached parent table still lists the dropped index, so remove it along with
+                            // its indexes to have it resolved again, instead of counting on its time stamp
+                            // having changed on the server since it was cached.
+                            connection.removeTable(SchemaUtil.getTableName(schemaName, parentTableName));
+                        } catch (TableNotFoundException ignore) { } // Ignore - just means wasn't cached
+                    }
                     try {
-                        // TODO: should we update the parent table by removing the index?
                         connection.removeTable(tableName);
                     } catch (TableNotFoundException ignore) { } // Ignore - just means wasn't cached
                     
                     boolean dropMetaData = connection.getQueryServices().getProps().getBoolean(DROP_METADATA_ATTRIB, DEFAULT_DROP_METADATA);
-                    if (result.getTable() != null && !(tableType == PTableType.VIEW && result.getTable().getViewType() != ViewType.UPDATABLE) && !dropMetaData) {
+                    // A local index lives in the data table, so its rows aren't dropped along with any HTable
+                    // and must always be deleted, otherwise an index re-created with the same name sees them.
+                    boolean isLocalIndex = result.getTable() != null && result.getTable().getIndexType() == IndexType.LOCAL;
+                    if (result.getTable() != null && !(tableType == PTableType.VIEW && result.getTable().getViewType() != ViewType.UPDATABLE) && (!dropMetaData || isLocalIndex)) {
                         connection.setAutoCommit(true);
                         // Delete everything in the column. You'll still be able to do queries at earlier timestamps
                         long ts = (scn == null ? result.getMutationTime() : scn);
@@ -1097,7 +1149,11 @@ public class MetaDataClient {
                             tableRefs.add(new TableRef(null, index, ts, false));
                         }
                         MutationPlan plan = new PostDDLCompiler(connection).compile(tableRefs, null, null, Collections.<PColumn>emptyList(), ts);
-                        return connection.getQueryServices().updateData(plan);
+                        MutationState state = connection.getQueryServices().updateData(plan);
+                        if (isLocalIndex) {
+                            restoreSplitPolicy(schemaName, parentTableName);
+                        }
+                        return state;
                     }
                     break;
                 }
@@ -1107,6 +1163,26 @@ public class MetaDataClient {
         }
     }
 
+    /**
+     * Restores the split policy the data table had before its first local index was created, if
+     * the last of its local indexes has been dropped.
+     */
+    private void restoreSplitPolicy(String schemaName, String tableName) throws SQLException {
+        updateCache(connection.getTenantId() == null ? null : connection.getTenantId().getBytes(), schemaName, tableName);
+        PTable table;
+        try {
+            table = connection.getPMetaData().getTable(SchemaUtil.getTableName(schemaName, tableName));
+        } catch (TableNotFoundException e) {
+            return; // Ignore - just means the data table was dropped as well
+        }
+        for (PTable index : table.getIndexes()) {
+            if (index.getIndexType() == IndexType.LOCAL) {
+                return;
+            }
+        }
+        connection.getQueryServices().restoreSplitPolicy(table.getPhysicalName().getBytes());
+    }
+
     private MutationCode processMutationResult(String schemaName, String tableName, MetaDataMutationResult result) throws SQLException {
         final MutationCode mutationCode = result.getMutationCode();
         switch (mutationCode) {
@@ -1284,6 +1360,14 @@ public class MetaDataClient {
                             throw new SQLExceptionInfo.Builder(SQLExceptionCode.INVALID_MUTABLE_INDEX_CONFIG).setSchemaName(schemaName).setTableName(tableName).build().buildException();
                         }
                     }
+                    // Local indexes are only maintained for mutable rows
+                    if (isImmutableRowsProp != null && isImmutableRows && !table.isImmutableRows()) {
+                        for (PTable index : table.getIndexes()) {
+                            if (index.getIndexType() == IndexType.LOCAL) {
+                                throw new SQLExceptionInfo.Builder(SQLExceptionCode.NO_LOCAL_INDEX_ON_IMMUTABLE_ROWS).setSchemaName(schemaName).setTableName(tableName).build().buildException();
+                            }
+                        }
+                    }
                     // TODO: if switching table to multiTenant or multiType, do some error checking
                 }
                 
@@ -1652,11 +1736,17 @@ public class MetaDataClient {
             }
             if (newIndexState == PIndexState.BUILDING) {
                 PTable index = indexRef.getTable();
-                // First delete any existing rows of the index
                 Long scn = connection.getSCN();
-                long ts = scn == null ? HConstants.LATEST_TIMESTAMP : scn;
-                MutationPlan plan = new PostDDLCompiler(connection).compile(Collections.singletonList(indexRef), null, null, Collections.<PColumn>emptyList(), ts);
-                connection.getQueryServices().updateData(plan);
+                // An index still building has been maintained since its build began, so a server-side
+                // build of it that didn't complete is resumed instead of started over
+                boolean isResumed = scn == null && index.getIndexState() == PIndexState.BUILDING
+                        && PostIndexDDLCompiler.hasBuildProgress(connection, index);
+                if (!isResumed) {
+                    // First delete any existing rows of the index
+                    long ts = scn == null ? HConstants.LATEST_TIMESTAMP : scn;
+                    MutationPlan plan = new PostDDLCompiler(connection).compile(Collections.singletonList(indexRef), null, null, Collections.<PColumn>emptyList(), ts);
+                    connection.getQueryServices().updateData(plan);
+                }
                 NamedTableNode dataTableNode = NamedTableNode.create(null, TableName.create(schemaName, dataTableName), Collections.<ColumnDef>emptyList());
                 // Next rebuild the index
                 if (connection.getSCN() != null) {
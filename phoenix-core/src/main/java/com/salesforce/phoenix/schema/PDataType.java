@@ -399,6 +399,32 @@ public enum PDataType {
             }
         }
 
+        @Override
+        public void coerceBytes(ImmutableBytesWritable ptr, PDataType actualType, ColumnModifier actualModifier, ColumnModifier expectedModifier) {
+            if (ptr.getLength() > 0) {
+                switch (actualType) {
+                case UNSIGNED_LONG:
+                case INTEGER:
+                case UNSIGNED_INT:
+                case SMALLINT:
+                case UNSIGNED_SMALLINT:
+                case TINYINT:
+                case UNSIGNED_TINYINT:
+                    // Widen integral values through the codecs instead of boxing them
+                    long v = actualType.getCodec().decodeLong(ptr, actualModifier);
+                    byte[] b = new byte[Bytes.SIZEOF_LONG];
+                    this.getCodec().encodeLong(v, b, 0);
+                    if (expectedModifier != null) {
+                        expectedModifier.apply(b, 0, b, 0, b.length);
+                    }
+                    ptr.set(b);
+                    return;
+                default:
+                }
+            }
+            super.coerceBytes(ptr, actualType, actualModifier, expectedModifier);
+        }
+
         @Override
         public boolean isCoercibleTo(PDataType targetType) {
             // In general, don't allow conversion of LONG to INTEGER. There are times when
@@ -5424,6 +5450,43 @@ public enum PDataType {
         }
     }
     
+    /**
+     * Compares a long against the serialized value of a type with a native representation,
+     * as {@link #compareTo(byte[], int, int, ColumnModifier, byte[], int, int, ColumnModifier, PDataType)}
+     * would compare the LONG serialization of the long, but without serializing it.
+     * @param lhs the long value
+     * @param rhs the byte array of the value to compare against
+     * @param rhsOffset the offset of the value in rhs
+     * @param rhsColumnModifier the column modifier of the value
+     * @param rhsType the type of the value, which must have a non null {@link #getCodec()}
+     */
+    public static int compareTo(long lhs, byte[] rhs, int rhsOffset, ColumnModifier rhsColumnModifier, PDataType rhsType) {
+        if (rhsType.isCoercibleTo(PDataType.LONG)) {
+            return Longs.compare(lhs, rhsType.getCodec().decodeLong(rhs, rhsOffset, rhsColumnModifier));
+        }
+        if (rhsType == PDataType.FLOAT) {
+            return -compareFloatToLong(rhsType.getCodec().decodeFloat(rhs, rhsOffset, rhsColumnModifier), lhs);
+        }
+        return -compareDoubleToLong(rhsType.getCodec().decodeDouble(rhs, rhsOffset, rhsColumnModifier), lhs);
+    }
+    
+    /**
+     * Compares a double against the serialized value of a type with a native representation,
+     * as {@link #compareTo(byte[], int, int, ColumnModifier, byte[], int, int, ColumnModifier, PDataType)}
+     * would compare the DOUBLE serialization of the double, but without serializing it.
+     * @param lhs the double value
+     * @param rhs the byte array of the value to compare against
+     * @param rhsOffset the offset of the value in rhs
+     * @param rhsColumnModifier the column modifier of the value
+     * @param rhsType the type of the value, which must have a non null {@link #getCodec()}
+     */
+    public static int compareTo(double lhs, byte[] rhs, int rhsOffset, ColumnModifier rhsColumnModifier, PDataType rhsType) {
+        if (isDoubleOrFloat(rhsType)) {
+            return Doubles.compare(lhs, rhsType.getCodec().decodeDouble(rhs, rhsOffset, rhsColumnModifier));
+        }
+        return compareDoubleToLong(lhs, rhsType.getCodec().decodeLong(rhs, rhsOffset, rhsColumnModifier));
+    }
+    
     public static boolean isDoubleOrFloat(PDataType type){
         return type == PDataType.FLOAT || type == PDataType.DOUBLE
                 || type == PDataType.UNSIGNED_FLOAT || type == PDataType.UNSIGNED_DOUBLE;
@@ -92,6 +92,35 @@ public interface PTable extends Writable {
         }
     }
 
+    public enum IndexType {
+        /**
+         * Index rows are stored in a separate table, partitioned independently of the data table.
+         */
+        GLOBAL((byte)1),
+        /**
+         * Index rows are stored in a shadow column family of the data table, inside the same
+         * region as the data rows they index, so that index maintenance never leaves the region.
+         */
+        LOCAL((byte)2);
+
+        private final byte serializedValue;
+        
+        IndexType(byte serializedValue) {
+            this.serializedValue = serializedValue;
+        }
+        
+        public byte getSerializedValue() {
+            return this.serializedValue;
+        }
+        
+        public static IndexType fromSerializedValue(byte serializedValue) {
+            if (serializedValue < 1 || serializedValue > IndexType.values().length) {
+                throw new IllegalArgumentException("Invalid IndexType " + serializedValue);
+            }
+            return IndexType.values()[serializedValue-1];
+        }
+    }
+
     long getTimeStamp();
     long getSequenceNumber();
     /**
@@ -254,4 +283,8 @@ public interface PTable extends Writable {
     boolean isWALDisabled();
     boolean isMultiTenant();
     ViewType getViewType();
+    /**
+     * @return the type of index for an INDEX table, and null otherwise
+     */
+    IndexType getIndexType();
 }
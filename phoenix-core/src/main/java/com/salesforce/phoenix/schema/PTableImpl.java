@@ -123,6 +123,7 @@ public class PTableImpl implements PTable {
     private boolean disableWAL;
     private boolean multiTenant;
     private ViewType viewType;
+    private IndexType indexType;
     
     private ParseNode viewNode;
     // default to the generic builder, and only override when we know on the client
@@ -162,6 +163,7 @@ public class PTableImpl implements PTable {
         if (isIndex) {
             this.type = PTableType.INDEX;
             this.state = PIndexState.INACTIVE;
+            this.indexType = IndexType.GLOBAL;
         } else {
             this.type = PTableType.USER;
         }
@@ -183,26 +185,26 @@ public class PTableImpl implements PTable {
         return new PTableImpl(
                 table.getSchemaName(), table.getTableName(), table.getType(), table.getIndexState(), timeStamp, table.getSequenceNumber() + 1, 
                 table.getPKName(), table.getBucketNum(), getColumnsToClone(table), table.getParentTableName(), indexes, table.isImmutableRows(),
-                table.getBaseSchemaName(), table.getBaseTableName(), table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType());
+                table.getBaseSchemaName(), table.getBaseTableName(), table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType(), table.getIndexType());
     }
 
     public static PTableImpl makePTable(PTable table, List<PColumn> columns) throws SQLException {
         return new PTableImpl(
                 table.getSchemaName(), table.getTableName(), table.getType(), table.getIndexState(), table.getTimeStamp(), table.getSequenceNumber(), 
-                table.getPKName(), table.getBucketNum(), columns, table.getParentTableName(), table.getIndexes(), table.isImmutableRows(), table.getBaseSchemaName(), table.getBaseTableName(), table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType());
+                table.getPKName(), table.getBucketNum(), columns, table.getParentTableName(), table.getIndexes(), table.isImmutableRows(), table.getBaseSchemaName(), table.getBaseTableName(), table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType(), table.getIndexType());
     }
 
     public static PTableImpl makePTable(PTable table, long timeStamp, long sequenceNumber, List<PColumn> columns) throws SQLException {
         return new PTableImpl(
                 table.getSchemaName(), table.getTableName(), table.getType(), table.getIndexState(), timeStamp, sequenceNumber, 
-                table.getPKName(), table.getBucketNum(), columns, table.getParentTableName(), table.getIndexes(), table.isImmutableRows(), table.getBaseSchemaName(), table.getBaseTableName(), table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType());
+                table.getPKName(), table.getBucketNum(), columns, table.getParentTableName(), table.getIndexes(), table.isImmutableRows(), table.getBaseSchemaName(), table.getBaseTableName(), table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType(), table.getIndexType());
     }
 
     public static PTableImpl makePTable(PTable table, long timeStamp, long sequenceNumber, List<PColumn> columns, boolean isImmutableRows) throws SQLException {
         return new PTableImpl(
                 table.getSchemaName(), table.getTableName(), table.getType(), table.getIndexState(), timeStamp, sequenceNumber, 
                 table.getPKName(), table.getBucketNum(), columns, table.getParentTableName(), table.getIndexes(), isImmutableRows,
-                table.getBaseSchemaName(), table.getBaseTableName(), table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType());
+                table.getBaseSchemaName(), table.getBaseTableName(), table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType(), table.getIndexType());
     }
 
     public static PTableImpl makePTable(PTable table, PIndexState state) throws SQLException {
@@ -210,21 +212,21 @@ public class PTableImpl implements PTable {
                 table.getSchemaName(), table.getTableName(), table.getType(), state, table.getTimeStamp(), table.getSequenceNumber(), 
                 table.getPKName(), table.getBucketNum(), getColumnsToClone(table), table.getParentTableName(), 
                 table.getIndexes(), table.isImmutableRows(), table.getBaseSchemaName(), table.getBaseTableName(),
-                table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType());
+                table.getDefaultFamilyName(), table.getViewExpression(), table.isWALDisabled(), table.isMultiTenant(), table.getViewType(), table.getIndexType());
     }
 
     public static PTableImpl makePTable(PName schemaName, PName tableName, PTableType type, PIndexState state, long timeStamp, long sequenceNumber, PName pkName,
             Integer bucketNum, List<PColumn> columns, PName dataTableName, List<PTable> indexes, boolean isImmutableRows, PName baseSchemaName,
-            PName baseTableName, PName defaultFamilyName, String viewExpression, boolean disableWAL, boolean multiTenant, ViewType viewType) throws SQLException {
+            PName baseTableName, PName defaultFamilyName, String viewExpression, boolean disableWAL, boolean multiTenant, ViewType viewType, IndexType indexType) throws SQLException {
         return new PTableImpl(schemaName, tableName, type, state, timeStamp, sequenceNumber, pkName, bucketNum, columns, dataTableName, indexes,
-                isImmutableRows, baseSchemaName, baseTableName, defaultFamilyName, viewExpression, disableWAL, multiTenant, viewType);
+                isImmutableRows, baseSchemaName, baseTableName, defaultFamilyName, viewExpression, disableWAL, multiTenant, viewType, indexType);
     }
 
     private PTableImpl(PName schemaName, PName tableName, PTableType type, PIndexState state, long timeStamp, long sequenceNumber, PName pkName,
             Integer bucketNum, List<PColumn> columns, PName dataTableName, List<PTable> indexes, boolean isImmutableRows, PName baseSchemaName,
-            PName baseTableName, PName defaultFamilyName, String viewExpression, boolean disableWAL, boolean multiTenant, ViewType viewType) throws SQLException {
+            PName baseTableName, PName defaultFamilyName, String viewExpression, boolean disableWAL, boolean multiTenant, ViewType viewType, IndexType indexType) throws SQLException {
         init(schemaName, tableName, type, state, timeStamp, sequenceNumber, pkName, bucketNum, columns, new PTableStatsImpl(),
-                dataTableName, indexes, isImmutableRows, baseSchemaName, baseTableName, defaultFamilyName, viewExpression, disableWAL, multiTenant, viewType);
+                dataTableName, indexes, isImmutableRows, baseSchemaName, baseTableName, defaultFamilyName, viewExpression, disableWAL, multiTenant, viewType, indexType);
     }
 
     @Override
@@ -237,9 +239,14 @@ public class PTableImpl implements PTable {
         return viewType;
     }
     
+    @Override
+    public IndexType getIndexType() {
+        return indexType;
+    }
+    
     private void init(PName schemaName, PName tableName, PTableType type, PIndexState state, long timeStamp, long sequenceNumber, PName pkName,
             Integer bucketNum, List<PColumn> columns, PTableStats stats, PName parentTableName, List<PTable> indexes, boolean isImmutableRows,
-            PName baseSchemaName, PName baseTableName, PName defaultFamilyName, String viewExpression, boolean disableWAL, boolean multiTenant, ViewType viewType) throws SQLException {
+            PName baseSchemaName, PName baseTableName, PName defaultFamilyName, String viewExpression, boolean disableWAL, boolean multiTenant, ViewType viewType, IndexType indexType) throws SQLException {
         if (schemaName == null) {
             throw new NullPointerException();
         }
@@ -257,6 +264,7 @@ public class PTableImpl implements PTable {
         this.disableWAL = disableWAL;
         this.multiTenant = multiTenant;
         this.viewType = viewType;
+        this.indexType = type == PTableType.INDEX && indexType == null ? IndexType.GLOBAL : indexType;
         List<PColumn> pkColumns;
         PColumn[] allColumns;
 
@@ -267,7 +275,6 @@ public class PTableImpl implements PTable {
             allColumns = new PColumn[columns.size()+1];
             allColumns[SALTING_COLUMN.getPosition()] = SALTING_COLUMN;
             pkColumns = Lists.newArrayListWithExpectedSize(columns.size()+1);
-            pkColumns.add(SALTING_COLUMN);
         } else {
             allColumns = new PColumn[columns.size()];
             pkColumns = Lists.newArrayListWithExpectedSize(columns.size());
@@ -276,9 +283,6 @@ public class PTableImpl implements PTable {
             PColumn column = columns.get(i);
             allColumns[column.getPosition()] = column;
             PName familyName = column.getFamilyName();
-            if (familyName == null) {
-                pkColumns.add(column);
-            }
             String columnName = column.getName().getString();
             if (columnsByName.put(columnName, column)) {
                 int count = 0;
@@ -292,6 +296,13 @@ public class PTableImpl implements PTable {
                 }
             }
         }
+        // Columns may be given in any order (such as the order of their rows in SYSTEM.TABLE),
+        // while the row key is always formed by the PK columns in the order of their position
+        for (PColumn column : allColumns) {
+            if (column.getFamilyName() == null) {
+                pkColumns.add(column);
+            }
+        }
         this.bucketNum = bucketNum;
         this.pkColumns = ImmutableList.copyOf(pkColumns);
         this.allColumns = ImmutableList.copyOf(allColumns);
@@ -610,11 +621,29 @@ public class PTableImpl implements PTable {
             // in 0.94.4, thus if we try to use it here we can no longer use the 0.94.2 version
             // of the client.
             Delete delete = new Delete(key,ts,null);
+            if (hasLocalIndex()) {
+                // Only delete the data column families, as a local index row may share the same key
+                if (families.isEmpty()) {
+                    delete.deleteFamily(QueryConstants.EMPTY_COLUMN_BYTES, ts);
+                }
+                for (PColumnFamily family : families) {
+                    delete.deleteFamily(family.getName().getBytes(), ts);
+                }
+            }
             deleteRow = delete;
             deleteRow.setWriteToWAL(!isWALDisabled());
         }
     }
 
+    private boolean hasLocalIndex() {
+        for (PTable index : indexes) {
+            if (index.getIndexType() == IndexType.LOCAL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public PColumnFamily getColumnFamily(String familyName) throws ColumnFamilyNotFoundException {
         PColumnFamily family = familyByString.get(familyName);
@@ -706,6 +735,7 @@ public class PTableImpl implements PTable {
         boolean disableWAL = input.readBoolean();
         boolean multiTenant = input.readBoolean();
         ViewType viewType = null;
+        IndexType indexType = null;
         String viewExpression = null;
         PName baseSchemaName = null;
         PName baseTableName = null;
@@ -717,13 +747,15 @@ public class PTableImpl implements PTable {
             baseSchemaName = baseSchemaNameBytes.length == 0 ? null : PNameFactory.newName(baseSchemaNameBytes);
             byte[] baseTableNameBytes = Bytes.readByteArray(input);
             baseTableName = baseTableNameBytes.length == 0 ? null : PNameFactory.newName(baseTableNameBytes);
+        } else if (tableType == PTableType.INDEX) {
+            indexType = IndexType.fromSerializedValue(input.readByte());
         }
         PTableStats stats = new PTableStatsImpl(guidePosts);
         try {
             init(schemaName, tableName, tableType, indexState, timeStamp, sequenceNumber, pkName,
                  bucketNum.equals(NO_SALTING) ? null : bucketNum, columns, stats, dataTableName,
                  indexes, isImmutableRows, baseSchemaName, baseTableName, defaultFamilyName,
-                 viewExpression, disableWAL, multiTenant, viewType);
+                 viewExpression, disableWAL, multiTenant, viewType, indexType);
         } catch (SQLException e) {
             throw new RuntimeException(e); // Impossible
         }
@@ -768,6 +800,8 @@ public class PTableImpl implements PTable {
             Bytes.writeByteArray(output, viewExpression == null ? ByteUtil.EMPTY_BYTE_ARRAY : PDataType.VARCHAR.toBytes(viewExpression));
             Bytes.writeByteArray(output, baseSchemaName == null ? ByteUtil.EMPTY_BYTE_ARRAY : baseSchemaName.getBytes());
             Bytes.writeByteArray(output, baseTableName.getBytes());
+        } else if (type == PTableType.INDEX) {
+            output.writeByte(getIndexType().getSerializedValue());
         }
     }
 
@@ -848,6 +882,10 @@ public class PTableImpl implements PTable {
     
     @Override
     public PName getPhysicalName() {
+        if (indexType == IndexType.LOCAL) {
+            // Local index rows live in the regions of the table they index
+            return getParentName();
+        }
         return type == PTableType.VIEW ? getBaseName() : getName();
     }
     
@@ -51,5 +51,14 @@ public interface PTableStats {
      */
     byte[][] getRegionGuidePosts(HRegionInfo region);
 
+    /**
+     * Given the region info, returns the number of bytes in the region as of the last
+     * time statistics were collected for it.
+     * 
+     * @param region
+     * @return the number of bytes in the region, or 0 if unknown
+     */
+    long getRegionByteCount(HRegionInfo region);
+
     void write(DataOutput output) throws IOException;
 }
@@ -29,6 +29,7 @@ package com.salesforce.phoenix.schema.stat;
 
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -43,10 +44,13 @@ import com.google.common.collect.ImmutableMap;
  * Implementation for PTableStats.
  */
 public class PTableStatsImpl implements PTableStats {
+    public static final PTableStats NO_STATS = new PTableStatsImpl(Collections.<String, byte[][]>emptyMap());
 
     // The map for guide posts should be immutable. We only take the current snapshot from outside
     // method call and store it.
     private Map<String, byte[][]> regionGuidePosts;
+    // Only known on the client, as it's not serialized with the table
+    private Map<String, Long> regionByteCounts = Collections.emptyMap();
 
     public PTableStatsImpl() { }
 
@@ -54,9 +58,20 @@ public class PTableStatsImpl implements PTableStats {
         regionGuidePosts = ImmutableMap.copyOf(stats);
     }
 
+    public PTableStatsImpl(Map<String, byte[][]> stats, Map<String, Long> byteCounts) {
+        this(stats);
+        regionByteCounts = ImmutableMap.copyOf(byteCounts);
+    }
+
     @Override
     public byte[][] getRegionGuidePosts(HRegionInfo region) {
-        return regionGuidePosts.get(region.getRegionNameAsString());
+        return regionGuidePosts == null ? null : regionGuidePosts.get(region.getRegionNameAsString());
+    }
+
+    @Override
+    public long getRegionByteCount(HRegionInfo region) {
+        Long byteCount = regionByteCounts.get(region.getRegionNameAsString());
+        return byteCount == null ? 0 : byteCount;
     }
 
     @Override
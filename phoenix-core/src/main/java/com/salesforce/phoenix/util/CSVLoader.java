@@ -115,6 +115,22 @@ public class CSVLoader {
         }
     }
 
+	/**
+	 * Executes the rows batched up since the last commit. When the columns come from each
+	 * line, rows may be batched on any of the cached statements.
+	 */
+	private static void executeBatches(PreparedStatement stmt, PreparedStatement[] stmtCache) throws SQLException {
+	    if (stmtCache == null) {
+	        stmt.executeBatch();
+	        return;
+	    }
+	    for (PreparedStatement cachedStmt : stmtCache) {
+	        if (cachedStmt != null) {
+	            cachedStmt.executeBatch();
+	        }
+	    }
+	}
+
 	/**
 	 * Upserts data from CSV file. Data is batched up based on connection batch
 	 * size. Column PDataType is read from metadata and is used to convert
@@ -170,14 +186,16 @@ public class CSVLoader {
     					stmt.setNull(index + 1, columnInfo[index].getSqlType());
     				}
     			}
-    			stmt.execute();
+    			stmt.addBatch();
     
     			// Commit when batch size is reached
     			if (++rowCount % upsertBatchSize == 0) {
+    			    executeBatches(stmt, stmtCache);
     				conn.commit();
     				System.out.println("Rows upserted: " + rowCount);
     			}
     		}
+    		executeBatches(stmt, stmtCache);
     		conn.commit();
     		double elapsedDuration = ((System.currentTimeMillis() - start) / 1000.0);
     		System.out.println("CSV Upsert complete. " + rowCount + " rows upserted");
@@ -31,21 +31,31 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
 import com.salesforce.hbase.index.ValueGetter;
 import com.salesforce.hbase.index.covered.update.ColumnReference;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.client.KeyValueBuilder;
+import com.salesforce.phoenix.coprocessor.UngroupedAggregateRegionObserver;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
 import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.index.IndexMaintainer;
+import com.salesforce.phoenix.query.KeyRange;
 import com.salesforce.phoenix.query.QueryConstants;
 import com.salesforce.phoenix.schema.ColumnFamilyNotFoundException;
 import com.salesforce.phoenix.schema.ColumnNotFoundException;
@@ -55,6 +65,7 @@ import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.schema.PTable;
 
 public class IndexUtil {
+    private static final Logger logger = LoggerFactory.getLogger(IndexUtil.class);
     public static final String INDEX_COLUMN_NAME_SEP = ":";
     public static final byte[] INDEX_COLUMN_NAME_SEP_BYTES = Bytes.toBytes(INDEX_COLUMN_NAME_SEP);
 
@@ -206,7 +217,145 @@ public class IndexUtil {
         }
     }
 
+    /**
+     * Get the prefix of the row keys of a local index within a region of its data table. The prefix
+     * is the start key of the region padded with zero bytes to the length of the longer of the start
+     * and end key, followed by the name of the index and a separator byte. This places the rows of
+     * each local index in a contiguous key range inside of every region, and the padding keeps that
+     * range below the end key of the region. The one exception is a region whose end key is its start
+     * key followed only by zero bytes, which cannot hold any local index row. Since the prefix depends
+     * on the region boundaries, the regions of a table with local indexes must not be split, which is
+     * why its split policy is replaced by one that disables splits until its last local index is dropped.
+     * @param regionStartKey start key of the data region
+     * @param regionEndKey end key of the data region
+     * @param indexName full name of the local index
+     * @return the row key prefix
+     */
+    public static byte[] getLocalIndexRowKeyPrefix(byte[] regionStartKey, byte[] regionEndKey, byte[] indexName) {
+        int regionPrefixLength = Math.max(regionStartKey.length, regionEndKey.length);
+        byte[] prefix = new byte[regionPrefixLength + indexName.length + 1];
+        System.arraycopy(regionStartKey, 0, prefix, 0, regionStartKey.length);
+        System.arraycopy(indexName, 0, prefix, regionPrefixLength, indexName.length);
+        prefix[prefix.length-1] = QueryConstants.SEPARATOR_BYTE;
+        return prefix;
+    }
+
+    /**
+     * @return the key range of a region of the data table that holds the rows of a local index
+     * that fall between the start and stop row of a scan over the index.
+     */
+    public static KeyRange getLocalIndexKeyRange(byte[] regionStartKey, byte[] regionEndKey, byte[] indexName, byte[] startRow, byte[] stopRow) {
+        byte[] prefix = getLocalIndexRowKeyPrefix(regionStartKey, regionEndKey, indexName);
+        byte[] upperRange = stopRow.length == 0 ? ByteUtil.nextKey(prefix) : ByteUtil.concat(prefix, stopRow);
+        return KeyRange.getKeyRange(ByteUtil.concat(prefix, startRow), upperRange);
+    }
+
     public static boolean isDataPKColumn(PColumn column) {
         return column.getName().getString().startsWith(INDEX_COLUMN_NAME_SEP);
     }
+
+    /**
+     * Creates the scan that builds the rows of the given indexes on the region servers hosting the
+     * data table. The time range of the scan must still be set by the caller.
+     * @param dataTable data table, including the indexes to build
+     * @param indexes indexes to build
+     * @param chunkTimeMs time after which a region stops building and returns the key at which to resume
+     */
+    public static Scan newIndexBuildScan(PTable dataTable, List<PTable> indexes, long chunkTimeMs) {
+        Scan scan = new Scan();
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        IndexMaintainer.serialize(dataTable, ptr, indexes);
+        scan.setAttribute(UngroupedAggregateRegionObserver.INDEX_BUILD, ptr.copyBytes());
+        scan.setAttribute(UngroupedAggregateRegionObserver.INDEX_BUILD_CHUNK_TIME_MS, Bytes.toBytes(chunkTimeMs));
+        // Only read the data column families, as the rows of local indexes are in the same regions
+        if (dataTable.getColumnFamilies().isEmpty()) {
+            scan.addFamily(SchemaUtil.getEmptyColumnFamily(dataTable));
+        }
+        for (PColumnFamily family : dataTable.getColumnFamilies()) {
+            scan.addFamily(family.getName().getBytes());
+        }
+        // Each region returns a single row once its chunk is built, so don't open the next region before it's asked for
+        scan.setCaching(1);
+        scan.setCacheBlocks(false);
+        return scan;
+    }
+
+    /**
+     * Runs an index build scan created by {@link #newIndexBuildScan(PTable, List, long)} over a key range
+     * of the data table, one chunk at a time, retrying a failed chunk from the key at which the previous
+     * chunk stopped.
+     * @return the number of data rows scanned
+     * @throws IOException if a chunk still fails after the given number of retries
+     */
+    public static long buildIndex(HTableInterface htable, Scan scan, byte[] startKey, byte[] stopKey, int maxRetries, AtomicBoolean isCanceled) throws IOException {
+        return buildIndex(htable, scan, new AtomicReference<byte[]>(startKey), stopKey, maxRetries, isCanceled);
+    }
+
+    /**
+     * Runs an index build scan like {@link #buildIndex(HTableInterface, Scan, byte[], byte[], int, AtomicBoolean)},
+     * starting from the given resume key and advancing it as each chunk is built, so that a build that failed
+     * or was canceled may be resumed from it. The resume key is null once the build is complete.
+     */
+    public static long buildIndex(HTableInterface htable, Scan scan, AtomicReference<byte[]> resumeKeyRef, byte[] stopKey, int maxRetries, AtomicBoolean isCanceled) throws IOException {
+        return buildIndex(htable, scan, resumeKeyRef, stopKey, maxRetries, isCanceled, null);
+    }
+
+    /**
+     * Notified of the progress of an index build run by
+     * {@link IndexUtil#buildIndex(HTableInterface, Scan, AtomicReference, byte[], int, AtomicBoolean, IndexBuildListener)}.
+     */
+    public interface IndexBuildListener {
+        /**
+         * Called once the rows of a chunk have been written. A chunk whose notification fails is
+         * not built again, but counts as a failed attempt of the next one.
+         * @param resumeKey key at which the build is to be resumed, or null if it's complete
+         */
+        void chunkBuilt(byte[] resumeKey) throws IOException;
+    }
+
+    /**
+     * Runs an index build scan like {@link #buildIndex(HTableInterface, Scan, AtomicReference, byte[], int, AtomicBoolean)},
+     * notifying the given listener, if any, as each chunk is built.
+     */
+    public static long buildIndex(HTableInterface htable, Scan scan, AtomicReference<byte[]> resumeKeyRef, byte[] stopKey, int maxRetries, AtomicBoolean isCanceled,
+            IndexBuildListener listener) throws IOException {
+        long rowCount = 0;
+        int retries = 0;
+        byte[] resumeKey = resumeKeyRef.get();
+        Scan chunkScan = new Scan(scan);
+        chunkScan.setStopRow(stopKey);
+        while (resumeKey != null && !isCanceled.get()) {
+            chunkScan.setStartRow(resumeKey);
+            try {
+                long chunkRowCount = 0;
+                byte[] nextKey = null;
+                ResultScanner scanner = htable.getScanner(chunkScan);
+                try {
+                    for (Result result = scanner.next(); result != null; result = scanner.next()) {
+                        chunkRowCount += (Long)PDataType.LONG.toObject(result.getValue(QueryConstants.SINGLE_COLUMN_FAMILY, UngroupedAggregateRegionObserver.INDEX_BUILD_ROW_COUNT));
+                        byte[] key = result.getValue(QueryConstants.SINGLE_COLUMN_FAMILY, UngroupedAggregateRegionObserver.INDEX_BUILD_RESUME_KEY);
+                        if (key.length > 0) {
+                            nextKey = key;
+                            break;
+                        }
+                    }
+                } finally {
+                    scanner.close();
+                }
+                rowCount += chunkRowCount;
+                resumeKey = nextKey;
+                resumeKeyRef.set(resumeKey);
+                retries = 0;
+                if (listener != null) {
+                    listener.chunkBuilt(resumeKey);
+                }
+            } catch (IOException e) {
+                if (++retries > maxRetries) {
+                    throw e;
+                }
+                logger.warn("Retrying index build of " + Bytes.toString(htable.getTableName()) + " at " + Bytes.toStringBinary(resumeKey), e);
+            }
+        }
+        return rowCount;
+    }
 }
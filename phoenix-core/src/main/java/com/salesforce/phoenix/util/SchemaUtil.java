@@ -70,6 +70,7 @@ import com.salesforce.phoenix.schema.PDatum;
 import com.salesforce.phoenix.schema.PMetaData;
 import com.salesforce.phoenix.schema.PName;
 import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.PTable.IndexType;
 import com.salesforce.phoenix.schema.RowKeySchema;
 import com.salesforce.phoenix.schema.RowKeySchema.RowKeySchemaBuilder;
 import com.salesforce.phoenix.schema.SaltingUtil;
@@ -350,6 +351,18 @@ public class SchemaUtil {
         return isString ? ("'" + type.toObject(value).toString() + "'") : type.toObject(value).toString();
     }
 
+    /**
+     * @return the column family of the empty key value of the table. For a local index, this is the
+     * column family in which the index rows are stored in the data table, even if the index has no
+     * covered columns.
+     */
+    public static byte[] getEmptyColumnFamily(PTable table) {
+        if (table.getIndexType() == IndexType.LOCAL) {
+            return QueryConstants.LOCAL_INDEX_COLUMN_FAMILY_BYTES;
+        }
+        return getEmptyColumnFamily(table.getColumnFamilies());
+    }
+
     public static byte[] getEmptyColumnFamily(List<PColumnFamily> families) {
         return families.isEmpty() ? QueryConstants.EMPTY_COLUMN_BYTES : families.get(0).getName().getBytes();
     }
@@ -367,6 +380,10 @@ public class SchemaUtil {
         return Bytes.compareTo(tableName, PhoenixDatabaseMetaData.SEQUENCE_TABLE_NAME_BYTES) == 0;
     }
 
+    public static boolean isStatsTable(byte[] tableName) {
+        return Bytes.compareTo(tableName, PhoenixDatabaseMetaData.STATS_TABLE_NAME_BYTES) == 0;
+    }
+
     public static boolean isMetaTable(PTable table) {
         return PhoenixDatabaseMetaData.TYPE_SCHEMA.equals(table.getSchemaName().getString()) && PhoenixDatabaseMetaData.TYPE_TABLE.equals(table.getTableName().getString());
     }
@@ -458,6 +475,8 @@ public class SchemaUtil {
     public static final Integer SYSTEM_TABLE_NULLABLE_VAR_LENGTH_COLUMNS = 3;
     public static final String UPGRADE_TO_2_1 = "UpgradeTo21";
     public static final String UPGRADE_TO_3_0 = "UpgradeTo30";
+    // Split policy of a data table from before its first local index, restored once the last one is dropped
+    public static final String SAVED_SPLIT_POLICY = "PhoenixSavedSplitPolicy";
 
     private static final byte[] ORIG_DEF_CF_NAME = Bytes.toBytes("_0");
 
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.query.QueryConstants;
+
+
+/**
+ * 
+ * Utilities for reading and writing the rows of the SYSTEM.STATS table
+ *
+ * @since 3.0.0
+ */
+public class StatisticsUtil {
+    private StatisticsUtil() {
+    }
+
+    /**
+     * Get the row key of the SYSTEM.STATS row for a column family of a region
+     * @param physicalName the physical name of the table
+     * @param regionName the region name as a string
+     * @param familyName the column family name
+     */
+    public static byte[] getRowKey(byte[] physicalName, byte[] regionName, byte[] familyName) {
+        return ByteUtil.concat(physicalName, QueryConstants.SEPARATOR_BYTE_ARRAY, regionName, QueryConstants.SEPARATOR_BYTE_ARRAY, familyName);
+    }
+    
+    /**
+     * Get the row key prefix shared by all SYSTEM.STATS rows of a physical table
+     * @param physicalName the physical name of the table
+     */
+    public static byte[] getRowKeyPrefix(byte[] physicalName) {
+        return ByteUtil.concat(physicalName, QueryConstants.SEPARATOR_BYTE_ARRAY);
+    }
+    
+    /**
+     * Get the row key prefix shared by the SYSTEM.STATS rows of all column families of a region
+     * @param physicalName the physical name of the table
+     * @param regionName the region name as a string
+     */
+    public static byte[] getRowKeyPrefix(byte[] physicalName, byte[] regionName) {
+        return ByteUtil.concat(physicalName, QueryConstants.SEPARATOR_BYTE_ARRAY, regionName, QueryConstants.SEPARATOR_BYTE_ARRAY);
+    }
+    
+    /**
+     * Delete the SYSTEM.STATS rows whose row key starts with the given prefix
+     * @param statsTable the SYSTEM.STATS table
+     * @param prefix the row key prefix of the rows to delete
+     */
+    public static void deleteStats(HTableInterface statsTable, byte[] prefix) throws IOException {
+        Scan scan = new Scan(prefix, ByteUtil.nextKey(prefix));
+        scan.setFilter(new FirstKeyOnlyFilter());
+        List<Delete> deletes = Lists.newArrayList();
+        ResultScanner scanner = statsTable.getScanner(scan);
+        try {
+            for (Result result = scanner.next(); result != null; result = scanner.next()) {
+                deletes.add(new Delete(result.getRow()));
+            }
+        } finally {
+            scanner.close();
+        }
+        if (!deletes.isEmpty()) {
+            statsTable.delete(deletes);
+        }
+    }
+    
+    /**
+     * Get the region name from a SYSTEM.STATS row key
+     * @param rowKey the row key
+     * @param physicalName the physical name of the table the row key was built from
+     */
+    public static String getRegionName(byte[] rowKey, byte[] physicalName) {
+        // Search back from the end, as the start key within the region name may contain a separator byte
+        int offset = physicalName.length + 1;
+        int endOffset = rowKey.length - 1;
+        while (endOffset > offset && rowKey[endOffset] != QueryConstants.SEPARATOR_BYTE) {
+            endOffset--;
+        }
+        return Bytes.toString(rowKey, offset, endOffset - offset);
+    }
+
+    public static byte[] toGuidePostsBytes(List<byte[]> guidePosts) {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytesOut);
+        try {
+            WritableUtils.writeVInt(output, guidePosts.size());
+            for (byte[] guidePost : guidePosts) {
+                Bytes.writeByteArray(output, guidePost);
+            }
+            output.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Impossible
+        }
+        return bytesOut.toByteArray();
+    }
+    
+    public static byte[][] fromGuidePostsBytes(byte[] bytes) {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            int size = WritableUtils.readVInt(input);
+            byte[][] guidePosts = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                guidePosts[i] = Bytes.readByteArray(input);
+            }
+            return guidePosts;
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Impossible
+        }
+    }
+}
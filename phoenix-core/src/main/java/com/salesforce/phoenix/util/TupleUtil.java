@@ -107,6 +107,23 @@ public class TupleUtil {
      */
     public static ImmutableBytesPtr getConcatenatedValue(Tuple result, List<Expression> expressions) throws IOException {
         ImmutableBytesPtr value = new ImmutableBytesPtr(ByteUtil.EMPTY_BYTE_ARRAY);
+        TrustedByteArrayOutputStream output = expressions.size() == 1 ? null : new TrustedByteArrayOutputStream(expressions.size() * 16);
+        getConcatenatedValue(result, expressions, value, output);
+        return value;
+    }
+    
+    /** Concatenate results evaluated against a list of expressions into the given pointer,
+     * without allocating, so that the pointer and stream may be reused across tuples.
+     * 
+     * @param result the tuple for expression evaluation
+     * @param expressions
+     * @param value the pointer set to the concatenated value, which may refer to the buffer
+     * of the output stream and so is only valid until the stream is reused
+     * @param output stream into which multiple values are concatenated, which may be null
+     * if there is a single expression
+     * @throws IOException
+     */
+    public static void getConcatenatedValue(Tuple result, List<Expression> expressions, ImmutableBytesPtr value, TrustedByteArrayOutputStream output) throws IOException {
         Expression expression = expressions.get(0);
         boolean evaluated = expression.evaluate(result, value);
         
@@ -114,33 +131,27 @@ public class TupleUtil {
             if (!evaluated) {
                 value.set(ByteUtil.EMPTY_BYTE_ARRAY);
             }
-            return value;
         } else {
-            TrustedByteArrayOutputStream output = new TrustedByteArrayOutputStream(value.getLength() * expressions.size());
-            try {
-                if (evaluated) {
-                    output.write(value.get(), value.getOffset(), value.getLength());
+            output.reset();
+            if (evaluated) {
+                output.write(value.get(), value.getOffset(), value.getLength());
+            }
+            for (int i = 1; i < expressions.size(); i++) {
+                if (!expression.getDataType().isFixedWidth()) {
+                    output.write(QueryConstants.SEPARATOR_BYTE);
                 }
-                for (int i = 1; i < expressions.size(); i++) {
-                    if (!expression.getDataType().isFixedWidth()) {
-                        output.write(QueryConstants.SEPARATOR_BYTE);
-                    }
-                    expression = expressions.get(i);
-                    // TODO: should we track trailing null values and omit the separator bytes?
-                    if (expression.evaluate(result, value)) {
-                        output.write(value.get(), value.getOffset(), value.getLength());
-                    } else if (i < expressions.size()-1 && expression.getDataType().isFixedWidth()) {
-                        // This should never happen, because any non terminating nullable fixed width type (i.e. INT or LONG) is
-                        // converted to a variable length type (i.e. DECIMAL) to allow an empty byte array to represent null.
-                        throw new DoNotRetryIOException("Non terminating null value found for fixed width expression (" + expression + ") in row: " + result);
-                    }
+                expression = expressions.get(i);
+                // TODO: should we track trailing null values and omit the separator bytes?
+                if (expression.evaluate(result, value)) {
+                    output.write(value.get(), value.getOffset(), value.getLength());
+                } else if (i < expressions.size()-1 && expression.getDataType().isFixedWidth()) {
+                    // This should never happen, because any non terminating nullable fixed width type (i.e. INT or LONG) is
+                    // converted to a variable length type (i.e. DECIMAL) to allow an empty byte array to represent null.
+                    throw new DoNotRetryIOException("Non terminating null value found for fixed width expression (" + expression + ") in row: " + result);
                 }
-                byte[] outputBytes = output.getBuffer();
-                value.set(outputBytes, 0, output.size());
-                return value;
-            } finally {
-                output.close();
             }
+            byte[] outputBytes = output.getBuffer();
+            value.set(outputBytes, 0, output.size());
         }
     }
     
@@ -203,4 +203,51 @@ public class TestLocalTableState {
 
   // TODO add test here for making sure multiple column references with the same column family don't
   // cause an infinite loop
+
+  /**
+   * Test that the row state read for a whole batch is used instead of a point scan, but only for
+   * the families it covers and only until the batch is cleared
+   * @throws Exception
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testBatchRowStateCache() throws Exception {
+    RegionCoprocessorEnvironment env = Mockito.mock(RegionCoprocessorEnvironment.class);
+    HRegion region = Mockito.mock(HRegion.class);
+    Mockito.when(env.getRegion()).thenReturn(region);
+    RegionScanner scanner = Mockito.mock(RegionScanner.class);
+    Mockito.when(region.getScanner(Mockito.any(Scan.class))).thenReturn(scanner);
+    final KeyValue scannedKv = new KeyValue(row, fam, qual, ts, Type.Put, Bytes.toBytes("scanned"));
+    Mockito.when(scanner.next(Mockito.any(List.class))).thenAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+        List<KeyValue> list = (List<KeyValue>) invocation.getArguments()[0];
+        list.add(scannedKv);
+        return false;
+      }
+    });
+
+    byte[] fam2 = Bytes.toBytes("fam2");
+    byte[] otherRow = Bytes.toBytes("other-row");
+    KeyValue cachedKv = new KeyValue(row, fam, qual, ts, Type.Put, Bytes.toBytes("cached"));
+    KeyValue cachedKv2 = new KeyValue(row, fam2, qual, ts, Type.Put, Bytes.toBytes("cached2"));
+    LocalTable table = new LocalTable(env);
+    table.cacheBatchRowStates(Arrays.asList(row, otherRow), Arrays.asList(fam, fam2),
+      Arrays.asList(cachedKv, cachedKv2));
+
+    // only the requested families are returned, without going to the region
+    List<ColumnReference> columns = Arrays.asList(new ColumnReference(fam, qual));
+    assertEquals(Arrays.asList(cachedKv), table.getCurrentRowState(new Put(row), columns).list());
+    assertEquals(0, table.getCurrentRowState(new Put(otherRow), columns).size());
+    Mockito.verify(region, Mockito.never()).getScanner(Mockito.any(Scan.class));
+
+    // a family the batch scan didn't read needs a point scan
+    List<ColumnReference> uncovered = Arrays.asList(new ColumnReference(Bytes.toBytes("fam3"), qual));
+    assertEquals(Arrays.asList(scannedKv), table.getCurrentRowState(new Put(row), uncovered).list());
+
+    // once the batch is done, the row is read from the region again
+    table.clearBatchRowStates(Arrays.asList(row, otherRow));
+    assertEquals(Arrays.asList(scannedKv), table.getCurrentRowState(new Put(row), columns).list());
+    Mockito.verify(region, Mockito.times(2)).getScanner(Mockito.any(Scan.class));
+  }
 }
@@ -33,6 +33,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -100,4 +101,24 @@ public class TestThreadPoolManager {
       "Got a different exectuor, even though they have the same name, but different confs",
       exec2 == exec);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testScheduledExecutorSharedUntilLastReferenceReleased() throws Exception {
+    Map<String, Object> cache = new HashMap<String, Object>();
+    ThreadPoolBuilder builder =
+        new ThreadPoolBuilder(name.getTableNameString(), new Configuration(false));
+    ScheduledThreadPoolExecutor exec = ThreadPoolManager.getScheduledExecutor(builder, cache);
+    ScheduledThreadPoolExecutor exec2 = ThreadPoolManager.getScheduledExecutor(builder, cache);
+    assertTrue("Should have gotten the same scheduled executor", exec2 == exec);
+    exec.shutdown();
+    assertFalse("Scheduled executor is shutting down, even though we have a live reference!",
+      exec.isShutdown() || exec.isTerminating());
+    exec2.shutdown();
+    assertTrue("Scheduled executor is NOT shutting down, after releasing live reference!",
+      exec.awaitTermination(300, TimeUnit.SECONDS));
+    exec2 = ThreadPoolManager.getScheduledExecutor(builder, cache);
+    assertFalse("Got the same scheduled executor, even though the original shutdown",
+      exec2 == exec);
+    exec2.shutdown();
+  }
+}
@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.Multimap;
+import com.salesforce.hbase.index.TableName;
+import com.salesforce.hbase.index.exception.IndexWriteException;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+
+public class TestAsyncIndexWriter {
+  @Rule
+  public TableName testName = new TableName();
+  private final byte[] row = Bytes.toBytes("row");
+
+  /**
+   * Failure policy that just records the failures
+   */
+  private static class RecordingFailurePolicy implements IndexFailurePolicy {
+    final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+
+    @Override
+    public void setup(Stoppable parent, RegionCoprocessorEnvironment env) {
+    }
+
+    @Override
+    public void handleFailure(Multimap<HTableInterfaceReference, Mutation> attempted,
+        Exception cause) {
+      failures.add(cause);
+    }
+
+    @Override
+    public void stop(String why) {
+    }
+
+    @Override
+    public boolean isStopped() {
+      return false;
+    }
+  }
+
+  /**
+   * Lag policy that counts down a latch on each notification
+   */
+  private static class LatchingLagPolicy implements IndexLagPolicy {
+    final CountDownLatch exceeded = new CountDownLatch(1);
+    final CountDownLatch recovered = new CountDownLatch(1);
+    volatile Collection<HTableInterfaceReference> laggingTables;
+
+    @Override
+    public void setup(Stoppable parent, RegionCoprocessorEnvironment env) {
+    }
+
+    @Override
+    public void onLagExceeded(Collection<HTableInterfaceReference> tables, long lagMs) {
+      laggingTables = tables;
+      exceeded.countDown();
+    }
+
+    @Override
+    public void onLagRecovered(Collection<HTableInterfaceReference> tables) {
+      recovered.countDown();
+    }
+
+    @Override
+    public void stop(String why) {
+    }
+
+    @Override
+    public boolean isStopped() {
+      return false;
+    }
+  }
+
+  private List<Pair<Mutation, byte[]>> getUpdates(byte[]... tableNames) {
+    Put m = new Put(row);
+    m.add(Bytes.toBytes("family"), Bytes.toBytes("qual"), null);
+    List<Pair<Mutation, byte[]>> updates = new ArrayList<Pair<Mutation, byte[]>>();
+    for (byte[] tableName : tableNames) {
+      updates.add(new Pair<Mutation, byte[]>(m, tableName));
+    }
+    return updates;
+  }
+
+  private static AsyncIndexWriter newAsyncWriter(IndexWriter writer, IndexLagPolicy lagPolicy,
+      Configuration conf, long maxLagMs) {
+    return new AsyncIndexWriter(writer, lagPolicy, conf, maxLagMs, Executors.newCachedThreadPool(),
+        Executors.newSingleThreadScheduledExecutor());
+  }
+
+  @Test
+  public void getDefaultLagPolicy() throws Exception {
+    Configuration conf = new Configuration(false);
+    RegionCoprocessorEnvironment env = Mockito.mock(RegionCoprocessorEnvironment.class);
+    Mockito.when(env.getConfiguration()).thenReturn(conf);
+    assertTrue(AsyncIndexWriter.getLagPolicy(env) instanceof LogOnLagPolicy);
+  }
+
+  /**
+   * Updates from separate calls should be written together, grouped by index table, once flushed
+   * @throws Exception on failure
+   */
+  @Test
+  public void testBatchesUpdatesAcrossWrites() throws Exception {
+    byte[] tableName = this.testName.getTableName();
+    byte[] tableName2 = Bytes.add(tableName, Bytes.toBytes("2"));
+    RecordingIndexCommitter committer = new RecordingIndexCommitter();
+    IndexWriter writer = new IndexWriter(committer, new RecordingFailurePolicy());
+    // never flushes on its own
+    AsyncIndexWriter async =
+        newAsyncWriter(writer, new LatchingLagPolicy(), new Configuration(false), 600000);
+
+    async.write(getUpdates(tableName));
+    async.write(getUpdates(tableName, tableName2));
+    async.write(getUpdates(tableName2));
+    assertTrue("Updates were written before the writer was flushed", committer.batches.isEmpty());
+
+    async.flush();
+    assertEquals("Updates weren't written in a single batch", 1, committer.batches.size());
+    Multimap<HTableInterfaceReference, Mutation> batch = committer.batches.get(0);
+    assertEquals(2, batch.keySet().size());
+    assertEquals(2, batch.get(new HTableInterfaceReference(new ImmutableBytesPtr(tableName))).size());
+    assertEquals(2, batch.get(new HTableInterfaceReference(new ImmutableBytesPtr(tableName2))).size());
+    async.stop(this.testName.getTableNameString() + " finished");
+  }
+
+  /**
+   * A full batch should be written without waiting for the lag or a flush
+   * @throws Exception on failure
+   */
+  @Test
+  public void testWritesFullBatch() throws Exception {
+    byte[] tableName = this.testName.getTableName();
+    RecordingIndexCommitter committer = new RecordingIndexCommitter();
+    IndexWriter writer = new IndexWriter(committer, new RecordingFailurePolicy());
+    Configuration conf = new Configuration(false);
+    conf.setInt(AsyncIndexWriter.BATCH_SIZE_CONF_KEY, 2);
+    AsyncIndexWriter async = newAsyncWriter(writer, new LatchingLagPolicy(), conf, 600000);
+
+    async.write(getUpdates(tableName));
+    async.write(getUpdates(tableName));
+    assertTrue("Full batch wasn't written", committer.written.await(10, TimeUnit.SECONDS));
+    assertEquals(2, committer.batches.get(0).size());
+    async.stop(this.testName.getTableNameString() + " finished");
+  }
+
+  /**
+   * Failures of the background writes should be passed to the failure policy of the wrapped writer
+   * @throws Exception on failure
+   */
+  @Test
+  public void testFailuresGoToFailurePolicy() throws Exception {
+    byte[] tableName = this.testName.getTableName();
+    RecordingIndexCommitter committer = new RecordingIndexCommitter();
+    committer.failure = new IndexWriteException("Intentional failure of the index write");
+    RecordingFailurePolicy policy = new RecordingFailurePolicy();
+    IndexWriter writer = new IndexWriter(committer, policy);
+    AsyncIndexWriter async =
+        newAsyncWriter(writer, new LatchingLagPolicy(), new Configuration(false), 600000);
+
+    async.write(getUpdates(tableName));
+    async.flush();
+    assertEquals("Failure wasn't passed to the failure policy", 1, policy.failures.size());
+    async.stop(this.testName.getTableNameString() + " finished");
+  }
+
+  /**
+   * If the updates can't be written within the maximum lag, the lag policy should be notified and
+   * then notified again once they are written.
+   * @throws Exception on failure
+   */
+  @Test
+  public void testNotifiesLagPolicy() throws Exception {
+    byte[] tableName = this.testName.getTableName();
+    RecordingIndexCommitter committer = new RecordingIndexCommitter();
+    // block the writes until the lag was exceeded
+    committer.release = new CountDownLatch(1);
+    IndexWriter writer = new IndexWriter(committer, new RecordingFailurePolicy());
+    LatchingLagPolicy lagPolicy = new LatchingLagPolicy();
+    AsyncIndexWriter async = newAsyncWriter(writer, lagPolicy, new Configuration(false), 50);
+
+    async.write(getUpdates(tableName));
+    assertTrue("Lag policy wasn't notified of the lag", lagPolicy.exceeded.await(10,
+      TimeUnit.SECONDS));
+    assertEquals(Collections.singleton(new HTableInterfaceReference(new ImmutableBytesPtr(
+        tableName))), lagPolicy.laggingTables);
+    assertEquals("Lag policy was told that the index caught up before the write finished", 1,
+      lagPolicy.recovered.getCount());
+
+    committer.release.countDown();
+    assertTrue("Lag policy wasn't notified of the recovery", lagPolicy.recovered.await(10,
+      TimeUnit.SECONDS));
+    async.stop(this.testName.getTableNameString() + " finished");
+  }
+
+  /**
+   * If telling the lag policy that the index caught up fails, it should be told again
+   * @throws Exception on failure
+   */
+  @Test
+  public void testRetriesFailedRecoveryNotification() throws Exception {
+    byte[] tableName = this.testName.getTableName();
+    RecordingIndexCommitter committer = new RecordingIndexCommitter();
+    committer.release = new CountDownLatch(1);
+    IndexWriter writer = new IndexWriter(committer, new RecordingFailurePolicy());
+    final CountDownLatch failedRecovery = new CountDownLatch(1);
+    LatchingLagPolicy lagPolicy = new LatchingLagPolicy() {
+      @Override
+      public void onLagRecovered(Collection<HTableInterfaceReference> tables) {
+        if (failedRecovery.getCount() > 0) {
+          failedRecovery.countDown();
+          throw new IllegalStateException("Intentional failure to handle the recovery");
+        }
+        super.onLagRecovered(tables);
+      }
+    };
+    AsyncIndexWriter async = newAsyncWriter(writer, lagPolicy, new Configuration(false), 50);
+
+    async.write(getUpdates(tableName));
+    assertTrue("Lag policy wasn't notified of the lag", lagPolicy.exceeded.await(10,
+      TimeUnit.SECONDS));
+    committer.release.countDown();
+    assertTrue("Lag policy wasn't notified of the recovery", failedRecovery.await(10,
+      TimeUnit.SECONDS));
+    assertTrue("Lag policy wasn't notified of the recovery again after failing",
+      lagPolicy.recovered.await(10, TimeUnit.SECONDS));
+    async.stop(this.testName.getTableNameString() + " finished");
+  }
+
+  /**
+   * The writers of the regions on a server should share their threads, which are only shut down
+   * once the last writer stops
+   * @throws Exception on failure
+   */
+  @Test
+  public void testWritersShareThreads() throws Exception {
+    byte[] tableName = this.testName.getTableName();
+    RegionCoprocessorEnvironment env = Mockito.mock(RegionCoprocessorEnvironment.class);
+    Mockito.when(env.getConfiguration()).thenReturn(new Configuration(false));
+    ConcurrentMap<String, Object> sharedData = new ConcurrentHashMap<String, Object>();
+    Mockito.when(env.getSharedData()).thenReturn(sharedData);
+    RecordingIndexCommitter committer = new RecordingIndexCommitter();
+    IndexWriter writer = new IndexWriter(committer, new RecordingFailurePolicy());
+    String name = this.testName.getTableNameString();
+    AsyncIndexWriter async = new AsyncIndexWriter(writer, env, 600000, name);
+    AsyncIndexWriter async2 = new AsyncIndexWriter(writer, env, 600000, name);
+    assertEquals("Writers didn't share the flush pool and the scheduler", 2, sharedData.size());
+
+    async.write(getUpdates(tableName));
+    async2.write(getUpdates(tableName));
+    async.stop(name + " finished");
+    assertEquals("Stopping a writer didn't write its pending updates", 1, committer.batches.size());
+    for (Object pool : sharedData.values()) {
+      assertFalse("Pool was shut down while another writer still uses it",
+        ((ExecutorService) pool).isShutdown());
+    }
+    async2.stop(name + " finished");
+    assertEquals(2, committer.batches.size());
+    for (Object pool : sharedData.values()) {
+      assertTrue("Pool wasn't shut down once the last writer stopped",
+        ((ExecutorService) pool).isShutdown());
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.salesforce.hbase.index.TableName;
+import com.salesforce.hbase.index.exception.IndexWriteException;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+
+public class TestCoalescingIndexCommitter {
+  @Rule
+  public TableName testName = new TableName();
+
+  private Multimap<HTableInterfaceReference, Mutation> getUpdate(byte[] tableName, String row) {
+    Put m = new Put(Bytes.toBytes(row));
+    m.add(Bytes.toBytes("family"), Bytes.toBytes("qual"), null);
+    Multimap<HTableInterfaceReference, Mutation> update = ArrayListMultimap.create();
+    update.put(new HTableInterfaceReference(new ImmutableBytesPtr(tableName)), m);
+    return update;
+  }
+
+  /**
+   * Write an update for each row from a separate thread
+   * @return the failure of each write, <tt>null</tt> if it succeeded
+   */
+  private List<IndexWriteException> writeConcurrently(final CoalescingIndexCommitter committer,
+      final byte[] tableName, String... rows) throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(rows.length);
+    try {
+      List<Future<IndexWriteException>> futures = new ArrayList<Future<IndexWriteException>>();
+      for (final String row : rows) {
+        futures.add(exec.submit(new Callable<IndexWriteException>() {
+          @Override
+          public IndexWriteException call() {
+            try {
+              committer.write(getUpdate(tableName, row));
+              return null;
+            } catch (IndexWriteException e) {
+              return e;
+            }
+          }
+        }));
+      }
+      List<IndexWriteException> failures = new ArrayList<IndexWriteException>();
+      for (Future<IndexWriteException> future : futures) {
+        failures.add(future.get(30, TimeUnit.SECONDS));
+      }
+      return failures;
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testMergesConcurrentWrites() throws Exception {
+    byte[] tableName = this.testName.getTableName();
+    RecordingIndexCommitter delegate = new RecordingIndexCommitter();
+    CoalescingIndexCommitter committer = new CoalescingIndexCommitter();
+    // the window never closes, so the batch is only written once it is full
+    committer.setup(delegate, new IndexWriteCoalescer(600000, 3));
+
+    List<IndexWriteException> failures = writeConcurrently(committer, tableName, "a", "b", "c");
+    for (IndexWriteException failure : failures) {
+      assertNull(failure);
+    }
+    assertEquals("Concurrent writes weren't merged into a single batch", 1, delegate.batches.size());
+    assertEquals(3, delegate.batches.get(0).size());
+  }
+
+  @Test
+  public void testWritesOnceWindowCloses() throws Exception {
+    byte[] tableName = this.testName.getTableName();
+    RecordingIndexCommitter delegate = new RecordingIndexCommitter();
+    CoalescingIndexCommitter committer = new CoalescingIndexCommitter();
+    committer.setup(delegate, new IndexWriteCoalescer(10, 1000));
+
+    committer.write(getUpdate(tableName, "a"));
+    committer.write(getUpdate(tableName, "b"));
+    assertEquals(2, delegate.batches.size());
+  }
+
+  @Test
+  public void testFailurePropagatesToAllWriters() throws Exception {
+    byte[] tableName = this.testName.getTableName();
+    RecordingIndexCommitter delegate = new RecordingIndexCommitter();
+    delegate.failure = new IndexWriteException("Intentional failure of the index write");
+    CoalescingIndexCommitter committer = new CoalescingIndexCommitter();
+    committer.setup(delegate, new IndexWriteCoalescer(600000, 2));
+
+    List<IndexWriteException> failures = writeConcurrently(committer, tableName, "a", "b");
+    for (IndexWriteException failure : failures) {
+      assertTrue("Writer didn't see the failure of the merged batch",
+        failure == delegate.failure);
+    }
+    assertEquals(1, delegate.batches.size());
+  }
+}
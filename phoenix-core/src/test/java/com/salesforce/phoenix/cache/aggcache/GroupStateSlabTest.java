@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.cache.aggcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class GroupStateSlabTest {
+    private static final int STATE_WIDTH = Bytes.SIZEOF_LONG;
+    
+    private static long getState(GroupStateSlab slab, int slot) {
+        return Bytes.toLong(slab.getPage(slot), slab.getOffset(slot));
+    }
+    
+    private static void setState(GroupStateSlab slab, int slot, long value) {
+        Bytes.putLong(slab.getPage(slot), slab.getOffset(slot), value);
+    }
+    
+    @Test
+    public void testInvalidStateWidth() {
+        try {
+            new GroupStateSlab(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    @Test
+    public void testGrowth() {
+        GroupStateSlab slab = new GroupStateSlab(STATE_WIDTH);
+        int nSlots = 2500; // Spans three pages
+        for (int i = 0; i < nSlots; i++) {
+            int slot = slab.allocate();
+            assertEquals(i, slot);
+            assertEquals(0, getState(slab, slot));
+            setState(slab, slot, i);
+        }
+        // Slots of other groups are untouched as pages are added
+        for (int i = 0; i < nSlots; i++) {
+            assertEquals(i, getState(slab, i));
+        }
+        assertSame(slab.getPage(0), slab.getPage(1023));
+        assertNotSame(slab.getPage(1023), slab.getPage(1024));
+        assertEquals(0, slab.getOffset(1024));
+        assertEquals(1023 * STATE_WIDTH, slab.getOffset(2047));
+        assertEquals(1024 * STATE_WIDTH, slab.getPage(2048).length);
+    }
+    
+    @Test
+    public void testReuse() {
+        GroupStateSlab slab = new GroupStateSlab(STATE_WIDTH);
+        int nSlots = 100;
+        for (int i = 0; i < nSlots; i++) {
+            setState(slab, slab.allocate(), i + 1);
+        }
+        // Free more slots than the initial free list holds
+        Set<Integer> freed = new HashSet<Integer>();
+        for (int i = 0; i < nSlots; i += 2) {
+            slab.free(i);
+            freed.add(i);
+            assertEquals(0, getState(slab, i));
+            assertEquals(i + 2, getState(slab, i + 1));
+        }
+        // Freed slots are handed out, cleared, before the slab grows
+        for (int i = 0; i < freed.size(); i++) {
+            int slot = slab.allocate();
+            assertTrue(freed.contains(slot));
+            assertEquals(0, getState(slab, slot));
+            setState(slab, slot, -1);
+        }
+        assertEquals(nSlots, slab.allocate());
+        for (int i = 1; i < nSlots; i += 2) {
+            assertEquals(i + 1, getState(slab, i));
+        }
+    }
+}
@@ -48,13 +48,16 @@ import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 
+import com.google.common.cache.Cache;
 import com.salesforce.phoenix.coprocessor.GroupedAggregateRegionObserver;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
 import com.salesforce.phoenix.expression.aggregator.Aggregator;
 import com.salesforce.phoenix.expression.aggregator.CountAggregator;
 import com.salesforce.phoenix.expression.aggregator.ServerAggregators;
 import com.salesforce.phoenix.expression.function.TimeUnit;
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
 import com.salesforce.phoenix.jdbc.PhoenixPreparedStatement;
+import com.salesforce.phoenix.parse.BindableStatement;
 import com.salesforce.phoenix.query.BaseConnectionlessQueryTest;
 import com.salesforce.phoenix.query.QueryConstants;
 import com.salesforce.phoenix.schema.AmbiguousColumnException;
@@ -410,6 +413,39 @@ public class QueryCompileTest extends BaseConnectionlessQueryTest {
         }
     }
     
+    @Test
+    public void testParsedStatementCache() throws Exception {
+        String query = "SELECT a_string FROM atable WHERE organization_id=?";
+        String[] tenantIds = new String[] {"00D300000000XHP", "00D300000000XHQ"};
+        Properties props = new Properties(TestUtil.TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            Cache<String,BindableStatement> cache = conn.unwrap(PhoenixConnection.class).getQueryServices().getParsedStatementCache();
+            cache.invalidate(query);
+            for (String tenantId : tenantIds) {
+                // Statements sharing the cached parse must each use their own bind values
+                PhoenixPreparedStatement statement = conn.prepareStatement(query).unwrap(PhoenixPreparedStatement.class);
+                assertNotNull(cache.getIfPresent(query));
+                statement.setString(1, tenantId);
+                QueryPlan plan = statement.compileQuery(query);
+                assertArrayEquals(Bytes.toBytes(tenantId), plan.getContext().getScan().getStartRow());
+            }
+            // DDL is not cached
+            String ddl = "CREATE TABLE cachetest (k VARCHAR PRIMARY KEY)";
+            conn.createStatement().execute(ddl);
+            assertNull(cache.getIfPresent(ddl));
+            // Nor is EXPLAIN, while DML is recognized regardless of case and leading white space
+            String explain = "EXPLAIN " + query;
+            conn.prepareStatement(explain);
+            assertNull(cache.getIfPresent(explain));
+            String delete = "\n  delete from cachetest";
+            conn.prepareStatement(delete);
+            assertNotNull(cache.getIfPresent(delete));
+        } finally {
+            conn.close();
+        }
+    }
+    
     @Test
     public void testKeyOrderedGroupByOptimization() throws Exception {
         // Select columns in PK
@@ -46,6 +46,7 @@ import java.util.Properties;
 import org.junit.Test;
 
 import com.salesforce.phoenix.util.PhoenixRuntime;
+import com.salesforce.phoenix.util.QueryUtil;
 
 
 public class GroupByCaseTest extends BaseClientManagedTimeTest {
@@ -201,4 +202,39 @@ public class GroupByCaseTest extends BaseClientManagedTimeTest {
         conn.close();
     }
 
+    @Test
+    public void testHashAggregate() throws Exception {
+        GroupByCaseTest gbt = new GroupByCaseTest();
+        long ts = gbt.createTable();
+        gbt.loadData(ts);
+        Properties props = new Properties(TEST_PROPERTIES);
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts + 1));
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        String query = "select /*+ HASH_AGGREGATE */ appcpu, count(1) from " + GROUPBYTEST_NAME + " group by appcpu order by appcpu desc";
+        ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+        assertTrue(QueryUtil.getExplainPlan(rs).contains("CLIENT HASH AGGREGATE"));
+        rs = conn.createStatement().executeQuery(query);
+        assertTrue(rs.next());
+        assertEquals(30, rs.getInt(1));
+        assertEquals(4, rs.getInt(2));
+        assertTrue(rs.next());
+        assertEquals(10, rs.getInt(1));
+        assertEquals(4, rs.getInt(2));
+        assertFalse(rs.next());
+        
+        // The groups are still sorted on the client when ordering by the group key
+        query = "select /*+ HASH_AGGREGATE */ appcpu, count(1) from " + GROUPBYTEST_NAME + " group by appcpu order by appcpu";
+        rs = conn.createStatement().executeQuery(query);
+        assertTrue(rs.next());
+        assertEquals(10, rs.getInt(1));
+        assertTrue(rs.next());
+        assertEquals(30, rs.getInt(1));
+        assertFalse(rs.next());
+        
+        query = "select appcpu, count(1) from " + GROUPBYTEST_NAME + " group by appcpu";
+        rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+        assertFalse(QueryUtil.getExplainPlan(rs).contains("CLIENT HASH AGGREGATE"));
+        conn.close();
+    }
+
 }
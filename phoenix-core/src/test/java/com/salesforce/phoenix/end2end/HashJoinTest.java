@@ -52,6 +52,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
 
+import org.apache.hadoop.hbase.filter.Filter;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -59,7 +60,11 @@ import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
 import com.google.common.collect.Lists;
+import com.salesforce.phoenix.compile.QueryPlan;
+import com.salesforce.phoenix.compile.ScanRanges;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
+import com.salesforce.phoenix.iterate.ResultIterator;
+import com.salesforce.phoenix.jdbc.PhoenixPreparedStatement;
 import com.salesforce.phoenix.schema.TableAlreadyExistsException;
 import com.salesforce.phoenix.util.QueryUtil;
 
@@ -113,7 +118,8 @@ public class HashJoinTest extends BaseHBaseManagedTimeTest {
                 "        CLIENT PARALLEL 1-WAY FULL SCAN OVER JOIN_ORDER_TABLE\n" +
                 "            SERVER FILTER BY QUANTITY < 5000\n" +
                 "    BUILD HASH TABLE 1\n" +
-                "        CLIENT PARALLEL 1-WAY FULL SCAN OVER JOIN_SUPPLIER_TABLE"
+                "        CLIENT PARALLEL 1-WAY FULL SCAN OVER JOIN_SUPPLIER_TABLE\n" +
+                "    DYNAMIC SKIP SCAN BY I.ITEM_ID IN (O.ITEM_ID) IF AT MOST 10000 KEYS"
                 }});
         testCases.add(new String[][] {
                 {
@@ -136,7 +142,8 @@ public class HashJoinTest extends BaseHBaseManagedTimeTest {
                 "        CLIENT PARALLEL 1-WAY FULL SCAN OVER JOIN_ORDER_TABLE\n" +
                 "            SERVER FILTER BY QUANTITY < 5000\n" +
                 "    BUILD HASH TABLE 1\n" +
-                "        CLIENT PARALLEL 1-WAY FULL SCAN OVER INDEX_JOIN_SUPPLIER_TABLE"
+                "        CLIENT PARALLEL 1-WAY FULL SCAN OVER INDEX_JOIN_SUPPLIER_TABLE\n" +
+                "    DYNAMIC SKIP SCAN BY I.ITEM_ID IN (O.ITEM_ID) IF AT MOST 10000 KEYS"
                 }});
         return testCases;
     }
@@ -1382,6 +1389,72 @@ public class HashJoinTest extends BaseHBaseManagedTimeTest {
         }
     }
     
+    @Test
+    public void testJoinWithSkipScanOverLeadingRowKeyColumn() throws Exception {
+        String query = "SELECT o.order_id, i.name FROM " + JOIN_ITEM_TABLE + " i JOIN " 
+            + JOIN_ORDER_TABLE + " o ON i.item_id = o.item_id WHERE i.item_id >= '0000000002' ORDER BY o.order_id";
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            PreparedStatement statement = conn.prepareStatement(query);
+            ResultSet rs = statement.executeQuery();
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "000000000000002");
+            assertEquals(rs.getString(2), "T6");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "000000000000003");
+            assertEquals(rs.getString(2), "T2");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "000000000000004");
+            assertEquals(rs.getString(2), "T6");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "000000000000005");
+            assertEquals(rs.getString(2), "T3");
+            
+            assertFalse(rs.next());
+            
+            rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            String plan = QueryUtil.getExplainPlan(rs);
+            assertTrue(plan, plan.contains("DYNAMIC SKIP SCAN BY I.ITEM_ID IN (O.ITEM_ID) IF AT MOST 10000 KEYS"));
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testJoinWithSkipScanLeavesPlanUnchanged() throws Exception {
+        String query1 = "SELECT o.order_id, i.name FROM " + JOIN_ITEM_TABLE + " i JOIN " 
+            + JOIN_ORDER_TABLE + " o ON i.item_id = o.item_id WHERE i.item_id >= '0000000002'";
+        // None of the join keys is within the range of the main table, so nothing is scanned
+        String query2 = "SELECT o.order_id, i.name FROM " + JOIN_ITEM_TABLE + " i JOIN " 
+            + JOIN_ORDER_TABLE + " o ON i.item_id = o.item_id WHERE i.item_id >= '0000000002' AND o.item_id = '0000000001'";
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            String[] queries = new String[] {query1, query2};
+            int[] rowCounts = new int[] {4, 0};
+            for (int i = 0; i < queries.length; i++) {
+                QueryPlan plan = conn.prepareStatement(queries[i]).unwrap(PhoenixPreparedStatement.class).optimizeQuery();
+                ScanRanges ranges = plan.getContext().getScanRanges();
+                Filter filter = plan.getContext().getScan().getFilter();
+                // The key values of the join table only apply to one execution of the plan
+                for (int j = 0; j < 2; j++) {
+                    ResultIterator iterator = plan.iterator();
+                    int rowCount = 0;
+                    while (iterator.next() != null) {
+                        rowCount++;
+                    }
+                    iterator.close();
+                    assertEquals(rowCounts[i], rowCount);
+                    assertTrue(ranges == plan.getContext().getScanRanges());
+                    assertTrue(filter == plan.getContext().getScan().getFilter());
+                }
+            }
+        } finally {
+            conn.close();
+        }
+    }
+    
     @Test
     public void testSelfJoin() throws Exception {
         String query1 = "SELECT i2.item_id, i1.name FROM " + JOIN_ITEM_TABLE + " i1 JOIN " 
@@ -1443,5 +1516,128 @@ public class HashJoinTest extends BaseHBaseManagedTimeTest {
             conn.close();
         }
     }
+    
+    @Test
+    public void testSortMergeInnerJoin() throws Exception {
+        String query = "SELECT /*+ USE_SORT_MERGE_JOIN*/ item.item_id, item.name, supp.supplier_id, supp.name FROM " + JOIN_ITEM_TABLE + " item INNER JOIN " + JOIN_SUPPLIER_TABLE + " supp ON item.supplier_id = supp.supplier_id ORDER BY item.name";
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            PreparedStatement statement = conn.prepareStatement(query);
+            ResultSet rs = statement.executeQuery();
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000001");
+            assertEquals(rs.getString(2), "T1");
+            assertEquals(rs.getString(3), "0000000001");
+            assertEquals(rs.getString(4), "S1");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000002");
+            assertEquals(rs.getString(2), "T2");
+            assertEquals(rs.getString(3), "0000000001");
+            assertEquals(rs.getString(4), "S1");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000003");
+            assertEquals(rs.getString(2), "T3");
+            assertEquals(rs.getString(3), "0000000002");
+            assertEquals(rs.getString(4), "S2");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000004");
+            assertEquals(rs.getString(2), "T4");
+            assertEquals(rs.getString(3), "0000000002");
+            assertEquals(rs.getString(4), "S2");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000005");
+            assertEquals(rs.getString(2), "T5");
+            assertEquals(rs.getString(3), "0000000005");
+            assertEquals(rs.getString(4), "S5");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000006");
+            assertEquals(rs.getString(2), "T6");
+            assertEquals(rs.getString(3), "0000000006");
+            assertEquals(rs.getString(4), "S6");
+
+            assertFalse(rs.next());
+            
+            rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            String plan = QueryUtil.getExplainPlan(rs);
+            assertTrue(plan, plan.startsWith("SORT-MERGE-JOIN (INNER) TABLES"));
+            assertTrue(plan, plan.endsWith("CLIENT SORTED BY [ITEM.NAME]"));
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testSortMergeLeftJoin() throws Exception {
+        String query = "SELECT /*+ USE_SORT_MERGE_JOIN*/ item.item_id, item.name, supp.supplier_id, supp.name FROM " + JOIN_ITEM_TABLE + " item LEFT JOIN " + JOIN_SUPPLIER_TABLE + " supp ON item.supplier_id = supp.supplier_id ORDER BY item.name DESC";
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            PreparedStatement statement = conn.prepareStatement(query);
+            ResultSet rs = statement.executeQuery();
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000006");
+            assertEquals(rs.getString(2), "T6");
+            assertEquals(rs.getString(3), "0000000006");
+            assertEquals(rs.getString(4), "S6");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000005");
+            assertEquals(rs.getString(2), "T5");
+            assertEquals(rs.getString(3), "0000000005");
+            assertEquals(rs.getString(4), "S5");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000004");
+            assertEquals(rs.getString(2), "T4");
+            assertEquals(rs.getString(3), "0000000002");
+            assertEquals(rs.getString(4), "S2");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000003");
+            assertEquals(rs.getString(2), "T3");
+            assertEquals(rs.getString(3), "0000000002");
+            assertEquals(rs.getString(4), "S2");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000002");
+            assertEquals(rs.getString(2), "T2");
+            assertEquals(rs.getString(3), "0000000001");
+            assertEquals(rs.getString(4), "S1");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "0000000001");
+            assertEquals(rs.getString(2), "T1");
+            assertEquals(rs.getString(3), "0000000001");
+            assertEquals(rs.getString(4), "S1");
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "invalid001");
+            assertEquals(rs.getString(2), "INVALID-1");
+            assertNull(rs.getString(3));
+            assertNull(rs.getString(4));
+
+            assertFalse(rs.next());
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testSortMergeJoinWithPostFilters() throws Exception {
+        String query = "SELECT /*+ USE_SORT_MERGE_JOIN*/ item.item_id, item.name FROM " + JOIN_ITEM_TABLE + " item LEFT JOIN " + JOIN_SUPPLIER_TABLE + " supp ON item.supplier_id = supp.supplier_id WHERE supp.name IS NULL";
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            PreparedStatement statement = conn.prepareStatement(query);
+            ResultSet rs = statement.executeQuery();
+            assertTrue (rs.next());
+            assertEquals(rs.getString(1), "invalid001");
+            assertEquals(rs.getString(2), "INVALID-1");
+
+            assertFalse(rs.next());
+            
+            rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            String plan = QueryUtil.getExplainPlan(rs);
+            assertTrue(plan, plan.startsWith("SORT-MERGE-JOIN (LEFT) TABLES"));
+            assertTrue(plan, plan.contains("AFTER-JOIN CLIENT FILTER BY "));
+        } finally {
+            conn.close();
+        }
+    }
 
 }
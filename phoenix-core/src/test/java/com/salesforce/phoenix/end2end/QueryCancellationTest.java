@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.end2end;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.salesforce.phoenix.exception.SQLExceptionCode;
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
+import com.salesforce.phoenix.memory.MemoryManager;
+
+public class QueryCancellationTest extends BaseHBaseManagedTimeTest {
+    private static void initTable(Connection conn) throws Exception {
+        conn.createStatement().execute("CREATE TABLE CANCEL_TEST (k INTEGER NOT NULL PRIMARY KEY, v VARCHAR) SALT_BUCKETS=4");
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO CANCEL_TEST VALUES(?,?)");
+        for (int i = 0; i < 100; i++) {
+            stmt.setInt(1, i);
+            stmt.setString(2, "v" + i);
+            stmt.execute();
+        }
+        conn.commit();
+    }
+    
+    @Test
+    public void testCancel() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        initTable(conn);
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT k FROM CANCEL_TEST");
+        assertTrue(rs.next());
+        stmt.cancel();
+        try {
+            rs.next();
+            fail();
+        } catch (SQLException e) {
+            assertEquals(SQLExceptionCode.QUERY_CANCELLED.getErrorCode(), e.getErrorCode());
+        }
+        rs.close();
+        
+        // Only the queries running at the time of the cancel are stopped
+        rs = stmt.executeQuery("SELECT count(*) FROM CANCEL_TEST");
+        assertTrue(rs.next());
+        assertEquals(100, rs.getInt(1));
+        assertFalse(rs.next());
+        conn.close();
+    }
+
+    @Test
+    public void testLimitCompletesWithRegionScansRunning() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        initTable(conn);
+        ResultSet rs = conn.createStatement().executeQuery("SELECT k FROM CANCEL_TEST LIMIT 3");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(rs.next());
+        }
+        assertFalse(rs.next());
+        assertFalse(rs.next());
+        rs.close();
+        conn.close();
+    }
+
+    @Test
+    public void testQueryTimeout() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        initTable(conn);
+        Statement stmt = conn.createStatement();
+        assertEquals(0, stmt.getQueryTimeout());
+        try {
+            stmt.setQueryTimeout(-1);
+            fail();
+        } catch (SQLException e) {
+            assertEquals(SQLExceptionCode.ILLEGAL_DATA.getErrorCode(), e.getErrorCode());
+        }
+        stmt.setQueryTimeout(60);
+        assertEquals(60, stmt.getQueryTimeout());
+        ResultSet rs = stmt.executeQuery("SELECT count(*) FROM CANCEL_TEST");
+        assertTrue(rs.next());
+        assertEquals(100, rs.getInt(1));
+        conn.close();
+    }
+
+    @Test
+    public void testQueryTimedOut() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        initTable(conn);
+        MemoryManager memoryManager = conn.unwrap(PhoenixConnection.class).getQueryServices().getMemoryManager();
+        Statement stmt = conn.createStatement();
+        stmt.setQueryTimeout(1);
+        ResultSet rs = stmt.executeQuery("SELECT k FROM CANCEL_TEST");
+        assertTrue(rs.next());
+        // Read the rest of the rows after the query timeout
+        Thread.sleep(2000);
+        try {
+            rs.next();
+            fail();
+        } catch (SQLTimeoutException e) {
+            assertEquals(SQLExceptionCode.QUERY_TIMEOUT.getErrorCode(), e.getErrorCode());
+        }
+        // The scans were closed without closing the result set
+        assertEquals(memoryManager.getMaxMemory(), memoryManager.getAvailableMemory());
+        rs.close();
+        
+        // Only the query that timed out is stopped
+        rs = stmt.executeQuery("SELECT count(*) FROM CANCEL_TEST");
+        assertTrue(rs.next());
+        assertEquals(100, rs.getInt(1));
+        assertFalse(rs.next());
+        conn.close();
+    }
+}
@@ -58,6 +58,11 @@ public class SpillableGroupByTest extends BaseConnectedQueryTest {
             + "count(*), count(distinct uri), sum(appcpu), avg(appcpu), uri, min(id), max(id) from "
             + GROUPBYTEST_NAME + " group by uri";
     
+    // covers fixed width aggregators only: COUNT, SUM, MIN, MAX
+    private static String GROUPBY2 = "select "
+            + "count(*), sum(appcpu), min(appcpu), max(appcpu), uri from "
+            + GROUPBYTEST_NAME + " group by uri";
+    
     private int id;
 
     @BeforeClass
@@ -141,4 +146,31 @@ public class SpillableGroupByTest extends BaseConnectedQueryTest {
         }
     }
 
+    @Test
+    public void testScanUriFixedWidthAggregators() throws Exception {
+        SpillableGroupByTest spGpByT = new SpillableGroupByTest();
+        long ts = spGpByT.createTable();
+        spGpByT.loadData(ts);
+        Properties props = new Properties(TEST_PROPERTIES);
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB,
+                Long.toString(ts + 1));
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery(GROUPBY2);
+
+            int count = 0;
+            while (rs.next()) {
+                assertEquals(2, rs.getInt(1));
+                assertEquals(20, rs.getInt(2));
+                assertEquals(10, rs.getInt(3));
+                assertEquals(10, rs.getInt(4));
+                count++;
+            }
+            assertEquals(NUM_ROWS_INSERTED / 2, count);
+        } finally {
+            conn.close();
+        }
+    }
+
 }
@@ -35,6 +35,8 @@ import java.util.Properties;
 
 import org.junit.Test;
 
+import com.salesforce.phoenix.util.QueryUtil;
+
 
 /**
  * End-to-End tests on various statement hints.
@@ -168,4 +170,70 @@ public class StatementHintsTest extends BaseHBaseManagedTimeTest {
             conn.close();
         }
     }
+
+    @Test
+    public void testSelectBatchFilter() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            initTableValues();
+            String query = "SELECT /*+ BATCH_FILTER */ a_integer, a_string FROM test_table WHERE b_string = 'abc' AND a_string LIKE 'a%'";
+            ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            assertTrue(QueryUtil.getExplainPlan(rs).contains("SERVER BATCH FILTER BY"));
+            rs = conn.createStatement().executeQuery(query);
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            assertEquals("ab", rs.getString(2));
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            assertEquals("abc", rs.getString(2));
+            assertFalse(rs.next());
+            
+            // Combined with a skip scan over the row key
+            query = "SELECT /*+ BATCH_FILTER */ a_integer FROM test_table WHERE a_integer IN (1, 4) AND b_string = 'jkl'";
+            rs = conn.createStatement().executeQuery(query);
+            assertTrue(rs.next());
+            assertEquals(4, rs.getInt(1));
+            assertFalse(rs.next());
+            
+            // The limit is applied after filtering
+            query = "SELECT /*+ BATCH_FILTER */ a_integer FROM test_table WHERE b_string > 'abc' LIMIT 2";
+            rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            String plan = QueryUtil.getExplainPlan(rs);
+            assertTrue(plan.contains("SERVER BATCH FILTER BY"));
+            assertTrue(plan.contains("SERVER 2 ROW LIMIT"));
+            rs = conn.createStatement().executeQuery(query);
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            assertTrue(rs.next());
+            assertEquals(3, rs.getInt(1));
+            assertFalse(rs.next());
+            
+            query = "SELECT /*+ BATCH_FILTER */ count(*) FROM test_table WHERE b_string IN ('abc', 'jkl')";
+            rs = conn.createStatement().executeQuery(query);
+            assertTrue(rs.next());
+            assertEquals(4, rs.getInt(1));
+            assertFalse(rs.next());
+            
+            query = "SELECT /*+ BATCH_FILTER */ a_integer, count(*) FROM test_table WHERE b_string != 'def' GROUP BY a_integer";
+            rs = conn.createStatement().executeQuery(query);
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            assertEquals(3, rs.getInt(2));
+            assertTrue(rs.next());
+            assertEquals(3, rs.getInt(1));
+            assertEquals(1, rs.getInt(2));
+            assertTrue(rs.next());
+            assertEquals(4, rs.getInt(1));
+            assertEquals(1, rs.getInt(2));
+            assertFalse(rs.next());
+            
+            // A filter on the row key alone is still evaluated by HBase
+            query = "SELECT /*+ BATCH_FILTER */ a_integer FROM test_table WHERE a_string LIKE 'd%'";
+            rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            assertFalse(QueryUtil.getExplainPlan(rs).contains("SERVER BATCH FILTER BY"));
+        } finally {
+            conn.close();
+        }
+    }
 }
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.end2end;
+
+import static com.salesforce.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.salesforce.phoenix.compile.StatementContext;
+import com.salesforce.phoenix.iterate.DefaultParallelIteratorRegionSplitter;
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
+import com.salesforce.phoenix.jdbc.PhoenixStatement;
+import com.salesforce.phoenix.parse.HintNode;
+import com.salesforce.phoenix.query.KeyRange;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
+import com.salesforce.phoenix.util.ReadOnlyProps;
+
+
+/**
+ * Tests for the collection of statistics during major compaction and the
+ * use of the collected guide posts when splitting a region into parallel scans.
+ *
+ * @since 3.0.0
+ */
+public class StatsCollectorTest extends BaseHBaseManagedTimeTest {
+    private static final String STATS_TEST_TABLE_NAME = "STATS_TEST";
+    private static final int NUM_ROWS = 100;
+
+    @BeforeClass
+    public static void doSetup() throws Exception {
+        Map<String,String> props = Maps.newHashMapWithExpectedSize(4);
+        // Small enough to get many guide posts for a single region
+        props.put(QueryServices.STATS_GUIDEPOST_WIDTH_BYTES_ATTRIB, Integer.toString(500));
+        props.put(QueryServices.TARGET_QUERY_CONCURRENCY_ATTRIB, Integer.toString(4));
+        props.put(QueryServices.MAX_INTRA_REGION_PARALLELIZATION_ATTRIB, Integer.toString(4));
+        // Drop the HTables along with the tables, so that their stats are deleted too
+        props.put(QueryServices.DROP_METADATA_ATTRIB, Boolean.toString(true));
+        // Must update config before starting server
+        startServer(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
+    }
+
+    private static void initTableValues(Connection conn) throws Exception {
+        conn.createStatement().execute("CREATE TABLE " + STATS_TEST_TABLE_NAME + " (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR)");
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + STATS_TEST_TABLE_NAME + " VALUES(?,?)");
+        for (int i = 0; i < NUM_ROWS; i++) {
+            stmt.setString(1, String.format("k%03d", i));
+            stmt.setString(2, "value" + i);
+            stmt.execute();
+        }
+        conn.commit();
+    }
+    
+    private static void majorCompact(Connection conn) throws Exception {
+        HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+        try {
+            admin.flush(STATS_TEST_TABLE_NAME);
+            admin.majorCompact(STATS_TEST_TABLE_NAME);
+        } finally {
+            admin.close();
+        }
+    }
+    
+    private static long waitForRowCount(Connection conn, long maxWaitTimeMs) throws Exception {
+        long startTime = System.currentTimeMillis();
+        do {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT ROW_COUNT FROM SYSTEM.\"STATS\" WHERE PHYSICAL_NAME = '" + STATS_TEST_TABLE_NAME + "'");
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+            Thread.sleep(100);
+        } while (System.currentTimeMillis() - startTime < maxWaitTimeMs);
+        return -1;
+    }
+
+    private static int getStatsRowCount(Connection conn, String regionName) throws Exception {
+        String query = "SELECT count(*) FROM SYSTEM.\"STATS\" WHERE PHYSICAL_NAME = '" + STATS_TEST_TABLE_NAME + "'";
+        if (regionName != null) {
+            query += " AND REGION_NAME = '" + regionName + "'";
+        }
+        ResultSet rs = conn.createStatement().executeQuery(query);
+        assertTrue(rs.next());
+        return rs.getInt(1);
+    }
+
+    @Test
+    public void testStatsDeletedOnSplit() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            initTableValues(conn);
+            majorCompact(conn);
+            assertEquals(NUM_ROWS, waitForRowCount(conn, 30000));
+            ResultSet rs = conn.createStatement().executeQuery("SELECT REGION_NAME FROM SYSTEM.\"STATS\" WHERE PHYSICAL_NAME = '" + STATS_TEST_TABLE_NAME + "'");
+            assertTrue(rs.next());
+            String regionName = rs.getString(1);
+            assertFalse(rs.next());
+            
+            HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+            try {
+                admin.split(Bytes.toBytes(STATS_TEST_TABLE_NAME), Bytes.toBytes("k050"));
+            } finally {
+                admin.close();
+            }
+            long endTime = System.currentTimeMillis() + 30000;
+            while (getStatsRowCount(conn, regionName) > 0 && System.currentTimeMillis() < endTime) {
+                Thread.sleep(100);
+            }
+            assertEquals(0, getStatsRowCount(conn, regionName));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testStatsDeletedOnDrop() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            initTableValues(conn);
+            majorCompact(conn);
+            assertEquals(NUM_ROWS, waitForRowCount(conn, 30000));
+            conn.createStatement().execute("DROP TABLE " + STATS_TEST_TABLE_NAME);
+            assertEquals(0, getStatsRowCount(conn, null));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testSplitOnGuidePosts() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            initTableValues(conn);
+            majorCompact(conn);
+            assertEquals(NUM_ROWS, waitForRowCount(conn, 30000));
+            
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            TableRef tableRef = new TableRef(null, pconn.getPMetaData().getTable(STATS_TEST_TABLE_NAME), 0, false);
+            pconn.getQueryServices().getStatsManager().updateStats(tableRef);
+            PTableStats tableStats = pconn.getQueryServices().getStatsManager().getTableStats(tableRef);
+            List<HRegionLocation> regions = pconn.getQueryServices().getAllTableRegions(Bytes.toBytes(STATS_TEST_TABLE_NAME));
+            assertEquals(1, regions.size());
+            byte[][] guidePosts = tableStats.getRegionGuidePosts(regions.get(0).getRegionInfo());
+            assertNotNull(guidePosts);
+            assertTrue("Expected at least 3 guide posts, but got " + guidePosts.length, guidePosts.length >= 3);
+            
+            StatementContext context = new StatementContext(new PhoenixStatement(pconn), null, Collections.emptyList(), new Scan());
+            List<KeyRange> splits = DefaultParallelIteratorRegionSplitter.getInstance(context, tableRef, HintNode.EMPTY_HINT_NODE).getSplits();
+            assertEquals(4, splits.size());
+            assertTrue(splits.get(0).lowerUnbound());
+            assertTrue(splits.get(3).upperUnbound());
+            for (int i = 0; i < splits.size() - 1; i++) {
+                byte[] boundary = splits.get(i).getUpperRange();
+                assertTrue(Bytes.equals(boundary, splits.get(i+1).getLowerRange()));
+                boolean isGuidePost = false;
+                for (byte[] guidePost : guidePosts) {
+                    isGuidePost |= Bytes.equals(boundary, guidePost);
+                }
+                assertTrue("Split boundary " + Bytes.toStringBinary(boundary) + " is not a guide post", isGuidePost);
+            }
+            
+            // The query results must not depend on how the region was split
+            ResultSet rs = conn.createStatement().executeQuery("SELECT k FROM " + STATS_TEST_TABLE_NAME);
+            for (int i = 0; i < NUM_ROWS; i++) {
+                assertTrue(rs.next());
+                assertEquals(String.format("k%03d", i), rs.getString(1));
+            }
+            assertFalse(rs.next());
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -34,6 +34,7 @@ import static com.salesforce.phoenix.exception.SQLExceptionCode.CANNOT_MUTATE_TA
 import static com.salesforce.phoenix.exception.SQLExceptionCode.TABLE_UNDEFINED;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_SCHEMA;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_SEQUENCE;
+import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_STATS;
 import static com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData.TYPE_TABLE;
 import static com.salesforce.phoenix.schema.PTableType.SYSTEM;
 import static com.salesforce.phoenix.schema.PTableType.USER;
@@ -366,6 +367,8 @@ public class TenantSpecificTablesDDLTest extends BaseTenantSpecificTablesTest {
             assertTrue(rs.next());
             assertTableMetaData(rs, TYPE_SCHEMA, TYPE_SEQUENCE, SYSTEM);
             assertTrue(rs.next());
+            assertTableMetaData(rs, TYPE_SCHEMA, TYPE_STATS, SYSTEM);
+            assertTrue(rs.next());
             assertTableMetaData(rs, TYPE_SCHEMA, TYPE_TABLE, SYSTEM);
             assertTrue(rs.next());
             assertTableMetaData(rs, null, PARENT_TABLE_NAME, USER);
@@ -35,6 +35,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.DriverManager;
@@ -371,4 +372,122 @@ public class UpsertValuesTest extends BaseClientManagedTimeTest {
         }
     }
         
+    @Test
+    public void testUpsertValuesBatch() throws Exception {
+        long ts = nextTimestamp();
+        Properties props = new Properties();
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts));
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.createStatement().execute("create table UpsertBatchTest (k VARCHAR not null primary key, v INTEGER)");
+        conn.close();
+
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts+5));
+        conn = DriverManager.getConnection(getUrl(), props);
+        PreparedStatement stmt = conn.prepareStatement("upsert into UpsertBatchTest values (?, ?)");
+        for (int i = 0; i < 10; i++) {
+            stmt.setString(1, "k" + i);
+            stmt.setInt(2, i);
+            stmt.addBatch();
+        }
+        // Later rows in the batch win for the same key
+        stmt.setString(1, "k0");
+        stmt.setInt(2, 100);
+        stmt.addBatch();
+        int[] updateCounts = stmt.executeBatch();
+        assertEquals(11, updateCounts.length);
+        for (int updateCount : updateCounts) {
+            assertEquals(1, updateCount);
+        }
+        assertEquals(0, stmt.executeBatch().length);
+        
+        Statement batchStmt = conn.createStatement();
+        batchStmt.addBatch("upsert into UpsertBatchTest values ('k10', 10)");
+        batchStmt.addBatch("upsert into UpsertBatchTest(k) values ('k11')");
+        updateCounts = batchStmt.executeBatch();
+        assertEquals(2, updateCounts.length);
+        conn.commit();
+        conn.close();
+        
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts+10));
+        conn = DriverManager.getConnection(getUrl(), props);
+        ResultSet rs = conn.createStatement().executeQuery("select count(*), sum(v) from UpsertBatchTest");
+        assertTrue(rs.next());
+        assertEquals(12, rs.getInt(1));
+        assertEquals(155, rs.getInt(2));
+        conn.close();
+    }
+    
+    @Test
+    public void testUpsertValuesBatchMixedValues() throws Exception {
+        long ts = nextTimestamp();
+        Properties props = new Properties();
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts));
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.createStatement().execute("create table UpsertBatchMixedTest (k VARCHAR not null primary key, v INTEGER, c VARCHAR, w INTEGER)");
+        conn.close();
+
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts+5));
+        conn = DriverManager.getConnection(getUrl(), props);
+        // Constant, top level bind and bind within an expression in the same batch
+        PreparedStatement stmt = conn.prepareStatement("upsert into UpsertBatchMixedTest values (?, ?, 'c', ? * 2)");
+        for (int i = 0; i < 3; i++) {
+            stmt.setString(1, "k" + i);
+            stmt.setInt(2, i);
+            stmt.setInt(3, i + 10);
+            stmt.addBatch();
+        }
+        assertEquals(3, stmt.executeBatch().length);
+        conn.commit();
+        conn.close();
+        
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts+10));
+        conn = DriverManager.getConnection(getUrl(), props);
+        ResultSet rs = conn.createStatement().executeQuery("select k, v, c, w from UpsertBatchMixedTest");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(rs.next());
+            assertEquals("k" + i, rs.getString(1));
+            assertEquals(i, rs.getInt(2));
+            assertEquals("c", rs.getString(3));
+            assertEquals((i + 10) * 2, rs.getInt(4));
+        }
+        assertFalse(rs.next());
+        conn.close();
+    }
+    
+    @Test
+    public void testUpsertValuesBatchFailure() throws Exception {
+        long ts = nextTimestamp();
+        Properties props = new Properties();
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts));
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.createStatement().execute("create table UpsertBatchFailureTest (k VARCHAR not null primary key, v INTEGER)");
+        conn.close();
+
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts+5));
+        conn = DriverManager.getConnection(getUrl(), props);
+        PreparedStatement stmt = conn.prepareStatement("upsert into UpsertBatchFailureTest values (?, ?)");
+        stmt.setString(1, "a");
+        stmt.setInt(2, 1);
+        stmt.addBatch();
+        stmt.setString(1, "b");
+        stmt.setDate(2, new Date(0));
+        stmt.addBatch();
+        try {
+            stmt.executeBatch();
+            fail();
+        } catch (BatchUpdateException e) {
+            assertEquals(SQLExceptionCode.TYPE_MISMATCH.getErrorCode(), e.getErrorCode());
+            assertEquals(0, e.getUpdateCounts().length);
+        }
+        conn.commit();
+        conn.close();
+        
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts+10));
+        conn = DriverManager.getConnection(getUrl(), props);
+        ResultSet rs = conn.createStatement().executeQuery("select count(*) from UpsertBatchFailureTest");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        conn.close();
+    }
+    
 }
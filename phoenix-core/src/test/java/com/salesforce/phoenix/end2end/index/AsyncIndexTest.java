@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.end2end.index;
+
+import static com.salesforce.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.salesforce.hbase.index.Indexer;
+import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
+import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MutationCode;
+import com.salesforce.phoenix.end2end.BaseHBaseManagedTimeTest;
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
+import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PIndexState;
+import com.salesforce.phoenix.schema.PTableType;
+import com.salesforce.phoenix.util.SchemaUtil;
+
+
+public class AsyncIndexTest extends BaseHBaseManagedTimeTest {
+
+    private static void assertIndexRows(Connection conn, String indexName, int expectedCount) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery("SELECT count(*) FROM " + indexName);
+        assertTrue(rs.next());
+        assertEquals(expectedCount, rs.getInt(1));
+        assertFalse(rs.next());
+    }
+
+    private static void assertIndexState(Connection conn, String indexName, PIndexState expectedState) throws SQLException {
+        ResultSet rs = conn.getMetaData().getTables(null, "", indexName, new String[] {PTableType.INDEX.toString()});
+        assertTrue(rs.next());
+        assertEquals(expectedState.toString(), rs.getString("INDEX_STATE"));
+        assertFalse(rs.next());
+    }
+    
+    /**
+     * Report the lag of a region for an index, as the index lag policy does
+     */
+    private static void reportLag(Connection conn, String indexName, String regionName, PIndexState newState, long expireTime) throws SQLException {
+        Put put = new Put(SchemaUtil.getTableKeyFromFullName(indexName));
+        put.add(PhoenixDatabaseMetaData.TABLE_FAMILY_BYTES, PhoenixDatabaseMetaData.INDEX_STATE_BYTES, newState.getSerializedBytes());
+        put.add(PhoenixDatabaseMetaData.TABLE_FAMILY_BYTES, Bytes.add(PhoenixDatabaseMetaData.INDEX_LAGGING_REGION_BYTES, Bytes.toBytes(regionName)), PDataType.LONG.toBytes(expireTime));
+        MetaDataMutationResult result = conn.unwrap(PhoenixConnection.class).getQueryServices().updateIndexState(Collections.<Mutation>singletonList(put), null);
+        assertEquals(MutationCode.TABLE_ALREADY_EXISTS, result.getMutationCode());
+    }
+    
+    @Test
+    public void testLagTrackedAcrossRegions() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            conn.createStatement().execute("CREATE TABLE AT3 (k VARCHAR NOT NULL PRIMARY KEY, v1 VARCHAR) " + Indexer.ASYNC_INDEX_MAX_LAG_MS + "=600000");
+            conn.createStatement().execute("CREATE INDEX AI3 ON AT3 (v1)");
+            long expireTime = System.currentTimeMillis() + 600000;
+            
+            // The index stays INACTIVE until every lagging region caught up
+            reportLag(conn, "AI3", "r1", PIndexState.UNUSABLE, expireTime);
+            assertIndexState(conn, "AI3", PIndexState.INACTIVE);
+            reportLag(conn, "AI3", "r2", PIndexState.UNUSABLE, expireTime);
+            reportLag(conn, "AI3", "r1", PIndexState.USABLE, 0);
+            assertIndexState(conn, "AI3", PIndexState.INACTIVE);
+            reportLag(conn, "AI3", "r2", PIndexState.USABLE, 0);
+            assertIndexState(conn, "AI3", PIndexState.ACTIVE);
+            
+            // A region that went away while lagging doesn't keep the index INACTIVE once its report expired
+            reportLag(conn, "AI3", "r1", PIndexState.UNUSABLE, System.currentTimeMillis() - 1);
+            reportLag(conn, "AI3", "r2", PIndexState.UNUSABLE, expireTime);
+            reportLag(conn, "AI3", "r2", PIndexState.USABLE, 0);
+            assertIndexState(conn, "AI3", PIndexState.ACTIVE);
+            
+            // An index made INACTIVE explicitly isn't made ACTIVE by the lagging regions catching up
+            reportLag(conn, "AI3", "r1", PIndexState.UNUSABLE, expireTime);
+            conn.createStatement().execute("ALTER INDEX AI3 ON AT3 UNUSABLE");
+            reportLag(conn, "AI3", "r1", PIndexState.USABLE, 0);
+            assertIndexState(conn, "AI3", PIndexState.INACTIVE);
+            conn.createStatement().execute("ALTER INDEX AI3 ON AT3 USABLE");
+            assertIndexState(conn, "AI3", PIndexState.ACTIVE);
+            
+            // Nor is an index that was already INACTIVE when a region fell behind
+            conn.createStatement().execute("ALTER INDEX AI3 ON AT3 UNUSABLE");
+            reportLag(conn, "AI3", "r1", PIndexState.UNUSABLE, expireTime);
+            reportLag(conn, "AI3", "r1", PIndexState.USABLE, 0);
+            assertIndexState(conn, "AI3", PIndexState.INACTIVE);
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testIndexUpdatesWrittenOnFlush() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            // Large enough lag that the updates are only written when the region flushes
+            conn.createStatement().execute("CREATE TABLE AT1 (k VARCHAR NOT NULL PRIMARY KEY, v1 VARCHAR, v2 VARCHAR) " + Indexer.ASYNC_INDEX_MAX_LAG_MS + "=600000");
+            conn.createStatement().execute("CREATE INDEX AI1 ON AT1 (v1) INCLUDE (v2)");
+            HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+            HTableDescriptor desc = admin.getTableDescriptor(Bytes.toBytes("AT1"));
+            assertEquals("600000", desc.getValue(Indexer.ASYNC_INDEX_MAX_LAG_MS));
+            
+            conn.createStatement().execute("UPSERT INTO AT1 VALUES('a','x','1')");
+            conn.createStatement().execute("UPSERT INTO AT1 VALUES('b','y','2')");
+            conn.commit();
+            // The data rows are visible right away, but the index rows are still pending
+            ResultSet rs = conn.createStatement().executeQuery("SELECT /*+ NO_INDEX */ count(*) FROM AT1");
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            assertIndexRows(conn, "AI1", 0);
+            
+            // Flushing the data table writes out the pending index updates
+            admin.flush("AT1");
+            assertIndexRows(conn, "AI1", 2);
+            rs = conn.createStatement().executeQuery("SELECT k, v2 FROM AT1 WHERE v1 = 'y'");
+            assertTrue(rs.next());
+            assertEquals("b", rs.getString(1));
+            assertEquals("2", rs.getString(2));
+            assertFalse(rs.next());
+            assertEquals(PIndexState.ACTIVE, conn.unwrap(PhoenixConnection.class).getPMetaData().getTable("AI1").getIndexState());
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testInvalidMaxLagWritesSynchronously() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            conn.createStatement().execute("CREATE TABLE AT2 (k VARCHAR NOT NULL PRIMARY KEY, v1 VARCHAR) " + Indexer.ASYNC_INDEX_MAX_LAG_MS + "='10 minutes'");
+            conn.createStatement().execute("CREATE INDEX AI2 ON AT2 (v1)");
+            
+            conn.createStatement().execute("UPSERT INTO AT2 VALUES('a','x')");
+            conn.commit();
+            // The regions of the table still open, and write the index updates before returning
+            assertIndexRows(conn, "AI2", 1);
+        } finally {
+            conn.close();
+        }
+    }
+}
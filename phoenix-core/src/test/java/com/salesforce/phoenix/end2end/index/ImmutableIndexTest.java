@@ -129,9 +129,11 @@ public class ImmutableIndexTest extends BaseHBaseManagedTimeTest{
     @BeforeClass 
     public static void doSetup() throws Exception {
         
-        Map<String,String> props = Maps.newHashMapWithExpectedSize(1);
+        Map<String,String> props = Maps.newHashMapWithExpectedSize(2);
         // Drop the HBase table metadata for this test
         props.put(QueryServices.DROP_METADATA_ATTRIB, Boolean.toString(true));
+        // Send small batches so that commits are split up and sent in parallel
+        props.put(QueryServices.MUTATE_MAX_BATCH_SIZE_PER_SERVER_ATTRIB, Integer.toString(5));
         // Must update config before starting server
         startServer(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
     }
@@ -152,6 +154,36 @@ public class ImmutableIndexTest extends BaseHBaseManagedTimeTest{
         testImmutableTableIndexMaintanence(null, null);
     }
 
+    @Test
+    public void testParallelCommitOfDataAndIndexBatches() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.setAutoCommit(false);
+        conn.createStatement().execute("CREATE TABLE t (k INTEGER NOT NULL PRIMARY KEY, v VARCHAR) immutable_rows=true, SALT_BUCKETS=" + TABLE_SPLITS);
+        conn.createStatement().execute("CREATE INDEX i ON t (v) SALT_BUCKETS=" + INDEX_SPLITS);
+        
+        int nRows = 100;
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO t VALUES(?,?)");
+        for (int i = 0; i < nRows; i++) {
+            stmt.setInt(1, i);
+            stmt.setString(2, "v" + i);
+            stmt.execute();
+        }
+        conn.commit();
+        
+        ResultSet rs = conn.createStatement().executeQuery("SELECT count(*) FROM t");
+        assertTrue(rs.next());
+        assertEquals(nRows, rs.getInt(1));
+        rs = conn.createStatement().executeQuery("SELECT count(*) FROM i");
+        assertTrue(rs.next());
+        assertEquals(nRows, rs.getInt(1));
+        rs = conn.createStatement().executeQuery("SELECT k FROM t WHERE v = 'v42'");
+        assertTrue(rs.next());
+        assertEquals(42, rs.getInt(1));
+        assertFalse(rs.next());
+        conn.close();
+    }
+
     private void testImmutableTableIndexMaintanence(Integer tableSaltBuckets, Integer indexSaltBuckets) throws Exception {
         String query;
         ResultSet rs;
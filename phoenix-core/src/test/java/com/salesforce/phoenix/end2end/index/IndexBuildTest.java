@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.end2end.index;
+
+import static com.salesforce.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.salesforce.phoenix.coprocessor.UngroupedAggregateRegionObserver;
+import com.salesforce.phoenix.end2end.BaseHBaseManagedTimeTest;
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
+import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.schema.PIndexState;
+import com.salesforce.phoenix.schema.PTableType;
+import com.salesforce.phoenix.util.QueryUtil;
+import com.salesforce.phoenix.util.ReadOnlyProps;
+import com.salesforce.phoenix.util.SchemaUtil;
+
+
+public class IndexBuildTest extends BaseHBaseManagedTimeTest {
+    private static final String[][] ROWS = new String[][] {
+        {"a","z"},{"b","y"},{"c","x"},{"d","w"},{"e","v"},{"f","u"},{"g","t"},{"h","s"},{"i","r"}};
+
+    @BeforeClass 
+    public static void doSetup() throws Exception {
+        Map<String,String> props = Maps.newHashMapWithExpectedSize(3);
+        // Commit the index rows every two data rows and stop each chunk at its first commit,
+        // so that every region resumes its build several times
+        props.put(QueryServices.MUTATE_BATCH_SIZE_ATTRIB, Integer.toString(2));
+        props.put(QueryServices.INDEX_BUILD_CHUNK_TIME_MS_ATTRIB, Integer.toString(0));
+        // Fewer regions may be built at the same time than the tables have
+        props.put(QueryServices.INDEX_BUILD_MAX_CONCURRENT_REGIONS_ATTRIB, Integer.toString(2));
+        // Must update config before starting server
+        startServer(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
+    }
+    
+    /**
+     * Fails the first attempt of the index build chunk starting at {@link #FAIL_AT} once the chunk
+     * has written its index rows, and holds back the retry until {@link #RESUME} is counted down.
+     * The start row of every index build chunk is recorded.
+     */
+    public static class FailingChunkObserver extends BaseRegionObserver {
+        public static volatile String FAIL_AT;
+        public static final List<String> CHUNK_STARTS = Collections.synchronizedList(new ArrayList<String>());
+        public static final CountDownLatch RETRIED = new CountDownLatch(1);
+        public static final CountDownLatch RESUME = new CountDownLatch(1);
+        private static volatile boolean failed = false;
+        
+        @Override
+        public RegionScanner postScannerOpen(ObserverContext<RegionCoprocessorEnvironment> c, Scan scan, RegionScanner s) throws IOException {
+            if (scan.getAttribute(UngroupedAggregateRegionObserver.INDEX_BUILD) == null) {
+                return s;
+            }
+            String startRow = Bytes.toStringBinary(scan.getStartRow());
+            CHUNK_STARTS.add(startRow);
+            if (startRow.equals(FAIL_AT)) {
+                if (!failed) {
+                    failed = true;
+                    s.close();
+                    throw new DoNotRetryIOException("Simulated index build chunk failure");
+                }
+                RETRIED.countDown();
+                try {
+                    RESUME.await(60, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            return s;
+        }
+    }
+    
+    /**
+     * Fails every attempt of the index build chunk starting at {@link #FAIL_AT} while it's set.
+     * The start row of every index build chunk is recorded.
+     */
+    public static class FailingBuildObserver extends BaseRegionObserver {
+        public static volatile String FAIL_AT;
+        public static final List<String> CHUNK_STARTS = Collections.synchronizedList(new ArrayList<String>());
+        
+        @Override
+        public RegionScanner postScannerOpen(ObserverContext<RegionCoprocessorEnvironment> c, Scan scan, RegionScanner s) throws IOException {
+            if (scan.getAttribute(UngroupedAggregateRegionObserver.INDEX_BUILD) == null) {
+                return s;
+            }
+            String startRow = Bytes.toStringBinary(scan.getStartRow());
+            CHUNK_STARTS.add(startRow);
+            if (startRow.equals(FAIL_AT)) {
+                s.close();
+                throw new DoNotRetryIOException("Simulated index build failure");
+            }
+            return s;
+        }
+    }
+    
+    private static void addCoprocessor(Connection conn, Class<?> coprocessorClass) throws Exception {
+        HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+        try {
+            HTableDescriptor desc = admin.getTableDescriptor(Bytes.toBytes("T"));
+            desc.addCoprocessor(coprocessorClass.getName());
+            admin.disableTable("T");
+            admin.modifyTable(Bytes.toBytes("T"), desc);
+            admin.enableTable("T");
+        } finally {
+            admin.close();
+        }
+    }
+    
+    private static void createTable(Connection conn, String ddl) throws SQLException {
+        conn.createStatement().execute(ddl);
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO T VALUES(?,?)");
+        for (String[] row : ROWS) {
+            stmt.setString(1, row[0]);
+            stmt.setString(2, row[1]);
+            stmt.execute();
+        }
+        conn.commit();
+    }
+    
+    private static void assertIndexBuilt(Connection conn, String query, String expectedPlan) throws SQLException {
+        assertEquals(expectedPlan, QueryUtil.getExplainPlan(conn.createStatement().executeQuery("EXPLAIN " + query)));
+        ResultSet rs = conn.createStatement().executeQuery(query);
+        for (int i = ROWS.length - 1; i >= 0; i--) {
+            assertTrue(rs.next());
+            assertEquals(ROWS[i][1], rs.getString(1));
+            assertEquals(ROWS[i][0], rs.getString(2));
+        }
+        assertFalse(rs.next());
+    }
+
+    @Test
+    public void testGlobalIndexBuildAcrossRegions() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            createTable(conn, "CREATE TABLE T (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR) SPLIT ON ('c','f')");
+            assertEquals(ROWS.length, conn.createStatement().executeUpdate("CREATE INDEX I ON T (v)"));
+            // The index is only used once it's ACTIVE, which happens after all regions are built
+            assertIndexBuilt(conn, "SELECT v, k FROM T WHERE v >= 'a'", "CLIENT PARALLEL 1-WAY RANGE SCAN OVER I ['a'] - [*]");
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void assertIndexState(Connection conn, PIndexState expectedState) throws SQLException {
+        ResultSet rs = conn.getMetaData().getTables(null, "", "I", new String[] {PTableType.INDEX.toString()});
+        assertTrue(rs.next());
+        assertEquals(expectedState.toString(), rs.getString("INDEX_STATE"));
+        assertFalse(rs.next());
+    }
+    
+    private static int countOccurrences(List<String> list, String value) {
+        int count = 0;
+        synchronized (list) {
+            for (String element : list) {
+                if (element.equals(value)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    @Test
+    public void testGlobalIndexBuildResumesFailedChunk() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            createTable(conn, "CREATE TABLE T (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR) SPLIT ON ('c','f')");
+            addCoprocessor(conn, FailingChunkObserver.class);
+            // The region starting at 'c' stops its first chunk after 'd' and fails the next one
+            FailingChunkObserver.FAIL_AT = "d\\x00";
+            Future<Integer> createIndex = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Connection conn = DriverManager.getConnection(getUrl(), TEST_PROPERTIES);
+                    try {
+                        return conn.createStatement().executeUpdate("CREATE INDEX I ON T (v)");
+                    } finally {
+                        conn.close();
+                    }
+                }
+            });
+            assertTrue(FailingChunkObserver.RETRIED.await(60, TimeUnit.SECONDS));
+            // Other regions may be done, but the index isn't active before the region retrying its chunk is
+            assertIndexState(conn, PIndexState.BUILDING);
+            FailingChunkObserver.RESUME.countDown();
+            // The rows of the failed chunk are only counted once
+            assertEquals(ROWS.length, createIndex.get(60, TimeUnit.SECONDS).intValue());
+            // The failed chunk was retried from its own start rather than from the start of the region
+            assertEquals(1, countOccurrences(FailingChunkObserver.CHUNK_STARTS, "c"));
+            assertEquals(2, countOccurrences(FailingChunkObserver.CHUNK_STARTS, "d\\x00"));
+            assertIndexState(conn, PIndexState.ACTIVE);
+        } finally {
+            FailingChunkObserver.RESUME.countDown();
+            executor.shutdownNow();
+            conn.close();
+        }
+        
+        conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            // Rewriting the rows of the failed chunk didn't leave any extra rows in the index
+            HTableInterface htable = conn.unwrap(PhoenixConnection.class).getQueryServices().getTable(Bytes.toBytes("I"));
+            int indexRowCount = 0;
+            ResultScanner scanner = htable.getScanner(new Scan());
+            try {
+                for (Result result = scanner.next(); result != null; result = scanner.next()) {
+                    indexRowCount++;
+                }
+            } finally {
+                scanner.close();
+                htable.close();
+            }
+            assertEquals(ROWS.length, indexRowCount);
+            assertIndexBuilt(conn, "SELECT v, k FROM T WHERE v >= 'a'", "CLIENT PARALLEL 1-WAY RANGE SCAN OVER I ['a'] - [*]");
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testGlobalIndexRebuildResumesFailedBuild() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            createTable(conn, "CREATE TABLE T (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR) SPLIT ON ('c','f')");
+            addCoprocessor(conn, FailingBuildObserver.class);
+            // The region starting at 'c' stops its first chunk after 'd' and fails every attempt of the next one
+            FailingBuildObserver.FAIL_AT = "d\\x00";
+            try {
+                conn.createStatement().executeUpdate("CREATE INDEX I ON T (v)");
+                fail();
+            } catch (SQLException e) {
+                // Expected
+            }
+            assertIndexState(conn, PIndexState.BUILDING);
+            
+            FailingBuildObserver.FAIL_AT = null;
+            conn.createStatement().execute("ALTER INDEX I ON T REBUILD");
+            // The region continued from the key saved by the failed build instead of starting over
+            assertEquals(1, countOccurrences(FailingBuildObserver.CHUNK_STARTS, "c"));
+            assertTrue(countOccurrences(FailingBuildObserver.CHUNK_STARTS, "d\\x00") > 1);
+            assertIndexState(conn, PIndexState.ACTIVE);
+            assertIndexBuilt(conn, "SELECT v, k FROM T WHERE v >= 'a'", "CLIENT PARALLEL 1-WAY RANGE SCAN OVER I ['a'] - [*]");
+            
+            // The progress of the build is discarded once it completes
+            HTableInterface htable = conn.unwrap(PhoenixConnection.class).getQueryServices().getTable(PhoenixDatabaseMetaData.TYPE_TABLE_NAME_BYTES);
+            try {
+                Get get = new Get(SchemaUtil.getTableKey((String)null, null, "I"));
+                get.setFilter(new ColumnPrefixFilter(PhoenixDatabaseMetaData.INDEX_BUILD_RANGE_BYTES));
+                assertTrue(htable.get(get).isEmpty());
+            } finally {
+                htable.close();
+            }
+        } finally {
+            FailingBuildObserver.FAIL_AT = null;
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testGlobalIndexBuildOfSaltedTable() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            createTable(conn, "CREATE TABLE T (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR) SALT_BUCKETS=3");
+            assertEquals(ROWS.length, conn.createStatement().executeUpdate("CREATE INDEX I ON T (v)"));
+            // The index is salted like its data table
+            assertIndexBuilt(conn, "SELECT v, k FROM T WHERE v >= 'a'", 
+                    "CLIENT PARALLEL 1-WAY SKIP SCAN ON 3 RANGES OVER I [0,'a'] - [2,*]\n" + 
+                    "CLIENT MERGE SORT");
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testLocalIndexBuildAcrossRegions() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            createTable(conn, "CREATE TABLE T (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR) SPLIT ON ('c','f')");
+            assertEquals(ROWS.length, conn.createStatement().executeUpdate("CREATE LOCAL INDEX I ON T (v)"));
+            assertIndexBuilt(conn, "SELECT v, k FROM T WHERE v >= 'a' ORDER BY v", 
+                    "CLIENT PARALLEL 3-WAY RANGE SCAN OVER I ['a'] - [*]\n" + 
+                    "CLIENT MERGE SORT");
+        } finally {
+            conn.close();
+        }
+    }
+}
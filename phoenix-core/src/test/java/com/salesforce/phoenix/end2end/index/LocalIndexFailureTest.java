@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.end2end.index;
+
+import static com.salesforce.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+import com.salesforce.hbase.index.write.IndexFailurePolicy;
+import com.salesforce.hbase.index.write.IndexWriter;
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
+import com.salesforce.phoenix.query.QueryConstants;
+import com.salesforce.phoenix.util.QueryUtil;
+import com.salesforce.phoenix.util.ReadOnlyProps;
+
+/**
+ * 
+ * Test for the failure to apply the updates of a local index. Keep in its own
+ * separate test, as it replaces the index failure policy of the cluster.
+ *
+ * @since 3.0.0
+ */
+public class LocalIndexFailureTest extends BaseMutableIndexTest {
+    private static final String LOCAL_INDEX_TABLE_NAME = "LI";
+    
+    @BeforeClass 
+    public static void doSetup() throws Exception {
+        Map<String,String> props = Maps.newHashMapWithExpectedSize(1);
+        props.put(IndexWriter.INDEX_FAILURE_POLICY_CONF_KEY, RecordingFailurePolicy.class.getName());
+        // Must update config before starting server
+        startServer(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
+    }
+    
+    /**
+     * Failure policy that just records the failed updates
+     */
+    public static class RecordingFailurePolicy implements IndexFailurePolicy {
+        public static final List<Multimap<HTableInterfaceReference, Mutation>> FAILURES =
+                Collections.synchronizedList(new ArrayList<Multimap<HTableInterfaceReference, Mutation>>());
+        private boolean stopped;
+        
+        @Override
+        public void setup(Stoppable parent, RegionCoprocessorEnvironment env) {
+        }
+
+        @Override
+        public void handleFailure(Multimap<HTableInterfaceReference, Mutation> attempted, Exception cause) {
+            FAILURES.add(attempted);
+        }
+
+        @Override
+        public void stop(String why) {
+            stopped = true;
+        }
+
+        @Override
+        public boolean isStopped() {
+            return stopped;
+        }
+    }
+    
+    /**
+     * Fails the writes of local index rows to the data table while {@link #FAIL_WRITE} is set
+     */
+    public static class FailingLocalIndexObserver extends BaseRegionObserver {
+        public static volatile boolean FAIL_WRITE = false;
+        
+        @Override
+        public void prePut(ObserverContext<RegionCoprocessorEnvironment> c, Put put, WALEdit edit, boolean writeToWAL) throws IOException {
+            if (FAIL_WRITE && put.getFamilyMap().containsKey(QueryConstants.LOCAL_INDEX_COLUMN_FAMILY_BYTES)) {
+                throw new DoNotRetryIOException("Simulated local index write failure");
+            }
+        }
+    }
+    
+    @Test
+    public void testLocalWriteFailureStillWritesGlobalIndex() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            conn.createStatement().execute("CREATE TABLE " + DATA_TABLE_FULL_NAME + " (k VARCHAR NOT NULL PRIMARY KEY, v1 VARCHAR, v2 VARCHAR)");
+            conn.createStatement().execute("CREATE INDEX " + INDEX_TABLE_NAME + " ON " + DATA_TABLE_FULL_NAME + " (v1)");
+            conn.createStatement().execute("CREATE LOCAL INDEX " + LOCAL_INDEX_TABLE_NAME + " ON " + DATA_TABLE_FULL_NAME + " (v2)");
+            
+            HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+            try {
+                HTableDescriptor desc = admin.getTableDescriptor(Bytes.toBytes(DATA_TABLE_FULL_NAME));
+                desc.addCoprocessor(FailingLocalIndexObserver.class.getName());
+                admin.disableTable(DATA_TABLE_FULL_NAME);
+                admin.modifyTable(Bytes.toBytes(DATA_TABLE_FULL_NAME), desc);
+                admin.enableTable(DATA_TABLE_FULL_NAME);
+            } finally {
+                admin.close();
+            }
+            
+            FailingLocalIndexObserver.FAIL_WRITE = true;
+            try {
+                conn.createStatement().execute("UPSERT INTO " + DATA_TABLE_FULL_NAME + " VALUES('a','x','1')");
+                conn.commit();
+            } finally {
+                FailingLocalIndexObserver.FAIL_WRITE = false;
+            }
+            
+            // The failed local updates went to the failure policy
+            assertEquals(1, RecordingFailurePolicy.FAILURES.size());
+            Multimap<HTableInterfaceReference, Mutation> failed = RecordingFailurePolicy.FAILURES.get(0);
+            assertEquals(DATA_TABLE_FULL_NAME, failed.keySet().iterator().next().getTableName());
+            
+            // while the global index was still written
+            String query = "SELECT k FROM " + DATA_TABLE_FULL_NAME + " WHERE v1 = 'x'";
+            ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            assertEquals("CLIENT PARALLEL 1-WAY RANGE SCAN OVER " + INDEX_TABLE_FULL_NAME + " ['x']", QueryUtil.getExplainPlan(rs));
+            rs = conn.createStatement().executeQuery(query);
+            assertTrue(rs.next());
+            assertEquals("a", rs.getString(1));
+            assertFalse(rs.next());
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.end2end.index;
+
+import static com.salesforce.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.ConstantSizeRegionSplitPolicy;
+import org.apache.hadoop.hbase.regionserver.DisabledRegionSplitPolicy;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.salesforce.phoenix.end2end.BaseHBaseManagedTimeTest;
+import com.salesforce.phoenix.exception.SQLExceptionCode;
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
+import com.salesforce.phoenix.query.QueryConstants;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.schema.PTable.IndexType;
+import com.salesforce.phoenix.util.QueryUtil;
+import com.salesforce.phoenix.util.ReadOnlyProps;
+import com.salesforce.phoenix.util.SchemaUtil;
+
+
+public class LocalIndexTest extends BaseHBaseManagedTimeTest {
+
+    @BeforeClass 
+    public static void doSetup() throws Exception {
+        Map<String,String> props = Maps.newHashMapWithExpectedSize(1);
+        // Drop the HBase table metadata, as is the default, since the rows of a dropped local
+        // index must then still be deleted from the data table
+        props.put(QueryServices.DROP_METADATA_ATTRIB, Boolean.toString(true));
+        // Must update config before starting server
+        startServer(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
+    }
+
+    private static void createTable(Connection conn, String tableName) throws SQLException {
+        conn.createStatement().execute("CREATE TABLE " + tableName + " (k VARCHAR NOT NULL PRIMARY KEY, v1 VARCHAR, v2 VARCHAR) SPLIT ON ('b','d')");
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + tableName + " VALUES(?,?,?)");
+        String[][] rows = new String[][] {{"a","z","1"},{"b","y","2"},{"c","x","3"},{"d","w","4"},{"e","v","5"}};
+        for (String[] row : rows) {
+            stmt.setString(1, row[0]);
+            stmt.setString(2, row[1]);
+            stmt.setString(3, row[2]);
+            stmt.execute();
+        }
+        conn.commit();
+    }
+    
+    private static void assertRows(Connection conn, String query, String... expected) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery(query);
+        for (String value : expected) {
+            assertTrue(rs.next());
+            assertEquals(value, rs.getString(1) + rs.getString(2));
+        }
+        assertFalse(rs.next());
+    }
+
+    @Test
+    public void testLocalIndexBuildAndQuery() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            createTable(conn, "LT1");
+            conn.createStatement().execute("CREATE LOCAL INDEX LI1 ON LT1 (v1) INCLUDE (v2)");
+            assertEquals(IndexType.LOCAL, conn.unwrap(PhoenixConnection.class).getPMetaData().getTable("LI1").getIndexType());
+            
+            String query = "SELECT v1, v2 FROM LT1 ORDER BY v1";
+            ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            assertEquals("CLIENT PARALLEL 3-WAY FULL SCAN OVER LI1\n" + 
+                    "CLIENT MERGE SORT", QueryUtil.getExplainPlan(rs));
+            // Rows of the index are merged across the regions of the data table
+            assertRows(conn, query, "v5", "w4", "x3", "y2", "z1");
+            
+            query = "SELECT v1, v2 FROM LT1 WHERE v1 >= 'x'";
+            rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            assertEquals("CLIENT PARALLEL 3-WAY RANGE SCAN OVER LI1 ['x'] - [*]", QueryUtil.getExplainPlan(rs));
+            assertRows(conn, query + " ORDER BY v1", "x3", "y2", "z1");
+            
+            rs = conn.createStatement().executeQuery("SELECT count(*) FROM LT1 WHERE v1 >= 'x'");
+            assertTrue(rs.next());
+            assertEquals(3, rs.getLong(1));
+            
+            // The data table is unaffected by the rows of its local index
+            assertRows(conn, "SELECT /*+ NO_INDEX */ k, v1 FROM LT1", "az", "by", "cx", "dw", "ev");
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testLocalIndexMaintenance() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            createTable(conn, "LT2");
+            conn.createStatement().execute("CREATE LOCAL INDEX LI2 ON LT2 (v1) INCLUDE (v2)");
+            
+            conn.createStatement().execute("UPSERT INTO LT2 VALUES('c','a','6')");
+            conn.createStatement().execute("UPSERT INTO LT2 VALUES('f','u','7')");
+            conn.createStatement().execute("UPSERT INTO LT2(k,v2) VALUES('a','8')");
+            conn.commit();
+            String query = "SELECT v1, v2 FROM LT2 ORDER BY v1";
+            assertRows(conn, query, "a6", "u7", "v5", "w4", "y2", "z8");
+            
+            conn.createStatement().execute("DELETE FROM LT2 WHERE k = 'b'");
+            conn.commit();
+            assertRows(conn, query, "a6", "u7", "v5", "w4", "z8");
+            assertRows(conn, "SELECT k, v1 FROM LT2 WHERE v1 = 'w'", "dw");
+            
+            conn.createStatement().execute("DROP INDEX LI2 ON LT2");
+            assertRows(conn, "SELECT k, v1 FROM LT2", "az", "ca", "dw", "ev", "fu");
+            // The rows of the dropped index are deleted from every region of the data table
+            HTableInterface htable = conn.unwrap(PhoenixConnection.class).getQueryServices().getTable(Bytes.toBytes("LT2"));
+            try {
+                Scan scan = new Scan();
+                scan.addFamily(QueryConstants.LOCAL_INDEX_COLUMN_FAMILY_BYTES);
+                ResultScanner scanner = htable.getScanner(scan);
+                try {
+                    assertNull(scanner.next());
+                } finally {
+                    scanner.close();
+                }
+            } finally {
+                htable.close();
+            }
+            
+            // Change a row while the index is gone, so a stale row left behind would show up again
+            conn.createStatement().execute("UPSERT INTO LT2 VALUES('c','b','6')");
+            conn.commit();
+            conn.createStatement().execute("CREATE LOCAL INDEX LI2 ON LT2 (v1) INCLUDE (v2)");
+            assertRows(conn, query, "b6", "u7", "v5", "w4", "z8");
+            assertRows(conn, "SELECT k, v1 FROM LT2 WHERE v1 = 'a'");
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static HTableDescriptor getTableDescriptor(Connection conn, String tableName) throws Exception {
+        HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+        try {
+            return admin.getTableDescriptor(Bytes.toBytes(tableName));
+        } finally {
+            admin.close();
+        }
+    }
+
+    @Test
+    public void testSplitPolicyRestoredOnDrop() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            createTable(conn, "LT5");
+            assertNull(getTableDescriptor(conn, "LT5").getValue(HTableDescriptor.SPLIT_POLICY));
+            conn.createStatement().execute("CREATE LOCAL INDEX LI5A ON LT5 (v1)");
+            conn.createStatement().execute("CREATE LOCAL INDEX LI5B ON LT5 (v2)");
+            assertEquals(DisabledRegionSplitPolicy.class.getName(), getTableDescriptor(conn, "LT5").getValue(HTableDescriptor.SPLIT_POLICY));
+            
+            // Splits stay disabled as long as a local index is left
+            conn.createStatement().execute("DROP INDEX LI5A ON LT5");
+            assertEquals(DisabledRegionSplitPolicy.class.getName(), getTableDescriptor(conn, "LT5").getValue(HTableDescriptor.SPLIT_POLICY));
+            conn.createStatement().execute("DROP INDEX LI5B ON LT5");
+            HTableDescriptor descriptor = getTableDescriptor(conn, "LT5");
+            assertNull(descriptor.getValue(HTableDescriptor.SPLIT_POLICY));
+            assertNull(descriptor.getValue(SchemaUtil.SAVED_SPLIT_POLICY));
+            
+            // A split policy set by the user is kept
+            HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+            try {
+                descriptor.setValue(HTableDescriptor.SPLIT_POLICY, ConstantSizeRegionSplitPolicy.class.getName());
+                admin.disableTable("LT5");
+                admin.modifyTable(Bytes.toBytes("LT5"), descriptor);
+                admin.enableTable("LT5");
+            } finally {
+                admin.close();
+            }
+            conn.createStatement().execute("CREATE LOCAL INDEX LI5A ON LT5 (v1)");
+            assertEquals(DisabledRegionSplitPolicy.class.getName(), getTableDescriptor(conn, "LT5").getValue(HTableDescriptor.SPLIT_POLICY));
+            conn.createStatement().execute("DROP INDEX LI5A ON LT5");
+            assertEquals(ConstantSizeRegionSplitPolicy.class.getName(), getTableDescriptor(conn, "LT5").getValue(HTableDescriptor.SPLIT_POLICY));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testUnsupportedLocalIndexes() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            conn.createStatement().execute("CREATE TABLE LT3 (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR) IMMUTABLE_ROWS=true");
+            try {
+                conn.createStatement().execute("CREATE LOCAL INDEX LI3 ON LT3 (v)");
+                fail();
+            } catch (SQLException e) {
+                assertEquals(SQLExceptionCode.NO_LOCAL_INDEX_ON_IMMUTABLE_ROWS.getErrorCode(), e.getErrorCode());
+            }
+            conn.createStatement().execute("CREATE TABLE LT4 (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR)");
+            try {
+                conn.createStatement().execute("CREATE LOCAL INDEX LI4 ON LT4 (v) SALT_BUCKETS=2");
+                fail();
+            } catch (SQLException e) {
+                assertEquals(SQLExceptionCode.CANNOT_SALT_LOCAL_INDEX.getErrorCode(), e.getErrorCode());
+            }
+            conn.createStatement().execute("CREATE LOCAL INDEX LI4 ON LT4 (v)");
+            try {
+                conn.createStatement().execute("ALTER TABLE LT4 SET IMMUTABLE_ROWS=true");
+                fail();
+            } catch (SQLException e) {
+                assertEquals(SQLExceptionCode.NO_LOCAL_INDEX_ON_IMMUTABLE_ROWS.getErrorCode(), e.getErrorCode());
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
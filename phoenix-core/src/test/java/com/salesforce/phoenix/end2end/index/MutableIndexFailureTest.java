@@ -33,6 +33,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -41,16 +42,30 @@ import java.sql.SQLException;
 import java.util.Map;
 import java.util.Properties;
 
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.google.common.collect.Maps;
 import com.salesforce.phoenix.jdbc.PhoenixConnection;
 import com.salesforce.phoenix.query.ConnectionQueryServices;
+import com.salesforce.phoenix.query.QueryConstants;
+import com.salesforce.phoenix.query.QueryServices;
 import com.salesforce.phoenix.schema.PIndexState;
 import com.salesforce.phoenix.schema.PTableType;
+import com.salesforce.phoenix.util.ByteUtil;
+import com.salesforce.phoenix.util.QueryUtil;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 import com.salesforce.phoenix.util.StringUtil;
 
@@ -65,9 +80,14 @@ import com.salesforce.phoenix.util.StringUtil;
 public class MutableIndexFailureTest extends BaseMutableIndexTest {
     @BeforeClass 
     public static void doSetup() throws Exception {
-        Map<String,String> props = Maps.newHashMapWithExpectedSize(1);
+        Map<String,String> props = Maps.newHashMapWithExpectedSize(4);
         props.put("hbase.client.retries.number", Integer.toString(2));
         props.put("hbase.client.pause", Integer.toString(5000));
+        props.put(QueryServices.INDEX_FAILURE_HANDLING_REBUILD_INTERVAL_ATTRIB, Long.toString(1000));
+        props.put(QueryServices.INDEX_FAILURE_HANDLING_REBUILD_OVERLAP_TIME_ATTRIB, Long.toString(5000));
+        // Drop the HTables along with the tables, as testWriteFailureDisablesIndex leaves the index
+        // without one, and so that each test creates the data table with its own options
+        props.put(QueryServices.DROP_METADATA_ATTRIB, Boolean.toString(true));
         // Must update config before starting server
         startServer(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
     }
@@ -86,6 +106,254 @@ public class MutableIndexFailureTest extends BaseMutableIndexTest {
         }
     }
     
+    /**
+     * Fails the writes to the index table while {@link #FAIL_WRITE} is set
+     */
+    public static class FailingRegionObserver extends BaseRegionObserver {
+        public static volatile boolean FAIL_WRITE = false;
+        
+        @Override
+        public void prePut(ObserverContext<RegionCoprocessorEnvironment> c, Put put, WALEdit edit, boolean writeToWAL) throws IOException {
+            if (FAIL_WRITE) {
+                throw new DoNotRetryIOException("Simulated index write failure");
+            }
+        }
+        
+        @Override
+        public void preDelete(ObserverContext<RegionCoprocessorEnvironment> c, Delete delete, WALEdit edit, boolean writeToWAL) throws IOException {
+            if (FAIL_WRITE) {
+                throw new DoNotRetryIOException("Simulated index write failure");
+            }
+        }
+    }
+    
+    private static String getIndexState(Connection conn) throws SQLException {
+        ResultSet rs = conn.getMetaData().getTables(null, StringUtil.escapeLike(SCHEMA_NAME), INDEX_TABLE_NAME, new String[] {PTableType.INDEX.toString()});
+        assertTrue(rs.next());
+        return rs.getString("INDEX_STATE");
+    }
+    
+    @Test
+    public void testIndexRebuiltAfterWriteFailure() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.setAutoCommit(false);
+        conn.createStatement().execute("CREATE TABLE " + DATA_TABLE_FULL_NAME + " (k VARCHAR NOT NULL PRIMARY KEY, v1 VARCHAR, v2 VARCHAR)");
+        conn.createStatement().execute("CREATE INDEX " + INDEX_TABLE_NAME + " ON " + DATA_TABLE_FULL_NAME + " (v1) INCLUDE (v2)");
+        
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + DATA_TABLE_FULL_NAME + " VALUES(?,?,?)");
+        stmt.setString(1, "a");
+        stmt.setString(2, "x");
+        stmt.setString(3, "1");
+        stmt.execute();
+        stmt.setString(1, "b");
+        stmt.setString(2, "y");
+        stmt.setString(3, "2");
+        stmt.execute();
+        conn.commit();
+        
+        HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+        try {
+            HTableDescriptor desc = admin.getTableDescriptor(Bytes.toBytes(INDEX_TABLE_FULL_NAME));
+            desc.addCoprocessor(FailingRegionObserver.class.getName());
+            admin.disableTable(INDEX_TABLE_FULL_NAME);
+            admin.modifyTable(Bytes.toBytes(INDEX_TABLE_FULL_NAME), desc);
+            admin.enableTable(INDEX_TABLE_FULL_NAME);
+        } finally {
+            admin.close();
+        }
+        
+        FailingRegionObserver.FAIL_WRITE = true;
+        try {
+            stmt.setString(1, "a");
+            stmt.setString(2, "z");
+            stmt.setString(3, "3");
+            stmt.execute();
+            stmt.setString(1, "c");
+            stmt.setString(2, "w");
+            stmt.setString(3, "4");
+            stmt.execute();
+            try {
+                conn.commit();
+                fail();
+            } catch (SQLException e) {
+            }
+            assertEquals(PIndexState.DISABLE.toString(), getIndexState(conn));
+            // Fails too if the index is still thought to be active, but the row is deleted either way
+            conn.createStatement().execute("DELETE FROM " + DATA_TABLE_FULL_NAME + " WHERE k = 'b'");
+            try {
+                conn.commit();
+            } catch (SQLException e) {
+            }
+        } finally {
+            FailingRegionObserver.FAIL_WRITE = false;
+        }
+        
+        // The rows changed by the failed write are rebuilt, including the removal of the index rows of their prior values
+        long endTime = System.currentTimeMillis() + 60000;
+        while (!PIndexState.ACTIVE.toString().equals(getIndexState(conn)) && System.currentTimeMillis() < endTime) {
+            Thread.sleep(1000);
+        }
+        assertEquals(PIndexState.ACTIVE.toString(), getIndexState(conn));
+        
+        String query = "SELECT * FROM " + DATA_TABLE_FULL_NAME;
+        ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+        assertEquals("CLIENT PARALLEL 1-WAY FULL SCAN OVER " + INDEX_TABLE_FULL_NAME, QueryUtil.getExplainPlan(rs));
+        rs = conn.createStatement().executeQuery(query);
+        assertTrue(rs.next());
+        assertEquals("c", rs.getString("k"));
+        assertEquals("w", rs.getString("v1"));
+        assertEquals("4", rs.getString("v2"));
+        assertTrue(rs.next());
+        assertEquals("a", rs.getString("k"));
+        assertEquals("z", rs.getString("v1"));
+        assertEquals("3", rs.getString("v2"));
+        assertFalse(rs.next());
+    }
+    
+    @Test
+    public void testIndexRebuiltAfterMoreUpdatesThanVersions() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.setAutoCommit(false);
+        conn.createStatement().execute("CREATE TABLE " + DATA_TABLE_FULL_NAME + " (k VARCHAR NOT NULL PRIMARY KEY, v1 VARCHAR, v2 VARCHAR) VERSIONS=3");
+        conn.createStatement().execute("CREATE INDEX " + INDEX_TABLE_NAME + " ON " + DATA_TABLE_FULL_NAME + " (v1) INCLUDE (v2)");
+        
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + DATA_TABLE_FULL_NAME + " VALUES(?,?,?)");
+        stmt.setString(1, "a");
+        stmt.setString(2, "x");
+        stmt.setString(3, "0");
+        stmt.execute();
+        conn.commit();
+        
+        HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+        try {
+            HTableDescriptor desc = admin.getTableDescriptor(Bytes.toBytes(INDEX_TABLE_FULL_NAME));
+            desc.addCoprocessor(FailingRegionObserver.class.getName());
+            admin.disableTable(INDEX_TABLE_FULL_NAME);
+            admin.modifyTable(Bytes.toBytes(INDEX_TABLE_FULL_NAME), desc);
+            admin.enableTable(INDEX_TABLE_FULL_NAME);
+            
+            FailingRegionObserver.FAIL_WRITE = true;
+            try {
+                // Change the row more often than its versions are kept, so that the version with
+                // the value of the index row left behind would be pruned by the flush
+                for (int i = 1; i <= 5; i++) {
+                    stmt.setString(1, "a");
+                    stmt.setString(2, "z" + i);
+                    stmt.setString(3, Integer.toString(i));
+                    stmt.execute();
+                    try {
+                        conn.commit();
+                    } catch (SQLException e) {
+                    }
+                    Thread.sleep(5);
+                }
+                assertEquals(PIndexState.DISABLE.toString(), getIndexState(conn));
+                admin.flush(DATA_TABLE_FULL_NAME);
+            } finally {
+                FailingRegionObserver.FAIL_WRITE = false;
+            }
+        } finally {
+            admin.close();
+        }
+        
+        long endTime = System.currentTimeMillis() + 60000;
+        while (!PIndexState.ACTIVE.toString().equals(getIndexState(conn)) && System.currentTimeMillis() < endTime) {
+            Thread.sleep(1000);
+        }
+        assertEquals(PIndexState.ACTIVE.toString(), getIndexState(conn));
+        
+        // The index row of the value before the failure is removed
+        String query = "SELECT * FROM " + DATA_TABLE_FULL_NAME;
+        ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+        String plan = QueryUtil.getExplainPlan(rs);
+        assertTrue(plan, plan.endsWith("FULL SCAN OVER " + INDEX_TABLE_FULL_NAME));
+        rs = conn.createStatement().executeQuery(query);
+        assertTrue(rs.next());
+        assertEquals("a", rs.getString("k"));
+        assertEquals("z5", rs.getString("v1"));
+        assertEquals("5", rs.getString("v2"));
+        assertFalse(rs.next());
+    }
+    
+    @Test
+    public void testIndexRebuiltWithWriteWhileBuilding() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.setAutoCommit(false);
+        conn.createStatement().execute("CREATE TABLE " + DATA_TABLE_FULL_NAME + " (k VARCHAR NOT NULL PRIMARY KEY, v1 VARCHAR, v2 VARCHAR)");
+        conn.createStatement().execute("CREATE INDEX " + INDEX_TABLE_NAME + " ON " + DATA_TABLE_FULL_NAME + " (v1) INCLUDE (v2)");
+        
+        HBaseAdmin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+        try {
+            HTableDescriptor desc = admin.getTableDescriptor(Bytes.toBytes(INDEX_TABLE_FULL_NAME));
+            desc.addCoprocessor(FailingRegionObserver.class.getName());
+            admin.disableTable(INDEX_TABLE_FULL_NAME);
+            admin.modifyTable(Bytes.toBytes(INDEX_TABLE_FULL_NAME), desc);
+            admin.enableTable(INDEX_TABLE_FULL_NAME);
+        } finally {
+            admin.close();
+        }
+        
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + DATA_TABLE_FULL_NAME + " VALUES(?,?,?)");
+        FailingRegionObserver.FAIL_WRITE = true;
+        try {
+            stmt.setString(1, "a");
+            stmt.setString(2, "x");
+            stmt.setString(3, "1");
+            stmt.execute();
+            try {
+                conn.commit();
+                fail();
+            } catch (SQLException e) {
+            }
+            assertEquals(PIndexState.DISABLE.toString(), getIndexState(conn));
+        } finally {
+            FailingRegionObserver.FAIL_WRITE = false;
+        }
+        
+        long endTime = System.currentTimeMillis() + 60000;
+        while (!PIndexState.BUILDING.toString().equals(getIndexState(conn)) && System.currentTimeMillis() < endTime) {
+            Thread.sleep(100);
+        }
+        assertEquals(PIndexState.BUILDING.toString(), getIndexState(conn));
+        
+        // Write the row without maintaining the index, as a client that still found it disabled would
+        HTableInterface htable = conn.unwrap(PhoenixConnection.class).getQueryServices().getTable(Bytes.toBytes(DATA_TABLE_FULL_NAME));
+        try {
+            Put put = new Put(Bytes.toBytes("b"));
+            put.add(QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES, QueryConstants.EMPTY_COLUMN_BYTES, ByteUtil.EMPTY_BYTE_ARRAY);
+            put.add(QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES, Bytes.toBytes("V1"), Bytes.toBytes("y"));
+            put.add(QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES, Bytes.toBytes("V2"), Bytes.toBytes("2"));
+            htable.put(put);
+        } finally {
+            htable.close();
+        }
+        
+        endTime = System.currentTimeMillis() + 60000;
+        while (!PIndexState.ACTIVE.toString().equals(getIndexState(conn)) && System.currentTimeMillis() < endTime) {
+            Thread.sleep(1000);
+        }
+        assertEquals(PIndexState.ACTIVE.toString(), getIndexState(conn));
+        
+        // The row written while the index was BUILDING is rebuilt too
+        String query = "SELECT * FROM " + DATA_TABLE_FULL_NAME;
+        ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+        String plan = QueryUtil.getExplainPlan(rs);
+        assertTrue(plan, plan.endsWith("FULL SCAN OVER " + INDEX_TABLE_FULL_NAME));
+        rs = conn.createStatement().executeQuery(query);
+        assertTrue(rs.next());
+        assertEquals("a", rs.getString("k"));
+        assertEquals("x", rs.getString("v1"));
+        assertEquals("1", rs.getString("v2"));
+        assertTrue(rs.next());
+        assertEquals("b", rs.getString("k"));
+        assertEquals("y", rs.getString("v1"));
+        assertEquals("2", rs.getString("v2"));
+        assertFalse(rs.next());
+    }
+    
     @Test
     public void testWriteFailureDisablesIndex() throws Exception {
         String query;
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.execute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.schema.PColumn;
+import com.salesforce.phoenix.schema.PColumnImpl;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PNameFactory;
+import com.salesforce.phoenix.schema.PRow;
+
+public class MutationBufferTest {
+    private static final PColumn A = new PColumnImpl(PNameFactory.newName("A"), PNameFactory.newName("0"), PDataType.VARCHAR, null, null, true, 1, null);
+    private static final PColumn B = new PColumnImpl(PNameFactory.newName("B"), PNameFactory.newName("0"), PDataType.VARCHAR, null, null, true, 2, null);
+    private static final PColumn C = new PColumnImpl(PNameFactory.newName("C"), PNameFactory.newName("0"), PDataType.VARCHAR, null, null, true, 3, null);
+    
+    private static ImmutableBytesPtr key(String key) {
+        return new ImmutableBytesPtr(Bytes.toBytes(key));
+    }
+    
+    private static void upsert(MutationBuffer buffer, String key, Object... columnValues) {
+        int nColumns = columnValues.length / 2;
+        PColumn[] columns = new PColumn[nColumns];
+        byte[][] values = new byte[nColumns][];
+        for (int i = 0; i < nColumns; i++) {
+            columns[i] = (PColumn)columnValues[i*2];
+            values[i] = columnValues[i*2+1] == null ? null : Bytes.toBytes((String)columnValues[i*2+1]);
+        }
+        buffer.upsert(key(key), columns, values, nColumns);
+    }
+    
+    private static int getRow(MutationBuffer buffer, String key) {
+        ImmutableBytesPtr ptr = new ImmutableBytesPtr();
+        for (int i = 0; i < buffer.size(); i++) {
+            buffer.getRowKey(i, ptr);
+            if (Bytes.toString(ptr.copyBytes()).equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static Map<String,String> getValues(MutationBuffer buffer, String key) {
+        final Map<String,String> values = Maps.newHashMap();
+        buffer.setValues(getRow(buffer, key), new PRow() {
+
+            @Override
+            public List<Mutation> toRowMutations() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void setValue(PColumn col, Object value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void setValue(PColumn col, byte[] value) {
+                values.put(col.getName().getString(), Bytes.toString(value));
+            }
+
+            @Override
+            public void delete() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        return values;
+    }
+    
+    @Test
+    public void testUpsertMergesColumns() {
+        MutationBuffer buffer = new MutationBuffer(1);
+        upsert(buffer, "k1", A, "a1", B, "b1");
+        upsert(buffer, "k2", A, "a2");
+        upsert(buffer, "k1", B, "b2", C, "c2");
+        assertEquals(2, buffer.size());
+        Map<String,String> values = getValues(buffer, "k1");
+        assertEquals(3, values.size());
+        assertEquals("a1", values.get("A"));
+        assertEquals("b2", values.get("B"));
+        assertEquals("c2", values.get("C"));
+        values = getValues(buffer, "k2");
+        assertEquals(1, values.size());
+        assertEquals("a2", values.get("A"));
+    }
+    
+    @Test
+    public void testNullValue() {
+        MutationBuffer buffer = new MutationBuffer(1);
+        upsert(buffer, "k1", A, "a1", B, "b1");
+        upsert(buffer, "k1", A, null);
+        Map<String,String> values = getValues(buffer, "k1");
+        assertEquals("", values.get("A"));
+        assertEquals("b1", values.get("B"));
+    }
+    
+    @Test
+    public void testDelete() {
+        MutationBuffer buffer = new MutationBuffer(1);
+        upsert(buffer, "k1", A, "a1");
+        buffer.delete(key("k1"));
+        buffer.delete(key("k2"));
+        assertEquals(2, buffer.size());
+        assertTrue(buffer.isDelete(getRow(buffer, "k1")));
+        assertTrue(buffer.isDelete(getRow(buffer, "k2")));
+        upsert(buffer, "k2", B, "b2");
+        assertFalse(buffer.isDelete(getRow(buffer, "k2")));
+        Map<String,String> values = getValues(buffer, "k2");
+        assertEquals(1, values.size());
+        assertEquals("b2", values.get("B"));
+    }
+    
+    @Test
+    public void testPutAll() {
+        MutationBuffer oldBuffer = new MutationBuffer(1);
+        upsert(oldBuffer, "k1", A, "a1", B, "b1");
+        upsert(oldBuffer, "k2", A, "a2");
+        MutationBuffer newBuffer = new MutationBuffer(1);
+        // Different column ids than in the old buffer
+        upsert(newBuffer, "k1", C, "c1", B, "b3");
+        upsert(newBuffer, "k3", B, "b3");
+        newBuffer.delete(key("k2"));
+        oldBuffer.putAll(newBuffer);
+        assertEquals(3, oldBuffer.size());
+        Map<String,String> values = getValues(oldBuffer, "k1");
+        assertEquals(3, values.size());
+        assertEquals("a1", values.get("A"));
+        assertEquals("b3", values.get("B"));
+        assertEquals("c1", values.get("C"));
+        assertTrue(oldBuffer.isDelete(getRow(oldBuffer, "k2")));
+        values = getValues(oldBuffer, "k3");
+        assertEquals(1, values.size());
+        assertEquals("b3", values.get("B"));
+    }
+    
+    @Test
+    public void testGrowAndCompact() {
+        int nRows = 1000;
+        MutationBuffer buffer = new MutationBuffer(1);
+        // Repeatedly upsert the same rows to exceed the threshold to compact
+        for (int j = 0; j < 20; j++) {
+            for (int i = 0; i < nRows; i++) {
+                upsert(buffer, "k" + i, j % 2 == 0 ? A : B, "v" + i + "_" + j, C, "c" + j);
+            }
+        }
+        assertEquals(nRows, buffer.size());
+        for (int i = 0; i < nRows; i += 97) {
+            Map<String,String> values = getValues(buffer, "k" + i);
+            assertEquals(3, values.size());
+            assertEquals("v" + i + "_18", values.get("A"));
+            assertEquals("v" + i + "_19", values.get("B"));
+            assertEquals("c19", values.get("C"));
+        }
+        assertNull(getValues(buffer, "k0").get("D"));
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        upsert(buffer, "k0", A, "a");
+        assertEquals(1, buffer.size());
+    }
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.schema.PColumnImpl;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PNameFactory;
+import com.salesforce.phoenix.schema.tuple.ResultTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+public class BatchFilterTest {
+    private static final byte[] FAMILY = Bytes.toBytes("F");
+    private static final int ROW_COUNT = 100;
+    
+    private final Expression intColumn = new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName("I"), PNameFactory.newName("F"), PDataType.INTEGER, null, null, true, 1, null));
+    private final Expression strColumn = new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName("S"), PNameFactory.newName("F"), PDataType.VARCHAR, null, null, true, 2, null));
+    
+    private static Tuple[] newTuples() {
+        Tuple[] tuples = new Tuple[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            byte[] row = Bytes.toBytes(i);
+            List<KeyValue> kvs = Lists.newArrayList();
+            if (i % 5 != 0) {
+                kvs.add(new KeyValue(row, FAMILY, Bytes.toBytes("I"), PDataType.INTEGER.toBytes(i)));
+            }
+            if (i % 7 != 0) {
+                kvs.add(new KeyValue(row, FAMILY, Bytes.toBytes("S"), PDataType.VARCHAR.toBytes("a" + i)));
+            }
+            tuples[i] = new ResultTuple(new Result(kvs));
+        }
+        return tuples;
+    }
+    
+    private static Expression compare(CompareOp op, Expression lhs, Object value) {
+        return new ComparisonExpression(op, Arrays.<Expression>asList(lhs, LiteralExpression.newConstant(value)));
+    }
+    
+    private static void assertBatchMatchesRows(Expression expression, int expectedCount) {
+        Tuple[] tuples = newTuples();
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        BitSet expected = new BitSet(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            if (expression.evaluate(tuples[i], ptr) && Boolean.TRUE.equals(PDataType.BOOLEAN.toObject(ptr))) {
+                expected.set(i);
+            }
+        }
+        BitSet selection = new BitSet(ROW_COUNT);
+        selection.set(0, ROW_COUNT);
+        expression.filter(tuples, selection, ptr);
+        assertEquals(expression.toString(), expected, selection);
+        assertEquals(expression.toString(), expectedCount, selection.cardinality());
+    }
+    
+    @Test
+    public void testComparison() {
+        // 51-99 minus the multiples of 5 which have no value
+        assertBatchMatchesRows(compare(CompareOp.GREATER, intColumn, 50), 40);
+        assertBatchMatchesRows(compare(CompareOp.EQUAL, strColumn, "a42"), 0);
+        assertBatchMatchesRows(compare(CompareOp.EQUAL, strColumn, "a43"), 1);
+    }
+    
+    @Test
+    public void testInList() throws SQLException {
+        Expression e = InListExpression.create(Arrays.<Expression>asList(intColumn, 
+                LiteralExpression.newConstant(3), LiteralExpression.newConstant(10), 
+                LiteralExpression.newConstant(77), LiteralExpression.newConstant(200)), new ImmutableBytesWritable());
+        assertBatchMatchesRows(e, 2);
+    }
+    
+    @Test
+    public void testLike() {
+        // a10-a19 minus a14 which has no value
+        assertBatchMatchesRows(new LikeExpression(Arrays.<Expression>asList(strColumn, LiteralExpression.newConstant("a1_"))), 9);
+        assertBatchMatchesRows(new LikeExpression(Arrays.<Expression>asList(strColumn, LiteralExpression.newConstant("%9"))), 9);
+    }
+    
+    @Test
+    public void testIsNull() {
+        assertBatchMatchesRows(new IsNullExpression(strColumn, false), 15);
+        assertBatchMatchesRows(new IsNullExpression(intColumn, true), 80);
+    }
+    
+    @Test
+    public void testAndOr() {
+        Expression and = new AndExpression(Arrays.<Expression>asList(
+                compare(CompareOp.LESS, intColumn, 30), 
+                new LikeExpression(Arrays.<Expression>asList(strColumn, LiteralExpression.newConstant("%3")))));
+        // 3, 13, 23
+        assertBatchMatchesRows(and, 3);
+        Expression or = new OrExpression(Arrays.<Expression>asList(and, compare(CompareOp.EQUAL, intColumn, 99), new IsNullExpression(intColumn, false)));
+        assertBatchMatchesRows(or, 24);
+        // Rows below 30 with no string value are null rather than false
+        assertBatchMatchesRows(new NotExpression(or), 72);
+    }
+    
+    @Test
+    public void testPartialSelection() {
+        BitSet selection = new BitSet(ROW_COUNT);
+        selection.set(11);
+        selection.set(21);
+        compare(CompareOp.GREATER, intColumn, 15).filter(newTuples(), selection, new ImmutableBytesWritable());
+        assertFalse(selection.get(11));
+        assertTrue(selection.get(21));
+        assertEquals(1, selection.cardinality());
+    }
+}
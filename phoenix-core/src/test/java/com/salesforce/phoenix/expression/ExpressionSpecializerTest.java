@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Writables;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.filter.MultiCQKeyValueComparisonFilter;
+import com.salesforce.phoenix.schema.PColumnImpl;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PNameFactory;
+import com.salesforce.phoenix.schema.tuple.ResultTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+public class ExpressionSpecializerTest {
+    private static final byte[] FAMILY = Bytes.toBytes("F");
+    private static final int ROW_COUNT = 50;
+    
+    private static Expression newColumn(String name, PDataType type, int position) {
+        return new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName(name), PNameFactory.newName("F"), type, null, null, true, position, null));
+    }
+    
+    private final Expression intColumn = newColumn("I", PDataType.INTEGER, 1);
+    private final Expression doubleColumn = newColumn("D", PDataType.DOUBLE, 2);
+    private final Expression strColumn = newColumn("S", PDataType.VARCHAR, 3);
+    
+    private static Tuple[] newTuples() {
+        Tuple[] tuples = new Tuple[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            byte[] row = Bytes.toBytes(i);
+            List<KeyValue> kvs = Lists.newArrayList();
+            kvs.add(new KeyValue(row, FAMILY, Bytes.toBytes("D"), PDataType.DOUBLE.toBytes(i / 2.0)));
+            if (i % 3 != 0) {
+                kvs.add(new KeyValue(row, FAMILY, Bytes.toBytes("I"), PDataType.INTEGER.toBytes(i - 25)));
+            }
+            kvs.add(new KeyValue(row, FAMILY, Bytes.toBytes("S"), PDataType.VARCHAR.toBytes("s" + i)));
+            tuples[i] = new ResultTuple(new Result(kvs));
+        }
+        return tuples;
+    }
+    
+    private static Expression compare(CompareOp op, Expression lhs, Object value, PDataType type) throws SQLException {
+        return new ComparisonExpression(op, Arrays.<Expression>asList(lhs, LiteralExpression.newConstant(value, type)));
+    }
+    
+    private static void assertSpecializedMatches(Expression expression) {
+        Expression specialized = ExpressionSpecializer.specialize(expression);
+        assertNotSame(expression, specialized);
+        assertEquals(expression.toString(), specialized.toString());
+        Tuple[] tuples = newTuples();
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            boolean evaluated = expression.evaluate(tuples[i], ptr);
+            Object expected = evaluated ? PDataType.BOOLEAN.toObject(ptr) : null;
+            assertEquals(expression + " row " + i, evaluated, specialized.evaluate(tuples[i], ptr));
+            if (evaluated) {
+                assertEquals(expression + " row " + i, expected, PDataType.BOOLEAN.toObject(ptr));
+            }
+        }
+    }
+    
+    @Test
+    public void testLongComparison() throws SQLException {
+        for (CompareOp op : CompareOp.values()) {
+            if (op != CompareOp.NO_OP) {
+                assertSpecializedMatches(compare(op, intColumn, 3L, PDataType.LONG));
+                assertSpecializedMatches(compare(op, intColumn, -7L, PDataType.LONG));
+            }
+        }
+    }
+    
+    @Test
+    public void testDoubleComparison() throws SQLException {
+        assertSpecializedMatches(compare(CompareOp.GREATER, doubleColumn, 10.5f, PDataType.FLOAT));
+        assertSpecializedMatches(compare(CompareOp.LESS_OR_EQUAL, doubleColumn, 3.0f, PDataType.FLOAT));
+    }
+    
+    @Test
+    public void testBytesComparison() throws SQLException {
+        assertSpecializedMatches(compare(CompareOp.EQUAL, strColumn, "s17", PDataType.VARCHAR));
+        assertSpecializedMatches(compare(CompareOp.GREATER_OR_EQUAL, strColumn, "s4", PDataType.VARCHAR));
+        assertSpecializedMatches(compare(CompareOp.LESS, intColumn, 5, PDataType.INTEGER));
+    }
+    
+    @Test
+    public void testBooleanSpine() throws SQLException {
+        Expression and = new AndExpression(Arrays.asList(
+                compare(CompareOp.GREATER, intColumn, -10L, PDataType.LONG),
+                new NotExpression(compare(CompareOp.EQUAL, strColumn, "s20", PDataType.VARCHAR))));
+        assertSpecializedMatches(and);
+        assertSpecializedMatches(new OrExpression(Arrays.asList(and, compare(CompareOp.LESS, doubleColumn, 1.0f, PDataType.FLOAT))));
+    }
+    
+    @Test
+    public void testNotSpecialized() throws SQLException {
+        // A comparison of two columns or a mixed floating point and integer comparison stays as is
+        Expression columns = new ComparisonExpression(CompareOp.EQUAL, Arrays.asList(intColumn, doubleColumn));
+        assertSame(columns, ExpressionSpecializer.specialize(columns));
+        Expression mixed = compare(CompareOp.EQUAL, intColumn, 1.5, PDataType.DOUBLE);
+        assertSame(mixed, ExpressionSpecializer.specialize(mixed));
+        Expression isNull = new IsNullExpression(intColumn, false);
+        assertSame(isNull, ExpressionSpecializer.specialize(isNull));
+        Expression and = new AndExpression(Arrays.asList(columns, isNull));
+        assertSame(and, ExpressionSpecializer.specialize(and));
+    }
+    
+    @Test
+    public void testFilterRoundTrip() throws SQLException, IOException {
+        Expression and = new AndExpression(Arrays.asList(
+                compare(CompareOp.GREATER, intColumn, -10L, PDataType.LONG),
+                compare(CompareOp.LESS, doubleColumn, 1.0f, PDataType.FLOAT)));
+        byte[] bytes = Writables.getBytes(new MultiCQKeyValueComparisonFilter(and));
+        // The deserialized filter evaluates a specialized expression, but must still serialize as the original
+        MultiCQKeyValueComparisonFilter filter = (MultiCQKeyValueComparisonFilter)Writables.getWritable(bytes, new MultiCQKeyValueComparisonFilter());
+        assertEquals(new MultiCQKeyValueComparisonFilter(and), filter);
+        assertArrayEquals(bytes, Writables.getBytes(filter));
+    }
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.schema.ColumnModifier;
+import com.salesforce.phoenix.schema.PColumnImpl;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PNameFactory;
+import com.salesforce.phoenix.schema.tuple.ResultTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+public class PrimitiveNumericExpressionTest {
+    private static final byte[] FAMILY = Bytes.toBytes("F");
+    private static final int ROW_COUNT = 50;
+    
+    private static Expression newColumn(String name, PDataType type, int position, ColumnModifier columnModifier) {
+        return new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName(name), PNameFactory.newName("F"), type, null, null, true, position, columnModifier));
+    }
+    
+    private final Expression intColumn = newColumn("I", PDataType.INTEGER, 1, null);
+    private final Expression descIntColumn = newColumn("J", PDataType.INTEGER, 2, ColumnModifier.SORT_DESC);
+    private final Expression doubleColumn = newColumn("D", PDataType.DOUBLE, 3, null);
+    
+    private static Integer getI(int row) {
+        return row % 3 == 0 ? null : row - 25;
+    }
+    
+    private static Tuple[] newTuples() {
+        Tuple[] tuples = new Tuple[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            byte[] row = Bytes.toBytes(i);
+            List<KeyValue> kvs = Lists.newArrayList();
+            kvs.add(new KeyValue(row, FAMILY, Bytes.toBytes("D"), PDataType.DOUBLE.toBytes(i / 2.0)));
+            if (getI(i) != null) {
+                kvs.add(new KeyValue(row, FAMILY, Bytes.toBytes("I"), PDataType.INTEGER.toBytes(getI(i))));
+            }
+            kvs.add(new KeyValue(row, FAMILY, Bytes.toBytes("J"), PDataType.INTEGER.toBytes(i, ColumnModifier.SORT_DESC)));
+            tuples[i] = new ResultTuple(new Result(kvs));
+        }
+        return tuples;
+    }
+    
+    private static Expression compare(CompareOp op, Expression lhs, Expression rhs) {
+        return new ComparisonExpression(op, Arrays.<Expression>asList(lhs, rhs));
+    }
+    
+    private static Boolean evaluate(Expression expression, Tuple tuple) {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        if (!expression.evaluate(tuple, ptr)) {
+            return null;
+        }
+        return (Boolean)PDataType.BOOLEAN.toObject(ptr);
+    }
+    
+    private static void assertFilterMatchesEvaluate(Expression expression) {
+        Tuple[] tuples = newTuples();
+        BitSet selection = new BitSet(ROW_COUNT);
+        selection.set(0, ROW_COUNT);
+        expression.filter(tuples, selection, new ImmutableBytesWritable());
+        for (int i = 0; i < ROW_COUNT; i++) {
+            assertEquals(expression + " row " + i, Boolean.TRUE.equals(evaluate(expression, tuples[i])), selection.get(i));
+        }
+    }
+    
+    @Test
+    public void testLongArithmeticComparison() throws SQLException {
+        // I + J > 10
+        Expression add = new LongAddExpression(Arrays.asList(intColumn, descIntColumn));
+        Expression expression = compare(CompareOp.GREATER, add, LiteralExpression.newConstant(10L, PDataType.LONG));
+        Tuple[] tuples = newTuples();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            Integer value = getI(i);
+            assertEquals("row " + i, value == null ? null : value + i > 10, evaluate(expression, tuples[i]));
+        }
+        assertFilterMatchesEvaluate(expression);
+        assertFilterMatchesEvaluate(compare(CompareOp.LESS_OR_EQUAL, add, LiteralExpression.newConstant(7, PDataType.INTEGER)));
+    }
+    
+    @Test
+    public void testMixedArithmeticComparison() throws SQLException {
+        // (I + J) * 2.0 >= -20
+        Expression add = new LongAddExpression(Arrays.asList(intColumn, descIntColumn));
+        Expression multiply = new DoubleMultiplyExpression(Arrays.asList(add, LiteralExpression.newConstant(2.0, PDataType.DOUBLE)));
+        Expression expression = compare(CompareOp.GREATER_OR_EQUAL, multiply, LiteralExpression.newConstant(-20L, PDataType.LONG));
+        Tuple[] tuples = newTuples();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            Integer value = getI(i);
+            assertEquals("row " + i, value == null ? null : (value + i) * 2.0 >= -20, evaluate(expression, tuples[i]));
+        }
+        assertFilterMatchesEvaluate(expression);
+        // (I - J) * 2.5 > 31.25
+        Expression subtract = new LongSubtractExpression(Arrays.asList(descIntColumn, intColumn));
+        multiply = new DoubleMultiplyExpression(Arrays.asList(subtract, LiteralExpression.newConstant(2.5, PDataType.DOUBLE)));
+        expression = compare(CompareOp.GREATER, multiply, LiteralExpression.newConstant(62.25, PDataType.DOUBLE));
+        for (int i = 0; i < ROW_COUNT; i++) {
+            Integer value = getI(i);
+            assertEquals("row " + i, value == null ? null : (i - value) * 2.5 > 62.25, evaluate(expression, tuples[i]));
+        }
+        assertFilterMatchesEvaluate(expression);
+        // I + 1 < D, where the rhs is a column
+        add = new LongAddExpression(Arrays.asList(intColumn, LiteralExpression.newConstant(1L, PDataType.LONG)));
+        expression = compare(CompareOp.LESS, add, doubleColumn);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            Integer value = getI(i);
+            // Same as comparing the serialized value
+            Boolean expected = value == null ? null : evaluate(compare(CompareOp.LESS, LiteralExpression.newConstant(value + 1L, PDataType.LONG), doubleColumn), tuples[i]);
+            assertEquals("row " + i, expected, evaluate(expression, tuples[i]));
+        }
+        assertFilterMatchesEvaluate(expression);
+        assertFilterMatchesEvaluate(compare(CompareOp.NOT_EQUAL, add, LiteralExpression.newConstant(-3.0f, PDataType.FLOAT)));
+    }
+    
+    @Test
+    public void testNestedArithmetic() throws SQLException {
+        // ((I + J) * D) / 2 serializes the same value it computes as a primitive
+        Expression add = new LongAddExpression(Arrays.asList(intColumn, descIntColumn));
+        Expression multiply = new DoubleMultiplyExpression(Arrays.asList(add, doubleColumn));
+        PrimitiveNumericExpression divide = new DoubleDivideExpression(Arrays.asList(multiply, LiteralExpression.newConstant(2L, PDataType.LONG)));
+        Tuple[] tuples = newTuples();
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            Integer value = getI(i);
+            if (value == null) {
+                assertFalse(divide.evaluate(tuples[i], ptr));
+                assertFalse(divide.evaluatePrimitive(tuples[i], ptr));
+                continue;
+            }
+            double expected = ((value + i) * (i / 2.0)) / 2;
+            assertTrue(divide.evaluatePrimitive(tuples[i], ptr));
+            assertEquals(expected, divide.getDoubleValue(), 0);
+            assertTrue(divide.evaluate(tuples[i], ptr));
+            assertEquals(expected, PDataType.DOUBLE.getCodec().decodeDouble(ptr, null), 0);
+        }
+    }
+    
+    @Test
+    public void testCoerceIntegralToLong() {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (int v : new int[] {Integer.MIN_VALUE, -1, 0, 42, Integer.MAX_VALUE}) {
+            for (ColumnModifier actualModifier : new ColumnModifier[] {null, ColumnModifier.SORT_DESC}) {
+                for (ColumnModifier expectedModifier : new ColumnModifier[] {null, ColumnModifier.SORT_DESC}) {
+                    ptr.set(PDataType.INTEGER.toBytes(v, actualModifier));
+                    PDataType.LONG.coerceBytes(ptr, PDataType.INTEGER, actualModifier, expectedModifier);
+                    assertArrayEquals(PDataType.LONG.toBytes((long)v, expectedModifier), ptr.copyBytes());
+                    ptr.set(PDataType.SMALLINT.toBytes((short)v, actualModifier));
+                    PDataType.LONG.coerceBytes(ptr, PDataType.SMALLINT, actualModifier, expectedModifier);
+                    assertArrayEquals(PDataType.LONG.toBytes((long)(short)v, expectedModifier), ptr.copyBytes());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression.aggregator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.junit.Test;
+
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.util.ByteUtil;
+
+/**
+ * Checks that aggregating into fixed width state gives the same results as
+ * aggregating into the Aggregator instance.
+ */
+public class FixedWidthAggregatorTest {
+    
+    private static ImmutableBytesWritable toPtr(PDataType type, Object value) {
+        return new ImmutableBytesWritable(type.toBytes(value));
+    }
+    
+    private static Object evaluate(FixedWidthAggregator aggregator, byte[] state, int offset) {
+        byte[] buffer = new byte[aggregator.getDataType().getByteSize()];
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        if (!aggregator.evaluate(state, offset, buffer, ptr)) {
+            return null;
+        }
+        return aggregator.getDataType().toObject(ptr);
+    }
+    
+    private static Object evaluate(Aggregator aggregator) {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        if (!aggregator.evaluate(null, ptr)) {
+            return null;
+        }
+        return aggregator.getDataType().toObject(ptr);
+    }
+    
+    /**
+     * Aggregates the values into the state of the middle of three adjacent groups, and
+     * into the aggregator itself, and checks that both agree and that the neighbouring
+     * groups are untouched.
+     */
+    private static Object assertAggregate(FixedWidthAggregator aggregator, PDataType inputType, Object... values) {
+        int width = aggregator.getStateWidth();
+        byte[] state = new byte[3 * width];
+        for (Object value : values) {
+            ImmutableBytesWritable ptr = toPtr(inputType, value);
+            aggregator.aggregate(state, width, ptr);
+            aggregator.aggregate(null, ptr);
+        }
+        Object expected = evaluate(aggregator);
+        assertEquals(expected, evaluate(aggregator, state, width));
+        for (int i = 0; i < width; i++) {
+            assertEquals(0, state[i]);
+            assertEquals(0, state[2 * width + i]);
+        }
+        return expected;
+    }
+    
+    @Test
+    public void testCount() {
+        assertEquals(0L, assertAggregate(new CountAggregator(), PDataType.LONG));
+        assertEquals(3L, assertAggregate(new CountAggregator(), PDataType.LONG, 1L, 1L, 1L));
+    }
+    
+    @Test
+    public void testSumOfNothingIsNull() {
+        assertEquals(null, assertAggregate(new LongSumAggregator(null), PDataType.LONG));
+        assertEquals(null, assertAggregate(new DoubleSumAggregator(null, null), PDataType.DOUBLE));
+    }
+    
+    @Test
+    public void testSum() {
+        assertEquals(6L, assertAggregate(new LongSumAggregator(null), PDataType.LONG, 1L, 2L, 3L));
+        assertEquals(0L, assertAggregate(new LongSumAggregator(null), PDataType.LONG, 5L, -5L));
+        assertEquals(6L, assertAggregate(new IntSumAggregator(null), PDataType.INTEGER, 1, 2, 3));
+        assertEquals(1.5, assertAggregate(new DoubleSumAggregator(null, null), PDataType.DOUBLE, 1.0, 0.5));
+    }
+    
+    @Test
+    public void testSumOverflow() {
+        // Wraps around like the instance does, and stays within the state of its group
+        assertEquals(Long.MIN_VALUE, assertAggregate(new LongSumAggregator(null), PDataType.LONG, Long.MAX_VALUE, 1L));
+        assertEquals((long)Integer.MAX_VALUE * 2, assertAggregate(new IntSumAggregator(null), PDataType.INTEGER, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(Double.POSITIVE_INFINITY, assertAggregate(new DoubleSumAggregator(null, null), PDataType.DOUBLE, Double.MAX_VALUE, Double.MAX_VALUE));
+    }
+    
+    private static MinAggregator newMinAggregator() {
+        return new MinAggregator(null) {
+            @Override
+            public PDataType getDataType() {
+                return PDataType.INTEGER;
+            }
+        };
+    }
+    
+    @Test
+    public void testMin() {
+        assertEquals(null, assertAggregate(newMinAggregator(), PDataType.INTEGER));
+        assertEquals(-1, assertAggregate(newMinAggregator(), PDataType.INTEGER, 3, -1, 2));
+        assertEquals(Integer.MIN_VALUE, assertAggregate(newMinAggregator(), PDataType.INTEGER, Integer.MAX_VALUE, Integer.MIN_VALUE));
+    }
+    
+    /**
+     * Aggregates the values, some of which may be null, into the state of a group
+     */
+    private static Object aggregateNullable(FixedWidthAggregator aggregator, PDataType inputType, Object... values) {
+        byte[] state = new byte[aggregator.getStateWidth()];
+        for (Object value : values) {
+            aggregator.aggregate(state, 0, value == null ? new ImmutableBytesWritable(ByteUtil.EMPTY_BYTE_ARRAY) : toPtr(inputType, value));
+        }
+        return evaluate(aggregator, state, 0);
+    }
+    
+    @Test
+    public void testNullValueIgnored() {
+        assertEquals(null, aggregateNullable(newMinAggregator(), PDataType.INTEGER, (Object)null));
+        assertEquals(-1, aggregateNullable(newMinAggregator(), PDataType.INTEGER, 3, null, -1, null));
+        assertEquals(null, aggregateNullable(new LongSumAggregator(null), PDataType.LONG, (Object)null));
+        assertEquals(3L, aggregateNullable(new LongSumAggregator(null), PDataType.LONG, 1L, null, 2L));
+        assertEquals(1.5, aggregateNullable(new DoubleSumAggregator(null, null), PDataType.DOUBLE, null, 1.0, 0.5));
+    }
+    
+    @Test
+    public void testVariableWidthMin() {
+        MinAggregator aggregator = new MinAggregator(null) {
+            @Override
+            public PDataType getDataType() {
+                return PDataType.VARCHAR;
+            }
+        };
+        assertEquals(-1, aggregator.getStateWidth());
+        assertTrue(new LongSumAggregator(null).getStateWidth() > 0);
+        assertFalse(new CountAggregator().isNullable());
+    }
+}
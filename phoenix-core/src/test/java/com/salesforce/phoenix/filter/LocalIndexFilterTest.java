@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.filter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class LocalIndexFilterTest {
+    private static final byte[] PREFIX = Bytes.toBytes("p");
+    private static final byte[] FAMILY = Bytes.toBytes("L#0");
+    
+    @Test
+    public void testFilterRowWithoutPrefix() {
+        final List<byte[]> seenRows = Lists.newArrayList();
+        final KeyValue addedKv = new KeyValue(Bytes.toBytes("b"), FAMILY, Bytes.toBytes("q3"), 1, Bytes.toBytes("v3"));
+        FilterBase delegate = new FilterBase() {
+            @Override
+            public boolean hasFilterRow() {
+                return true;
+            }
+            
+            @Override
+            public void filterRow(List<KeyValue> kvs) {
+                for (KeyValue kv : kvs) {
+                    seenRows.add(kv.getRow());
+                }
+                kvs.remove(0);
+                kvs.add(addedKv);
+            }
+            
+            @Override
+            public void readFields(DataInput input) {
+            }
+            
+            @Override
+            public void write(DataOutput output) {
+            }
+        };
+        LocalIndexFilter filter = new LocalIndexFilter(PREFIX, delegate);
+        KeyValue kv1 = new KeyValue(Bytes.toBytes("pa"), FAMILY, Bytes.toBytes("q1"), 1, Bytes.toBytes("v1"));
+        KeyValue kv2 = new KeyValue(Bytes.toBytes("pa"), FAMILY, Bytes.toBytes("q2"), 1, Bytes.toBytes("v2"));
+        List<KeyValue> kvs = Lists.newArrayList(kv1, kv2);
+        filter.filterRow(kvs);
+        
+        // The wrapped filter sees the rows without the prefix
+        assertEquals(2, seenRows.size());
+        assertArrayEquals(Bytes.toBytes("a"), seenRows.get(0));
+        assertArrayEquals(Bytes.toBytes("a"), seenRows.get(1));
+        // A key value it kept is returned as is, and one it added is prefixed
+        assertEquals(2, kvs.size());
+        assertSame(kv2, kvs.get(0));
+        assertArrayEquals(Bytes.toBytes("pb"), kvs.get(1).getRow());
+        assertArrayEquals(Bytes.toBytes("q3"), kvs.get(1).getQualifier());
+        assertArrayEquals(Bytes.toBytes("v3"), kvs.get(1).getValue());
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY_NAME;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.expression.KeyValueColumnExpression;
+import com.salesforce.phoenix.expression.aggregator.Aggregators;
+import com.salesforce.phoenix.expression.aggregator.ClientAggregators;
+import com.salesforce.phoenix.expression.function.SingleAggregateFunction;
+import com.salesforce.phoenix.expression.function.SumAggregateFunction;
+import com.salesforce.phoenix.memory.GlobalMemoryManager;
+import com.salesforce.phoenix.memory.MemoryManager;
+import com.salesforce.phoenix.schema.ColumnModifier;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PLongColumn;
+import com.salesforce.phoenix.schema.PName;
+import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+public class HashAggregatingResultIteratorTest {
+    private static final int PARTIALS_PER_GROUP = 3;
+    
+    private static Aggregators newSumAggregators() {
+        SumAggregateFunction func = new SumAggregateFunction(Arrays.<Expression>asList(new KeyValueColumnExpression(new PLongColumn() {
+            @Override
+            public PName getName() {
+                return SINGLE_COLUMN_NAME;
+            }
+            @Override
+            public PName getFamilyName() {
+                return SINGLE_COLUMN_FAMILY_NAME;
+            }
+            @Override
+            public int getPosition() {
+                return 0;
+            }
+            @Override
+            public ColumnModifier getColumnModifier() {
+                return null;
+            }
+            @Override
+            public void readFields(DataInput arg0) throws IOException {
+            }
+            @Override
+            public void write(DataOutput arg0) throws IOException {
+            }
+        })), null);
+        return new ClientAggregators(Collections.<SingleAggregateFunction>singletonList(func), 1);
+    }
+    
+    /**
+     * Partial aggregates as they would come back from the regions: each group
+     * appears several times with a count of 1, in no particular order.
+     */
+    private static List<Tuple> newShuffledPartials(int groupCount) {
+        List<Tuple> results = Lists.newArrayListWithExpectedSize(groupCount * PARTIALS_PER_GROUP);
+        for (int i = 0; i < PARTIALS_PER_GROUP; i++) {
+            for (int j = 0; j < groupCount; j++) {
+                results.add(new SingleKeyValueTuple(new KeyValue(Bytes.toBytes(j), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, PDataType.LONG.toBytes(1L))));
+            }
+        }
+        Collections.shuffle(results, new Random(0));
+        return results;
+    }
+    
+    private static void assertAggregated(ResultIterator iterator, int groupCount) throws Exception {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        boolean[] seen = new boolean[groupCount];
+        int count = 0;
+        Tuple tuple;
+        while ((tuple = iterator.next()) != null) {
+            tuple.getKey(ptr);
+            int group = Bytes.toInt(ptr.get(), ptr.getOffset());
+            assertEquals(false, seen[group]);
+            seen[group] = true;
+            KeyValue kv = tuple.getValue(SINGLE_COLUMN_FAMILY, SINGLE_COLUMN);
+            assertEquals(PARTIALS_PER_GROUP, PDataType.LONG.getCodec().decodeLong(kv.getBuffer(), kv.getValueOffset(), null));
+            count++;
+        }
+        assertEquals(groupCount, count);
+        assertNull(iterator.next());
+        iterator.close();
+    }
+
+    @Test
+    public void testAggregateInMemory() throws Exception {
+        int groupCount = 100;
+        MemoryManager memoryManager = new GlobalMemoryManager(Long.MAX_VALUE, 0);
+        ResultIterator iterator = new HashAggregatingResultIterator(new MaterializedResultIterator(newShuffledPartials(groupCount)), newSumAggregators(),
+                memoryManager, Long.MAX_VALUE, 2);
+        assertAggregated(iterator, groupCount);
+        assertEquals(memoryManager.getMaxMemory(), memoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testAggregateWithSpilling() throws Exception {
+        // Only room for the initial allocation, so groups beyond that are spilled and
+        // the spill files themselves need to be partitioned again
+        int groupCount = 5000;
+        MemoryManager memoryManager = new GlobalMemoryManager(Long.MAX_VALUE, 0);
+        ResultIterator iterator = new HashAggregatingResultIterator(new MaterializedResultIterator(newShuffledPartials(groupCount)), newSumAggregators(),
+                memoryManager, 0, 2);
+        assertAggregated(iterator, groupCount);
+        assertEquals(memoryManager.getMaxMemory(), memoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testCloseBeforeExhausted() throws Exception {
+        int groupCount = 5000;
+        MemoryManager memoryManager = new GlobalMemoryManager(Long.MAX_VALUE, 0);
+        ResultIterator iterator = new HashAggregatingResultIterator(new MaterializedResultIterator(newShuffledPartials(groupCount)), newSumAggregators(),
+                memoryManager, 0, 2);
+        for (int i = 0; i < 10; i++) {
+            iterator.next();
+        }
+        iterator.close();
+        assertEquals(memoryManager.getMaxMemory(), memoryManager.getAvailableMemory());
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+
+public class LimitingResultIteratorTest {
+    
+    private static class CountingCloseIterator extends DelegateResultIterator {
+        private int closeCount;
+        
+        private CountingCloseIterator(ResultIterator delegate) {
+            super(delegate);
+        }
+        
+        @Override
+        public void close() throws SQLException {
+            closeCount++;
+            super.close();
+        }
+    }
+    
+    @Test
+    public void testDelegateClosedOnceLimitReached() throws Throwable {
+        Tuple[] results = new Tuple[3];
+        for (int i = 0; i < results.length; i++) {
+            byte[] row = Bytes.toBytes(i);
+            results[i] = new SingleKeyValueTuple(new KeyValue(row, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, row));
+        }
+        CountingCloseIterator delegate = new CountingCloseIterator(new MaterializedResultIterator(Arrays.asList(results)));
+        ResultIterator iterator = new LimitingResultIterator(delegate, 2);
+        assertNotNull(iterator.next());
+        assertNotNull(iterator.next());
+        assertEquals(0, delegate.closeCount);
+        assertNull(iterator.next());
+        assertEquals(1, delegate.closeCount);
+        assertNull(iterator.next());
+        iterator.close();
+        assertEquals(1, delegate.closeCount);
+    }
+}
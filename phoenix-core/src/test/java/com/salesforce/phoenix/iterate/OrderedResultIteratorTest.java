@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.expression.OrderByExpression;
+import com.salesforce.phoenix.expression.RowKeyExpression;
+import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+public class OrderedResultIteratorTest {
+    
+    private static List<Tuple> newShuffledResults(int count) {
+        List<Tuple> results = Lists.newArrayListWithExpectedSize(count);
+        for (int i = 0; i < count; i++) {
+            byte[] row = Bytes.toBytes(i);
+            results.add(new SingleKeyValueTuple(new KeyValue(row, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes("value" + i))));
+        }
+        Collections.shuffle(results, new Random(0));
+        return results;
+    }
+    
+    private static void assertSorted(OrderedResultIterator iterator, int count, boolean isAscending) throws Exception {
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (int i = 0; i < count; i++) {
+            int expected = isAscending ? i : count - i - 1;
+            Tuple peeked = iterator.peek();
+            Tuple tuple = iterator.next();
+            assertSame(peeked, tuple);
+            tuple.getKey(ptr);
+            assertEquals(expected, Bytes.toInt(ptr.get(), ptr.getOffset()));
+            assertEquals("value" + expected, Bytes.toString(tuple.getValue(0).getValue()));
+        }
+        assertNull(iterator.peek());
+        assertNull(iterator.next());
+        iterator.close();
+    }
+
+    @Test
+    public void testSortInMemory() throws Exception {
+        int count = 1000;
+        OrderByExpression orderBy = new OrderByExpression(RowKeyExpression.INSTANCE, false, true);
+        OrderedResultIterator iterator = new OrderedResultIterator(new MaterializedResultIterator(newShuffledResults(count)),
+                Collections.singletonList(orderBy), 100 * 1024 * 1024);
+        assertSorted(iterator, count, true);
+    }
+
+    @Test
+    public void testSortSpilledToDisk() throws Exception {
+        int count = 1000;
+        OrderByExpression orderBy = new OrderByExpression(RowKeyExpression.INSTANCE, false, false);
+        // Threshold causes a run per few rows, so more runs than can be merged at once
+        OrderedResultIterator iterator = new OrderedResultIterator(new MaterializedResultIterator(newShuffledResults(count)),
+                Collections.singletonList(orderBy), 1000);
+        assertSorted(iterator, count, false);
+    }
+
+    @Test
+    public void testSortWithLimit() throws Exception {
+        int count = 1000;
+        OrderByExpression orderBy = new OrderByExpression(RowKeyExpression.INSTANCE, false, true);
+        OrderedResultIterator iterator = new OrderedResultIterator(new MaterializedResultIterator(newShuffledResults(count)),
+                Collections.singletonList(orderBy), 1000, 10);
+        assertSorted(iterator, 10, true);
+    }
+
+    private static int countSpillFiles() {
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("ResultSortRun");
+            }
+        });
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void testCloseBeforeExhaustedRemovesSpillFiles() throws Exception {
+        int count = 1000;
+        int spillFiles = countSpillFiles();
+        OrderByExpression orderBy = new OrderByExpression(RowKeyExpression.INSTANCE, false, true);
+        OrderedResultIterator iterator = new OrderedResultIterator(new MaterializedResultIterator(newShuffledResults(count)),
+                Collections.singletonList(orderBy), 1000);
+        iterator.next();
+        iterator.close();
+        assertEquals(spillFiles, countSpillFiles());
+        assertNull(iterator.next());
+    }
+
+    @Test
+    public void testFailureWhileSortingRemovesSpillFiles() throws Exception {
+        final int count = 1000;
+        int spillFiles = countSpillFiles();
+        OrderByExpression orderBy = new OrderByExpression(RowKeyExpression.INSTANCE, false, true);
+        ResultIterator failingIterator = new MaterializedResultIterator(newShuffledResults(count)) {
+            private int nRows;
+            @Override
+            public Tuple next() throws SQLException {
+                if (++nRows > count / 2) {
+                    throw new SQLException("Injected failure");
+                }
+                return super.next();
+            }
+        };
+        OrderedResultIterator iterator = new OrderedResultIterator(failingIterator,
+                Collections.singletonList(orderBy), 1000);
+        try {
+            iterator.next();
+            fail();
+        } catch (SQLException e) {
+            assertEquals("Injected failure", e.getMessage());
+        }
+        assertEquals(spillFiles, countSpillFiles());
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.ByteUtil;
+
+
+public class SplittingResultIteratorTest {
+    private static final byte[] STOP_KEY = Bytes.toBytes("z");
+    
+    private static List<Tuple> newResults() {
+        List<Tuple> results = Lists.newArrayList();
+        for (char c = 'a'; c < 'z'; c++) {
+            results.add(new SingleKeyValueTuple(new KeyValue(Bytes.toBytes("" + c), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(1))));
+        }
+        return results;
+    }
+    
+    private static class TrackingTailScanner implements SplittingResultIterator.TailScanner {
+        private final List<byte[]> splitKeys = Lists.newArrayList();
+        private final List<byte[]> stopKeys = Lists.newArrayList();
+        private boolean canScanTail = true;
+        private boolean acceptTail = true;
+        
+        @Override
+        public boolean canScanTail() {
+            return canScanTail;
+        }
+
+        @Override
+        public boolean scanTail(byte[] splitKey, byte[] stopKey) throws SQLException {
+            if (acceptTail) {
+                splitKeys.add(splitKey);
+                stopKeys.add(stopKey);
+            }
+            return acceptTail;
+        }
+    }
+    
+    private static List<byte[]> getKeys(ResultIterator iterator) throws SQLException {
+        List<byte[]> keys = Lists.newArrayList();
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (Tuple tuple = iterator.next(); tuple != null; tuple = iterator.next()) {
+            tuple.getKey(ptr);
+            keys.add(ptr.copyBytes());
+        }
+        assertEquals(null, iterator.next());
+        return keys;
+    }
+    
+    @Test
+    public void testSplit() throws SQLException {
+        TrackingTailScanner tailScanner = new TrackingTailScanner();
+        SplittingResultIterator iterator = new SplittingResultIterator(new MaterializedResultIterator(newResults()), STOP_KEY, null, 0, tailScanner);
+        List<byte[]> keys = getKeys(iterator);
+        assertTrue(tailScanner.splitKeys.size() > 1);
+        // Each tail ends where the previous one started
+        byte[] stopKey = STOP_KEY;
+        for (int i = 0; i < tailScanner.splitKeys.size(); i++) {
+            assertTrue(Bytes.equals(stopKey, tailScanner.stopKeys.get(i)));
+            assertTrue(Bytes.compareTo(tailScanner.splitKeys.get(i), stopKey) < 0);
+            stopKey = tailScanner.splitKeys.get(i);
+        }
+        // Every row before the last split key is returned and none after it
+        List<Tuple> results = newResults();
+        int i = 0;
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (Tuple result : results) {
+            result.getKey(ptr);
+            if (Bytes.compareTo(ptr.copyBytes(), stopKey) < 0) {
+                assertTrue(Bytes.equals(ptr.copyBytes(), keys.get(i++)));
+            }
+        }
+        assertEquals(keys.size(), i);
+    }
+    
+    @Test
+    public void testNoSplit() throws SQLException {
+        TrackingTailScanner tailScanner = new TrackingTailScanner();
+        // Below the threshold
+        assertEquals(25, getKeys(new SplittingResultIterator(new MaterializedResultIterator(newResults()), STOP_KEY, null, 60000, tailScanner)).size());
+        // Unbound key range without a max key
+        assertEquals(25, getKeys(new SplittingResultIterator(new MaterializedResultIterator(newResults()), ByteUtil.EMPTY_BYTE_ARRAY, null, 0, tailScanner)).size());
+        // No idle threads
+        tailScanner.canScanTail = false;
+        assertEquals(25, getKeys(new SplittingResultIterator(new MaterializedResultIterator(newResults()), STOP_KEY, null, 0, tailScanner)).size());
+        assertEquals(0, tailScanner.splitKeys.size());
+        // Tail declined
+        tailScanner.canScanTail = true;
+        tailScanner.acceptTail = false;
+        assertEquals(25, getKeys(new SplittingResultIterator(new MaterializedResultIterator(newResults()), STOP_KEY, null, 0, tailScanner)).size());
+    }
+    
+    @Test
+    public void testUnboundSplit() throws SQLException {
+        TrackingTailScanner tailScanner = new TrackingTailScanner();
+        List<byte[]> keys = getKeys(new SplittingResultIterator(new MaterializedResultIterator(newResults()), ByteUtil.EMPTY_BYTE_ARRAY, STOP_KEY, 0, tailScanner));
+        // The first tail is unbound and the rows returned all precede the last split key
+        assertEquals(0, tailScanner.stopKeys.get(0).length);
+        byte[] lastSplitKey = tailScanner.splitKeys.get(tailScanner.splitKeys.size()-1);
+        assertTrue(Bytes.compareTo(keys.get(keys.size()-1), lastSplitKey) < 0);
+    }
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import com.salesforce.phoenix.iterate.ParallelIterators.ParallelIteratorFactory;
+import com.salesforce.phoenix.memory.DelegatingMemoryManager;
+import com.salesforce.phoenix.memory.GlobalMemoryManager;
+import com.salesforce.phoenix.memory.MemoryManager;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.AssertResults;
+
+
+public class StreamingResultIteratorTest {
+    private final static byte[] A = Bytes.toBytes("a");
+    private final static byte[] B = Bytes.toBytes("b");
+    private final static byte[] C = Bytes.toBytes("c");
+    private static final int TIMEOUT_MS = 60000;
+    
+    private static final ParallelIteratorFactory SPOOLING_FACTORY = new ParallelIteratorFactory() {
+        @Override
+        public PeekingResultIterator newIterator(ResultIterator scanner) throws SQLException {
+            MemoryManager memoryManager = new DelegatingMemoryManager(new GlobalMemoryManager(1024*1024, 0));
+            return new SpoolingResultIterator(scanner, memoryManager, 1024*1024, QueryServicesOptions.DEFAULT_MAX_SPOOL_TO_DISK_BYTES);
+        }
+    };
+
+    private static MemoryManager newMemoryManager() {
+        return new GlobalMemoryManager(1024*1024, 0);
+    }
+
+    private static Tuple[] newResults() {
+        return new Tuple[] {
+                new SingleKeyValueTuple(new KeyValue(A, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(1))),
+                new SingleKeyValueTuple(new KeyValue(B, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(1))),
+                new SingleKeyValueTuple(new KeyValue(C, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(1))),
+            };
+    }
+    
+    private static class TrackingResultIterator extends MaterializedResultIterator {
+        private boolean isClosed;
+        private int count;
+        
+        private TrackingResultIterator(List<Tuple> results) {
+            super(results);
+        }
+
+        @Override
+        public Tuple next() throws SQLException {
+            Tuple tuple = super.next();
+            if (tuple != null) {
+                count++;
+            }
+            return tuple;
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+    }
+    
+    private static void startStreaming(final StreamingResultIterator iterator, final ResultIterator scanner) {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                iterator.stream(scanner);
+            }
+        });
+        producer.setDaemon(true);
+        producer.start();
+    }
+    
+    @Test
+    public void testStreaming() throws Exception {
+        StreamingResultIterator iterator = new StreamingResultIterator(SPOOLING_FACTORY, newMemoryManager(), 1, TIMEOUT_MS, TIMEOUT_MS);
+        TrackingResultIterator scanner = new TrackingResultIterator(Arrays.asList(newResults()));
+        startStreaming(iterator, scanner);
+        AssertResults.assertResults(iterator, newResults());
+        assertEquals(3, scanner.count);
+    }
+
+    @Test
+    public void testSpoolingForSlowConsumer() throws Exception {
+        StreamingResultIterator iterator = new StreamingResultIterator(SPOOLING_FACTORY, newMemoryManager(), 1, 1, TIMEOUT_MS);
+        TrackingResultIterator scanner = new TrackingResultIterator(Arrays.asList(newResults()));
+        // Nothing is consumed while streaming, so all but the first row must be spooled
+        iterator.stream(scanner);
+        assertTrue(scanner.isClosed);
+        AssertResults.assertResults(iterator, newResults());
+    }
+
+    @Test
+    public void testSpoolingForInsufficientMemory() throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(1, 0);
+        StreamingResultIterator iterator = new StreamingResultIterator(SPOOLING_FACTORY, memoryManager, 10, TIMEOUT_MS, TIMEOUT_MS);
+        TrackingResultIterator scanner = new TrackingResultIterator(Arrays.asList(newResults()));
+        // No row fits in memory, so the entire scan must be spooled
+        iterator.stream(scanner);
+        assertTrue(scanner.isClosed);
+        AssertResults.assertResults(iterator, newResults());
+        assertEquals(1, memoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testBufferedRowsCharged() throws Exception {
+        MemoryManager memoryManager = newMemoryManager();
+        StreamingResultIterator iterator = new StreamingResultIterator(SPOOLING_FACTORY, memoryManager, 10, TIMEOUT_MS, TIMEOUT_MS);
+        iterator.stream(new TrackingResultIterator(Arrays.asList(newResults())));
+        assertTrue(memoryManager.getAvailableMemory() < memoryManager.getMaxMemory());
+        iterator.next();
+        iterator.close();
+        assertEquals(memoryManager.getMaxMemory(), memoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testEarlyClose() throws Exception {
+        List<Tuple> results = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            results.add(new SingleKeyValueTuple(new KeyValue(Bytes.toBytes(i), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(1))));
+        }
+        StreamingResultIterator iterator = new StreamingResultIterator(SPOOLING_FACTORY, newMemoryManager(), 1, TIMEOUT_MS, TIMEOUT_MS);
+        TrackingResultIterator scanner = new TrackingResultIterator(results);
+        startStreaming(iterator, scanner);
+        assertEquals(0, Bytes.compareTo(Bytes.toBytes(0), iterator.next().getValue(0).getRow()));
+        iterator.close();
+        long start = System.currentTimeMillis();
+        while (!scanner.isClosed && System.currentTimeMillis() - start < TIMEOUT_MS) {
+            Thread.sleep(10);
+        }
+        assertTrue(scanner.isClosed);
+        assertTrue(scanner.count < 100);
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        StreamingResultIterator iterator = new StreamingResultIterator(SPOOLING_FACTORY, newMemoryManager(), 1, TIMEOUT_MS, TIMEOUT_MS);
+        iterator.abort(new SQLException("Unable to open scanner"));
+        try {
+            iterator.peek();
+            fail();
+        } catch (SQLException e) {
+            assertEquals("Unable to open scanner", e.getMessage());
+        }
+        iterator.close();
+    }
+    
+    @Test
+    public void testEmptyScan() throws Exception {
+        StreamingResultIterator iterator = new StreamingResultIterator(SPOOLING_FACTORY, newMemoryManager(), 1, TIMEOUT_MS, TIMEOUT_MS);
+        iterator.stream(new TrackingResultIterator(Arrays.<Tuple>asList()));
+        assertNull(iterator.peek());
+        assertNull(iterator.next());
+        iterator.close();
+    }
+}
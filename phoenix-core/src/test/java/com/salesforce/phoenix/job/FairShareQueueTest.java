@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+
+import com.salesforce.phoenix.job.JobGroup.Priority;
+
+
+public class FairShareQueueTest {
+    
+    private static class Job {
+        private final Object jobId;
+        
+        private Job(Object jobId) {
+            this.jobId = jobId;
+        }
+    }
+    
+    private static class JobQueue extends AbstractFairShareQueue<Job> {
+        private JobQueue(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected Object extractJobId(Job o) {
+            return o.jobId;
+        }
+    }
+    
+    @Test
+    public void testHigherPriorityFirst() throws Exception {
+        JobQueue queue = new JobQueue(10);
+        JobGroup scan = new JobGroup("a", Priority.LOW, 1, 0);
+        JobGroup lookup = new JobGroup("b", Priority.HIGH, 1, 0);
+        Job scanJob1 = new Job(scan);
+        Job scanJob2 = new Job(scan);
+        Job lookupJob = new Job(lookup);
+        queue.offer(scanJob1);
+        queue.offer(scanJob2);
+        queue.offer(lookupJob);
+        assertEquals(3, queue.size());
+        assertSame(lookupJob, queue.poll());
+        assertSame(scanJob1, queue.poll());
+        assertSame(scanJob2, queue.poll());
+        assertNull(queue.poll());
+        assertEquals(1, queue.getDequeuedCount(Priority.HIGH));
+        assertEquals(2, queue.getDequeuedCount(Priority.LOW));
+        assertEquals(0, queue.getDequeuedCount(Priority.NORMAL));
+    }
+    
+    @Test
+    public void testWeightedShares() throws Exception {
+        JobQueue queue = new JobQueue(100);
+        JobGroup heavy = new JobGroup("tenant1", Priority.NORMAL, 3, 0);
+        JobGroup light = new JobGroup("tenant2", Priority.NORMAL, 1, 0);
+        for (int i = 0; i < 20; i++) {
+            queue.offer(new Job(heavy));
+            queue.offer(new Job(light));
+        }
+        int heavyCount = 0;
+        for (int i = 0; i < 20; i++) {
+            if (queue.poll().jobId == heavy) {
+                heavyCount++;
+            }
+        }
+        assertEquals(15, heavyCount);
+    }
+    
+    @Test
+    public void testQueriesOfShareRoundRobin() throws Exception {
+        JobQueue queue = new JobQueue(100);
+        JobGroup query1 = new JobGroup("tenant", Priority.NORMAL, 1, 0);
+        JobGroup query2 = new JobGroup("tenant", Priority.NORMAL, 1, 0);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new Job(query1));
+        }
+        queue.offer(new Job(query2));
+        // New queries go to the front
+        assertSame(query2, queue.poll().jobId);
+        assertSame(query1, queue.poll().jobId);
+    }
+    
+    @Test
+    public void testMaxConcurrency() throws Exception {
+        JobQueue queue = new JobQueue(10);
+        JobGroup capped = new JobGroup("a", Priority.NORMAL, 1, 2);
+        Job job1 = new Job(capped);
+        Job job2 = new Job(capped);
+        Job job3 = new Job(capped);
+        Job job4 = new Job(capped);
+        queue.offer(job1);
+        queue.offer(job2);
+        queue.offer(job3);
+        queue.offer(job4);
+        assertSame(job1, queue.poll());
+        queue.beforeExecute(job1);
+        assertSame(job2, queue.poll());
+        queue.beforeExecute(job2);
+        
+        // The capped query waits while other queries have jobs that can run
+        Job other = new Job("b");
+        queue.offer(other);
+        assertSame(other, queue.poll());
+        queue.beforeExecute(other);
+        
+        // but goes beyond its cap rather than leave a thread idle
+        assertSame(job3, queue.poll());
+        queue.beforeExecute(job3);
+        assertEquals(1, queue.size());
+        
+        queue.afterExecute(job1);
+        assertSame(job4, queue.poll());
+        assertEquals(0, queue.size());
+        assertNull(queue.poll());
+    }
+    
+    @Test
+    public void testMaxSize() throws Exception {
+        JobQueue queue = new JobQueue(1);
+        assertEquals(true, queue.offer(new Job("a")));
+        assertEquals(false, queue.offer(new Job("b")));
+        assertEquals(0, queue.remainingCapacity());
+    }
+    
+    @Test
+    public void testQueueOfExecutor() throws Exception {
+        ThreadPoolExecutor executor = JobManager.createThreadPoolExec(1000, 1, 10, 1);
+        try {
+            assertTrue(executor.getQueue() instanceof JobManager);
+        } finally {
+            executor.shutdown();
+        }
+        executor = JobManager.createThreadPoolExec(1000, 1, 0, 1);
+        try {
+            assertFalse(executor.getQueue() instanceof JobManager);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testPriorityFromName() throws Exception {
+        assertSame(Priority.LOW, Priority.fromName("low"));
+        assertSame(Priority.HIGH, Priority.fromName(" High "));
+        try {
+            Priority.fromName("urgent");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+import org.junit.Test;
+import org.xerial.snappy.Snappy;
+
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.cache.HashCache;
+import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.expression.ExpressionType;
+import com.salesforce.phoenix.expression.KeyValueColumnExpression;
+import com.salesforce.phoenix.memory.GlobalMemoryManager;
+import com.salesforce.phoenix.memory.MemoryManager;
+import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
+import com.salesforce.phoenix.schema.PColumn;
+import com.salesforce.phoenix.schema.PColumnImpl;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PNameFactory;
+import com.salesforce.phoenix.schema.tuple.MultiKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.TrustedByteArrayOutputStream;
+import com.salesforce.phoenix.util.TupleUtil;
+
+public class HashCacheFactoryTest {
+    private static final byte[] FAMILY = Bytes.toBytes("f1");
+    private static final byte[] QUALIFIER = Bytes.toBytes("c1");
+    private static final int NUM_ROWS = 10;
+    private static final int NUM_KEYS = 3;
+
+    private static ImmutableBytesWritable newCache(Boolean isOffHeap) throws Exception {
+        PColumn column = new PColumnImpl(PNameFactory.newName("c1"), PNameFactory.newName("f1"), PDataType.VARCHAR, null, null, true, 1, null);
+        List<Expression> onExpressions = Collections.<Expression>singletonList(new KeyValueColumnExpression(column));
+        TrustedByteArrayOutputStream baOut = new TrustedByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(baOut);
+        out.writeInt(onExpressions.size());
+        for (Expression expression : onExpressions) {
+            WritableUtils.writeVInt(out, ExpressionType.valueOf(expression).ordinal());
+            expression.write(out);
+        }
+        out.writeInt(baOut.size() + Bytes.SIZEOF_INT);
+        out.writeInt(NUM_ROWS);
+        for (int i = 0; i < NUM_ROWS; i++) {
+            KeyValue kv = new KeyValue(Bytes.toBytes("row" + i), FAMILY, QUALIFIER, Bytes.toBytes("key" + (i % NUM_KEYS)));
+            TupleUtil.write(new MultiKeyValueTuple(Collections.singletonList(kv)), out);
+        }
+        // Caches of older clients have no trailer
+        if (isOffHeap != null) {
+            HashCacheFactory.writeTrailer(out, isOffHeap);
+        }
+        out.close();
+        byte[] compressed = Snappy.compress(baOut.toByteArray());
+        return new ImmutableBytesWritable(compressed);
+    }
+    
+    private static void testHashCache(Boolean isOffHeap) throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(1024 * 1024, 0);
+        MemoryManager offHeapMemoryManager = new GlobalMemoryManager(1024 * 1024, 0);
+        ImmutableBytesWritable cachePtr = newCache(isOffHeap);
+        MemoryChunk chunk = memoryManager.allocate(cachePtr.getLength());
+        HashCache cache = (HashCache)new HashCacheFactory().newCache(cachePtr, chunk, offHeapMemoryManager);
+        try {
+            // The buffer of the cache is charged either to the heap or to the off heap memory manager
+            MemoryManager usedMemoryManager = Boolean.TRUE.equals(isOffHeap) ? offHeapMemoryManager : memoryManager;
+            MemoryManager unusedMemoryManager = Boolean.TRUE.equals(isOffHeap) ? memoryManager : offHeapMemoryManager;
+            assertTrue(usedMemoryManager.getAvailableMemory() < usedMemoryManager.getMaxMemory());
+            assertEquals(unusedMemoryManager.getMaxMemory(), unusedMemoryManager.getAvailableMemory());
+            for (int i = 0; i < NUM_KEYS; i++) {
+                List<Tuple> tuples = cache.get(new ImmutableBytesPtr(Bytes.toBytes("key" + i)));
+                assertEquals((NUM_ROWS - i + NUM_KEYS - 1) / NUM_KEYS, tuples.size());
+                // Rows with the same key are returned in the order in which they were cached
+                ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+                for (int j = 0; j < tuples.size(); j++) {
+                    tuples.get(j).getKey(ptr);
+                    assertEquals("row" + (i + j * NUM_KEYS), Bytes.toString(ptr.get(), ptr.getOffset(), ptr.getLength()));
+                    KeyValue kv = tuples.get(j).getValue(FAMILY, QUALIFIER);
+                    assertEquals("key" + i, Bytes.toString(kv.getValue()));
+                }
+            }
+            assertNull(cache.get(new ImmutableBytesPtr(Bytes.toBytes("key" + NUM_KEYS))));
+            assertEquals(chunk.getSize(), memoryManager.getMaxMemory() - memoryManager.getAvailableMemory());
+        } finally {
+            cache.close();
+        }
+        assertEquals(memoryManager.getMaxMemory(), memoryManager.getAvailableMemory());
+        assertEquals(offHeapMemoryManager.getMaxMemory(), offHeapMemoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testOnHeapHashCache() throws Exception {
+        testHashCache(false);
+    }
+
+    @Test
+    public void testOffHeapHashCache() throws Exception {
+        testHashCache(true);
+    }
+
+    @Test
+    public void testHashCacheWithoutTrailer() throws Exception {
+        testHashCache(null);
+    }
+
+    @Test
+    public void testUnsupportedFormatVersion() throws Exception {
+        ImmutableBytesWritable cachePtr = newCache(false);
+        byte[] uncompressed = Snappy.uncompress(cachePtr.copyBytes());
+        // Bump the version, which is the next to last byte
+        uncompressed[uncompressed.length - 2]++;
+        cachePtr = new ImmutableBytesWritable(Snappy.compress(uncompressed));
+        MemoryManager memoryManager = new GlobalMemoryManager(1024 * 1024, 0);
+        MemoryChunk chunk = memoryManager.allocate(cachePtr.getLength());
+        try {
+            new HashCacheFactory().newCache(cachePtr, chunk, memoryManager);
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("format version"));
+        } finally {
+            chunk.close();
+        }
+    }
+}
@@ -27,9 +27,12 @@
  ******************************************************************************/
 package com.salesforce.phoenix.memory;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -205,6 +208,42 @@ public class MemoryManagerTest {
         assertTrue(rmm.getAvailableMemory() == rmm.getMaxMemory());
     }
 
+    @Test
+    public void testWaitersServedInOrder() throws Exception {
+        final GlobalMemoryManager gmm = new GlobalMemoryManager(100,8000);
+        final MemoryChunk c1 = gmm.allocate(60);
+        final AtomicBoolean c1Closed = new AtomicBoolean();
+        final AtomicBoolean smallAllocatedFirst = new AtomicBoolean();
+        Thread big = new Thread() {
+            @Override
+            public void run() {
+                MemoryChunk c2 = gmm.allocate(80);
+                sleepFor(500);
+                c2.close();
+            }
+        };
+        Thread small = new Thread() {
+            @Override
+            public void run() {
+                // Would fit, but must not jump ahead of the bigger request already waiting,
+                // which can only be served once c1 is closed
+                MemoryChunk c3 = gmm.allocate(10);
+                smallAllocatedFirst.set(!c1Closed.get());
+                c3.close();
+            }
+        };
+        big.start();
+        sleepFor(500);
+        small.start();
+        sleepFor(500);
+        c1Closed.set(true);
+        c1.close();
+        big.join();
+        small.join();
+        assertFalse(smallAllocatedFirst.get());
+        assertTrue(gmm.getAvailableMemory() == gmm.getMaxMemory());
+    }
+
     @Test
     public void testChildDecreaseAllocation() throws Exception {
         MemoryManager gmm = new GlobalMemoryManager(100,1);
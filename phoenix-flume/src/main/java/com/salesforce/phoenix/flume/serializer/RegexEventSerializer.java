@@ -140,8 +140,9 @@ public class RegexEventSerializer extends BaseEventSerializer {
                    Object rowkeyValue = PDataType.fromTypeId(sqlType).toObject(generatedRowValue);
                    colUpsert.setObject(index++, rowkeyValue ,sqlType);
                } 
-               colUpsert.execute();
+               colUpsert.addBatch();
            }
+           colUpsert.executeBatch();
            connection.commit();
        } catch(Exception ex){
            logger.error("An error {} occurred during persisting the event ",ex.getMessage());
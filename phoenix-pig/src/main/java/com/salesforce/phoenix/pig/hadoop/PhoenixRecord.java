@@ -84,7 +84,7 @@ public class PhoenixRecord implements Writable {
 			}
 		}
 		
-		statement.execute();
+		statement.addBatch();
 	}
 	
 	public void add(Object value) {
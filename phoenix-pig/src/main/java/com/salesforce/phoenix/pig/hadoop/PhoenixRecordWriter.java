@@ -69,10 +69,16 @@ public class PhoenixRecordWriter extends RecordWriter<NullWritable, PhoenixRecor
 
 	/**
 	 * Committing and closing the connection is handled by {@link PhoenixOutputCommitter}.
-	 * 
+	 * Any rows batched since the last commit are executed here so that they are
+	 * part of the connection state committed with the task.
 	 */
 	@Override
 	public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+		try {
+			statement.executeBatch();
+		} catch (SQLException e) {
+			throw new IOException("Exception while executing batch.", e);
+		}
 	}
 
 	@Override
@@ -83,6 +89,7 @@ public class PhoenixRecordWriter extends RecordWriter<NullWritable, PhoenixRecor
 
 			if (numRecords % batchSize == 0) {
 				LOG.debug("commit called on a batch of size : " + batchSize);
+				statement.executeBatch();
 				conn.commit();
 			}
 		} catch (SQLException e) {